@@ -0,0 +1,85 @@
+package app.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Compares opening the catalog from a checkpoint with reading the whole catalog journal. A journal
+ * with the given number of images is written to a temporary folder along with a checkpoint, and then
+ * opened both ways, each time with a new journal and a new dictionary as on a cold start. Run it
+ * with the JavaFX libraries on the classpath:
+ * java app.model.CatalogCheckpointBenchmark [images]
+ */
+public class CatalogCheckpointBenchmark {
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws IOException Thrown when the catalog cannot be written or read
+   */
+  public static void main(String[] args) throws IOException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    Path folder = Files.createTempDirectory("tagsta-checkpoint");
+    Path journalPath = folder.resolve("catalog.journal");
+    Path checkpointPath = folder.resolve("catalog.checkpoint.0");
+    try {
+      long start = System.nanoTime();
+      CatalogJournal journal = new CatalogJournal(journalPath);
+      TagDictionary dictionary = new TagDictionary();
+      CatalogIndex index = journal.open(dictionary);
+      for (int i = 1; i <= images; i++) {
+        String name = "IMG_" + i + " @tag" + (i % 500) + " @place" + (i % 37);
+        Path path = Paths.get("/home/user/Pictures/" + (i % 100) + "/" + name + ".jpg");
+        ArrayList<String> history = new ArrayList<>();
+        history.add("Oct 18, 2026, 5:26:00 AM, " + name);
+        ImageManager imageManager = new ImageManager(i, name, path, history);
+        journal.append(imageManager);
+        index.put(i, path.toString(), dictionary.getIds(imageManager.getTags()));
+      }
+      journal.writeCheckpoint(checkpointPath, index, dictionary);
+      journal.close();
+      System.out.println(images + " images written in " + millis(start) + " ms, journal "
+          + Files.size(journalPath) / 1024 + " KiB, checkpoint " + Files.size(checkpointPath) / 1024
+          + " KiB");
+
+      start = System.nanoTime();
+      CatalogJournal scanned = new CatalogJournal(journalPath);
+      CatalogIndex scannedIndex = scanned.open(new TagDictionary());
+      System.out.println(String.format("%-12s %8d ms %10d images", "journal", millis(start),
+          scannedIndex.size()));
+      scanned.close();
+
+      start = System.nanoTime();
+      CatalogJournal mapped = new CatalogJournal(journalPath);
+      CatalogIndex mappedIndex = mapped.open(new TagDictionary(),
+          Collections.singletonList(CatalogCheckpoint.open(checkpointPath)));
+      long id = mappedIndex.findId(scannedIndex.getPath(images / 2));
+      ImageManager loaded = mapped.load(id);
+      System.out.println(String.format("%-12s %8d ms %10d images", "checkpoint", millis(start),
+          mappedIndex.size()));
+      if (mapped.getCheckpoint() == null || loaded == null || id != images / 2) {
+        System.out.println("The checkpoint was not used or did not match the journal");
+      }
+      mapped.close();
+    } finally {
+      Files.deleteIfExists(journalPath);
+      Files.deleteIfExists(checkpointPath);
+      Files.deleteIfExists(folder);
+    }
+  }
+
+  /**
+   * Returns the milliseconds passed since the given time
+   *
+   * @param start The time from System.nanoTime
+   * @return The milliseconds passed
+   */
+  private static long millis(long start) {
+    return (System.nanoTime() - start) / 1000000;
+  }
+}
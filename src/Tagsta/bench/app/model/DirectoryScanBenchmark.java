@@ -0,0 +1,120 @@
+package app.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long finding the images in a folder tree and the tags in their names takes with
+ * DirectoryScanner, which lists the folders in parallel and reads the attributes of each entry
+ * once, compared with listing each folder with File.listFiles and asking each entry whether it is a
+ * folder, one folder after another. A temporary tree of 20 folders with 20 folders each is filled
+ * with the given number of empty images and removed afterwards. The files are cached after the
+ * first round, so a network drive, where each listing waits on the server, gains more than this
+ * shows. Run it with the JavaFX libraries on the classpath:
+ * java app.model.DirectoryScanBenchmark [images]
+ */
+public class DirectoryScanBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int FOLDERS = 20;
+  private static final int TAGS = 50;
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws IOException Thrown when the folder tree cannot be made or removed
+   * @throws InterruptedException Thrown when the thread is interrupted while waiting for a scan
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    Path root = Files.createTempDirectory("tagsta-scan");
+    ArrayList<Path> paths = new ArrayList<>();
+    for (int i = 0; i < images; i++) {
+      Path folder =
+          root.resolve("folder" + (i % FOLDERS)).resolve("album" + (i / FOLDERS % FOLDERS));
+      Files.createDirectories(folder);
+      paths.add(Files.createFile(folder.resolve("IMG_" + i + " @tag" + (i % TAGS) + ".jpg")));
+    }
+    TagManager tagManager = new TagManager();
+    System.out.println(images + " images in " + FOLDERS * FOLDERS + " folders");
+    try {
+      for (int round = 1; round <= ROUNDS; round++) {
+        //The first rounds only warm up the JIT and the file system cache
+        boolean report = round == ROUNDS;
+        long start = System.nanoTime();
+        HashSet<String> tags = new HashSet<>();
+        int found = walk(root.toFile(), tags);
+        print(report, "walk", start, found, tags.size());
+        start = System.nanoTime();
+        LinkedBlockingQueue<Boolean> done = new LinkedBlockingQueue<>();
+        DirectoryScanner scanner = tagManager.createDirectoryScan(root.toFile(), Runnable::run,
+            folders -> { }, done::add);
+        scanner.start();
+        done.poll(10, TimeUnit.MINUTES);
+        print(report, "scan", start, scanner.getImagesFound(), TAGS);
+      }
+    } finally {
+      for (int i = 0; i < TAGS; i++) {
+        tagManager.deleteIndependentTag("tag" + i);
+      }
+      for (Path path : paths) {
+        Files.delete(path);
+      }
+      for (int i = 0; i < FOLDERS; i++) {
+        for (int j = 0; j < FOLDERS; j++) {
+          Files.deleteIfExists(root.resolve("folder" + i).resolve("album" + j));
+        }
+        Files.deleteIfExists(root.resolve("folder" + i));
+      }
+      Files.delete(root);
+    }
+  }
+
+  /**
+   * Finds the images in a folder and the folders under it one folder after another, the way
+   * opening a folder used to
+   *
+   * @param directory The folder
+   * @param tags Given the tags in the names of the images
+   * @return The number of images found
+   */
+  private static int walk(File directory, HashSet<String> tags) {
+    int found = 0;
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          found += walk(file, tags);
+        } else if (DirectoryScanner.isImage(file.getName())) {
+          String path = file.getPath();
+          tags.addAll(ImageManager.parseTagList(path.substring(0, path.lastIndexOf('.'))));
+          found++;
+        }
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param method How the images were found
+   * @param start When the finding started, in nanoseconds
+   * @param found How many images were found
+   * @param tags How many different tags were found
+   */
+  private static void print(boolean report, String method, long start, int found, int tags) {
+    if (report) {
+      System.out.println(String.format("%-6s %10.1f ms %8d images %4d tags", method,
+          (System.nanoTime() - start) / 1e6, found, tags));
+    }
+  }
+}
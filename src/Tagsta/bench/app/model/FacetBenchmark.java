@@ -0,0 +1,95 @@
+package app.model;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Measures how long counting the tags, folders and extensions of the images a search found takes
+ * with CatalogIndex.countFacets, compared with looking at the path and tags of every image found.
+ * The index is filled with the given number of images in a hundred folders, each with a few tags,
+ * and the facets of a narrow query, a wide query and every image are counted. Run it with the
+ * JavaFX libraries on the classpath:
+ * java app.model.FacetBenchmark [images]
+ */
+public class FacetBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int COUNTS = 10;
+  private static final String[] QUERIES = {"tag7", "place3", ""};
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws ParseException Thrown when a query searched for is not well formed
+   */
+  public static void main(String[] args) throws ParseException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    TagDictionary dictionary = new TagDictionary();
+    CatalogIndex index = new CatalogIndex();
+    for (int i = 1; i <= images; i++) {
+      String[] tags = {"tag" + (i % 500), "place" + (i % 37)};
+      index.put(i, "/home/user/Pictures/folder" + (i % 100) + "/IMG_" + i + " @" + tags[0] + " @"
+          + tags[1] + (i % 10 == 0 ? ".png" : ".jpg"), dictionary.getIds(Arrays.asList(tags)));
+    }
+    System.out.println(images + " images");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      for (String query : QUERIES) {
+        CompressedBitmap found = query.isEmpty()
+            ? index.getAllImages() : TagQuery.parse(query).run(index, dictionary);
+        int counted = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < COUNTS; i++) {
+          HashMap<Integer, Integer> tags = new HashMap<>();
+          HashMap<String, Integer> directories = new HashMap<>();
+          HashMap<String, Integer> extensions = new HashMap<>();
+          //Counted a chunk at a time, the way ImageSearch counts them
+          for (CompressedBitmap chunk : found.split()) {
+            index.countFacets(chunk, tags, directories, extensions);
+          }
+          counted = new FacetCounts(found.cardinality(), tags, dictionary, directories,
+              extensions).getTags().get(0).getCount();
+        }
+        print(report, "facets", query, start, counted);
+        start = System.nanoTime();
+        for (int i = 0; i < COUNTS; i++) {
+          HashMap<Integer, Integer> tags = new HashMap<>();
+          HashMap<String, Integer> directories = new HashMap<>();
+          HashMap<String, Integer> extensions = new HashMap<>();
+          for (long id : found.toArray()) {
+            String path = index.getPath(id);
+            for (int tagId : index.getTagIds(id)) {
+              tags.merge(tagId, 1, Integer::sum);
+            }
+            directories.merge(CatalogIndex.getDirectory(path), 1, Integer::sum);
+            extensions.merge(CatalogIndex.getExtension(path), 1, Integer::sum);
+          }
+          counted = new FacetCounts(found.cardinality(), tags, dictionary, directories,
+              extensions).getTags().get(0).getCount();
+        }
+        print(report, "scan", query, start, counted);
+      }
+    }
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param method How the facets were counted
+   * @param query The query whose images were counted
+   * @param start When the counting started, in nanoseconds
+   * @param counted The count of the most common tag the last time
+   */
+  private static void print(boolean report, String method, String query, long start,
+      int counted) {
+    if (report) {
+      System.out.println(String.format("%-7s %-8s %10.2f ms/count %8d images", method,
+          query.isEmpty() ? "(all)" : query, (System.nanoTime() - start) / 1e6 / COUNTS,
+          counted));
+    }
+  }
+}
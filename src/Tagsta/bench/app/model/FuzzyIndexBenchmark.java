@@ -0,0 +1,83 @@
+package app.model;
+
+import java.util.Random;
+
+/**
+ * Measures finding images by names typed with typos in the FuzzyIndex kept by CatalogIndex, and
+ * compares it with checking every name with String.contains, which is how the search window used
+ * to work and which cannot find a name typed with a typo at all. The index is filled with the given
+ * number of images named like IMG_123 @word @word, with words made of random letters, and a few of
+ * them tagged @aunt @june. Run it with the JavaFX libraries on the classpath:
+ * java app.model.FuzzyIndexBenchmark [images]
+ */
+public class FuzzyIndexBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int SEARCHES = 100;
+  private static final int LIMIT = 50;
+  private static final String[] QUERIES = {"aunt jnue", "aunt june", "jnue", "img 4711"};
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   */
+  public static void main(String[] args) {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+    Random random = new Random(42);
+    String[] words = new String[5000];
+    for (int i = 0; i < words.length; i++) {
+      StringBuilder word = new StringBuilder();
+      for (int letter = 3 + random.nextInt(6); letter > 0; letter--) {
+        word.append((char) ('a' + random.nextInt(26)));
+      }
+      words[i] = word.toString();
+    }
+    CatalogIndex index = new CatalogIndex();
+    for (int i = 1; i <= images; i++) {
+      String tags = i % 10000 == 0 ? " @aunt @june"
+          : " @" + words[random.nextInt(words.length)] + " @" + words[random.nextInt(words.length)];
+      index.put(i, "/home/user/Pictures/IMG_" + i + tags + ".jpg", new int[0]);
+    }
+    long start = System.nanoTime();
+    index.findSimilarNames("warm up", 1);
+    System.out.println(images + " images, index built in " + (System.nanoTime() - start) / 1000000
+        + " ms");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      for (String query : QUERIES) {
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < SEARCHES; i++) {
+          found = index.findSimilarNames(query, LIMIT).length;
+        }
+        print(report, "fuzzy \"" + query + "\"", start, SEARCHES, found);
+      }
+      start = System.nanoTime();
+      int found = 0;
+      for (long id : index.getIds()) {
+        if (index.getPath(id).contains("aunt jnue")) {
+          found++;
+        }
+      }
+      print(report, "contains", start, 1, found);
+    }
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param search What was searched for
+   * @param start When the searches started, in nanoseconds
+   * @param searches The number of searches made
+   * @param found The number of images the last search found
+   */
+  private static void print(boolean report, String search, long start, int searches, int found) {
+    if (report) {
+      System.out.println(String.format("%-20s %10.2f ms/search %6d images", search,
+          (System.nanoTime() - start) / 1e6 / searches, found));
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package app.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import javafx.util.converter.LocalDateTimeStringConverter;
+
+/**
+ * Compares ImageManagerCodec with the Java serialization the ImageManagers used to be stored with.
+ * Every ImageManager is encoded and decoded on its own, the same way each one is stored as its own
+ * record. Run it with the JavaFX libraries on the classpath:
+ * java app.model.ImageManagerCodecBenchmark [images] [history entries per image]
+ */
+public class ImageManagerCodecBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images and the number of naming history entries of each image
+   * @throws Exception Thrown when an image cannot be encoded or decoded
+   */
+  public static void main(String[] args) throws Exception {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int historySize = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    ArrayList<ImageManager> imageManagers = createImageManagers(images, historySize);
+
+    System.out.println(images + " images, " + historySize + " history entries each");
+    System.out.println(String.format("%-14s %14s %14s %14s", "format", "bytes/image",
+        "encode/s", "decode/s"));
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      runCodec(imageManagers, report);
+      runSerialization(imageManagers, report);
+    }
+  }
+
+  /**
+   * Encodes and decodes every ImageManager with ImageManagerCodec
+   *
+   * @param imageManagers The ImageManagers to encode
+   * @param report Whether to print the results
+   * @throws IOException Thrown when an ImageManager cannot be decoded
+   */
+  private static void runCodec(ArrayList<ImageManager> imageManagers, boolean report)
+      throws IOException {
+    byte[][] encoded = new byte[imageManagers.size()][];
+    long bytes = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = ImageManagerCodec.encode(imageManagers.get(i));
+      bytes += encoded[i].length;
+    }
+    long encodeTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < encoded.length; i++) {
+      ImageManagerCodec.decode(i, encoded[i]);
+    }
+    long decodeTime = System.nanoTime() - start;
+    if (report) {
+      print("codec", bytes, encodeTime, decodeTime, encoded.length);
+    }
+  }
+
+  /**
+   * Encodes and decodes every ImageManager with ObjectOutputStream and ObjectInputStream
+   *
+   * @param imageManagers The ImageManagers to encode
+   * @param report Whether to print the results
+   * @throws Exception Thrown when an ImageManager cannot be serialized or deserialized
+   */
+  private static void runSerialization(ArrayList<ImageManager> imageManagers, boolean report)
+      throws Exception {
+    byte[][] encoded = new byte[imageManagers.size()][];
+    long bytes = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < encoded.length; i++) {
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      ObjectOutputStream output = new ObjectOutputStream(buffer);
+      output.writeObject(imageManagers.get(i));
+      output.close();
+      encoded[i] = buffer.toByteArray();
+      bytes += encoded[i].length;
+    }
+    long encodeTime = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (byte[] image : encoded) {
+      ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(image));
+      input.readObject();
+      input.close();
+    }
+    long decodeTime = System.nanoTime() - start;
+    if (report) {
+      print("serialization", bytes, encodeTime, decodeTime, encoded.length);
+    }
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param format The name of the format
+   * @param bytes The total number of bytes written
+   * @param encodeTime The time spent encoding, in nanoseconds
+   * @param decodeTime The time spent decoding, in nanoseconds
+   * @param images The number of images encoded
+   */
+  private static void print(String format, long bytes, long encodeTime, long decodeTime,
+      int images) {
+    System.out.println(String.format("%-14s %14.1f %14.0f %14.0f", format,
+        (double) bytes / images, images / (encodeTime / 1e9), images / (decodeTime / 1e9)));
+  }
+
+  /**
+   * Creates ImageManagers with tagged names and a naming history like the ones made by tagging
+   *
+   * @param images The number of ImageManagers to create
+   * @param historySize The number of naming history entries of each ImageManager
+   * @return The ImageManagers
+   */
+  private static ArrayList<ImageManager> createImageManagers(int images, int historySize) {
+    ArrayList<ImageManager> imageManagers = new ArrayList<>(images);
+    LocalDateTimeStringConverter converter = new LocalDateTimeStringConverter();
+    for (int i = 0; i < images; i++) {
+      StringBuilder name = new StringBuilder("IMG_" + i);
+      ArrayList<String> history = new ArrayList<>();
+      for (int entry = 0; entry < historySize; entry++) {
+        if (entry > 0) {
+          name.append(" @tag").append(entry);
+        }
+        history.add(converter.toString(LocalDateTime.of(2026, 10, 18, 5, 26).plusMinutes(entry)) + ", "
+            + name);
+      }
+      imageManagers.add(new ImageManager(i, name.toString(),
+          Paths.get("/home/user/Pictures/2026/" + name + ".jpg"), history));
+    }
+    return imageManagers;
+  }
+}
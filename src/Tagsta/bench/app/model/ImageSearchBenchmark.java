@@ -0,0 +1,82 @@
+package app.model;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Measures what ImageSearch gains on a large catalog: how long a query on the paths of the images
+ * takes before its first images can be shown, compared with searching every image before showing
+ * any, and how long a query typed further takes when it only looks at the images the shorter query
+ * found. The index is filled with the given number of images, each with a few tags. Run it with the
+ * JavaFX libraries on the classpath:
+ * java app.model.ImageSearchBenchmark [images]
+ */
+public class ImageSearchBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int SEARCHES = 10;
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws ParseException Thrown when a query searched for is not well formed
+   */
+  public static void main(String[] args) throws ParseException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    TagDictionary dictionary = new TagDictionary();
+    CatalogIndex index = new CatalogIndex();
+    for (int i = 1; i <= images; i++) {
+      String[] tags = {"tag" + (i % 500), "place" + (i % 37)};
+      index.put(i, "/home/user/Pictures/IMG_" + i + " @" + tags[0] + " @" + tags[1] + ".jpg",
+          dictionary.getIds(Arrays.asList(tags)));
+    }
+    index.getAllImages();
+    TagQuery shorter = TagQuery.parse("name:img_47");
+    TagQuery longer = TagQuery.parse("name:img_471");
+    System.out.println(images + " images, narrowed: " + longer.narrows(shorter));
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      int found = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < SEARCHES; i++) {
+        found = shorter.run(index, dictionary).cardinality();
+      }
+      print(report, "whole search", start, SEARCHES, found);
+      start = System.nanoTime();
+      for (int i = 0; i < SEARCHES; i++) {
+        CompressedBitmap[] chunks = index.getAllImages().split();
+        found = shorter.filter(index, dictionary, chunks[0]).cardinality();
+      }
+      print(report, "first chunk", start, SEARCHES, found);
+      CompressedBitmap last = shorter.run(index, dictionary);
+      start = System.nanoTime();
+      for (int i = 0; i < SEARCHES; i++) {
+        found = longer.run(index, dictionary).cardinality();
+      }
+      print(report, "typed further", start, SEARCHES, found);
+      start = System.nanoTime();
+      for (int i = 0; i < SEARCHES; i++) {
+        found = longer.filter(index, dictionary, last).cardinality();
+      }
+      print(report, "narrowed", start, SEARCHES, found);
+    }
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param search What was searched for
+   * @param start When the searches started, in nanoseconds
+   * @param searches The number of searches made
+   * @param found The number of images the last search found
+   */
+  private static void print(boolean report, String search, long start, int searches, int found) {
+    if (report) {
+      System.out.println(String.format("%-14s %10.2f ms/search %8d images", search,
+          (System.nanoTime() - start) / 1e6 / searches, found));
+    }
+  }
+}
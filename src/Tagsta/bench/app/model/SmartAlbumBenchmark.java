@@ -0,0 +1,89 @@
+package app.model;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Measures what SmartAlbums gain on a large catalog: how long opening an album takes compared with
+ * running its query again, and how long keeping the albums up to date takes for every image
+ * changed. The index is filled with the given number of images, each with a few tags, and a few
+ * albums are saved, including one for the untagged images. Run it with the JavaFX libraries on the
+ * classpath:
+ * java app.model.SmartAlbumBenchmark [images]
+ */
+public class SmartAlbumBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int OPENS = 10;
+  private static final int UPDATES = 100000;
+  private static final String[] QUERIES = {"is:untagged", "tag7 AND place3",
+      "(tag1 OR tag2) AND NOT place5", "name:img_47 ext:jpg"};
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws ParseException Thrown when a query saved is not well formed
+   */
+  public static void main(String[] args) throws ParseException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    TagDictionary dictionary = new TagDictionary();
+    CatalogIndex index = new CatalogIndex();
+    for (int i = 1; i <= images; i++) {
+      //Every tenth image has no tags
+      String[] tags = i % 10 == 0 ? new String[0] : new String[] {"tag" + (i % 500),
+          "place" + (i % 37)};
+      index.put(i, "/home/user/Pictures/IMG_" + i + ".jpg", dictionary.getIds(Arrays.asList(tags)));
+    }
+    SmartAlbums smartAlbums = new SmartAlbums();
+    for (String query : QUERIES) {
+      smartAlbums.save(query, query);
+      smartAlbums.getImages(query, index, dictionary);
+    }
+    System.out.println(images + " images, " + QUERIES.length + " albums");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      for (String query : QUERIES) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < OPENS; i++) {
+          found = smartAlbums.getImages(query, index, dictionary).length;
+        }
+        print(report, "open " + query, start, OPENS, "open", found);
+        TagQuery plan = TagQuery.parse(query);
+        start = System.nanoTime();
+        for (int i = 0; i < OPENS; i++) {
+          found = plan.run(index, dictionary).toArray().length;
+        }
+        print(report, "search " + query, start, OPENS, "open", found);
+      }
+      int[] tagIds = dictionary.getIds(Arrays.asList("tag7", "place3"));
+      long start = System.nanoTime();
+      for (int i = 1; i <= UPDATES; i++) {
+        //Moves images in and out of the albums, the way tagging them does
+        index.put(i, "/home/user/Pictures/IMG_" + i + ".jpg", round % 2 == 0 ? tagIds : new int[0]);
+        smartAlbums.update(i, index, dictionary);
+      }
+      print(report, "tag and update", start, UPDATES, "image", UPDATES);
+    }
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param what What was measured
+   * @param start When the measuring started, in nanoseconds
+   * @param times How many times it was done
+   * @param unit What was done each time
+   * @param found The number of images of the last time
+   */
+  private static void print(boolean report, String what, long start, int times, String unit,
+      int found) {
+    if (report) {
+      System.out.println(String.format("%-40s %10.3f ms/%s %8d images", what,
+          (System.nanoTime() - start) / 1e6 / times, unit, found));
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package app.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Measures how long listing the images a search found in an order takes with SortKeys and a sorted
+ * ImageManagerList, which only puts the pages shown in order, compared with sorting every image in
+ * an ObservableList up front. The index is filled with the given number of images with random
+ * names, tags and times, and the time until the first page can be shown and the time to show the
+ * first ten pages are measured for each order. Run it with the JavaFX libraries on the classpath:
+ * java app.model.SortBenchmark [images]
+ */
+public class SortBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int PAGES = 10;
+  private static final SortOrder[] ORDERS = {SortOrder.NAME, SortOrder.PATH, SortOrder.TAG_COUNT,
+      SortOrder.LAST_MODIFIED, SortOrder.DATE_TAKEN};
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws InterruptedException Thrown when the thread is interrupted while sorting
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+    Random random = new Random(42);
+    TagDictionary dictionary = new TagDictionary();
+    CatalogIndex index = new CatalogIndex();
+    SortKeys sortKeys = new SortKeys();
+    long[] modifiedTimes = new long[images + 1];
+    long[] takenTimes = new long[images + 1];
+    for (int i = 1; i <= images; i++) {
+      String[] tags = new String[random.nextInt(5)];
+      for (int j = 0; j < tags.length; j++) {
+        tags[j] = "tag" + random.nextInt(500);
+      }
+      index.put(i, "/home/user/Pictures/folder" + random.nextInt(100) + "/IMG_"
+          + Integer.toString(random.nextInt(Integer.MAX_VALUE), 36) + ".jpg",
+          dictionary.getIds(Arrays.asList(tags)));
+      //Most pictures were taken a while before they were last modified, some have no EXIF data
+      modifiedTimes[i] = 1500000000000L + (long) (random.nextDouble() * 2e11);
+      takenTimes[i] = i % 5 == 0 ? modifiedTimes[i] : modifiedTimes[i] - random.nextInt(1000000000);
+      sortKeys.put(i, modifiedTimes[i], i % 5 == 0 ? -1 : takenTimes[i]);
+    }
+    long[] all = index.getAllImages().toArray();
+    System.out.println(images + " images");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      for (SortOrder order : ORDERS) {
+        long start = System.nanoTime();
+        ImageManagerList list = new ImageManagerList(
+            sortKeys.sort(all.clone(), order, false, index, () -> false), id -> null);
+        print(report, "pages", order, "first page", start);
+        for (int page = 1; page < PAGES; page++) {
+          list.get(page * ImageManagerList.PAGE_SIZE);
+        }
+        print(report, "pages", order, PAGES + " pages", start);
+        start = System.nanoTime();
+        ObservableList<Long> sorted = FXCollections.observableArrayList();
+        for (long id : all) {
+          sorted.add(id);
+        }
+        FXCollections.sort(sorted, comparator(order, index,
+            order == SortOrder.LAST_MODIFIED ? modifiedTimes : takenTimes));
+        print(report, "full", order, "every page", start);
+      }
+    }
+  }
+
+  /**
+   * Returns a comparator that works out the key of both images every time it compares them, the
+   * way sorting a list of ImageManagers would
+   *
+   * @param order The order
+   * @param index The index of the images
+   * @param times The times of the images, by number of ImageManager, when sorting by a time
+   * @return The comparator
+   */
+  private static Comparator<Long> comparator(SortOrder order, CatalogIndex index, long[] times) {
+    switch (order) {
+      case NAME:
+        return Comparator.comparing(id -> {
+          String path = index.getPath(id);
+          return path.substring(path.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        });
+      case PATH:
+        return Comparator.comparing(id -> index.getPath(id).toLowerCase(Locale.ROOT));
+      case TAG_COUNT:
+        return Comparator.comparingInt(id -> index.getTagIds(id).length);
+      default:
+        return Comparator.comparingLong(id -> times[(int) (long) id]);
+    }
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param method How the images were sorted
+   * @param order The order
+   * @param what How much of the list was sorted
+   * @param start When the sorting started, in nanoseconds
+   */
+  private static void print(boolean report, String method, SortOrder order, String what,
+      long start) {
+    if (report) {
+      System.out.println(String.format("%-6s %-15s %-11s %10.2f ms", method, order, what,
+          (System.nanoTime() - start) / 1e6));
+    }
+  }
+}
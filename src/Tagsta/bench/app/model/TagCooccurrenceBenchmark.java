@@ -0,0 +1,122 @@
+package app.model;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Compares suggesting tags for an image with the counts of pairs of tags kept by TagCooccurrence
+ * against counting the tags of every image that shares a tag with it. The counts are filled from
+ * the given number of images, each with a few tags out of a few hundred that tend to go together.
+ * Run it with the JavaFX libraries on the classpath:
+ * java app.model.TagCooccurrenceBenchmark [images]
+ */
+public class TagCooccurrenceBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int SUGGESTIONS = 1000;
+  private static final int LIMIT = 5;
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   */
+  public static void main(String[] args) {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    Random random = new Random(42);
+    int[][] tagIds = new int[images][];
+    for (int i = 0; i < images; i++) {
+      //Every place has its own few events, so the tags of an image go together
+      int place = random.nextInt(100);
+      tagIds[i] = random.nextBoolean()
+          ? new int[] {place, 100 + place * 4 + random.nextInt(4)}
+          : new int[] {place, 100 + place * 4 + random.nextInt(4), 500 + random.nextInt(50)};
+    }
+    TagCooccurrence cooccurrence = new TagCooccurrence();
+    long start = System.nanoTime();
+    for (int[] image : tagIds) {
+      cooccurrence.update(null, image);
+    }
+    System.out.println(images + " images, pairs counted in " + (System.nanoTime() - start) / 1000000
+        + " ms");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      int found = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < SUGGESTIONS; i++) {
+        found += cooccurrence.suggest(tagIds[i], LIMIT).length;
+      }
+      print(report, "suggest", start, SUGGESTIONS, found);
+      start = System.nanoTime();
+      for (int i = 0; i < SUGGESTIONS; i++) {
+        int[] added = new int[tagIds[i].length + 1];
+        System.arraycopy(tagIds[i], 0, added, 0, tagIds[i].length);
+        added[tagIds[i].length] = 600;
+        cooccurrence.update(tagIds[i], added);
+        cooccurrence.update(added, tagIds[i]);
+      }
+      print(report, "update", start, SUGGESTIONS * 2, 0);
+      //The tag view suggests tags right after a tag is added, from the rows the tag just changed
+      start = System.nanoTime();
+      found = 0;
+      for (int i = 0; i < SUGGESTIONS; i++) {
+        int[] added = new int[tagIds[i].length + 1];
+        System.arraycopy(tagIds[i], 0, added, 0, tagIds[i].length);
+        added[tagIds[i].length] = 500 + i % 50;
+        cooccurrence.update(tagIds[i], added);
+        found += cooccurrence.suggest(added, LIMIT).length;
+        cooccurrence.update(added, tagIds[i]);
+      }
+      print(report, "edit", start, SUGGESTIONS, found);
+      start = System.nanoTime();
+      found = 0;
+      for (int i = 0; i < SUGGESTIONS / 100; i++) {
+        found += scan(tagIds, tagIds[i]).size() > 0 ? LIMIT : 0;
+      }
+      print(report, "scan", start, SUGGESTIONS / 100, found * 100);
+    }
+  }
+
+  /**
+   * Counts the tags of every image that shares a tag with the given one
+   *
+   * @param tagIds The tags of every image
+   * @param image The tags of the image
+   * @return How many images with a tag of the image have each other tag
+   */
+  private static HashMap<Integer, Integer> scan(int[][] tagIds, int[] image) {
+    HashMap<Integer, Integer> counts = new HashMap<>();
+    for (int[] other : tagIds) {
+      boolean shares = false;
+      for (int tagId : other) {
+        shares |= CatalogIndex.contains(image, tagId);
+      }
+      if (shares) {
+        for (int tagId : other) {
+          if (!CatalogIndex.contains(image, tagId)) {
+            counts.merge(tagId, 1, Integer::sum);
+          }
+        }
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param operation What was done
+   * @param start When the operations started, in nanoseconds
+   * @param operations The number of operations
+   * @param found The number of tags suggested in all
+   */
+  private static void print(boolean report, String operation, long start, int operations,
+      int found) {
+    if (report) {
+      System.out.println(String.format("%-8s %10.2f us/operation %8d tags", operation,
+          (System.nanoTime() - start) / 1000.0 / operations, found));
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package app.model;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+
+/**
+ * Compares finding the images with a tag in the index of tags kept by CatalogIndex, on its own and
+ * through a TagQuery, with looking at the tags of every image, which is how images used to be
+ * found. The index is filled with the given number of images, each with a few tags out of a few
+ * hundred. Run it with the JavaFX libraries on
+ * the classpath:
+ * java app.model.TagIndexBenchmark [images]
+ */
+public class TagIndexBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int LOOKUPS = 1000;
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws ParseException Thrown when the query looked up is not well formed
+   */
+  public static void main(String[] args) throws ParseException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    TagDictionary dictionary = new TagDictionary();
+    CatalogIndex index = new CatalogIndex();
+    for (int i = 1; i <= images; i++) {
+      ArrayList<String> tags = new ArrayList<>();
+      tags.add("tag" + (i % 500));
+      tags.add("place" + (i % 37));
+      if (i % 3 == 0) {
+        tags.add("family");
+      }
+      index.put(i, "/home/user/Pictures/IMG_" + i + ".jpg", dictionary.getIds(tags));
+    }
+    long start = System.nanoTime();
+    int found = index.getImagesWithTag(dictionary.findId("family")).cardinality();
+    System.out.println(images + " images, index built in " + (System.nanoTime() - start) / 1000000
+        + " ms, " + found + " with the most common tag");
+    int family = dictionary.findId("family");
+    int place = dictionary.findId("place5");
+    int tag = dictionary.findId("tag74");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        found = index.getImagesWithTag(family).cardinality();
+      }
+      print(report, "tag", start, LOOKUPS, found);
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        found = index.getImagesWithTags(new int[] {family, place}).cardinality();
+      }
+      print(report, "two tags", start, LOOKUPS, found);
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS; i++) {
+        found = index.getImagesWithTags(new int[] {family, place, tag}).cardinality();
+      }
+      print(report, "three tags", start, LOOKUPS, found);
+      TagQuery query = TagQuery.parse("family AND (place5 OR place6) AND NOT tag74 AND ext:jpg");
+      start = System.nanoTime();
+      for (int i = 0; i < LOOKUPS / 10; i++) {
+        found = query.run(index, dictionary).cardinality();
+      }
+      print(report, "query", start, LOOKUPS / 10, found);
+      start = System.nanoTime();
+      found = scan(index, family, place);
+      print(report, "scan", start, 1, found);
+    }
+  }
+
+  /**
+   * Counts the images with both tags by looking at the tags of every image
+   *
+   * @param index The index
+   * @param first The number of the first tag
+   * @param second The number of the second tag
+   * @return The number of images with both tags
+   */
+  private static int scan(CatalogIndex index, int first, int second) {
+    int found = 0;
+    for (long id : index.getIds()) {
+      boolean hasFirst = false;
+      boolean hasSecond = false;
+      for (int tagId : index.getTagIds(id)) {
+        hasFirst |= tagId == first;
+        hasSecond |= tagId == second;
+      }
+      if (hasFirst && hasSecond) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param lookup What was looked up
+   * @param start When the lookups started, in nanoseconds
+   * @param lookups The number of lookups made
+   * @param found The number of images the last lookup found
+   */
+  private static void print(boolean report, String lookup, long start, int lookups, int found) {
+    if (report) {
+      System.out.println(String.format("%-12s %12.1f us/lookup %10d images", lookup,
+          (System.nanoTime() - start) / 1000.0 / lookups, found));
+    }
+  }
+}
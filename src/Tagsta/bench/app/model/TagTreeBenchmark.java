@@ -0,0 +1,140 @@
+package app.model;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how long finding the images with a tag or any tag under it takes by merging the sets of
+ * images of the tags TagTree finds under it, compared with looking at the tags of every image, and
+ * how long listing the levels under a tag takes compared with looking at every tag. The index is
+ * filled with the given number of images, each tagged with one of ten thousand places three levels
+ * deep, such as place/region3/city42. Run it with the JavaFX libraries on the classpath:
+ * java app.model.TagTreeBenchmark [images]
+ */
+public class TagTreeBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int QUERIES = 20;
+  private static final int REGIONS = 100;
+  private static final int CITIES = 100;
+  private static final String[] QUERIES_RUN = {"place", "place/region7", "place/region7/city3"};
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   * @throws ParseException Thrown when a query searched for is not well formed
+   */
+  public static void main(String[] args) throws ParseException {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    TagDictionary dictionary = new TagDictionary();
+    CatalogIndex index = new CatalogIndex();
+    ArrayList<String> tags = new ArrayList<>();
+    for (int i = 1; i <= images; i++) {
+      String tag = "place/region" + (i % REGIONS) + "/city" + (i / REGIONS % CITIES);
+      index.put(i, "/home/user/Pictures/IMG_" + i + ".jpg",
+          dictionary.getIds(Arrays.asList(tag, "tag" + (i % 500))));
+    }
+    for (int region = 0; region < REGIONS; region++) {
+      for (int city = 0; city < CITIES; city++) {
+        tags.add("place/region" + region + "/city" + city);
+      }
+    }
+    TagTree tree = new TagTree();
+    for (String tag : tags) {
+      tree.add(tag, 0);
+    }
+    System.out.println(images + " images, " + tags.size() + " places");
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      for (String query : QUERIES_RUN) {
+        TagQuery plan = TagQuery.parse(query);
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+          found = plan.run(index, dictionary).cardinality();
+        }
+        print(report, "merge", query, start, found);
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+          found = scan(index, dictionary, query);
+        }
+        print(report, "scan", query, start, found);
+      }
+      int found = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        found = tree.getChildren("place/region7").size();
+      }
+      print(report, "tree", "children of place/region7", start, found);
+      start = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        found = children(tags, "place/region7").size();
+      }
+      print(report, "list", "children of place/region7", start, found);
+    }
+  }
+
+  /**
+   * Counts the images with a tag or a tag under it by looking at the tags of every image
+   *
+   * @param index The index of the images
+   * @param dictionary The numbers of the tags
+   * @param tag The tag
+   * @return The number of images
+   */
+  private static int scan(CatalogIndex index, TagDictionary dictionary, String tag) {
+    int count = 0;
+    for (long id : index.getIds()) {
+      for (int tagId : index.getTagIds(id)) {
+        String imageTag = dictionary.getTag(tagId);
+        if (imageTag.equals(tag) || imageTag.startsWith(tag + "/")) {
+          count++;
+          break;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Lists the levels right under a tag by looking at every tag
+   *
+   * @param tags The tags
+   * @param tag The tag
+   * @return The levels under the tag
+   */
+  private static List<String> children(List<String> tags, String tag) {
+    ArrayList<String> children = new ArrayList<>();
+    String prefix = tag + "/";
+    for (String other : tags) {
+      if (other.startsWith(prefix)) {
+        int end = other.indexOf('/', prefix.length());
+        String child = end == -1 ? other : other.substring(0, end);
+        if (!children.contains(child)) {
+          children.add(child);
+        }
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param method How the images or levels were found
+   * @param what What was looked for
+   * @param start When the looking started, in nanoseconds
+   * @param found How many were found the last time
+   */
+  private static void print(boolean report, String method, String what, long start, int found) {
+    if (report) {
+      System.out.println(String.format("%-6s %-26s %10.3f ms %8d found", method, what,
+          (System.nanoTime() - start) / 1e6 / QUERIES, found));
+    }
+  }
+}
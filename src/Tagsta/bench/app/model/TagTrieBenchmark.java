@@ -0,0 +1,111 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Compares completing the start of a tag with the TagTrie kept by TagManager against looking at
+ * every tag and sorting the ones that start with the text typed by weight. The trie is filled with
+ * the given number of distinct tags made of random letters, with a few tags on many images and
+ * most tags on few. Run it with the JavaFX libraries on the classpath:
+ * java app.model.TagTrieBenchmark [tags]
+ */
+public class TagTrieBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int COMPLETIONS = 10000;
+  private static final int LIMIT = 8;
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of tags
+   */
+  public static void main(String[] args) {
+    int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    Random random = new Random(42);
+    String[] tags = new String[count];
+    int[] weights = new int[count];
+    TagTrie trie = new TagTrie();
+    long start = System.nanoTime();
+    for (int i = 0; i < count; i++) {
+      StringBuilder tag = new StringBuilder();
+      for (int letter = 3 + random.nextInt(10); letter > 0; letter--) {
+        tag.append((char) ('a' + random.nextInt(26)));
+      }
+      tags[i] = tag.toString();
+      //Weights fall off like word frequencies do
+      weights[i] = 1 + 100000 / (1 + random.nextInt(count));
+      trie.adjust(tags[i], weights[i]);
+    }
+    System.out.println(count + " tags, trie filled in " + (System.nanoTime() - start) / 1000000
+        + " ms");
+    String[] prefixes = new String[COMPLETIONS];
+    for (int i = 0; i < COMPLETIONS; i++) {
+      String tag = tags[random.nextInt(count)];
+      prefixes[i] = tag.substring(0, 1 + random.nextInt(3));
+    }
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      int found = 0;
+      start = System.nanoTime();
+      for (String prefix : prefixes) {
+        found += trie.complete(prefix, LIMIT).size();
+      }
+      print(report, "trie", start, COMPLETIONS, found);
+      start = System.nanoTime();
+      found = 0;
+      for (int i = 0; i < COMPLETIONS / 100; i++) {
+        found += scan(tags, weights, prefixes[i]).size();
+      }
+      print(report, "scan", start, COMPLETIONS / 100, found * 100);
+      start = System.nanoTime();
+      for (int i = 0; i < COMPLETIONS; i++) {
+        trie.adjust(tags[i], 1);
+        trie.adjust(tags[i], -1);
+      }
+      print(report, "update", start, COMPLETIONS * 2, 0);
+    }
+  }
+
+  /**
+   * Finds the heaviest tags that start with some text by looking at every tag
+   *
+   * @param tags The tags
+   * @param weights The weights of the tags
+   * @param prefix The text
+   * @return The heaviest tags that start with the text
+   */
+  private static ArrayList<String> scan(String[] tags, int[] weights, String prefix) {
+    ArrayList<Integer> matches = new ArrayList<>();
+    for (int i = 0; i < tags.length; i++) {
+      if (tags[i].startsWith(prefix)) {
+        matches.add(i);
+      }
+    }
+    matches.sort((first, second) -> Integer.compare(weights[second], weights[first]));
+    ArrayList<String> found = new ArrayList<>();
+    for (int i = 0; i < Math.min(LIMIT, matches.size()); i++) {
+      found.add(tags[matches.get(i)]);
+    }
+    return found;
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param operation What was done
+   * @param start When the operations started, in nanoseconds
+   * @param operations The number of operations
+   * @param found The number of tags found in all
+   */
+  private static void print(boolean report, String operation, long start, int operations,
+      int found) {
+    if (report) {
+      System.out.println(String.format("%-8s %10.2f us/operation %8d tags", operation,
+          (System.nanoTime() - start) / 1000.0 / operations, found));
+    }
+  }
+}
@@ -0,0 +1,144 @@
+package app.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Measures how long asking which images had a tag on a day and which images changed since a time
+ * takes with TemporalIndex, compared with reading the naming history of every image. Each of the
+ * given number of images is renamed a few times over a year, taking tags away and adding others,
+ * and the first query also includes filling the index from the histories. Run it with the JavaFX
+ * libraries on the classpath:
+ * java app.model.TemporalIndexBenchmark [images]
+ */
+public class TemporalIndexBenchmark {
+
+  private static final int ROUNDS = 5;
+  private static final int QUERIES = 20;
+  private static final int RENAMES = 4;
+  private static final LocalDateTime START = LocalDateTime.of(2023, 1, 1, 0, 0);
+
+  /**
+   * Runs the benchmark and prints the results
+   *
+   * @param args The number of images
+   */
+  public static void main(String[] args) {
+    int images = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    CatalogIndex index = new CatalogIndex();
+    TagDictionary dictionary = new TagDictionary();
+    NameHistory[] histories = new NameHistory[images + 1];
+    for (int i = 1; i <= images; i++) {
+      histories[i] = new NameHistory();
+      String name = "";
+      for (int rename = 0; rename < RENAMES; rename++) {
+        //Every rename moves the image to other tags some days later
+        name = "IMG_" + i + " @tag" + ((i + rename * 7) % 500) + " @place" + ((i + rename) % 37);
+        histories[i].add(START.plusDays((i + rename * 97) % 365).plusMinutes(rename), name);
+      }
+      index.put(i, "/home/user/Pictures/" + name + ".jpg",
+          dictionary.getIds(ImageManager.parseTagList(name)));
+    }
+    System.out.println(images + " images, " + RENAMES + " names each");
+    long day = NameHistory.toMillis(START.plusDays(120));
+    long nextDay = NameHistory.toMillis(START.plusDays(121));
+    long since = NameHistory.toMillis(START.plusDays(360));
+    long start = System.nanoTime();
+    TemporalIndex temporalIndex = new TemporalIndex(id -> histories[(int) id]);
+    temporalIndex.fill(index);
+    print(true, "fill from histories", start, 1, "fill", index.getIds().length);
+    for (int round = 1; round <= ROUNDS; round++) {
+      //The first rounds only warm up the JIT
+      boolean report = round == ROUNDS;
+      int found = 0;
+      start = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        found = temporalIndex.findImagesThatHad("tag7", day, nextDay).cardinality();
+      }
+      print(report, "index had:tag7@day", start, QUERIES, "query", found);
+      start = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        found = scanHad(histories, "tag7", day, nextDay);
+      }
+      print(report, "scan had:tag7@day", start, QUERIES, "query", found);
+      start = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        found = temporalIndex.findImagesChangedSince(since).cardinality();
+      }
+      print(report, "index changed:since", start, QUERIES, "query", found);
+      start = System.nanoTime();
+      for (int i = 0; i < QUERIES; i++) {
+        found = scanChanged(histories, since);
+      }
+      print(report, "scan changed:since", start, QUERIES, "query", found);
+    }
+  }
+
+  /**
+   * Counts the images that had a tag within a time span by reading every history
+   *
+   * @param histories The histories, by number of ImageManager
+   * @param tag The tag
+   * @param from The start of the time span
+   * @param to The end of the time span, which is not part of it
+   * @return The number of images
+   */
+  private static int scanHad(NameHistory[] histories, String tag, long from, long to) {
+    int count = 0;
+    for (int i = 1; i < histories.length; i++) {
+      //When the image got the tag, or the latest time if it does not have it
+      long[] since = {Long.MAX_VALUE};
+      boolean[] had = {false};
+      histories[i].forEachEntry(0, (millis, tags) -> {
+        if (since[0] < Long.MAX_VALUE && since[0] < to && millis > from) {
+          had[0] = true;
+        }
+        if (!tags.contains(tag)) {
+          since[0] = Long.MAX_VALUE;
+        } else if (since[0] == Long.MAX_VALUE) {
+          since[0] = millis;
+        }
+      });
+      if (had[0] || since[0] < to) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Counts the images with an entry made at or after a time by reading every history
+   *
+   * @param histories The histories, by number of ImageManager
+   * @param from The time
+   * @return The number of images
+   */
+  private static int scanChanged(NameHistory[] histories, long from) {
+    int count = 0;
+    for (int i = 1; i < histories.length; i++) {
+      boolean[] changed = {false};
+      histories[i].forEachEntry(0, (millis, tags) -> changed[0] |= millis >= from);
+      if (changed[0]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Prints one row of results
+   *
+   * @param report Whether to print the results
+   * @param what What was measured
+   * @param start When the measuring started, in nanoseconds
+   * @param times How many times it was done
+   * @param unit What was done each time
+   * @param found The number of images of the last time
+   */
+  private static void print(boolean report, String what, long start, int times, String unit,
+      int found) {
+    if (report) {
+      System.out.println(String.format("%-30s %10.3f ms/%s %8d images", what,
+          (System.nanoTime() - start) / 1e6 / times, unit, found));
+    }
+  }
+}
@@ -61,7 +61,13 @@ public class Tagsta extends Application {
     loadMenuBar();
     // Initializes and adds the image view to the root UI
     loadImageOverview();
-    primaryStage.setOnCloseRequest(t -> FileManager.closeLogHandler());
+    primaryStage.setOnCloseRequest(t -> shutdown());
+  }
+
+  /** Writes all unsaved changes to the disk and closes the files this program has open */
+  public void shutdown() {
+    tagManager.close();
+    FileManager.closeLogHandler();
   }
 
   /** Loads the menu and adds it to the rootLayout*/
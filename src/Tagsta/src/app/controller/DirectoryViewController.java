@@ -1,6 +1,6 @@
 package app.controller;
 
-import app.model.FileManager;
+import app.model.ImageManager;
 import app.model.TagManager;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -72,9 +72,12 @@ public class DirectoryViewController {
       TreeItem<File> item = directoryView.getSelectionModel().getSelectedItem();
       // Make sure the item isn't a directory (directory is not an image)
       if (item != null && !item.getValue().isDirectory()) {
-        // Update the Image and the file view
-        imageOverviewController.updateImage(tagManager.getImageManager(item.getValue()));
-        updateFileView(item);
+        // Update the Image and the file view, unless the image could not be loaded from the catalog
+        ImageManager imageManager = tagManager.getImageManager(item.getValue());
+        if (imageManager != null) {
+          imageOverviewController.updateImage(imageManager);
+          updateFileView(item);
+        }
       }
     }
   }
@@ -270,18 +273,19 @@ public class DirectoryViewController {
                             treeCell.getTreeItem().getValue().getPath()
                                 + File.separator
                                 + source.getFileName());
-                    // Move the file to the target (where the file is dropped onto)
-                    FileManager.moveImage(source, target);
-                    @SuppressWarnings("unchecked")
-                    TreeCell<File> t = ((TreeCell<File>) event.getGestureSource());
-                    t.getTreeItem().getParent().getChildren().remove(t.getTreeItem());
-                    TreeItem<File> newTreeItem = new TreeItem<>(new File(target.toString()));
-                    // Update directory view
-                    treeCell.getTreeItem().getChildren().add(0, newTreeItem);
-                    directoryView.getSelectionModel().select(newTreeItem);
-                    success = true;
-                    // Update the image manager on the new location of the file
-                    tagManager.getImageManager(db.getFiles().get(0)).updateDirectory(target);
+                    // Move the file to the target (where the file is dropped onto) and update
+                    // the image manager on the new location of the file
+                    ImageManager imageManager = tagManager.getImageManager(source.toFile());
+                    if (imageManager != null && imageManager.moveTo(target)) {
+                      @SuppressWarnings("unchecked")
+                      TreeCell<File> t = ((TreeCell<File>) event.getGestureSource());
+                      t.getTreeItem().getParent().getChildren().remove(t.getTreeItem());
+                      TreeItem<File> newTreeItem = new TreeItem<>(new File(target.toString()));
+                      // Update directory view
+                      treeCell.getTreeItem().getChildren().add(0, newTreeItem);
+                      directoryView.getSelectionModel().select(newTreeItem);
+                      success = true;
+                    }
                     directoryView.refresh();
                   }
                   event.setDropCompleted(success);
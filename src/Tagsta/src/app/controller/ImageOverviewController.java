@@ -164,7 +164,7 @@ public class ImageOverviewController {
    */
   public void updateDirectoryView(TreeItem<File> item) {
     directoryViewController.updateDirectoryView(item);
-    tagViewController.setIndependentTagView(main.getTagManager().getTagsList());
+    tagViewController.setIndependentTagView();
   }
 
   /**
@@ -191,6 +191,6 @@ public class ImageOverviewController {
     // Give the controllers a reference to the main application as well
     tagViewController.setMainApp(main);
     directoryViewController.setTagManager(main.getTagManager());
-    tagViewController.setIndependentTagView(main.getTagManager().getTagsList());
+    tagViewController.setIndependentTagView();
   }
 }
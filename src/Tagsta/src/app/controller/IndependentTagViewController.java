@@ -3,18 +3,26 @@ package app.controller;
 import app.Tagsta;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
-import javafx.scene.control.ListView;
 import javafx.scene.control.SelectionMode;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TreeCell;
+import javafx.scene.control.TreeItem;
+import javafx.scene.control.TreeView;
 import javafx.scene.input.*;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-/** Controller for the independent tag view list */
+/**
+ * Controller for the independent tag view, which shows the independent tags as a tree of their
+ * levels, such as place, place/europe and place/europe/paris. The levels under a tag are only
+ * loaded once the tag is expanded, so tens of thousands of tags do not all have to be shown at once
+ */
 public class IndependentTagViewController {
-  // Reference to list of tags
-  @FXML private ListView<String> tagList;
+  // Reference to tree of tags
+  @FXML private TreeView<String> tagList;
   // Reference text field entry for adding tags
   @FXML private TextField tagListTextField;
 
@@ -30,7 +38,7 @@ public class IndependentTagViewController {
     // Get the text from the text-field
     String tag = tagListTextField.getText();
     main.getTagManager().addIndependentTag(tag);
-    setIndependentTagList(main.getTagManager().getTagsList());
+    refreshIndependentTags();
     // Clear the text from the text-field
     tagListTextField.clear();
   }
@@ -70,8 +78,7 @@ public class IndependentTagViewController {
   private void addToImage() {
     if (this.tagViewController.getImageManager() != null &&
             !tagList.getSelectionModel().getSelectedItems().contains(null)) {
-      List<String> tagItems = new ArrayList<>();
-      tagItems.addAll(tagList.getSelectionModel().getSelectedItems());
+      List<String> tagItems = getSelectedTags();
       if (!tagItems.contains(null)) this.tagViewController.addTags(tagItems);
       tagList.getSelectionModel().clearSelection();
     }
@@ -80,16 +87,30 @@ public class IndependentTagViewController {
   /** Deletes tags from tagsList */
   @FXML
   private void handleDelete() {
-    ObservableList<String> tags = tagList.getSelectionModel().getSelectedItems();
-    for (String tag : tags) main.getTagManager().deleteIndependentTag(tag);
-    setIndependentTagList(main.getTagManager().getTagsList());
+    for (String tag : getSelectedTags()) main.getTagManager().deleteIndependentTag(tag);
+    refreshIndependentTags();
   }
 
-  /** Initializes controller with appropriate settings for ListView tagList */
+  /**
+   * Initializes controller with appropriate settings for ListView tagList, and suggests tags while
+   * one is typed
+   */
   @FXML
   private void initialize() {
+    new TagCompletionPopup(tagListTextField, () -> main == null ? null : main.getTagManager());
     // Enables option to select multiple items
     tagList.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+    // Show only the last level of each tag, since the levels above it are its parents
+    tagList.setShowRoot(false);
+    tagList.setCellFactory(
+        view ->
+            new TreeCell<String>() {
+              @Override
+              protected void updateItem(String tag, boolean empty) {
+                super.updateItem(tag, empty);
+                setText(empty || tag == null ? null : tag.substring(tag.lastIndexOf('/') + 1));
+              }
+            });
     // Define the appropriate action when dragging items from the tagList
     tagList.setOnDragDetected(
         (MouseEvent event) -> {
@@ -97,15 +118,51 @@ public class IndependentTagViewController {
           ClipboardContent content = new ClipboardContent();
           // Put the selected items into the clipboard. Using putFilesByPath because it's the only
           // way to add a list of string easily
-          content.putFilesByPath(tagList.getSelectionModel().getSelectedItems());
+          content.putFilesByPath(getSelectedTags());
           db.setContent(content);
           event.consume();
         });
   }
 
-  /** Sets tagList with listOfTags */
-  void setIndependentTagList(ObservableList<String> listOfTags) {
-    this.tagList.setItems(listOfTags.sorted());
+  /**
+   * Shows the independent tags of the tag manager again, keeping the tags that were expanded
+   * expanded
+   */
+  void refreshIndependentTags() {
+    Set<String> expanded = new HashSet<>();
+    if (tagList.getRoot() != null) {
+      findExpanded(tagList.getRoot(), expanded);
+    }
+    TagTreeItem root = new TagTreeItem("", expanded);
+    root.setExpanded(true);
+    tagList.setRoot(root);
+  }
+
+  /**
+   * Collects the tags that are expanded under an item, only looking at the items already loaded
+   *
+   * @param item the item
+   * @param expanded given the tags that are expanded
+   */
+  private void findExpanded(TreeItem<String> item, Set<String> expanded) {
+    if (item instanceof TagTreeItem && !((TagTreeItem) item).loaded) {
+      return;
+    }
+    for (TreeItem<String> child : item.getChildren()) {
+      if (child.isExpanded()) {
+        expanded.add(child.getValue());
+        findExpanded(child, expanded);
+      }
+    }
+  }
+
+  /** @return the tags of the selected items */
+  private List<String> getSelectedTags() {
+    List<String> tags = new ArrayList<>();
+    for (TreeItem<String> item : tagList.getSelectionModel().getSelectedItems()) {
+      tags.add(item == null ? null : item.getValue());
+    }
+    return tags;
   }
 
   /** Sets access to a tag view controller */
@@ -121,4 +178,42 @@ public class IndependentTagViewController {
   void setMainApp(Tagsta mainApp) {
     this.main = mainApp;
   }
+
+  /** An item of the tag tree that loads the levels under its tag the first time they are shown */
+  private class TagTreeItem extends TreeItem<String> {
+    // The tags to expand once they are loaded
+    private final Set<String> expanded;
+    private boolean loaded;
+
+    /**
+     * Creates a TagTreeItem whose children are not loaded yet
+     *
+     * @param tag the whole tag of the item, or an empty string for the root
+     * @param expanded the tags to expand once they are loaded
+     */
+    private TagTreeItem(String tag, Set<String> expanded) {
+      super(tag);
+      this.expanded = expanded;
+      setExpanded(expanded.contains(tag));
+    }
+
+    @Override
+    public ObservableList<TreeItem<String>> getChildren() {
+      if (!loaded) {
+        loaded = true;
+        List<TreeItem<String>> children = new ArrayList<>();
+        for (String tag : main.getTagManager().getTagChildren(getValue())) {
+          children.add(new TagTreeItem(tag, expanded));
+        }
+        super.getChildren().setAll(children);
+      }
+      return super.getChildren();
+    }
+
+    @Override
+    public boolean isLeaf() {
+      return loaded ? super.getChildren().isEmpty()
+          : !getValue().isEmpty() && !main.getTagManager().hasTagChildren(getValue());
+    }
+  }
 }
@@ -1,8 +1,16 @@
 package app.controller;
 
 import app.Tagsta;
+import app.model.DirectoryScanner;
 import app.model.FileManager;
 import app.model.ImageManager;
+import app.model.ReconciliationReport;
+import app.model.TagManager;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -14,10 +22,13 @@ import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 /** Controller for the menu bar of this application */
@@ -25,6 +36,9 @@ public class MenuController {
 
   private Tagsta main;
   private Stage searchWindow;
+  // The folder opened last and the dialog showing the progress of its scan
+  private TreeItem<File> openedFolder;
+  private Alert folderProgress;
   private final ImageView FOLDER_ICON = new ImageView(new Image("/resources/folderIcon.png"));
   private final ImageView PICTURE_ICON = new ImageView(new Image("/resources/pictureIcon.png"));
   private final ImageView SEARCH_ICON = new ImageView(new Image("/resources/searchIcon.png"));
@@ -85,6 +99,10 @@ public class MenuController {
    * @param image the image held by the image manager
    */
   void openSelectedImage(ImageManager image) {
+    // The image could not be loaded from the catalog, which was already reported
+    if (image == null) {
+      return;
+    }
     main.updateImage(image);
     main.updateFileView(new TreeItem<>(image.getFile()));
     // Close the search window if it's opened
@@ -109,7 +127,7 @@ public class MenuController {
       ExceptionDialogPopup.createExceptionPopup("Directory Invalid", "Could not open directory.");
     } else {
       // Update the directory tree view
-      openSelectedFolder(getNodesForDirectory(choice));
+      openFolder(choice);
     }
   }
 
@@ -188,9 +206,10 @@ public class MenuController {
       searchWindow.initModality(Modality.WINDOW_MODAL);
 
       searchWindow.show();
-      // Add image managers to the search window
+      // Give the search window the images to search
       SearchViewController svc = loader.getController();
-      svc.setImageList(main.getTagManager().getImageManagers());
+      svc.setTagManager(main.getTagManager());
+      searchWindow.setOnHidden(event -> svc.close());
       // Give the controller a reference to this controller
       svc.setMenuController(this);
     } catch (IOException e) {
@@ -198,6 +217,82 @@ public class MenuController {
     }
   }
 
+  /**
+   * Handle the menu item "Clean Up Catalog" by checking the catalog for images whose files are gone
+   * and files with more than one image, and asking the user before anything is changed
+   */
+  @FXML
+  private void handleCleanUpCatalog() {
+    runReconciliation(true);
+  }
+
+  /**
+   * Reconciles the catalog on a background thread while a dialog shows the progress
+   *
+   * @param dryRun Whether to only find what would be changed
+   */
+  private void runReconciliation(boolean dryRun) {
+    TagManager tagManager = main.getTagManager();
+    Task<ReconciliationReport> task =
+        new Task<ReconciliationReport>() {
+          @Override
+          protected ReconciliationReport call() throws Exception {
+            return tagManager.reconcile(dryRun, fraction -> updateProgress(fraction, 1));
+          }
+        };
+
+    // Show the progress, with a button to stop checking
+    ProgressBar progressBar = new ProgressBar();
+    progressBar.setMaxWidth(Double.MAX_VALUE);
+    progressBar.progressProperty().bind(task.progressProperty());
+    Alert progress = new Alert(Alert.AlertType.INFORMATION, "", ButtonType.CANCEL);
+    progress.setTitle("Clean Up Catalog");
+    progress.setHeaderText(dryRun ? "Checking the catalog..." : "Cleaning up the catalog...");
+    progress.getDialogPane().setContent(progressBar);
+    progress.initOwner(main.getPrimaryStage());
+    // Interrupting the clean up itself could leave the catalog file closed, so it is let finish
+    progress.setOnHidden(event -> task.cancel(dryRun));
+
+    task.setOnSucceeded(
+        event -> {
+          progress.close();
+          showReconciliationReport(task.getValue());
+        });
+    task.setOnFailed(
+        event -> {
+          progress.close();
+          ExceptionDialogPopup.createExceptionPopup(
+              "An error occurred while cleaning up the catalog",
+              "The catalog could not be checked");
+        });
+    Thread thread = new Thread(task, "catalog-cleanup");
+    thread.setDaemon(true);
+    thread.start();
+    progress.show();
+  }
+
+  /**
+   * Shows what reconciling the catalog found. After a dry run that found something, asks whether
+   * to go ahead and clean up the catalog
+   *
+   * @param report What was found
+   */
+  private void showReconciliationReport(ReconciliationReport report) {
+    boolean ask = report.isDryRun() && report.hasChanges();
+    Alert alert = new Alert(ask ? Alert.AlertType.CONFIRMATION : Alert.AlertType.INFORMATION);
+    alert.setTitle("Clean Up Catalog");
+    alert.setHeaderText(ask ? "Clean up these images?" : "The catalog is clean");
+    TextArea textArea = new TextArea(report.getSummary());
+    textArea.setEditable(false);
+    textArea.setWrapText(true);
+    alert.getDialogPane().setContent(textArea);
+    alert.initOwner(main.getPrimaryStage());
+    Optional<ButtonType> result = alert.showAndWait();
+    if (ask && result.isPresent() && result.get() == ButtonType.OK) {
+      runReconciliation(false);
+    }
+  }
+
   /**
    * Handle the menu item "Show Image Folder" which opens the current image's folder in the file
    * explorer
@@ -251,7 +346,7 @@ public class MenuController {
    */
   public void loadLastSession() {
     // Get the stored config of whether or not to load the previous session
-    if (Boolean.valueOf(main.getTagManager().getConfigOption("OPEN_LAST_SESSION"))) {
+    if (main.getTagManager().getBooleanConfigOption("OPEN_LAST_SESSION")) {
       // Popup a confirmation to make sure the user wants to opened the last session
       Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
       alert.setTitle("Confirm Open Last Session");
@@ -276,7 +371,7 @@ public class MenuController {
         // Make sure there is an actual directory path saved
         if (!lastDirectoryPath.isEmpty()) {
           // Loads the previously opened directory
-          openSelectedFolder(getNodesForDirectory(new File(lastDirectoryPath)));
+          openFolder(new File(lastDirectoryPath));
         }
       }
 
@@ -293,35 +388,93 @@ public class MenuController {
   }
 
   /**
-   * Creates a TreeItem representation of the given directory Modified
-   * https://stackoverflow.com/questions/35070310/javafx-representing-directories
+   * Opens the given directory in the directory view right away and fills in the folders and images
+   * under it as a background scan lists them, while a dialog shows the progress
    *
-   * @param directory the directory to be represented
-   * @return a tree item representation of the given directory
+   * @param directory the directory to be opened
    */
-  private TreeItem<File> getNodesForDirectory(File directory) {
+  private void openFolder(File directory) {
+    // Stop scanning the folder opened before, if it is still being scanned
+    if (folderProgress != null) {
+      folderProgress.close();
+    }
     TreeItem<File> root = new TreeItem<>(directory);
-    // Recursively add all sub-files and sub-directory to the tree
-    File[] directoryFiles = directory.listFiles();
-    if (directoryFiles != null) {
-      for (File f : directoryFiles) {
-        if (f.isDirectory()) {
-          // Recursively add sub-directory files
-          root.getChildren().add(getNodesForDirectory(f));
-        } else {
-          // Only add image files
-          final String[] validExtensions = {"jpg", "png", "jpeg", "gif", "bmp"};
-          String ext = f.getName().substring(f.getName().lastIndexOf('.') + 1);
-          if (Arrays.asList(validExtensions).indexOf(ext.toLowerCase()) != -1) {
-            // Populate the independent tag list
-            main.getTagManager().addIndependentTag(f);
-            // Add the file to the tree
-            root.getChildren().add(new TreeItem<>(f));
-          }
-        }
-      }
+    openedFolder = root;
+    openSelectedFolder(root);
+    // The tree items of the folders found but not listed yet
+    HashMap<File, TreeItem<File>> pending = new HashMap<>();
+    ProgressBar progressBar = new ProgressBar();
+    progressBar.setMaxWidth(Double.MAX_VALUE);
+    Alert progress = new Alert(Alert.AlertType.INFORMATION, "", ButtonType.CANCEL);
+    DirectoryScanner scanner =
+        main.getTagManager()
+            .createDirectoryScan(
+                directory,
+                Platform::runLater,
+                folders -> {
+                  for (DirectoryScanner.Folder folder : folders) {
+                    TreeItem<File> item =
+                        folder.getParent() == null ? root : pending.remove(folder.getDirectory());
+                    addFolderContents(item, folder, pending);
+                  }
+                },
+                finished -> {
+                  progress.close();
+                  // Show the independent tags found, unless another folder was opened since
+                  if (openedFolder == root) {
+                    main.updateDirectoryView(root);
+                  }
+                });
+    // Show the progress, with a button to stop scanning
+    Timeline counter =
+        new Timeline(
+            new KeyFrame(
+                Duration.millis(200),
+                event -> {
+                  progressBar.setProgress(
+                      (double) scanner.getFoldersListed() / scanner.getFoldersFound());
+                  progress.setHeaderText(
+                      "Found " + scanner.getImagesFound() + " images in "
+                          + scanner.getFoldersListed() + " folders...");
+                }));
+    counter.setCycleCount(Animation.INDEFINITE);
+    progress.setTitle("Open Folder");
+    progress.setHeaderText("Finding the images in " + directory.getName() + "...");
+    progress.getDialogPane().setContent(progressBar);
+    progress.initOwner(main.getPrimaryStage());
+    progress.initModality(Modality.NONE);
+    // Closing the dialog stops the scan, keeping the folders found so far
+    progress.setOnHidden(
+        event -> {
+          counter.stop();
+          scanner.cancel();
+        });
+    folderProgress = progress;
+    scanner.start();
+    counter.play();
+    progress.show();
+  }
+
+  /**
+   * Adds the folders and images right in a folder listed by a scan to its tree item
+   *
+   * @param item the tree item of the folder
+   * @param folder the folder listed
+   * @param pending the tree items of the folders found but not listed yet, by folder
+   */
+  private void addFolderContents(
+      TreeItem<File> item, DirectoryScanner.Folder folder, Map<File, TreeItem<File>> pending) {
+    ArrayList<TreeItem<File>> children = new ArrayList<>();
+    for (File directory : folder.getDirectories()) {
+      TreeItem<File> child = new TreeItem<>(directory);
+      pending.put(directory, child);
+      children.add(child);
+    }
+    for (File image : folder.getImages()) {
+      children.add(new TreeItem<>(image));
     }
-    return root;
+    // Adding them all at once only updates the tree view once
+    item.getChildren().addAll(children);
   }
 
   /** Initializes the the menu bar */
@@ -336,6 +489,7 @@ public class MenuController {
   /** Exit option in menu bar that will exit the program */
   @FXML
   private void exit() {
+    main.shutdown();
     System.exit(0);
   }
 }
@@ -1,7 +1,6 @@
 package app.controller;
 
 import app.model.ImageManager;
-import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.ListView;
@@ -28,7 +27,7 @@ public class RevertNameViewController {
   private void handleClick(MouseEvent event) {
     if (event.getButton().equals(MouseButton.PRIMARY) && event.getClickCount() == 2) {
       if (prevTags.getSelectionModel().getSelectedItem() != null) {
-        tryRevert(prevTags.getSelectionModel().getSelectedItem());
+        tryRevert(prevTags.getSelectionModel().getSelectedIndex());
       }
     }
   }
@@ -40,25 +39,23 @@ public class RevertNameViewController {
    */
   @FXML
   private void handleKeyEnter(KeyEvent keyPressed) {
-    if (keyPressed.getCode().equals(KeyCode.ENTER)) {
-      tryRevert(prevTags.getSelectionModel().getSelectedItem());
+    if (keyPressed.getCode().equals(KeyCode.ENTER)
+        && prevTags.getSelectionModel().getSelectedItem() != null) {
+      tryRevert(prevTags.getSelectionModel().getSelectedIndex());
     }
   }
 
   /**
    * Helper method that attempts to revert name based on item selected in ListView of old names
    *
-   * @param listItem selected old name
+   * @param nameIndex position of the selected old name
    */
-  private void tryRevert(String listItem) {
-    int nameIndex = imageManager.getPrevNames().indexOf(listItem);
-    if (imageManager
-        .getTags()
-        .equals(FXCollections.observableArrayList(imageManager.getPreviousTags().get(nameIndex)))) {
+  private void tryRevert(int nameIndex) {
+    if (imageManager.getTags().equals(imageManager.getPreviousTags(nameIndex))) {
       ExceptionDialogPopup.createExceptionPopup(
           "Error reverting tags", "Image already has this name!");
     } else {
-      tagViewController.revert(listItem);
+      tagViewController.revert(nameIndex);
     }
   }
 
@@ -1,11 +1,21 @@
 package app.controller;
 
+import app.model.FacetCounts;
 import app.model.ImageManager;
-import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
+import app.model.ImageSearch;
+import app.model.SortOrder;
+import app.model.TagManager;
+import java.text.ParseException;
+import java.util.Optional;
+import javafx.application.Platform;
+import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.ListView;
 import javafx.scene.control.TextField;
+import javafx.scene.control.TextInputDialog;
+import javafx.scene.control.Tooltip;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
@@ -15,33 +25,212 @@ import javafx.scene.input.MouseEvent;
 public class SearchViewController {
   @FXML private ListView<ImageManager> listOfImages;
   @FXML private TextField search;
+  @FXML private ListView<FacetCounts.Facet> tagFacets;
+  @FXML private ListView<FacetCounts.Facet> directoryFacets;
+  @FXML private ListView<FacetCounts.Facet> extensionFacets;
+  @FXML private ComboBox<String> albums;
+  @FXML private ComboBox<SortOrder> sortOrder;
+  @FXML private CheckBox reversed;
 
   private MenuController menuController;
-  private FilteredList<ImageManager> filteredImagesList;
+  private TagManager tagManager;
+  private ImageSearch imageSearch;
+  private String lastQuery;
 
   /**
-   * Sets the list of images that will be searched
+   * Sets the TagManager whose images will be searched and shows all of them, along with the most
+   * common tags, folders and extensions of the images shown
    *
-   * @param im the list of images (held by image managers)
+   * @param tagManager the TagManager holding the images
    */
-  void setImageList(ObservableList<ImageManager> im) {
-    filteredImagesList = new FilteredList<>(im);
-    listOfImages.setItems(filteredImagesList);
+  void setTagManager(TagManager tagManager) {
+    this.tagManager = tagManager;
+    albums.getItems().setAll(tagManager.getAlbumNames());
+    sortOrder.getItems().setAll(SortOrder.values());
+    sortOrder.setValue(SortOrder.CATALOG);
+    this.imageSearch = tagManager.createSearch(Platform::runLater,
+        results -> {
+          listOfImages.setItems(results);
+          search.setTooltip(null);
+        },
+        ex -> search.setTooltip(
+            new Tooltip(ex.getMessage() + " at position " + (ex.getErrorOffset() + 1))),
+        facets -> {
+          tagFacets.getItems().setAll(facets.getTags());
+          directoryFacets.getItems().setAll(facets.getDirectories());
+          extensionFacets.getItems().setAll(facets.getExtensions());
+        });
+    filterImageList();
   }
 
   /**
-   * When the user types in the search bar this method filters the list of images such that only the
-   * relevant ones are shown
-   * https://stackoverflow.com/questions/28448851/how-to-use-javafx-filteredlist-in-a-listview
+   * Stops searching once the search window is closed
+   */
+  void close() {
+    if (imageSearch != null) {
+      imageSearch.close();
+    }
+  }
+
+  /**
+   * When the user types in the search bar this method shows the images matching the query, such as
+   * beach AND (2019 OR summer) AND NOT blurry, or the images with names close to plain words typed
+   * when no tag matches them. The search runs in the background once typing stops, and the images
+   * are shown as they are found. While the query is not well formed the images of the last query
+   * are kept and the problem is shown as a tooltip
    */
   @FXML
   private void filterImageList() {
-    String filter = search.getText();
-    if (filter == null || filter.length() == 0) {
-      filteredImagesList.setPredicate(s -> true);
-    } else {
-      filteredImagesList.setPredicate(s -> s.getFile().getName().contains(filter));
+    String query = search.getText() == null ? "" : search.getText();
+    //Every key is seen up to three times (pressed, typed and released)
+    if (imageSearch == null || query.equals(lastQuery)) {
+      return;
+    }
+    lastQuery = query;
+    imageSearch.search(query);
+  }
+
+  /**
+   * When an order is picked or reversed this method searches for the query in the search bar again
+   * and shows the images it finds in that order. Only the images shown are put in order as the list
+   * is scrolled, so sorting a large search does not hold up the window
+   *
+   * @param event the order being picked or reversed
+   */
+  @FXML
+  private void handleSort(ActionEvent event) {
+    if (imageSearch == null || sortOrder.getValue() == null) {
+      return;
+    }
+    imageSearch.setOrder(sortOrder.getValue(), reversed.isSelected());
+    lastQuery = search.getText() == null ? "" : search.getText();
+    imageSearch.search(lastQuery);
+  }
+
+  /**
+   * When a smart album is picked this method shows the images in it, which are kept up to date as
+   * images change, so they are shown without searching for them
+   *
+   * @param event the album being picked
+   */
+  @FXML
+  private void handleOpenAlbum(ActionEvent event) {
+    String name = albums.getValue();
+    if (name == null || tagManager == null) {
+      return;
+    }
+    // Stop a search still running so it does not replace the album
+    imageSearch.cancel();
+    lastQuery = tagManager.getAlbumQuery(name);
+    search.setText(lastQuery);
+    search.setTooltip(null);
+    listOfImages.setItems(tagManager.openAlbum(name));
+    tagFacets.getItems().clear();
+    directoryFacets.getItems().clear();
+    extensionFacets.getItems().clear();
+  }
+
+  /**
+   * Asks for a name and saves the query in the search bar as a smart album with that name
+   *
+   * @param event the click of the save button
+   */
+  @FXML
+  private void handleSaveAlbum(ActionEvent event) {
+    String query = search.getText() == null ? "" : search.getText().trim();
+    if (tagManager == null || query.isEmpty()) {
+      ExceptionDialogPopup.createExceptionPopup("Error saving album", "Type a search to save first");
+      return;
+    }
+    TextInputDialog dialog = new TextInputDialog(albums.getValue());
+    dialog.setTitle("Save Album");
+    dialog.setHeaderText("Save " + query + " as a smart album");
+    dialog.setContentText("Name:");
+    Optional<String> name = dialog.showAndWait();
+    if (!name.isPresent() || name.get().trim().isEmpty()) {
+      return;
+    }
+    try {
+      tagManager.saveAlbum(name.get().trim(), query);
+    } catch (ParseException ex) {
+      ExceptionDialogPopup.createExceptionPopup("Error saving album",
+          ex.getMessage() + " at position " + (ex.getErrorOffset() + 1));
+      return;
+    }
+    albums.getItems().setAll(tagManager.getAlbumNames());
+  }
+
+  /**
+   * Deletes the smart album picked. The images in it are not changed
+   *
+   * @param event the click of the delete button
+   */
+  @FXML
+  private void handleDeleteAlbum(ActionEvent event) {
+    String name = albums.getValue();
+    if (tagManager == null || name == null) {
+      return;
+    }
+    tagManager.deleteAlbum(name);
+    albums.setValue(null);
+    albums.getItems().setAll(tagManager.getAlbumNames());
+  }
+
+  /**
+   * When a tag in the facet panel is clicked this method narrows the search down to the images with
+   * the tag
+   *
+   * @param event the mouse click of the user
+   */
+  @FXML
+  private void handleTagFacet(MouseEvent event) {
+    refineSearch(tagFacets, "");
+  }
+
+  /**
+   * When a folder in the facet panel is clicked this method narrows the search down to the images
+   * in the folder
+   *
+   * @param event the mouse click of the user
+   */
+  @FXML
+  private void handleDirectoryFacet(MouseEvent event) {
+    refineSearch(directoryFacets, "path:");
+  }
+
+  /**
+   * When an extension in the facet panel is clicked this method narrows the search down to the
+   * images with the extension
+   *
+   * @param event the mouse click of the user
+   */
+  @FXML
+  private void handleExtensionFacet(MouseEvent event) {
+    refineSearch(extensionFacets, "ext:");
+  }
+
+  /**
+   * Adds the facet selected in a list of facets to the query as a term every image must match.
+   * Only the images the query found are searched again, since the query is only narrowed down
+   *
+   * @param facets the list of facets
+   * @param predicate what the facet is written after in a query, such as ext:
+   */
+  private void refineSearch(ListView<FacetCounts.Facet> facets, String predicate) {
+    FacetCounts.Facet facet = facets.getSelectionModel().getSelectedItem();
+    if (facet == null) {
+      return;
+    }
+    String query = search.getText() == null ? "" : search.getText().trim();
+    String term = predicate + "\"" + facet.getValue() + "\"";
+    //AND binds tighter than OR, so a query with OR is put in parentheses before adding to it
+    if (query.matches(".*\\bOR\\b.*")) {
+      query = "(" + query + ")";
     }
+    search.setText(query.isEmpty() ? term : query + " " + term);
+    search.positionCaret(search.getText().length());
+    facets.getSelectionModel().clearSelection();
+    filterImageList();
   }
 
   /**
@@ -68,8 +257,9 @@ public class SearchViewController {
    */
   @FXML
   private void handleKeyEnter(KeyEvent keyPressed) {
-    if (keyPressed.getCode().equals(KeyCode.ENTER)) {
-      menuController.openSelectedImage(listOfImages.getSelectionModel().getSelectedItem());
+    ImageManager selectedImage = listOfImages.getSelectionModel().getSelectedItem();
+    if (keyPressed.getCode().equals(KeyCode.ENTER) && selectedImage != null) {
+      menuController.openSelectedImage(selectedImage);
     }
   }
 
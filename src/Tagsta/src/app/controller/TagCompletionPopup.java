@@ -0,0 +1,86 @@
+package app.controller;
+
+import app.model.TagManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import javafx.geometry.Side;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.TextField;
+
+/**
+ * A popup under a text field for entering a tag, suggesting the tags that start with what has been
+ * typed so far. The tags on the most images come first, and choosing one puts it in the text field
+ */
+class TagCompletionPopup {
+  // The most tags suggested at once
+  private static final int SUGGESTIONS = 8;
+
+  private final ContextMenu popup = new ContextMenu();
+  private final TextField textField;
+  private final Supplier<TagManager> tagManager;
+  // Whether the text is being set to a chosen tag, which is not completed again
+  private boolean choosing;
+
+  /**
+   * Creates a TagCompletionPopup and starts suggesting tags as the user types in the text field
+   *
+   * @param textField the text field tags are typed in
+   * @param tagManager gives the TagManager whose tags are suggested, or null while there is none
+   */
+  TagCompletionPopup(TextField textField, Supplier<TagManager> tagManager) {
+    this.textField = textField;
+    this.tagManager = tagManager;
+    textField.textProperty().addListener((observable, oldText, newText) -> suggest(newText));
+    textField.focusedProperty()
+        .addListener((observable, wasFocused, isFocused) -> {
+          if (!isFocused) popup.hide();
+        });
+  }
+
+  /**
+   * Shows the tags that start with the text typed, or hides the popup if there are none
+   *
+   * @param text the text in the text field
+   */
+  private void suggest(String text) {
+    String prefix = text == null ? "" : text.trim();
+    TagManager manager = tagManager.get();
+    if (choosing || prefix.isEmpty() || manager == null) {
+      popup.hide();
+      return;
+    }
+    List<String> tags = manager.completeTag(prefix, SUGGESTIONS);
+    // There is nothing to suggest once the only tag left has been typed in full
+    if (tags.isEmpty() || (tags.size() == 1 && tags.get(0).equals(prefix))) {
+      popup.hide();
+      return;
+    }
+    ArrayList<MenuItem> items = new ArrayList<>();
+    for (String tag : tags) {
+      MenuItem item = new MenuItem(tag);
+      // Tags may have underscores, which are not mnemonics here
+      item.setMnemonicParsing(false);
+      item.setOnAction(event -> choose(tag));
+      items.add(item);
+    }
+    popup.getItems().setAll(items);
+    if (!popup.isShowing()) {
+      popup.show(textField, Side.BOTTOM, 0, 0);
+    }
+  }
+
+  /**
+   * Puts a suggested tag in the text field
+   *
+   * @param tag the tag chosen
+   */
+  private void choose(String tag) {
+    choosing = true;
+    textField.setText(tag);
+    textField.positionCaret(tag.length());
+    choosing = false;
+    popup.hide();
+  }
+}
@@ -2,7 +2,6 @@ package app.controller;
 
 import app.Tagsta;
 import app.model.ImageManager;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -29,6 +28,10 @@ public class TagViewController {
   @FXML private FlowPane tagView;
   @FXML private TextField addTagTextField;
   @FXML private AnchorPane independentTagAnchor;
+  @FXML private FlowPane suggestedTags;
+
+  // The most tags suggested for an image at once
+  private static final int SUGGESTIONS = 5;
 
   private Stage revertWindow;
   private Tagsta main;
@@ -48,6 +51,30 @@ public class TagViewController {
     for (String tag : im.getTags()) {
       tagView.getChildren().add(createTag(tag));
     }
+    showSuggestedTags();
+  }
+
+  /**
+   * Shows the tags most likely to be added next to the image as buttons that add them, judging by
+   * the other images with the tags the image has
+   */
+  private void showSuggestedTags() {
+    suggestedTags.getChildren().clear();
+    if (imageManager == null || main == null) {
+      return;
+    }
+    for (String tag : main.getTagManager().suggestTags(imageManager, SUGGESTIONS)) {
+      Button suggestion = new Button("+ " + tag);
+      // Tags may have underscores, which are not mnemonics here
+      suggestion.setMnemonicParsing(false);
+      suggestion.setOnAction(
+          event -> {
+            List<String> tags = new ArrayList<>();
+            tags.add(tag);
+            addTags(tags);
+          });
+      suggestedTags.getChildren().add(suggestion);
+    }
   }
 
   /**
@@ -108,7 +135,7 @@ public class TagViewController {
       directoryViewController.updateFileName(oldFile, imageManager.getFile());
       // Update the independent tag list
       main.getTagManager().addIndependentTag(imageManager.getFile());
-      setIndependentTagView(main.getTagManager().getTagsList());
+      setIndependentTagView();
     }
   }
 
@@ -120,10 +147,8 @@ public class TagViewController {
    */
   void addTags(List<String> tags) {
     File oldFile = imageManager.getFile();
-    // Add all tags to the image manager and reload the tags in the tag view
-    for (String tag : tags) {
-      imageManager.addTag(tag);
-    }
+    // Add all tags to the image manager at once and reload the tags in the tag view
+    imageManager.addTags(tags);
     newTagView(imageManager);
     // Update the directory and file view and save the tags
     directoryViewController.updateFileName(oldFile, imageManager.getFile());
@@ -141,6 +166,7 @@ public class TagViewController {
     tagView.getChildren().remove(tag);
     // Remove the tag from the image's manager
     imageManager.removeTag(tagString);
+    showSuggestedTags();
 
     // Update view of the file and save it
     directoryViewController.updateFileName(oldFile, imageManager.getFile());
@@ -219,9 +245,9 @@ public class TagViewController {
   }
 
   /** Reverts name of image and updates TagView */
-  void revert(String oldName) {
+  void revert(int nameIndex) {
     File oldFile = imageManager.getFile();
-    imageManager.revert(oldName);
+    imageManager.revert(nameIndex);
     newTagView(imageManager);
     // Updates the directory and file view
     directoryViewController.updateFileName(oldFile, imageManager.getFile());
@@ -239,14 +265,10 @@ public class TagViewController {
     independentTagViewController.setMainApp(mainApp);
   }
 
-  /**
-   * Loads the independent tags list
-   *
-   * @param independentTagList the list of independent tags
-   */
-  void setIndependentTagView(ObservableList<String> independentTagList) {
-    // Load the independent tag list
-    independentTagViewController.setIndependentTagList(independentTagList);
+  /** Loads the independent tags tree */
+  void setIndependentTagView() {
+    // Load the independent tag tree
+    independentTagViewController.refreshIndependentTags();
   }
 
   /**
@@ -259,13 +281,15 @@ public class TagViewController {
   }
 
   /**
-   * Initializes this controller. This method will load the list of independent tags and define the
-   * appropriate methods necessary to enable dragging and dropping between the tag list and the tag
-   * view.
+   * Initializes this controller. This method will load the list of independent tags, suggest tags
+   * while one is typed and define the appropriate methods necessary to enable dragging and dropping
+   * between the tag list and the tag view.
    */
   @FXML
   private void initialize() {
     loadIndependentTagView();
+    // Suggest tags as they are typed
+    new TagCompletionPopup(addTagTextField, () -> main == null ? null : main.getTagManager());
     // Define the action to take when tags are dropped onto the tag view
     tagView.setOnDragDropped(
         (DragEvent event) -> {
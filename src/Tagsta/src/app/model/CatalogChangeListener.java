@@ -0,0 +1,35 @@
+package app.model;
+
+import java.util.Set;
+
+/**
+ * Something that needs to know when another program, such as a second Tagsta pointed at the same
+ * working directory, changed the catalog journal. Called while the journal reads the records that
+ * program appended, so it must not wait on anything that may be waiting on the journal.
+ */
+interface CatalogChangeListener {
+
+  /**
+   * Called when another program stored an ImageManager
+   *
+   * @param fileNumber The number of the ImageManager
+   * @param name The name of the ImageManager as it was stored
+   * @param path The path of the image as it was stored
+   */
+  void imageStored(long fileNumber, String name, String path);
+
+  /**
+   * Called when another program removed an ImageManager from the catalog
+   *
+   * @param fileNumber The number of the ImageManager
+   */
+  void imageDeleted(long fileNumber);
+
+  /**
+   * Called when another program compacted the journal and it was read again. Every stored
+   * ImageManager was passed to imageStored before this is called
+   *
+   * @param fileNumbers The numbers of every ImageManager in the journal
+   */
+  void catalogReplaced(Set<Long> fileNumbers);
+}
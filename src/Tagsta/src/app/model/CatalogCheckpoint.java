@@ -0,0 +1,506 @@
+package app.model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+import java.util.function.LongFunction;
+import java.util.zip.CRC32;
+
+/**
+ * CatalogCheckpoint is a flat copy of the catalog index, the tag dictionary and the record offsets
+ * of the catalog journal, written when the program closes normally. On the next start the file is
+ * mapped into memory and read in place, so the journal does not have to be read from start to end
+ * before the first image can be shown. A checkpoint remembers the size and the last bytes of the
+ * journal it was written for, and is only used while the journal is still exactly that.
+ *
+ * <p>The file holds a header followed by these sections: the ImageManager numbers in ascending
+ * order, the journal offsets of the records of each image, the start of each image's path, tags and
+ * offsets in the sections after it, the tag numbers of every image, a hash table from paths to
+ * images, the paths themselves as UTF-8, and finally the tags of the dictionary in number order.
+ */
+class CatalogCheckpoint {
+
+  //Identifies a checkpoint file ("TGSC") and the version of the layout inside it
+  private static final int MAGIC = 0x54475343;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 104;
+
+  //How many bytes at the end of the journal are compared to tell that it has not changed
+  private static final int TAIL_SIZE = 4096;
+
+  private final Path path;
+  private final MappedByteBuffer buffer;
+  private final long sequence;
+  private final long journalSize;
+  private final long journalChecksum;
+  private final long recordCount;
+  private final long highestFileNumber;
+  private final int imageCount;
+  private final int tagCount;
+  private final int hashSize;
+  private final int idsStart;
+  private final int recordsStart;
+  private final int pathIndexStart;
+  private final int tagIndexStart;
+  private final int recordIndexStart;
+  private final int tagsStart;
+  private final int hashStart;
+  private final int pathsStart;
+  private final int dictionaryStart;
+
+  /**
+   * Creates a CatalogCheckpoint reading the header of a mapped checkpoint file
+   *
+   * @param path The path of the checkpoint file
+   * @param buffer The mapped contents of the file
+   */
+  private CatalogCheckpoint(Path path, MappedByteBuffer buffer) {
+    this.path = path;
+    this.buffer = buffer;
+    this.sequence = buffer.getLong(8);
+    this.journalSize = buffer.getLong(16);
+    this.journalChecksum = buffer.getLong(24);
+    this.recordCount = buffer.getLong(32);
+    this.highestFileNumber = buffer.getLong(40);
+    this.imageCount = buffer.getInt(56);
+    this.tagCount = buffer.getInt(60);
+    this.hashSize = buffer.getInt(64);
+    this.idsStart = buffer.getInt(68);
+    this.recordsStart = buffer.getInt(72);
+    this.pathIndexStart = buffer.getInt(76);
+    this.tagIndexStart = buffer.getInt(80);
+    this.recordIndexStart = buffer.getInt(84);
+    this.tagsStart = buffer.getInt(88);
+    this.hashStart = buffer.getInt(92);
+    this.pathsStart = buffer.getInt(96);
+    this.dictionaryStart = buffer.getInt(100);
+  }
+
+  /**
+   * Maps the checkpoint file at the given path into memory and checks its header
+   *
+   * @param path The path of the checkpoint file
+   * @return The checkpoint, or null if there is no such file or it is not a complete checkpoint
+   */
+  static CatalogCheckpoint open(Path path) {
+    if (!Files.isRegularFile(path)) {
+      return null;
+    }
+    try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = file.size();
+      if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        return null;
+      }
+      MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+          || buffer.getLong(48) != size) {
+        return null;
+      }
+      return new CatalogCheckpoint(path, buffer);
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes a checkpoint of the catalog. The checkpoint is written to a temporary file first, which
+   * then replaces the file at the given path, so a checkpoint is never left half written
+   *
+   * @param target The path to write the checkpoint to
+   * @param journal The journal the checkpoint is written for
+   * @param recordCount The number of records in the journal
+   * @param highestFileNumber The highest number of any ImageManager stored in the journal
+   * @param index The index of the images in the catalog
+   * @param dictionary The dictionary the tags of the images are numbered with
+   * @param recordOffsets Returns the offsets of the records of an ImageManager in the journal
+   * @throws IOException Thrown when the checkpoint cannot be written
+   */
+  static void write(Path target, FileChannel journal, long recordCount, long highestFileNumber,
+      CatalogIndex index, TagDictionary dictionary, LongFunction<long[]> recordOffsets)
+      throws IOException {
+    long[] ids = index.getIds();
+    Arrays.sort(ids);
+    int count = ids.length;
+    byte[][] paths = new byte[count][];
+    int[][] tagIds = new int[count][];
+    long[][] offsets = new long[count][];
+    int[] pathHashes = new int[count];
+    long pathBytes = 0;
+    long tagTotal = 0;
+    long offsetTotal = 0;
+    for (int i = 0; i < count; i++) {
+      String imagePath = index.getPath(ids[i]);
+      int[] tags = index.getTagIds(ids[i]);
+      long[] records = recordOffsets.apply(ids[i]);
+      paths[i] = imagePath == null ? new byte[0] : imagePath.getBytes(StandardCharsets.UTF_8);
+      pathHashes[i] = imagePath == null ? 0 : imagePath.hashCode();
+      tagIds[i] = tags == null ? new int[0] : tags;
+      offsets[i] = records == null ? new long[0] : records;
+      pathBytes += paths[i].length;
+      tagTotal += tagIds[i].length;
+      offsetTotal += offsets[i].length;
+    }
+    int tagCount = dictionary.size();
+    byte[][] tags = new byte[tagCount][];
+    long dictionaryBytes = 0;
+    for (int i = 0; i < tagCount; i++) {
+      tags[i] = dictionary.getTag(i).getBytes(StandardCharsets.UTF_8);
+      dictionaryBytes += 4 + tags[i].length;
+    }
+    int hashSize = Integer.highestOneBit(Math.max(1, count) * 2 - 1) << 1;
+    int[] hash = new int[hashSize];
+    for (int i = 0; i < count; i++) {
+      int slot = spread(pathHashes[i]) & (hashSize - 1);
+      while (hash[slot] != 0) {
+        slot = (slot + 1) & (hashSize - 1);
+      }
+      hash[slot] = i + 1;
+    }
+
+    long idsStart = HEADER_SIZE;
+    long recordsStart = idsStart + 8L * count;
+    long pathIndexStart = recordsStart + 8L * offsetTotal;
+    long tagIndexStart = pathIndexStart + 4L * (count + 1);
+    long recordIndexStart = tagIndexStart + 4L * (count + 1);
+    long tagsStart = recordIndexStart + 4L * (count + 1);
+    long hashStart = tagsStart + 4L * tagTotal;
+    long pathsStart = hashStart + 4L * hashSize;
+    long dictionaryStart = pathsStart + pathBytes;
+    long length = dictionaryStart + dictionaryBytes;
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("The catalog is too large for a checkpoint");
+    }
+
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(file), 1 << 16));
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeLong(System.currentTimeMillis());
+      output.writeLong(journal.size());
+      output.writeLong(tailChecksum(journal));
+      output.writeLong(recordCount);
+      output.writeLong(highestFileNumber);
+      output.writeLong(length);
+      output.writeInt(count);
+      output.writeInt(tagCount);
+      output.writeInt(hashSize);
+      for (long start : new long[]{idsStart, recordsStart, pathIndexStart, tagIndexStart,
+          recordIndexStart, tagsStart, hashStart, pathsStart, dictionaryStart}) {
+        output.writeInt((int) start);
+      }
+      for (long id : ids) {
+        output.writeLong(id);
+      }
+      for (long[] records : offsets) {
+        for (long offset : records) {
+          output.writeLong(offset);
+        }
+      }
+      writeStarts(output, paths.length, i -> paths[i].length);
+      writeStarts(output, tagIds.length, i -> tagIds[i].length);
+      writeStarts(output, offsets.length, i -> offsets[i].length);
+      for (int[] imageTags : tagIds) {
+        for (int tag : imageTags) {
+          output.writeInt(tag);
+        }
+      }
+      for (int slot : hash) {
+        output.writeInt(slot);
+      }
+      for (byte[] imagePath : paths) {
+        output.write(imagePath);
+      }
+      for (byte[] tag : tags) {
+        output.writeInt(tag.length);
+        output.write(tag);
+      }
+      output.flush();
+      file.force(true);
+    }
+    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Returns whether this checkpoint was written for the journal as it is now, which means nothing
+   * was appended to it and it was not compacted since
+   *
+   * @param journal The journal
+   * @return Whether the checkpoint describes the journal
+   * @throws IOException Thrown when the journal cannot be read
+   */
+  boolean describes(FileChannel journal) throws IOException {
+    return journal.size() == journalSize && tailChecksum(journal) == journalChecksum;
+  }
+
+  /**
+   * Returns the path of the checkpoint file
+   *
+   * @return The path of the file
+   */
+  Path getPath() {
+    return path;
+  }
+
+  /**
+   * Returns when the checkpoint was written, used to pick the newest of several checkpoints
+   *
+   * @return The time the checkpoint was written, in milliseconds
+   */
+  long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * Returns the number of records that were in the journal
+   *
+   * @return The number of records
+   */
+  long getRecordCount() {
+    return recordCount;
+  }
+
+  /**
+   * Returns the highest number of any ImageManager that had been stored in the journal
+   *
+   * @return The highest stored ImageManager number
+   */
+  long getHighestFileNumber() {
+    return highestFileNumber;
+  }
+
+  /**
+   * Returns the number of images in the checkpoint
+   *
+   * @return The number of images
+   */
+  int size() {
+    return imageCount;
+  }
+
+  /**
+   * Returns the number of tags in the dictionary of the checkpoint
+   *
+   * @return The number of tags
+   */
+  int getTagCount() {
+    return tagCount;
+  }
+
+  /**
+   * Returns every tag in the dictionary of the checkpoint, in number order
+   *
+   * @return The tags
+   */
+  String[] getTags() {
+    String[] tags = new String[tagCount];
+    int position = dictionaryStart;
+    for (int i = 0; i < tagCount; i++) {
+      int length = buffer.getInt(position);
+      tags[i] = readString(position + 4, length);
+      position += 4 + length;
+    }
+    return tags;
+  }
+
+  /**
+   * Returns the number of the ImageManager of the image at the given position
+   *
+   * @param slot The position of the image, between 0 and size
+   * @return The number of the ImageManager
+   */
+  long getId(int slot) {
+    return buffer.getLong(idsStart + 8 * slot);
+  }
+
+  /**
+   * Finds the position of the image whose ImageManager has the given number
+   *
+   * @param id The number of the ImageManager
+   * @return The position of the image, or -1 if it is not in the checkpoint
+   */
+  int findSlot(long id) {
+    int low = 0;
+    int high = imageCount - 1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      long found = getId(middle);
+      if (found < id) {
+        low = middle + 1;
+      } else if (found > id) {
+        high = middle - 1;
+      } else {
+        return middle;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the position of the image at the given path
+   *
+   * @param imagePath The path of the image
+   * @return The position of the image, or -1 if it is not in the checkpoint
+   */
+  int findSlot(String imagePath) {
+    byte[] wanted = imagePath.getBytes(StandardCharsets.UTF_8);
+    int mask = hashSize - 1;
+    for (int i = spread(imagePath.hashCode()) & mask; ; i = (i + 1) & mask) {
+      int entry = buffer.getInt(hashStart + 4 * i);
+      if (entry == 0) {
+        return -1;
+      }
+      int slot = entry - 1;
+      int start = buffer.getInt(pathIndexStart + 4 * slot);
+      int end = buffer.getInt(pathIndexStart + 4 * (slot + 1));
+      if (end - start == wanted.length && matches(pathsStart + start, wanted)) {
+        return slot;
+      }
+    }
+  }
+
+  /**
+   * Returns the path of the image at the given position
+   *
+   * @param slot The position of the image
+   * @return The path of the image
+   */
+  String getPath(int slot) {
+    int start = buffer.getInt(pathIndexStart + 4 * slot);
+    int end = buffer.getInt(pathIndexStart + 4 * (slot + 1));
+    return readString(pathsStart + start, end - start);
+  }
+
+  /**
+   * Returns the numbers of the tags of the image at the given position
+   *
+   * @param slot The position of the image
+   * @return The numbers of the tags of the image
+   */
+  int[] getTagIds(int slot) {
+    int start = buffer.getInt(tagIndexStart + 4 * slot);
+    int end = buffer.getInt(tagIndexStart + 4 * (slot + 1));
+    int[] tagIds = new int[end - start];
+    for (int i = 0; i < tagIds.length; i++) {
+      tagIds[i] = buffer.getInt(tagsStart + 4 * (start + i));
+    }
+    return tagIds;
+  }
+
+  /**
+   * Returns the journal offsets of the records of the ImageManager with the given number
+   *
+   * @param id The number of the ImageManager
+   * @return The offsets of its records, or null if it is not in the checkpoint
+   */
+  long[] getRecordOffsets(long id) {
+    int slot = findSlot(id);
+    if (slot < 0) {
+      return null;
+    }
+    int start = buffer.getInt(recordIndexStart + 4 * slot);
+    int end = buffer.getInt(recordIndexStart + 4 * (slot + 1));
+    long[] offsets = new long[end - start];
+    for (int i = 0; i < offsets.length; i++) {
+      offsets[i] = buffer.getLong(recordsStart + 8 * (start + i));
+    }
+    return offsets;
+  }
+
+  /**
+   * Returns a checksum of the last bytes of the journal
+   *
+   * @param journal The journal
+   * @return The checksum
+   * @throws IOException Thrown when the journal cannot be read
+   */
+  private static long tailChecksum(FileChannel journal) throws IOException {
+    long size = journal.size();
+    ByteBuffer tail = ByteBuffer.allocate((int) Math.min(size, TAIL_SIZE));
+    long offset = size - tail.capacity();
+    while (tail.hasRemaining()) {
+      int read = journal.read(tail, offset + tail.position());
+      if (read < 0) {
+        break;
+      }
+    }
+    CRC32 checksum = new CRC32();
+    checksum.update(tail.array(), 0, tail.position());
+    return checksum.getValue();
+  }
+
+  /**
+   * Writes where each entry of a section starts, followed by where the last one ends, counted in
+   * elements of the section
+   *
+   * @param output The stream to write to
+   * @param count The number of entries
+   * @param lengths Returns the number of elements in an entry
+   * @throws IOException Thrown when the stream cannot be written
+   */
+  private static void writeStarts(DataOutputStream output, int count,
+      IntUnaryOperator lengths) throws IOException {
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      output.writeInt(start);
+      start += lengths.applyAsInt(i);
+    }
+    output.writeInt(start);
+  }
+
+  /**
+   * Spreads the bits of a hash code so that paths that only differ at the end do not cluster in the
+   * hash table
+   *
+   * @param hashCode The hash code
+   * @return The spread hash code
+   */
+  private static int spread(int hashCode) {
+    return hashCode ^ (hashCode >>> 16);
+  }
+
+  /**
+   * Returns whether the mapped bytes starting at the given position are the wanted bytes
+   *
+   * @param position The position in the file
+   * @param wanted The wanted bytes
+   * @return Whether the bytes are the same
+   */
+  private boolean matches(int position, byte[] wanted) {
+    for (int i = 0; i < wanted.length; i++) {
+      if (buffer.get(position + i) != wanted[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a UTF-8 string from the mapped file
+   *
+   * @param position The position of the string in the file
+   * @param length The length of the string in bytes
+   * @return The string
+   */
+  private String readString(int position, int length) {
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(position + i);
+    }
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
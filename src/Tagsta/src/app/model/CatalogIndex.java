@@ -0,0 +1,704 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * CatalogIndex is the part of the catalog that is kept in memory for every image: the current path
+ * of the image and the numbers of its current tags, stored under the number of its ImageManager.
+ * Everything else, such as the naming history, stays in the catalog journal until the ImageManager
+ * is needed.
+ *
+ * <p>An index can be backed by a catalog checkpoint, in which case what the checkpoint holds is read
+ * straight from the mapped file and only the images added, changed or removed since are kept in
+ * memory on top of it.
+ *
+ * <p>The index also keeps, for every tag, file extension and folder, the set of images that
+ * currently have it, so the images with a tag are found without looking at every image. The sets
+ * are built from the whole index the first time one is asked for and kept up to date by put and
+ * remove after that.
+ */
+class CatalogIndex {
+
+  //Intersecting images with a set takes about as long as counting this many images one at a time
+  private static final int SET_COST = 16;
+
+  private final CatalogCheckpoint checkpoint;
+  private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+  private final HashMap<String, Long> idsByPath = new HashMap<>();
+  private final HashSet<Long> removed = new HashSet<>();
+  private int checkpointSize;
+  private int addedSize;
+  //The images with each tag, by the number of the tag, or null until the first lookup
+  private HashMap<Integer, CompressedBitmap> imagesByTag;
+  //Every image, kept alongside the sets of images by tag
+  private CompressedBitmap allImages;
+  //The images with each file extension, in lower case
+  private HashMap<String, CompressedBitmap> imagesByExtension;
+  //The images in each folder, by the path of the folder
+  private HashMap<String, CompressedBitmap> imagesByDirectory;
+  //The images without any tag
+  private CompressedBitmap untaggedImages;
+  //The trigrams of the names of the images, or null until the first fuzzy search
+  private FuzzyIndex fuzzyIndex;
+  //Counts the changes to the index, so a search can tell whether results it kept are still current
+  private long version;
+  //The naming histories of the images, which has its own lock
+  private volatile TemporalIndex temporalIndex = new TemporalIndex(null);
+
+  /**
+   * Creates an empty CatalogIndex
+   */
+  CatalogIndex() {
+    this(null);
+  }
+
+  /**
+   * Creates a CatalogIndex that holds what the given checkpoint holds
+   *
+   * @param checkpoint The checkpoint backing the index, or null for an empty index
+   */
+  CatalogIndex(CatalogCheckpoint checkpoint) {
+    this.checkpoint = checkpoint;
+    this.checkpointSize = checkpoint == null ? 0 : checkpoint.size();
+  }
+
+  /**
+   * Adds an image to the index or replaces what is known about it
+   *
+   * @param id The number of the ImageManager of the image
+   * @param path The current path of the image
+   * @param tagIds The numbers of the current tags of the image
+   * @return The numbers of the tags the image had, or null if it was not in the index
+   */
+  synchronized int[] put(long id, String path, int[] tagIds) {
+    version++;
+    int[] oldTagIds = getTagIds(id);
+    if (imagesByTag != null) {
+      updateSets(id, getPath(id), oldTagIds, path, tagIds);
+    }
+    if (fuzzyIndex != null) {
+      String oldPath = getPath(id);
+      if (!path.equals(oldPath)) {
+        if (oldPath != null) {
+          fuzzyIndex.remove(id, oldPath);
+        }
+        fuzzyIndex.add(id, path);
+      }
+    }
+    Entry old = entries.put(id, new Entry(path, tagIds));
+    if (old == null && !inCheckpoint(id)) {
+      addedSize++;
+    }
+    if (old != null && !old.path.equals(path)) {
+      idsByPath.remove(old.path, id);
+    }
+    idsByPath.put(path, id);
+    if (removed.remove(id)) {
+      checkpointSize++;
+    }
+    return oldTagIds;
+  }
+
+  /**
+   * Removes an image from the index
+   *
+   * @param id The number of the ImageManager of the image
+   * @return The numbers of the tags the image had, or null if it was not in the index
+   */
+  synchronized int[] remove(long id) {
+    version++;
+    int[] oldTagIds = getTagIds(id);
+    if (imagesByTag != null) {
+      updateSets(id, getPath(id), oldTagIds, null, null);
+    }
+    if (fuzzyIndex != null && getPath(id) != null) {
+      fuzzyIndex.remove(id, getPath(id));
+    }
+    Entry old = entries.remove(id);
+    if (old != null) {
+      idsByPath.remove(old.path, id);
+      if (!inCheckpoint(id)) {
+        addedSize--;
+      }
+    }
+    if (checkpointSlot(id) >= 0 && removed.add(id)) {
+      checkpointSize--;
+    }
+    return oldTagIds;
+  }
+
+  /**
+   * Finds the number of the ImageManager of the image at the given path
+   *
+   * @param path The path of the image
+   * @return The number of its ImageManager, or -1 if the image is not in the index
+   */
+  synchronized long findId(String path) {
+    Long id = idsByPath.get(path);
+    if (id != null) {
+      return id;
+    }
+    if (checkpoint != null) {
+      int slot = checkpoint.findSlot(path);
+      //The image may have been moved or removed since the checkpoint was written
+      if (slot >= 0 && !entries.containsKey(checkpoint.getId(slot))
+          && !removed.contains(checkpoint.getId(slot))) {
+        return checkpoint.getId(slot);
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Returns the current path of an image
+   *
+   * @param id The number of the ImageManager of the image
+   * @return The path of the image, or null if the image is not in the index
+   */
+  synchronized String getPath(long id) {
+    Entry entry = entries.get(id);
+    if (entry != null) {
+      return entry.path;
+    }
+    int slot = checkpointSlot(id);
+    return slot < 0 ? null : checkpoint.getPath(slot);
+  }
+
+  /**
+   * Returns the numbers of the current tags of an image
+   *
+   * @param id The number of the ImageManager of the image
+   * @return The numbers of the tags of the image, or null if the image is not in the index
+   */
+  synchronized int[] getTagIds(long id) {
+    Entry entry = entries.get(id);
+    if (entry != null) {
+      return entry.tagIds;
+    }
+    int slot = checkpointSlot(id);
+    return slot < 0 ? null : checkpoint.getTagIds(slot);
+  }
+
+  /**
+   * Returns the numbers of all of the ImageManagers in the index, in the order they were added.
+   * The images that came from a checkpoint come first, in the order of their numbers
+   *
+   * @return The numbers of the ImageManagers
+   */
+  synchronized long[] getIds() {
+    long[] ids = new long[size()];
+    int i = 0;
+    if (checkpoint != null) {
+      for (int slot = 0; slot < checkpoint.size(); slot++) {
+        long id = checkpoint.getId(slot);
+        if (!removed.contains(id)) {
+          ids[i++] = id;
+        }
+      }
+    }
+    for (long id : entries.keySet()) {
+      if (!inCheckpoint(id)) {
+        ids[i++] = id;
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Returns the numbers of the images that have a tag
+   *
+   * @param tagId The number of the tag
+   * @return A copy of the set of the numbers of the ImageManagers with the tag
+   */
+  synchronized CompressedBitmap getImagesWithTag(int tagId) {
+    CompressedBitmap images = imagesByTag().get(tagId);
+    return images == null ? new CompressedBitmap() : images.copy();
+  }
+
+  /**
+   * Returns the images out of the given ones that have a tag, without copying the set of images
+   * with the tag
+   *
+   * @param tagId The number of the tag
+   * @param candidates The numbers of the ImageManagers of the images to look at
+   * @return The numbers of the ImageManagers of the images with the tag
+   */
+  synchronized CompressedBitmap getImagesWithTag(int tagId, CompressedBitmap candidates) {
+    CompressedBitmap images = imagesByTag().get(tagId);
+    return images == null ? new CompressedBitmap() : candidates.and(images);
+  }
+
+  /**
+   * Returns the numbers of the images that have any of the given tags, such as a tag and the tags
+   * under it, by merging the sets of images of the tags
+   *
+   * @param tagIds The numbers of the tags
+   * @return The set of the numbers of the ImageManagers with any of the tags
+   */
+  synchronized CompressedBitmap getImagesWithAnyTag(int[] tagIds) {
+    return getImagesWithAnyTag(tagIds, null);
+  }
+
+  /**
+   * Returns the images out of the given ones that have any of the given tags
+   *
+   * @param tagIds The numbers of the tags
+   * @param candidates The numbers of the ImageManagers of the images to look at, or null to look at
+   * every image
+   * @return The numbers of the ImageManagers of the images with any of the tags
+   */
+  synchronized CompressedBitmap getImagesWithAnyTag(int[] tagIds, CompressedBitmap candidates) {
+    ArrayList<CompressedBitmap> sets = new ArrayList<>();
+    for (int tagId : tagIds) {
+      CompressedBitmap tagged = imagesByTag().get(tagId);
+      if (tagged != null) {
+        sets.add(candidates == null ? tagged : candidates.and(tagged));
+      }
+    }
+    if (sets.isEmpty()) {
+      return new CompressedBitmap();
+    }
+    if (sets.size() == 1) {
+      return candidates == null ? sets.get(0).copy() : sets.get(0);
+    }
+    //Merges the sets in pairs, so every image is copied once per round instead of once per set
+    while (sets.size() > 1) {
+      ArrayList<CompressedBitmap> merged = new ArrayList<>((sets.size() + 1) / 2);
+      for (int i = 0; i + 1 < sets.size(); i += 2) {
+        merged.add(sets.get(i).or(sets.get(i + 1)));
+      }
+      if (sets.size() % 2 == 1) {
+        merged.add(sets.get(sets.size() - 1));
+      }
+      sets = merged;
+    }
+    return sets.get(0);
+  }
+
+  /**
+   * Returns the numbers of the images that have every one of the given tags
+   *
+   * @param tagIds The numbers of the tags
+   * @return The set of the numbers of the ImageManagers with all of the tags
+   */
+  synchronized CompressedBitmap getImagesWithTags(int[] tagIds) {
+    if (tagIds.length == 0) {
+      return getAllImages();
+    }
+    CompressedBitmap[] sets = new CompressedBitmap[tagIds.length];
+    long[] order = new long[tagIds.length];
+    for (int i = 0; i < tagIds.length; i++) {
+      sets[i] = imagesByTag().get(tagIds[i]);
+      if (sets[i] == null) {
+        return new CompressedBitmap();
+      }
+      order[i] = (long) sets[i].cardinality() << 32 | i;
+    }
+    //Starts from the smallest set, so every intersection is as small as it can be
+    Arrays.sort(order);
+    CompressedBitmap images = sets[(int) order[0]];
+    if (sets.length == 1) {
+      return images.copy();
+    }
+    for (int i = 1; i < sets.length && !images.isEmpty(); i++) {
+      images = images.and(sets[(int) order[i]]);
+    }
+    return images;
+  }
+
+  /**
+   * Returns how many images have each tag
+   *
+   * @param tagCount The number of tags in the dictionary the tags are numbered with
+   * @return The number of images with each tag, by the number of the tag
+   */
+  synchronized int[] countImagesByTag(int tagCount) {
+    int[] counts = new int[tagCount];
+    for (Map.Entry<Integer, CompressedBitmap> tag : imagesByTag().entrySet()) {
+      if (tag.getKey() < tagCount) {
+        counts[tag.getKey()] = tag.getValue().cardinality();
+      }
+    }
+    return counts;
+  }
+
+  /**
+   * Adds how many of the given images have each tag, are in each folder and have each file
+   * extension to the given counts. Few images are counted one at a time, and many images are
+   * counted by intersecting them with the set of images of every tag, folder and extension, which
+   * looks at a bit per image instead of the path and tags of each image
+   *
+   * @param ids The numbers of the ImageManagers of the images
+   * @param tags The counts by the number of the tag
+   * @param directories The counts by the path of the folder
+   * @param extensions The counts by the extension
+   */
+  synchronized void countFacets(CompressedBitmap ids, Map<Integer, Integer> tags,
+      Map<String, Integer> directories, Map<String, Integer> extensions) {
+    imagesByTag();
+    int sets = imagesByTag.size() + imagesByDirectory.size() + imagesByExtension.size();
+    if (ids.cardinality() < sets * SET_COST) {
+      ids.forEach(id -> {
+        String path = getPath(id);
+        if (path != null) {
+          for (int tagId : getTagIds(id)) {
+            tags.merge(tagId, 1, Integer::sum);
+          }
+          directories.merge(getDirectory(path), 1, Integer::sum);
+          extensions.merge(getExtension(path), 1, Integer::sum);
+        }
+      });
+      return;
+    }
+    countIntersections(ids, imagesByTag, tags);
+    countIntersections(ids, imagesByDirectory, directories);
+    countIntersections(ids, imagesByExtension, extensions);
+  }
+
+  /**
+   * Returns the numbers of the images with a file extension
+   *
+   * @param extension The extension, in lower case and without the dot
+   * @return A copy of the set of the numbers of the ImageManagers with the extension
+   */
+  synchronized CompressedBitmap getImagesWithExtension(String extension) {
+    imagesByTag();
+    CompressedBitmap images = imagesByExtension.get(extension);
+    return images == null ? new CompressedBitmap() : images.copy();
+  }
+
+  /**
+   * Returns the images out of the given ones that have a file extension, without copying the set
+   * of images with the extension
+   *
+   * @param extension The extension, in lower case and without the dot
+   * @param candidates The numbers of the ImageManagers of the images to look at
+   * @return The numbers of the ImageManagers of the images with the extension
+   */
+  synchronized CompressedBitmap getImagesWithExtension(String extension,
+      CompressedBitmap candidates) {
+    imagesByTag();
+    CompressedBitmap images = imagesByExtension.get(extension);
+    return images == null ? new CompressedBitmap() : candidates.and(images);
+  }
+
+  /**
+   * Returns the numbers of the images that have no tags
+   *
+   * @return A copy of the set of the numbers of the ImageManagers without tags
+   */
+  synchronized CompressedBitmap getUntaggedImages() {
+    imagesByTag();
+    return untaggedImages.copy();
+  }
+
+  /**
+   * Returns the images out of the given ones that have no tags
+   *
+   * @param candidates The numbers of the ImageManagers of the images to look at
+   * @return The numbers of the ImageManagers of the images without tags
+   */
+  synchronized CompressedBitmap getUntaggedImages(CompressedBitmap candidates) {
+    imagesByTag();
+    return candidates.and(untaggedImages);
+  }
+
+  /**
+   * Finds the images whose names are closest to the text typed, allowing for typos. The index of
+   * the names is built the first time it is needed
+   *
+   * @param query The text typed
+   * @param limit The most images to return
+   * @return The numbers of the ImageManagers of the images found, closest first
+   */
+  synchronized long[] findSimilarNames(String query, int limit) {
+    if (fuzzyIndex == null) {
+      fuzzyIndex = new FuzzyIndex();
+      for (long id : getIds()) {
+        fuzzyIndex.add(id, getPath(id));
+      }
+    }
+    return fuzzyIndex.search(query, limit);
+  }
+
+  /**
+   * Returns the numbers of every image in the index
+   *
+   * @return The set of the numbers of the ImageManagers
+   */
+  synchronized CompressedBitmap getAllImages() {
+    imagesByTag();
+    return allImages.copy();
+  }
+
+  /**
+   * Sets the index of the naming histories of the images that questions about the past of the
+   * images are answered from
+   *
+   * @param temporalIndex The index of the naming histories
+   */
+  void setTemporalIndex(TemporalIndex temporalIndex) {
+    this.temporalIndex = temporalIndex;
+  }
+
+  /**
+   * Returns the images in the index that had a tag at some time within a span. The naming
+   * histories of the images are read the first time the past is asked about, so this does not
+   * hold the lock on the index while it runs
+   *
+   * @param tag The tag
+   * @param from The start of the span, in the milliseconds NameHistory stores times in
+   * @param to The end of the span, which is not part of it
+   * @return The set of the numbers of the ImageManagers
+   */
+  CompressedBitmap findImagesThatHad(String tag, long from, long to) {
+    TemporalIndex temporal = temporalIndex;
+    temporal.fill(this);
+    return getAllImages().and(temporal.findImagesThatHad(tag, from, to));
+  }
+
+  /**
+   * Returns the images in the index whose naming history has an entry made at or after a time,
+   * reading the histories first like findImagesThatHad
+   *
+   * @param from The time, in the milliseconds NameHistory stores times in
+   * @return The set of the numbers of the ImageManagers
+   */
+  CompressedBitmap findImagesChangedSince(long from) {
+    TemporalIndex temporal = temporalIndex;
+    temporal.fill(this);
+    return getAllImages().and(temporal.findImagesChangedSince(from));
+  }
+
+  /**
+   * Returns the images out of the given ones whose path passes a test
+   *
+   * @param ids The numbers of the ImageManagers of the images to test
+   * @param test The test
+   * @return The numbers of the ImageManagers of the images that passed
+   */
+  synchronized CompressedBitmap filterPaths(CompressedBitmap ids, Predicate<String> test) {
+    CompressedBitmap passed = new CompressedBitmap();
+    ids.forEach(id -> {
+      String path = getPath(id);
+      if (path != null && test.test(path)) {
+        passed.add(id);
+      }
+    });
+    return passed;
+  }
+
+  /**
+   * Returns a number that changes every time an image is added, changed or removed
+   *
+   * @return The number of changes made to the index
+   */
+  synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the number of images in the index
+   *
+   * @return The number of images
+   */
+  synchronized int size() {
+    return checkpointSize + addedSize;
+  }
+
+  /**
+   * Returns the sets of images with each tag, building them and the other sets of images from the
+   * whole index if this is the first time they are needed
+   *
+   * @return The sets of images by the number of their tag
+   */
+  private HashMap<Integer, CompressedBitmap> imagesByTag() {
+    if (imagesByTag == null) {
+      imagesByTag = new HashMap<>();
+      imagesByExtension = new HashMap<>();
+      imagesByDirectory = new HashMap<>();
+      allImages = new CompressedBitmap();
+      untaggedImages = new CompressedBitmap();
+      for (long id : getIds()) {
+        updateSets(id, null, null, getPath(id), getTagIds(id));
+      }
+    }
+    return imagesByTag;
+  }
+
+  /**
+   * Adds how many of the given images are in each set to the counts
+   *
+   * @param ids The numbers of the ImageManagers of the images
+   * @param sets The sets of images
+   * @param counts The counts, under the same keys as the sets
+   * @param <K> The type of the keys
+   */
+  private static <K> void countIntersections(CompressedBitmap ids,
+      Map<K, CompressedBitmap> sets, Map<K, Integer> counts) {
+    for (Map.Entry<K, CompressedBitmap> set : sets.entrySet()) {
+      int count = set.getValue().andCardinality(ids);
+      if (count > 0) {
+        counts.merge(set.getKey(), count, Integer::sum);
+      }
+    }
+  }
+
+  /**
+   * Moves an image from the sets of the tags, the extension and the folder it no longer has to the
+   * sets of the ones it now has
+   *
+   * @param id The number of the ImageManager of the image
+   * @param oldPath The path the image had, or null if it was not in the index
+   * @param oldTagIds The numbers of the tags the image had, or null if it was not in the index
+   * @param newPath The path the image has, or null if it was removed
+   * @param newTagIds The numbers of the tags the image has, or null if it was removed
+   */
+  private void updateSets(long id, String oldPath, int[] oldTagIds, String newPath,
+      int[] newTagIds) {
+    if (newTagIds == null) {
+      allImages.remove(id);
+    } else {
+      allImages.add(id);
+    }
+    if (newTagIds == null || newTagIds.length > 0) {
+      untaggedImages.remove(id);
+    } else {
+      untaggedImages.add(id);
+    }
+    moveImage(imagesByExtension, id, oldPath == null ? null : getExtension(oldPath),
+        newPath == null ? null : getExtension(newPath));
+    moveImage(imagesByDirectory, id, oldPath == null ? null : getDirectory(oldPath),
+        newPath == null ? null : getDirectory(newPath));
+    if (oldTagIds != null) {
+      for (int tagId : oldTagIds) {
+        if (newTagIds == null || !contains(newTagIds, tagId)) {
+          CompressedBitmap images = imagesByTag.get(tagId);
+          if (images != null && images.remove(id) && images.isEmpty()) {
+            imagesByTag.remove(tagId);
+          }
+        }
+      }
+    }
+    if (newTagIds != null) {
+      for (int tagId : newTagIds) {
+        if (oldTagIds == null || !contains(oldTagIds, tagId)) {
+          imagesByTag.computeIfAbsent(tagId, tag -> new CompressedBitmap()).add(id);
+        }
+      }
+    }
+  }
+
+  /**
+   * Moves an image from the set under one key to the set under another one
+   *
+   * @param sets The sets of images
+   * @param id The number of the ImageManager of the image
+   * @param oldKey The key of the set the image was in, or null if it was in none
+   * @param newKey The key of the set the image is in, or null if it is in none
+   */
+  private static void moveImage(HashMap<String, CompressedBitmap> sets, long id, String oldKey,
+      String newKey) {
+    if (oldKey != null && !oldKey.equals(newKey)) {
+      CompressedBitmap images = sets.get(oldKey);
+      if (images != null && images.remove(id) && images.isEmpty()) {
+        sets.remove(oldKey);
+      }
+    }
+    if (newKey != null && !newKey.equals(oldKey)) {
+      sets.computeIfAbsent(newKey, key -> new CompressedBitmap()).add(id);
+    }
+  }
+
+  /**
+   * Returns the folder of a path
+   *
+   * @param path The path
+   * @return The path up to the last separator, or the separator itself for a file at the root
+   */
+  static String getDirectory(String path) {
+    int separator = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\'));
+    if (separator < 0) {
+      return "";
+    }
+    return separator == 0 ? path.substring(0, 1) : path.substring(0, separator);
+  }
+
+  /**
+   * Returns the file extension of a path in lower case
+   *
+   * @param path The path
+   * @return The extension without the dot, or an empty string if the file name has none
+   */
+  static String getExtension(String path) {
+    int nameStart = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+    int dot = path.lastIndexOf('.');
+    return dot < nameStart ? "" : path.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Returns whether an array of tag numbers has the given one
+   *
+   * @param tagIds The numbers of the tags
+   * @param tagId The number looked for
+   * @return Whether the number is in the array
+   */
+  static boolean contains(int[] tagIds, int tagId) {
+    for (int id : tagIds) {
+      if (id == tagId) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether the checkpoint backing the index holds an image, removed since or not
+   *
+   * @param id The number of the ImageManager of the image
+   * @return Whether the image is in the checkpoint
+   */
+  private boolean inCheckpoint(long id) {
+    return checkpoint != null && checkpoint.findSlot(id) >= 0;
+  }
+
+  /**
+   * Returns the position in the checkpoint of an image that is still as the checkpoint describes it
+   *
+   * @param id The number of the ImageManager of the image
+   * @return The position of the image in the checkpoint, or -1 if it is not there or was removed
+   */
+  private int checkpointSlot(long id) {
+    if (checkpoint == null || removed.contains(id)) {
+      return -1;
+    }
+    return checkpoint.findSlot(id);
+  }
+
+  /**
+   * What the index knows about one image
+   */
+  private static class Entry {
+
+    private final String path;
+    private final int[] tagIds;
+
+    /**
+     * Creates an Entry
+     *
+     * @param path The current path of the image
+     * @param tagIds The numbers of the current tags of the image
+     */
+    private Entry(String path, int[] tagIds) {
+      this.path = path;
+      this.tagIds = tagIds;
+    }
+  }
+}
@@ -0,0 +1,1011 @@
+package app.model;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * CatalogJournal stores every ImageManager in one append-only file. The first time an ImageManager
+ * is stored a full snapshot record is appended, and every change after that only appends the new
+ * name, the new path and the new history entries. An in-memory index keeps the offsets of the
+ * records belonging to each ImageManager, and once most of the records are outdated the journal is
+ * compacted on a background thread into one snapshot per ImageManager. The contents of each record
+ * are encoded with ImageManagerCodec.
+ *
+ * <p>Other programs may share the journal. Writers take a ProcessLock and first read whatever the
+ * other programs appended, so the index stays complete, while readers never take the lock and only
+ * read up to the last complete record. Every record carries the version the ImageManager has once
+ * it is written, and an ImageManager whose stored version changed since it was loaded is merged
+ * with the stored one instead of overwriting it. A compaction bumps the stamp of the lock, which
+ * tells the other programs to read the new file.
+ */
+class CatalogJournal {
+
+  //Identifies a journal file ("TGSJ") and the version of the record format inside it
+  private static final int MAGIC = 0x5447534A;
+  private static final short VERSION = 2;
+  private static final int HEADER_SIZE = 6;
+
+  //Record types
+  private static final byte SNAPSHOT = 1;
+  private static final byte UPDATE = 2;
+  private static final byte DELETE = 3;
+
+  //The journal is never compacted while it holds fewer records than this
+  private static final int COMPACTION_THRESHOLD = 1024;
+
+  private final Path journalPath;
+  private final ProcessLock processLock;
+  private FileChannel channel;
+  //The stamp of the lock when the journal file was opened, and where the records read so far end
+  private long generation;
+  private long knownEnd;
+  //The stored versions of the ImageManagers that are known without reading their records
+  private final HashMap<Long, Long> versions = new HashMap<>();
+  private CatalogChangeListener changeListener;
+  private HashMap<Long, long[]> offsets = new HashMap<>();
+  private CatalogCheckpoint checkpoint;
+  private long liveCount;
+  private long recordCount;
+  private long highestFileNumber;
+  private boolean compacting;
+  //Whether a compaction was handed to the compactor and has not started yet
+  private boolean compactionScheduled;
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "catalog-compactor");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Creates a CatalogJournal for the journal file at the given path. The file is not touched until
+   * the journal is opened
+   *
+   * @param journalPath The path of the journal file
+   */
+  CatalogJournal(Path journalPath) {
+    this.journalPath = journalPath;
+    this.processLock = ProcessLock.forFile(journalPath);
+  }
+
+  /**
+   * Sets what is told about the changes other programs make to the journal
+   *
+   * @param changeListener The listener, or null to stop telling anything
+   */
+  synchronized void setChangeListener(CatalogChangeListener changeListener) {
+    this.changeListener = changeListener;
+  }
+
+  /**
+   * Opens the journal, creating it if it does not exist, and reads the current path and tags of
+   * every stored image into an index without decoding any naming history. A record that was only
+   * partially written (for example because the program was killed) is cut off, and a journal
+   * written by an older version is rewritten in the current format.
+   *
+   * @param dictionary The dictionary to number the tags with
+   * @return The index of the images stored in the journal, in the order they were first stored
+   * @throws IOException Thrown when the journal cannot be read or is not a journal file
+   */
+  synchronized CatalogIndex open(TagDictionary dictionary) throws IOException {
+    return open(dictionary, new ArrayList<>());
+  }
+
+  /**
+   * Opens the journal like open(TagDictionary), but takes the index from the newest of the given
+   * checkpoints that was written for the journal as it is now instead of reading the journal. The
+   * journal is only read when none of the checkpoints fit it.
+   *
+   * @param dictionary The empty dictionary to number the tags with
+   * @param checkpoints The checkpoints that may hold the index
+   * @return The index of the images stored in the journal
+   * @throws IOException Thrown when the journal cannot be read or is not a journal file
+   */
+  CatalogIndex open(TagDictionary dictionary, List<CatalogCheckpoint> checkpoints)
+      throws IOException {
+    //Holds the lock, since a record cut off at the end may still be being written by another
+    //program
+    processLock.lock();
+    try {
+      synchronized (this) {
+        return openLocked(dictionary, checkpoints);
+      }
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Opens the journal like open(TagDictionary, List), with the lock already held
+   *
+   * @param dictionary The empty dictionary to number the tags with
+   * @param checkpoints The checkpoints that may hold the index
+   * @return The index of the images stored in the journal
+   * @throws IOException Thrown when the journal cannot be read or is not a journal file
+   */
+  private CatalogIndex openLocked(TagDictionary dictionary, List<CatalogCheckpoint> checkpoints)
+      throws IOException {
+    channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    if (channel.size() == 0) {
+      writeHeader(channel);
+    }
+    generation = processLock.readStamp();
+    boolean outdated = readHeader(channel) < VERSION;
+    offsets = new HashMap<>();
+    versions.clear();
+    checkpoint = null;
+    if (!outdated) {
+      for (CatalogCheckpoint candidate : checkpoints) {
+        if ((checkpoint == null || candidate.getSequence() > checkpoint.getSequence())
+            && candidate.describes(channel)) {
+          checkpoint = candidate;
+        }
+      }
+    }
+    if (checkpoint != null) {
+      for (String tag : checkpoint.getTags()) {
+        dictionary.getId(tag);
+      }
+      recordCount = checkpoint.getRecordCount();
+      highestFileNumber = checkpoint.getHighestFileNumber();
+      liveCount = checkpoint.size();
+      knownEnd = channel.size();
+      return new CatalogIndex(checkpoint);
+    }
+    LinkedHashMap<Long, StoredImage> images = new LinkedHashMap<>();
+    recordCount = 0;
+    long end = replay(channel, HEADER_SIZE, channel.size(), images, offsets, false);
+    liveCount = offsets.size();
+    if (end < channel.size()) {
+      channel.truncate(end);
+    }
+    knownEnd = end;
+    //Rewrites a journal from an older version in the current record format
+    if (outdated) {
+      compact();
+    }
+    CatalogIndex index = new CatalogIndex();
+    for (Map.Entry<Long, StoredImage> entry : images.entrySet()) {
+      StoredImage image = entry.getValue();
+      index.put(entry.getKey(), image.path,
+          dictionary.getIds(ImageManager.parseTagList(image.name)));
+    }
+    return index;
+  }
+
+  /**
+   * Loads one ImageManager, with its whole naming history, from the records the index points to
+   *
+   * @param fileNumber The number of the ImageManager
+   * @return The ImageManager, or null if it is not stored in the journal
+   * @throws IOException Thrown when its records cannot be read
+   */
+  synchronized ImageManager load(long fileNumber) throws IOException {
+    //Reads what other programs appended, without waiting for them to finish writing
+    catchUp(false);
+    long[] recordOffsets = offsetsOf(fileNumber);
+    if (recordOffsets == null) {
+      return null;
+    }
+    StoredImage image = fold(recordOffsets, true);
+    versions.put(fileNumber, image.version);
+    return image.toImageManager(fileNumber);
+  }
+
+  /**
+   * Appends the changes made to the given ImageManager since it was last stored. An ImageManager
+   * that has never been stored is appended as a full snapshot. If another program stored the
+   * ImageManager since it was loaded, the naming history stored by that program is merged into it
+   * and the result is appended as a full snapshot, so neither program loses its changes.
+   *
+   * @param imageManager The ImageManager to store
+   * @throws IOException Thrown when the record cannot be written
+   */
+  void append(ImageManager imageManager) throws IOException {
+    //The lock is taken first, so loads do not wait while another program holds it
+    processLock.lock();
+    try {
+      synchronized (this) {
+        appendLocked(imageManager);
+      }
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Appends the changes made to the given ImageManager like append, with the lock already held
+   *
+   * @param imageManager The ImageManager to store
+   * @throws IOException Thrown when the record cannot be written
+   */
+  private void appendLocked(ImageManager imageManager) throws IOException {
+    catchUp(true);
+    //Holds the ImageManager still while it is encoded, since it may be changed on another thread
+    synchronized (imageManager) {
+      long fileNumber = imageManager.getFileNumber();
+      long latest = storedVersion(fileNumber);
+      NameHistory history = imageManager.getHistory();
+      int storedSize = imageManager.getStoredHistorySize();
+      if (latest != imageManager.getStoredVersion()) {
+        ArrayList<String> merged = new ArrayList<>();
+        if (latest > 0) {
+          merged.addAll(fold(offsetsOf(fileNumber), true).history.getEntries());
+        }
+        merged.addAll(history.getEntries());
+        imageManager.replaceHistory(merged);
+        history = imageManager.getHistory();
+        storedSize = 0;
+        TagManager.getLogger().log(Level.INFO, "Merged the changes another program made to "
+            + imageManager.getName() + ".");
+      }
+      byte[] body = ImageManagerCodec.encode(imageManager.getName(),
+          imageManager.returnPath().toString(), history, storedSize, latest + 1);
+      writeRecord(frame(storedSize == 0 ? SNAPSHOT : UPDATE, fileNumber, body), fileNumber);
+      versions.put(fileNumber, latest + 1);
+      imageManager.setStoredHistorySize(history.size());
+      imageManager.setStoredVersion(latest + 1);
+    }
+  }
+
+  /**
+   * Appends a full snapshot of the given ImageManager, whatever has been stored of it before. Used
+   * for journals other than the catalog, such as the quarantine, so the ImageManager is not marked
+   * as stored
+   *
+   * @param imageManager The ImageManager to store
+   * @throws IOException Thrown when the record cannot be written
+   */
+  void appendSnapshot(ImageManager imageManager) throws IOException {
+    processLock.lock();
+    try {
+      synchronized (this) {
+        catchUp(true);
+        synchronized (imageManager) {
+          writeRecord(frame(SNAPSHOT, imageManager.getFileNumber(),
+              ImageManagerCodec.encode(imageManager)), imageManager.getFileNumber());
+        }
+      }
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Appends a record removing the given ImageManager from the catalog
+   *
+   * @param imageManager The ImageManager to remove
+   * @throws IOException Thrown when the record cannot be written
+   */
+  void delete(ImageManager imageManager) throws IOException {
+    long fileNumber = imageManager.getFileNumber();
+    processLock.lock();
+    try {
+      synchronized (this) {
+        catchUp(true);
+        writeRecord(frame(DELETE, fileNumber, new byte[0]), fileNumber);
+      }
+    } finally {
+      processLock.unlock();
+    }
+    imageManager.setStoredHistorySize(0);
+    imageManager.setStoredVersion(0);
+  }
+
+  /**
+   * Returns the highest number of any ImageManager that has been stored in this journal
+   *
+   * @return The highest stored ImageManager number, or 0 if nothing has been stored
+   */
+  synchronized long getHighestFileNumber() {
+    return highestFileNumber;
+  }
+
+  /**
+   * Returns the checkpoint the journal was opened from
+   *
+   * @return The checkpoint, or null if the journal was read instead or has been compacted since
+   */
+  synchronized CatalogCheckpoint getCheckpoint() {
+    return checkpoint;
+  }
+
+  /**
+   * Writes a checkpoint of the given index for the journal as it is now, so that the next time the
+   * journal is opened it does not have to be read. Nothing is written while the journal is being
+   * compacted, since the journal is about to change
+   *
+   * @param target The path to write the checkpoint to
+   * @param index The index of the images stored in the journal
+   * @param dictionary The dictionary the tags in the index are numbered with
+   * @return Whether the checkpoint was written
+   * @throws IOException Thrown when the checkpoint cannot be written
+   */
+  boolean writeCheckpoint(Path target, CatalogIndex index, TagDictionary dictionary)
+      throws IOException {
+    processLock.lock();
+    try {
+      synchronized (this) {
+        if (compacting) {
+          return false;
+        }
+        //A checkpoint describes the whole journal, including what other programs appended
+        catchUp(true);
+        channel.force(false);
+        CatalogCheckpoint.write(target, channel, recordCount, highestFileNumber, index, dictionary,
+            this::offsetsOf);
+      }
+    } finally {
+      processLock.unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Forces everything written so far to the disk
+   *
+   * @throws IOException Thrown when the journal cannot be forced to the disk
+   */
+  synchronized void force() throws IOException {
+    channel.force(false);
+  }
+
+  /**
+   * Forces everything written so far to the disk and closes the journal, waiting for a running
+   * compaction to finish first
+   *
+   * @throws IOException Thrown when the journal cannot be forced to the disk
+   */
+  void close() throws IOException {
+    compactor.shutdown();
+    try {
+      compactor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (channel != null && channel.isOpen()) {
+        channel.force(true);
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Rewrites the journal so that it holds exactly one snapshot per stored ImageManager. The records
+   * are folded without holding the lock, so appends can continue while this runs; whatever was
+   * appended in the meantime is copied over as-is just before the new file replaces the old one.
+   *
+   * @throws IOException Thrown when the compacted journal cannot be written
+   */
+  void compact() throws IOException {
+    long foldedEnd;
+    long foldedGeneration;
+    synchronized (this) {
+      if (compacting) {
+        return;
+      }
+      compacting = true;
+      //Stops at the end of the last complete record, since another program may be appending
+      foldedEnd = knownEnd;
+      foldedGeneration = generation;
+    }
+    Path compactPath = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+    try {
+      LinkedHashMap<Long, StoredImage> images = new LinkedHashMap<>();
+      try (FileChannel reader = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+        replay(reader, HEADER_SIZE, foldedEnd, images, null, true);
+      }
+      try (FileChannel compacted = FileChannel.open(compactPath, StandardOpenOption.CREATE,
+          StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+          StandardOpenOption.WRITE)) {
+        compactInto(compacted, compactPath, images, foldedEnd, foldedGeneration);
+      }
+    } finally {
+      synchronized (this) {
+        compacting = false;
+      }
+      Files.deleteIfExists(compactPath);
+    }
+  }
+
+  /**
+   * Compacts the journal if most of its records are still outdated. Run by the compactor, which may
+   * only get to it after other compactions made it unnecessary
+   *
+   * @throws IOException Thrown when the compacted journal cannot be written
+   */
+  private void compactIfOutdated() throws IOException {
+    synchronized (this) {
+      compactionScheduled = false;
+      if (!isOutdated()) {
+        return;
+      }
+    }
+    compact();
+  }
+
+  /**
+   * Returns whether most of the records in the journal are outdated, so that it should be compacted
+   *
+   * @return Whether the journal should be compacted
+   */
+  private boolean isOutdated() {
+    return recordCount > COMPACTION_THRESHOLD && recordCount > 2L * liveCount;
+  }
+
+  /**
+   * Writes the folded images to the compacted file, copies over the records appended since they
+   * were folded and puts the compacted file in place of the journal
+   *
+   * @param compacted The compacted file, which is closed before it replaces the journal
+   * @param images The images folded from the journal up to the given end
+   * @param foldedEnd The offset the images were folded up to
+   * @param foldedGeneration The stamp of the lock when the images were folded
+   * @throws IOException Thrown when the compacted journal cannot be written
+   */
+  private void compactInto(FileChannel compacted, Path compactPath,
+      LinkedHashMap<Long, StoredImage> images, long foldedEnd, long foldedGeneration)
+      throws IOException {
+    HashMap<Long, long[]> newOffsets = new HashMap<>();
+    writeHeader(compacted);
+    for (Map.Entry<Long, StoredImage> entry : images.entrySet()) {
+      newOffsets.put(entry.getKey(), new long[]{compacted.position()});
+      writeFully(compacted, entry.getValue().toSnapshot(entry.getKey()), compacted.position());
+      compacted.position(compacted.size());
+    }
+    long snapshots = images.size();
+    processLock.lock();
+    try {
+      synchronized (this) {
+        catchUp(true);
+        //Another program compacted the journal in the meantime, so this compaction is dropped
+        if (generation != foldedGeneration) {
+          return;
+        }
+        //Copies over the records appended while the old records were being folded
+        long tailStart = compacted.size();
+        transferFully(channel, foldedEnd, knownEnd - foldedEnd, compacted);
+        recordCount = snapshots;
+        replay(compacted, tailStart, compacted.size(), new LinkedHashMap<>(), newOffsets,
+            false);
+        compacted.force(true);
+        compacted.close();
+        channel.close();
+        Files.move(compactPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journalPath, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        offsets = newOffsets;
+        checkpoint = null;
+        liveCount = newOffsets.size();
+        knownEnd = channel.size();
+        //Tells the other programs to read the new file
+        generation++;
+        processLock.writeStamp(generation);
+      }
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Writes a framed record to the end of the journal and records its offset in the index
+   *
+   * @param record The framed record
+   * @param fileNumber The number of the ImageManager the record belongs to
+   * @throws IOException Thrown when the record cannot be written
+   */
+  private void writeRecord(byte[] record, long fileNumber) throws IOException {
+    long offset = channel.size();
+    writeFully(channel, record, offset);
+    knownEnd = offset + record.length;
+    indexRecord(record[4], fileNumber, offset);
+    //Schedules a compaction once most of the records in the journal are outdated
+    if (!compacting && !compactionScheduled && isOutdated()) {
+      compactionScheduled = true;
+      compactor.execute(() -> {
+        try {
+          compactIfOutdated();
+        } catch (IOException ex) {
+          TagManager.getLogger().log(Level.WARNING, "The catalog could not be compacted", ex);
+        }
+      });
+    }
+  }
+
+  /**
+   * Adds a record that was appended to the journal to the index
+   *
+   * @param type The type of the record
+   * @param fileNumber The number of the ImageManager the record belongs to
+   * @param offset The offset of the record
+   */
+  private void indexRecord(byte type, long fileNumber, long offset) {
+    long[] known = offsetsOf(fileNumber);
+    if (type == DELETE) {
+      if (known != null) {
+        liveCount--;
+      }
+      versions.remove(fileNumber);
+      //An empty list hides the offsets the checkpoint still has for the ImageManager
+      if (checkpoint == null) {
+        offsets.remove(fileNumber);
+      } else {
+        offsets.put(fileNumber, new long[0]);
+      }
+    } else if (known == null || type == SNAPSHOT) {
+      //A snapshot replaces everything the records before it said
+      if (known == null) {
+        liveCount++;
+      }
+      offsets.put(fileNumber, new long[]{offset});
+    } else {
+      long[] grown = Arrays.copyOf(known, known.length + 1);
+      grown[known.length] = offset;
+      offsets.put(fileNumber, grown);
+    }
+    recordCount++;
+    highestFileNumber = Math.max(highestFileNumber, fileNumber);
+  }
+
+  /**
+   * Reads the records other programs appended since the journal was last read, and reads the whole
+   * journal again if another program compacted it. Without the lock, a record that is still being
+   * written is left for later; with the lock, such a record was left behind by a program that was
+   * killed and is cut off
+   *
+   * @param locked Whether the lock is held
+   * @throws IOException Thrown when the journal cannot be read
+   */
+  private void catchUp(boolean locked) throws IOException {
+    long stamp = processLock.readStamp();
+    if (stamp != generation) {
+      reload(stamp);
+      return;
+    }
+    long size = channel.size();
+    long offset = knownEnd;
+    while (offset + 4 <= size) {
+      ByteBuffer length = ByteBuffer.allocate(4);
+      readFully(channel, length, offset);
+      int recordLength = length.getInt(0);
+      if (recordLength < 9 || offset + 4 + recordLength > size) {
+        break;
+      }
+      ByteBuffer record = ByteBuffer.allocate(recordLength);
+      readFully(channel, record, offset + 4);
+      byte type = record.get(0);
+      long fileNumber = record.getLong(1);
+      indexRecord(type, fileNumber, offset);
+      offset += 4 + recordLength;
+      if (type == DELETE) {
+        if (changeListener != null) {
+          changeListener.imageDeleted(fileNumber);
+        }
+        continue;
+      }
+      //Every record holds the whole name and path, so one record is enough to update the index
+      StoredImage image = new StoredImage();
+      try {
+        image.apply(VERSION, Arrays.copyOfRange(record.array(), 9, recordLength), false);
+      } catch (IOException ex) {
+        TagManager.getLogger().log(Level.WARNING,
+            "Skipped an unreadable catalog record of image " + fileNumber, ex);
+        versions.remove(fileNumber);
+        continue;
+      }
+      //An update without a version stamp was written by an older program, so its version is unknown
+      if (type == SNAPSHOT || image.version > 1) {
+        versions.put(fileNumber, image.version);
+      } else {
+        versions.remove(fileNumber);
+      }
+      if (changeListener != null) {
+        changeListener.imageStored(fileNumber, image.name, image.path);
+      }
+    }
+    if (locked && offset < channel.size()) {
+      channel.truncate(offset);
+    }
+    knownEnd = offset;
+  }
+
+  /**
+   * Reads the whole journal again after another program replaced it with a compacted one
+   *
+   * @param stamp The stamp of the lock the new file was written with
+   * @throws IOException Thrown when the new file cannot be read
+   */
+  private void reload(long stamp) throws IOException {
+    channel.close();
+    channel = FileChannel.open(journalPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    LinkedHashMap<Long, StoredImage> images = new LinkedHashMap<>();
+    offsets = new HashMap<>();
+    versions.clear();
+    checkpoint = null;
+    recordCount = 0;
+    knownEnd = replay(channel, HEADER_SIZE, channel.size(), images, offsets, false);
+    liveCount = offsets.size();
+    generation = stamp;
+    TagManager.getLogger().log(Level.INFO, "Read the catalog again after another program"
+        + " compacted it.");
+    if (changeListener != null) {
+      for (Map.Entry<Long, StoredImage> entry : images.entrySet()) {
+        changeListener.imageStored(entry.getKey(), entry.getValue().name, entry.getValue().path);
+      }
+      changeListener.catalogReplaced(images.keySet());
+    }
+  }
+
+  /**
+   * Returns the version an ImageManager has in the journal, reading its records if it is not known
+   *
+   * @param fileNumber The number of the ImageManager
+   * @return The stored version, or 0 if it is not stored in the journal
+   * @throws IOException Thrown when its records cannot be read
+   */
+  private long storedVersion(long fileNumber) throws IOException {
+    Long known = versions.get(fileNumber);
+    if (known != null) {
+      return known;
+    }
+    long[] recordOffsets = offsetsOf(fileNumber);
+    if (recordOffsets == null) {
+      return 0;
+    }
+    long version = fold(recordOffsets, false).version;
+    versions.put(fileNumber, version);
+    return version;
+  }
+
+  /**
+   * Reads the records at the given offsets and folds them into the state of one ImageManager
+   *
+   * @param recordOffsets The offsets of the records of the ImageManager
+   * @param withHistory Whether to decode the naming history or skip over it
+   * @return The state of the ImageManager
+   * @throws IOException Thrown when the records cannot be read
+   */
+  private StoredImage fold(long[] recordOffsets, boolean withHistory) throws IOException {
+    StoredImage image = new StoredImage();
+    for (long offset : recordOffsets) {
+      ByteBuffer length = ByteBuffer.allocate(4);
+      readFully(channel, length, offset);
+      ByteBuffer record = ByteBuffer.allocate(length.getInt(0));
+      readFully(channel, record, offset + 4);
+      //A snapshot replaces everything the records before it said
+      if (record.get(0) == SNAPSHOT) {
+        image = new StoredImage();
+      }
+      image.apply(VERSION, Arrays.copyOfRange(record.array(), 9, record.capacity()), withHistory);
+    }
+    return image;
+  }
+
+  /**
+   * Returns the offsets of the records of an ImageManager, from the records appended since the
+   * journal was opened or else from the checkpoint it was opened from
+   *
+   * @param fileNumber The number of the ImageManager
+   * @return The offsets of its records, or null if it is not stored in the journal
+   */
+  private long[] offsetsOf(long fileNumber) {
+    long[] known = offsets.get(fileNumber);
+    if (known == null && checkpoint != null) {
+      known = checkpoint.getRecordOffsets(fileNumber);
+    }
+    return known == null || known.length == 0 ? null : known;
+  }
+
+  /**
+   * Reads the records between the two offsets of a journal file and folds them into the given map
+   * of stored images. Stops early at the first incomplete record, and skips records whose contents
+   * cannot be decoded.
+   *
+   * @param journal The journal file to read
+   * @param start The offset of the first record
+   * @param end The offset to stop reading at
+   * @param images The map to fold the records into
+   * @param index The offset index to add the records to, or null if it is not needed. The offsets
+   * of an ImageManager are only replaced by a snapshot or a delete, so the offsets already in the
+   * index are appended to
+   * @param withHistory Whether to decode the naming history or skip over it
+   * @return The offset right after the last complete record
+   * @throws IOException Thrown when the file is not a journal or cannot be read
+   */
+  private long replay(FileChannel journal, long start, long end,
+      LinkedHashMap<Long, StoredImage> images, HashMap<Long, long[]> index, boolean withHistory)
+      throws IOException {
+    int version = start == HEADER_SIZE ? readHeader(journal) : VERSION;
+    DataInputStream input = new DataInputStream(
+        new BufferedInputStream(Channels.newInputStream(journal.position(start)), 1 << 16));
+    long offset = start;
+    while (offset + 4 <= end) {
+      long recordStart = offset;
+      byte[] body;
+      byte type;
+      long fileNumber;
+      try {
+        int length = input.readInt();
+        if (length < 9 || offset + 4 + length > end) {
+          break;
+        }
+        type = input.readByte();
+        fileNumber = input.readLong();
+        body = new byte[length - 9];
+        input.readFully(body);
+        offset += 4 + length;
+      } catch (EOFException ex) {
+        break;
+      }
+      if (type == DELETE) {
+        images.remove(fileNumber);
+        if (index != null) {
+          index.remove(fileNumber);
+        }
+      } else {
+        StoredImage image = images.get(fileNumber);
+        if (type == SNAPSHOT || image == null) {
+          image = new StoredImage();
+        }
+        try {
+          image.apply(version, body, withHistory);
+        } catch (IOException ex) {
+          TagManager.getLogger().log(Level.WARNING,
+              "Skipped an unreadable catalog record of image " + fileNumber, ex);
+          continue;
+        }
+        images.put(fileNumber, image);
+        if (index != null) {
+          //Only a snapshot replaces the offsets, since the images may not hold the records of an
+          //ImageManager the index already has offsets for, as when replaying a compaction's tail
+          if (type == SNAPSHOT) {
+            index.remove(fileNumber);
+          }
+          addOffset(index, fileNumber, recordStart);
+        }
+      }
+      if (index != null) {
+        recordCount++;
+        highestFileNumber = Math.max(highestFileNumber, fileNumber);
+      }
+    }
+    return offset;
+  }
+
+  /**
+   * Adds a record offset to the list of offsets kept for an ImageManager
+   *
+   * @param index The offset index
+   * @param fileNumber The number of the ImageManager
+   * @param offset The offset of the record
+   */
+  private static void addOffset(HashMap<Long, long[]> index, long fileNumber, long offset) {
+    long[] known = index.get(fileNumber);
+    if (known == null) {
+      index.put(fileNumber, new long[]{offset});
+    } else {
+      long[] grown = Arrays.copyOf(known, known.length + 1);
+      grown[known.length] = offset;
+      index.put(fileNumber, grown);
+    }
+  }
+
+  /**
+   * Writes the journal header at the start of the given file
+   *
+   * @param journal The file to write the header to
+   * @throws IOException Thrown when the header cannot be written
+   */
+  private static void writeHeader(FileChannel journal) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putInt(MAGIC).putShort(VERSION).flip();
+    journal.write(header, 0);
+    journal.position(HEADER_SIZE);
+  }
+
+  /**
+   * Checks that the given file starts with a journal header this version can read
+   *
+   * @param journal The file to check
+   * @return The version of the record format used in the file
+   * @throws IOException Thrown when the file is not a journal or has an unknown version
+   */
+  private static int readHeader(FileChannel journal) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    journal.read(header, 0);
+    header.flip();
+    if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+      throw new IOException("The file is not a catalog journal");
+    }
+    short version = header.getShort();
+    if (version < 1 || version > VERSION) {
+      throw new IOException("The catalog journal was written by a newer version of the program");
+    }
+    return version;
+  }
+
+  /**
+   * Fills the given buffer with bytes read from the file at the given offset
+   *
+   * @param file The file to read from
+   * @param buffer The buffer to fill
+   * @param offset The offset to read at
+   * @throws IOException Thrown when the file ends before the buffer is full
+   */
+  private static void readFully(FileChannel file, ByteBuffer buffer, long offset)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = file.read(buffer, offset);
+      if (read < 0) {
+        throw new EOFException("A catalog record is cut off");
+      }
+      offset += read;
+    }
+  }
+
+  /**
+   * Puts the frame around an encoded record: its length, its type and the number of its
+   * ImageManager
+   *
+   * @param type The type of the record
+   * @param fileNumber The number of the ImageManager the record belongs to
+   * @param body The encoded contents of the record
+   * @return The framed record
+   */
+  private static byte[] frame(byte type, long fileNumber, byte[] body) {
+    ByteBuffer record = ByteBuffer.allocate(13 + body.length);
+    record.putInt(9 + body.length).put(type).putLong(fileNumber).put(body);
+    return record.array();
+  }
+
+  /**
+   * Writes all of the given bytes to the file at the given offset
+   *
+   * @param file The file to write to
+   * @param bytes The bytes to write
+   * @param offset The offset to write at
+   * @throws IOException Thrown when the bytes cannot be written
+   */
+  private static void writeFully(FileChannel file, byte[] bytes, long offset) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      offset += file.write(buffer, offset);
+    }
+  }
+
+  /**
+   * Copies the given number of bytes from one file, at the given offset, to the end of another.
+   * A single transfer may copy fewer bytes than asked for, so it is repeated until all are copied
+   *
+   * @param from The file to copy from
+   * @param offset The offset to copy from
+   * @param count The number of bytes to copy
+   * @param to The file to copy to, at its position
+   * @throws IOException Thrown when the file copied from ends before all the bytes are copied
+   */
+  private static void transferFully(FileChannel from, long offset, long count, FileChannel to)
+      throws IOException {
+    while (count > 0) {
+      long copied = from.transferTo(offset, count, to);
+      if (copied <= 0) {
+        throw new EOFException("The catalog journal ends before the records to copy");
+      }
+      offset += copied;
+      count -= copied;
+    }
+  }
+
+  /**
+   * The state of one ImageManager as it is rebuilt from the records of the journal
+   */
+  private static class StoredImage {
+
+    private String name;
+    private String path;
+    private final NameHistory history = new NameHistory();
+    private long version;
+
+    /**
+     * Creates the ImageManager this state describes
+     *
+     * @param fileNumber The number of the ImageManager
+     * @return The ImageManager
+     */
+    private ImageManager toImageManager(long fileNumber) {
+      ImageManager imageManager = new ImageManager(fileNumber, name, Paths.get(path), history);
+      imageManager.setStoredVersion(version);
+      return imageManager;
+    }
+
+    /**
+     * Folds the contents of a record into this state
+     *
+     * @param version The record format version of the journal the record is from
+     * @param body The contents of the record
+     * @param withHistory Whether to decode the naming history or skip over it
+     * @throws IOException Thrown when the contents cannot be decoded
+     */
+    private void apply(int version, byte[] body, boolean withHistory) throws IOException {
+      //Records written before versions were stamped count as one version each
+      this.version++;
+      if (version == 1) {
+        //The first journals stored the fields with writeUTF
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+        name = input.readUTF();
+        path = input.readUTF();
+        for (int entries = input.readInt(); entries > 0; entries--) {
+          String entry = input.readUTF();
+          if (withHistory) {
+            history.addEntry(entry);
+          }
+        }
+        return;
+      }
+      ImageManagerCodec.Reader reader = new ImageManagerCodec.Reader(body, 0, body.length);
+      while (reader.next()) {
+        switch (reader.field()) {
+          case ImageManagerCodec.NAME:
+            name = reader.readString();
+            break;
+          case ImageManagerCodec.PATH:
+            path = reader.readString();
+            break;
+          case ImageManagerCodec.HISTORY_ENTRY:
+            if (withHistory) {
+              history.addEntry(reader.readString());
+            } else {
+              reader.skip();
+            }
+            break;
+          case ImageManagerCodec.HISTORY:
+            if (withHistory) {
+              history.append(reader.readBytes());
+            } else {
+              reader.skip();
+            }
+            break;
+          case ImageManagerCodec.RECORD_VERSION:
+            this.version = reader.readNumber();
+            break;
+          default:
+            reader.skip();
+        }
+      }
+    }
+
+    /**
+     * Encodes this state as a single snapshot record
+     *
+     * @param fileNumber The number of the ImageManager
+     * @return The framed record
+     */
+    private byte[] toSnapshot(long fileNumber) {
+      return frame(SNAPSHOT, fileNumber,
+          ImageManagerCodec.encode(name, path, history, 0, version));
+    }
+  }
+}
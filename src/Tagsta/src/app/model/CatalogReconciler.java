@@ -0,0 +1,143 @@
+package app.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleConsumer;
+
+/**
+ * CatalogReconciler checks the path of every image in the catalog against the disk. The paths are
+ * checked in parallel, since most of the time is spent waiting for the file system. An image whose
+ * file is gone while its folder still exists is an orphan, and images whose paths lead to the same
+ * file (through a different spelling, a link, or a case-insensitive file system) are duplicates.
+ */
+class CatalogReconciler {
+
+  //The number of paths each task checks
+  private static final int CHUNK_SIZE = 256;
+
+  /**
+   * Checks the given images and reports the orphans and duplicates among them
+   *
+   * @param ids The numbers of the ImageManagers of the images
+   * @param paths The paths of the images, in the same order
+   * @param dryRun Whether the report is for a dry run
+   * @param progress Told the fraction of the images checked so far, from the checking threads
+   * @return The report
+   * @throws InterruptedException Thrown when the thread is interrupted while waiting for the check
+   */
+  static ReconciliationReport check(long[] ids, String[] paths, boolean dryRun,
+      DoubleConsumer progress) throws InterruptedException {
+    Object[] keys = new Object[ids.length];
+    boolean[] unreachable = new boolean[ids.length];
+    AtomicInteger done = new AtomicInteger();
+    ExecutorService checkers = Executors.newFixedThreadPool(
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), runnable -> {
+          Thread thread = new Thread(runnable, "catalog-reconciler");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      ArrayList<Future<?>> chunks = new ArrayList<>();
+      for (int start = 0; start < ids.length; start += CHUNK_SIZE) {
+        int from = start;
+        int to = Math.min(ids.length, start + CHUNK_SIZE);
+        chunks.add(checkers.submit(() -> {
+          for (int i = from; i < to; i++) {
+            Path path = Paths.get(paths[i]);
+            keys[i] = fileKey(path);
+            Path folder = path.getParent();
+            unreachable[i] = keys[i] == null && folder != null && !Files.isDirectory(folder);
+          }
+          progress.accept((double) done.addAndGet(to - from) / ids.length);
+        }));
+      }
+      for (Future<?> chunk : chunks) {
+        chunk.get();
+      }
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("A path could not be checked", ex.getCause());
+    } finally {
+      checkers.shutdownNow();
+    }
+
+    ReconciliationReport report = new ReconciliationReport(dryRun, ids.length);
+    LinkedHashMap<Object, List<Integer>> byFile = new LinkedHashMap<>();
+    for (int i = 0; i < ids.length; i++) {
+      if (unreachable[i]) {
+        report.addUnreachable();
+      } else if (keys[i] == null) {
+        report.addOrphan(ids[i], paths[i]);
+      } else {
+        byFile.computeIfAbsent(keys[i], key -> new ArrayList<>()).add(i);
+      }
+    }
+    for (List<Integer> images : byFile.values()) {
+      if (images.size() > 1) {
+        int kept = keptImage(images, ids, paths);
+        long[] group = new long[images.size()];
+        group[0] = ids[kept];
+        int next = 1;
+        for (int image : images) {
+          if (image != kept) {
+            group[next++] = ids[image];
+          }
+        }
+        report.addDuplicate(group, paths[kept]);
+      }
+    }
+    return report;
+  }
+
+  /**
+   * Returns something that is the same for every path leading to the same file: the file key of
+   * the file system, or the real path of the file when the file system has no file keys
+   *
+   * @param path The path
+   * @return The key of the file, or null if there is no file at the path
+   */
+  private static Object fileKey(Path path) {
+    try {
+      Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+      return key != null ? key : path.toRealPath().toString();
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Picks which of several images pointing at the same file is kept: the one whose path is the
+   * real path of the file, or else the one that was stored first
+   *
+   * @param images The positions of the images
+   * @param ids The numbers of the ImageManagers of all images
+   * @param paths The paths of all images
+   * @return The position of the image that is kept
+   */
+  private static int keptImage(List<Integer> images, long[] ids, String[] paths) {
+    int kept = images.get(0);
+    for (int image : images) {
+      try {
+        if (Paths.get(paths[image]).toRealPath().toString().equals(paths[image])) {
+          return image;
+        }
+      } catch (IOException ex) {
+        //The file disappeared while it was checked, so its path is not the real one
+      }
+      if (ids[image] < ids[kept]) {
+        kept = image;
+      }
+    }
+    return kept;
+  }
+}
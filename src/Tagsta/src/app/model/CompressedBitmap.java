@@ -0,0 +1,745 @@
+package app.model;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * CompressedBitmap is a set of image numbers kept the way roaring bitmaps keep them. The numbers are
+ * split into chunks of 65536 by their upper bits, and each chunk that has any numbers is kept either
+ * as a sorted array of the lower 16 bits, while it has at most ARRAY_LIMIT numbers, or as a bitmap of
+ * 1024 words once it has more. A tag on a handful of images takes a few bytes per image, a tag on
+ * most of a million images takes about a bit per image, and intersecting two sets only looks at the
+ * chunks both have.
+ */
+class CompressedBitmap {
+
+  //Above this many numbers a chunk takes less space as a bitmap than as an array
+  private static final int ARRAY_LIMIT = 4096;
+  private static final int WORDS = 1024;
+  //Arrays this many times smaller than the other one are intersected by searching the larger one
+  private static final int SKEW = 8;
+  //Numbers are kept in int sized chunk keys of 16 bit chunks
+  private static final long MAX_VALUE = (1L << 47) - 1;
+
+  private int[] keys = new int[4];
+  private Chunk[] chunks = new Chunk[4];
+  private int size;
+
+  /**
+   * Adds a number
+   *
+   * @param value The number, which must not be negative
+   * @return Whether the number was not in the bitmap before
+   */
+  boolean add(long value) {
+    checkValue(value);
+    int index = find(high(value));
+    if (index < 0) {
+      index = -index - 1;
+      insert(index, high(value), new Chunk());
+    }
+    return chunks[index].add(low(value));
+  }
+
+  /**
+   * Removes a number
+   *
+   * @param value The number
+   * @return Whether the number was in the bitmap
+   */
+  boolean remove(long value) {
+    if (value < 0 || value > MAX_VALUE) {
+      return false;
+    }
+    int index = find(high(value));
+    if (index < 0 || !chunks[index].remove(low(value))) {
+      return false;
+    }
+    if (chunks[index].cardinality == 0) {
+      delete(index);
+    }
+    return true;
+  }
+
+  /**
+   * Returns whether a number is in the bitmap
+   *
+   * @param value The number
+   * @return Whether the number is in the bitmap
+   */
+  boolean contains(long value) {
+    if (value < 0 || value > MAX_VALUE) {
+      return false;
+    }
+    int index = find(high(value));
+    return index >= 0 && chunks[index].contains(low(value));
+  }
+
+  /**
+   * Returns how many numbers are in the bitmap
+   *
+   * @return The number of numbers
+   */
+  int cardinality() {
+    int cardinality = 0;
+    for (int i = 0; i < size; i++) {
+      cardinality += chunks[i].cardinality;
+    }
+    return cardinality;
+  }
+
+  /**
+   * Returns whether the bitmap has no numbers
+   *
+   * @return Whether the bitmap is empty
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns a copy of the bitmap that does not change when the bitmap does
+   *
+   * @return The copy
+   */
+  CompressedBitmap copy() {
+    CompressedBitmap copy = new CompressedBitmap();
+    copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+    copy.chunks = new Chunk[copy.keys.length];
+    for (int i = 0; i < size; i++) {
+      copy.chunks[i] = chunks[i].copy();
+    }
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * Returns the numbers in both this bitmap and the other one
+   *
+   * @param other The other bitmap
+   * @return A new bitmap with the numbers in both
+   */
+  CompressedBitmap and(CompressedBitmap other) {
+    CompressedBitmap result = new CompressedBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        Chunk chunk = chunks[i].and(other.chunks[j]);
+        if (chunk.cardinality > 0) {
+          result.insert(result.size, keys[i], chunk);
+        }
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns how many numbers are in both this bitmap and the other one, without building the
+   * bitmap of those numbers
+   *
+   * @param other The other bitmap
+   * @return The number of numbers in both
+   */
+  int andCardinality(CompressedBitmap other) {
+    int cardinality = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      if (keys[i] < other.keys[j]) {
+        i++;
+      } else if (keys[i] > other.keys[j]) {
+        j++;
+      } else {
+        cardinality += chunks[i].andCardinality(other.chunks[j]);
+        i++;
+        j++;
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * Returns the numbers in this bitmap, the other one, or both
+   *
+   * @param other The other bitmap
+   * @return A new bitmap with the numbers in either
+   */
+  CompressedBitmap or(CompressedBitmap other) {
+    CompressedBitmap result = new CompressedBitmap();
+    int i = 0;
+    int j = 0;
+    while (i < size || j < other.size) {
+      if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+        result.insert(result.size, keys[i], chunks[i].copy());
+        i++;
+      } else if (i == size || keys[i] > other.keys[j]) {
+        result.insert(result.size, other.keys[j], other.chunks[j].copy());
+        j++;
+      } else {
+        result.insert(result.size, keys[i], chunks[i].or(other.chunks[j]));
+        i++;
+        j++;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Adds the numbers in the other bitmap to this one
+   *
+   * @param other The other bitmap
+   */
+  void orWith(CompressedBitmap other) {
+    for (int j = 0; j < other.size; j++) {
+      int index = find(other.keys[j]);
+      if (index < 0) {
+        insert(-index - 1, other.keys[j], other.chunks[j].copy());
+      } else {
+        chunks[index] = chunks[index].or(other.chunks[j]);
+      }
+    }
+  }
+
+  /**
+   * Returns the numbers in this bitmap that are not in the other one
+   *
+   * @param other The other bitmap
+   * @return A new bitmap with the numbers only in this one
+   */
+  CompressedBitmap andNot(CompressedBitmap other) {
+    CompressedBitmap result = new CompressedBitmap();
+    int j = 0;
+    for (int i = 0; i < size; i++) {
+      while (j < other.size && other.keys[j] < keys[i]) {
+        j++;
+      }
+      Chunk chunk = j < other.size && other.keys[j] == keys[i]
+          ? chunks[i].andNot(other.chunks[j]) : chunks[i].copy();
+      if (chunk.cardinality > 0) {
+        result.insert(result.size, keys[i], chunk);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Gives every number to the consumer, smallest first
+   *
+   * @param consumer Given the numbers
+   */
+  void forEach(LongConsumer consumer) {
+    for (int i = 0; i < size; i++) {
+      chunks[i].forEach((long) keys[i] << 16, consumer);
+    }
+  }
+
+  /**
+   * Returns the numbers in the bitmap, smallest first
+   *
+   * @return The numbers
+   */
+  long[] toArray() {
+    long[] values = new long[cardinality()];
+    int[] position = new int[1];
+    forEach(value -> values[position[0]++] = value);
+    return values;
+  }
+
+  /**
+   * Splits the bitmap into one bitmap per chunk, so a long job over the numbers can be done a chunk
+   * of at most 65536 numbers at a time
+   *
+   * @return Copies of the chunks as bitmaps, smallest numbers first
+   */
+  CompressedBitmap[] split() {
+    CompressedBitmap[] parts = new CompressedBitmap[size];
+    for (int i = 0; i < size; i++) {
+      parts[i] = new CompressedBitmap();
+      parts[i].insert(0, keys[i], chunks[i].copy());
+    }
+    return parts;
+  }
+
+  /**
+   * Returns the number of bytes the chunks of the bitmap take up, roughly
+   *
+   * @return The number of bytes
+   */
+  long sizeInBytes() {
+    long bytes = size * 8L;
+    for (int i = 0; i < size; i++) {
+      bytes += chunks[i].words != null ? WORDS * 8L : chunks[i].cardinality * 2L;
+    }
+    return bytes;
+  }
+
+  /**
+   * Throws an exception if a number cannot be kept in a bitmap
+   *
+   * @param value The number
+   */
+  private static void checkValue(long value) {
+    if (value < 0 || value > MAX_VALUE) {
+      throw new IllegalArgumentException("Cannot keep " + value + " in a bitmap");
+    }
+  }
+
+  /**
+   * Returns the key of the chunk a number is kept in
+   *
+   * @param value The number
+   * @return The key of its chunk
+   */
+  private static int high(long value) {
+    return (int) (value >>> 16);
+  }
+
+  /**
+   * Returns the part of a number kept in its chunk
+   *
+   * @param value The number
+   * @return The lower 16 bits of the number
+   */
+  private static char low(long value) {
+    return (char) value;
+  }
+
+  /**
+   * Finds the chunk with the given key
+   *
+   * @param key The key of the chunk
+   * @return The position of the chunk, or -(the position it would be put at) - 1 if there is none
+   */
+  private int find(int key) {
+    //Numbers are mostly added in order, so the last chunk is checked first
+    if (size > 0 && keys[size - 1] == key) {
+      return size - 1;
+    }
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  /**
+   * Puts a chunk in at the given position
+   *
+   * @param index The position
+   * @param key The key of the chunk
+   * @param chunk The chunk
+   */
+  private void insert(int index, int key, Chunk chunk) {
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size * 2);
+      chunks = Arrays.copyOf(chunks, size * 2);
+    }
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(chunks, index, chunks, index + 1, size - index);
+    keys[index] = key;
+    chunks[index] = chunk;
+    size++;
+  }
+
+  /**
+   * Takes out the chunk at the given position
+   *
+   * @param index The position
+   */
+  private void delete(int index) {
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+    chunks[--size] = null;
+  }
+
+  /**
+   * The numbers of a bitmap that share their upper bits
+   */
+  private static class Chunk {
+
+    //The sorted lower bits of the numbers, while the chunk is kept as an array
+    private char[] values;
+    //The bits of the numbers, once the chunk is kept as a bitmap
+    private long[] words;
+    private int cardinality;
+
+    /**
+     * Creates an empty Chunk kept as an array
+     */
+    private Chunk() {
+      this.values = new char[4];
+    }
+
+    /**
+     * Creates a Chunk kept as an array
+     *
+     * @param values The sorted values, which are not copied
+     * @param cardinality The number of values
+     */
+    private Chunk(char[] values, int cardinality) {
+      this.values = values;
+      this.cardinality = cardinality;
+    }
+
+    /**
+     * Creates a Chunk kept as a bitmap, or as an array if it has few enough values
+     *
+     * @param words The bits of the values, which are not copied
+     * @return The Chunk
+     */
+    private static Chunk ofWords(long[] words) {
+      Chunk chunk = new Chunk(null, 0);
+      chunk.words = words;
+      for (long word : words) {
+        chunk.cardinality += Long.bitCount(word);
+      }
+      if (chunk.cardinality <= ARRAY_LIMIT) {
+        chunk.toArray();
+      }
+      return chunk;
+    }
+
+    /**
+     * Adds a value
+     *
+     * @param value The value
+     * @return Whether the value was not in the chunk before
+     */
+    private boolean add(char value) {
+      if (words != null) {
+        long bit = 1L << value;
+        if ((words[value >>> 6] & bit) != 0) {
+          return false;
+        }
+        words[value >>> 6] |= bit;
+        cardinality++;
+        return true;
+      }
+      int index = cardinality > 0 && values[cardinality - 1] < value
+          ? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        return false;
+      }
+      if (cardinality == ARRAY_LIMIT) {
+        toWords();
+        return add(value);
+      }
+      index = -index - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, cardinality * 2));
+      }
+      System.arraycopy(values, index, values, index + 1, cardinality - index);
+      values[index] = value;
+      cardinality++;
+      return true;
+    }
+
+    /**
+     * Removes a value
+     *
+     * @param value The value
+     * @return Whether the value was in the chunk
+     */
+    private boolean remove(char value) {
+      if (words != null) {
+        long bit = 1L << value;
+        if ((words[value >>> 6] & bit) == 0) {
+          return false;
+        }
+        words[value >>> 6] &= ~bit;
+        if (--cardinality <= ARRAY_LIMIT / 2) {
+          toArray();
+        }
+        return true;
+      }
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index < 0) {
+        return false;
+      }
+      System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+      cardinality--;
+      return true;
+    }
+
+    /**
+     * Returns whether a value is in the chunk
+     *
+     * @param value The value
+     * @return Whether the value is in the chunk
+     */
+    private boolean contains(char value) {
+      if (words != null) {
+        return (words[value >>> 6] & (1L << value)) != 0;
+      }
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+
+    /**
+     * Returns a copy of the chunk
+     *
+     * @return The copy
+     */
+    private Chunk copy() {
+      if (words != null) {
+        Chunk copy = new Chunk(null, cardinality);
+        copy.words = words.clone();
+        return copy;
+      }
+      return new Chunk(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+    }
+
+    /**
+     * Returns the values in both chunks
+     *
+     * @param other The other chunk
+     * @return A new chunk
+     */
+    private Chunk and(Chunk other) {
+      if (words != null && other.words != null) {
+        long[] result = new long[WORDS];
+        for (int i = 0; i < WORDS; i++) {
+          result[i] = words[i] & other.words[i];
+        }
+        return ofWords(result);
+      }
+      if (words != null) {
+        return other.and(this);
+      }
+      char[] result = new char[Math.max(1, Math.min(cardinality, other.cardinality))];
+      int count = 0;
+      if (other.words != null) {
+        for (int i = 0; i < cardinality; i++) {
+          if (other.contains(values[i])) {
+            result[count++] = values[i];
+          }
+        }
+      } else if (cardinality * SKEW < other.cardinality) {
+        count = intersectSkewed(this, other, result);
+      } else if (other.cardinality * SKEW < cardinality) {
+        count = intersectSkewed(other, this, result);
+      } else {
+        int i = 0;
+        int j = 0;
+        while (i < cardinality && j < other.cardinality) {
+          if (values[i] < other.values[j]) {
+            i++;
+          } else if (values[i] > other.values[j]) {
+            j++;
+          } else {
+            result[count++] = values[i];
+            i++;
+            j++;
+          }
+        }
+      }
+      return new Chunk(result, count);
+    }
+
+    /**
+     * Returns how many values are in both chunks
+     *
+     * @param other The other chunk
+     * @return The number of values in both
+     */
+    private int andCardinality(Chunk other) {
+      int count = 0;
+      if (words != null && other.words != null) {
+        for (int i = 0; i < WORDS; i++) {
+          count += Long.bitCount(words[i] & other.words[i]);
+        }
+      } else if (words != null) {
+        return other.andCardinality(this);
+      } else if (other.words != null) {
+        for (int i = 0; i < cardinality; i++) {
+          if (other.contains(values[i])) {
+            count++;
+          }
+        }
+      } else if (cardinality * SKEW < other.cardinality) {
+        count = intersectSkewed(this, other, null);
+      } else if (other.cardinality * SKEW < cardinality) {
+        count = intersectSkewed(other, this, null);
+      } else {
+        int i = 0;
+        int j = 0;
+        while (i < cardinality && j < other.cardinality) {
+          if (values[i] < other.values[j]) {
+            i++;
+          } else if (values[i] > other.values[j]) {
+            j++;
+          } else {
+            count++;
+            i++;
+            j++;
+          }
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Puts the values of a small array chunk that are in a much larger one in the given array. The
+     * larger chunk is searched for each value instead of being walked through
+     *
+     * @param small The chunk with fewer values
+     * @param large The chunk with many more values
+     * @param result Given the values in both, in order, or null to only count them
+     * @return The number of values in both
+     */
+    private static int intersectSkewed(Chunk small, Chunk large, char[] result) {
+      int count = 0;
+      int from = 0;
+      for (int i = 0; i < small.cardinality && from < large.cardinality; i++) {
+        int index = Arrays.binarySearch(large.values, from, large.cardinality, small.values[i]);
+        if (index >= 0) {
+          if (result != null) {
+            result[count] = small.values[i];
+          }
+          count++;
+          from = index + 1;
+        } else {
+          from = -index - 1;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * Returns the values in either chunk
+     *
+     * @param other The other chunk
+     * @return A new chunk
+     */
+    private Chunk or(Chunk other) {
+      if (words == null && other.words == null
+          && cardinality + other.cardinality <= ARRAY_LIMIT) {
+        char[] result = new char[cardinality + other.cardinality];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < cardinality || j < other.cardinality) {
+          if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+            result[count++] = values[i++];
+          } else if (i == cardinality || values[i] > other.values[j]) {
+            result[count++] = other.values[j++];
+          } else {
+            result[count++] = values[i];
+            i++;
+            j++;
+          }
+        }
+        return new Chunk(result, count);
+      }
+      long[] result = wordsCopy();
+      other.orInto(result);
+      return ofWords(result);
+    }
+
+    /**
+     * Returns the values in this chunk but not the other one
+     *
+     * @param other The other chunk
+     * @return A new chunk
+     */
+    private Chunk andNot(Chunk other) {
+      if (words == null) {
+        char[] result = new char[Math.max(1, cardinality)];
+        int count = 0;
+        for (int i = 0; i < cardinality; i++) {
+          if (!other.contains(values[i])) {
+            result[count++] = values[i];
+          }
+        }
+        return new Chunk(result, count);
+      }
+      long[] result = words.clone();
+      if (other.words != null) {
+        for (int i = 0; i < WORDS; i++) {
+          result[i] &= ~other.words[i];
+        }
+      } else {
+        for (int i = 0; i < other.cardinality; i++) {
+          result[other.values[i] >>> 6] &= ~(1L << other.values[i]);
+        }
+      }
+      return ofWords(result);
+    }
+
+    /**
+     * Sets the bits of the values of the chunk in the given words
+     *
+     * @param result The words
+     */
+    private void orInto(long[] result) {
+      if (words != null) {
+        for (int i = 0; i < WORDS; i++) {
+          result[i] |= words[i];
+        }
+      } else {
+        for (int i = 0; i < cardinality; i++) {
+          result[values[i] >>> 6] |= 1L << values[i];
+        }
+      }
+    }
+
+    /**
+     * Returns the values of the chunk as words that can be changed
+     *
+     * @return The words
+     */
+    private long[] wordsCopy() {
+      if (words != null) {
+        return words.clone();
+      }
+      long[] result = new long[WORDS];
+      orInto(result);
+      return result;
+    }
+
+    /**
+     * Gives every value of the chunk to the consumer, smallest first
+     *
+     * @param base The upper bits of the values
+     * @param consumer Given the values
+     */
+    private void forEach(long base, LongConsumer consumer) {
+      if (words == null) {
+        for (int i = 0; i < cardinality; i++) {
+          consumer.accept(base | values[i]);
+        }
+        return;
+      }
+      for (int i = 0; i < WORDS; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+        }
+      }
+    }
+
+    /**
+     * Keeps the chunk as a bitmap from now on
+     */
+    private void toWords() {
+      words = wordsCopy();
+      values = null;
+    }
+
+    /**
+     * Keeps the chunk as an array from now on
+     */
+    private void toArray() {
+      char[] result = new char[Math.max(4, cardinality)];
+      int count = 0;
+      for (int i = 0; i < WORDS; i++) {
+        for (long word = words[i]; word != 0; word &= word - 1) {
+          result[count++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+        }
+      }
+      values = result;
+      words = null;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package app.model;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ConfigStore holds the configuration settings in memory and writes them to the config file in the
+ * background. Setting an option to the value it already has does nothing, and a burst of changes
+ * (such as opening one image after another) is written once, a short time after the last change,
+ * but never later than a few seconds after the first change of the burst.
+ * Every known option has a default value, which is used when the config file does not have it.
+ * Only the options changed here are written, so the changes another program made to the config
+ * file in the meantime are kept.
+ */
+class ConfigStore {
+
+  private static final long WRITE_DELAY_MILLIS = 1000;
+  //The longest a change waits to be written while more changes keep pushing the write back
+  private static final long MAX_WRITE_DELAY_MILLIS = 5000;
+  private static final HashMap<String, String> DEFAULTS = new HashMap<>();
+
+  static {
+    DEFAULTS.put("THEME", "light");
+    DEFAULTS.put("OPEN_LAST_SESSION", "false");
+    DEFAULTS.put("LAST_IMAGE_PATH", "");
+    DEFAULTS.put("LAST_DIRECTORY_PATH", "");
+    DEFAULTS.put("LAZY_LOADING", "true");
+    DEFAULTS.put("IMAGE_CACHE_SIZE", "2000");
+    DEFAULTS.put("PERSIST_DELAY_MS", "500");
+    DEFAULTS.put("PERSIST_MAX_PENDING", "256");
+    DEFAULTS.put("SEARCH_DELAY_MS", "150");
+  }
+
+  private final HashMap<String, String> options;
+  private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "config-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private ScheduledFuture<?> scheduledWrite;
+  //When the first change not written yet was made, from System.nanoTime
+  private long firstChangeNanos;
+  private final HashSet<String> changed = new HashSet<>();
+
+  /**
+   * Creates a ConfigStore from the settings read from the config file
+   *
+   * @param stored The settings in the config file in the format 'key: setting, value: choice'
+   */
+  ConfigStore(HashMap<String, String> stored) {
+    this.options = new HashMap<>(DEFAULTS);
+    this.options.putAll(stored);
+    //Writes the defaults for options the config file does not have yet
+    for (String option : DEFAULTS.keySet()) {
+      if (!stored.containsKey(option)) {
+        this.changed.add(option);
+      }
+    }
+    if (!this.changed.isEmpty()) {
+      this.scheduleWrite();
+    }
+  }
+
+  /**
+   * Returns the value of an option
+   *
+   * @param option The option
+   * @return The value of the option, or null if there is no such option
+   */
+  synchronized String get(String option) {
+    return options.get(option);
+  }
+
+  /**
+   * Returns the value of an option as a boolean
+   *
+   * @param option The option
+   * @return Whether the value of the option is "true"
+   */
+  boolean getBoolean(String option) {
+    return Boolean.parseBoolean(get(option));
+  }
+
+  /**
+   * Returns the value of an option as a number, or its default if the value is not a number
+   *
+   * @param option The option
+   * @return The value of the option
+   */
+  long getLong(String option) {
+    try {
+      return Long.parseLong(get(option));
+    } catch (NumberFormatException ex) {
+      return Long.parseLong(DEFAULTS.get(option));
+    }
+  }
+
+  /**
+   * Returns the value of an option as a number, or its default if the value is not a number
+   *
+   * @param option The option
+   * @return The value of the option
+   */
+  int getInt(String option) {
+    return (int) Math.min(Integer.MAX_VALUE, getLong(option));
+  }
+
+  /**
+   * Sets the value of an option and schedules the config file to be written. Does nothing if there
+   * is no such option or it already has the value
+   *
+   * @param option The option
+   * @param value The new value
+   */
+  synchronized void set(String option, String value) {
+    if (options.containsKey(option) && !value.equals(options.get(option))) {
+      options.put(option, value);
+      changed.add(option);
+      scheduleWrite();
+    }
+  }
+
+  /**
+   * Writes the settings that changed since they were last written to the config file now
+   */
+  void flush() {
+    HashMap<String, String> snapshot = new HashMap<>();
+    synchronized (this) {
+      if (scheduledWrite != null) {
+        scheduledWrite.cancel(false);
+        scheduledWrite = null;
+      }
+      if (changed.isEmpty()) {
+        return;
+      }
+      for (String option : changed) {
+        snapshot.put(option, options.get(option));
+      }
+      changed.clear();
+    }
+    FileManager.storeConfig(snapshot);
+  }
+
+  /**
+   * Schedules the settings to be written a short time from now, pushing back a write that is
+   * already scheduled, but not past the longest time the first change not written yet may wait
+   */
+  private void scheduleWrite() {
+    long now = System.nanoTime();
+    if (scheduledWrite != null) {
+      scheduledWrite.cancel(false);
+    } else {
+      firstChangeNanos = now;
+    }
+    long waited = TimeUnit.NANOSECONDS.toMillis(now - firstChangeNanos);
+    long delay = Math.max(0, Math.min(WRITE_DELAY_MILLIS, MAX_WRITE_DELAY_MILLIS - waited));
+    scheduledWrite = writer.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+  }
+}
@@ -0,0 +1,342 @@
+package app.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * DirectoryScanner finds the images in a folder and every folder under it on background threads,
+ * so opening a large folder or one on a network drive does not freeze the window. Each folder is
+ * listed by its own fork/join task, so the folders under it are listed in parallel, and the
+ * attributes of each entry are read once instead of once to tell folders from files and again to
+ * list them. The tags in the names of the images are parsed on the same threads.
+ *
+ * <p>The folders listed are given to the thread that may change what is shown a batch at a time,
+ * every tenth of a second, each folder after the folder it is in. The tags found in a batch are
+ * added to the independent tags on that thread, and the list of tags is saved once when the scan
+ * ends. A scan that is cancelled stops listing folders, and the folders given so far stay given.
+ *
+ * <p>Links to folders are not followed, so a link back up the tree does not make the scan go on
+ * forever. Links to images are listed like the images themselves.
+ */
+public class DirectoryScanner {
+
+  //The extensions of the files listed, in lower case
+  static final List<String> IMAGE_EXTENSIONS = Arrays.asList("jpg", "png", "jpeg", "gif", "bmp");
+  //How long the folders listed are collected for before they are given as a batch
+  private static final long BATCH_MILLIS = 100;
+
+  private final TagManager tagManager;
+  private final File root;
+  private final Executor uiThread;
+  private final Consumer<List<Folder>> onFolders;
+  private final Consumer<Boolean> onDone;
+  //The folders listed and not given yet, each after the folder it is in
+  private final ConcurrentLinkedQueue<Folder> listed = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger foldersFound = new AtomicInteger(1);
+  private final AtomicInteger foldersListed = new AtomicInteger();
+  private final AtomicInteger imagesFound = new AtomicInteger();
+  private volatile boolean cancelled;
+
+  /**
+   * Creates a DirectoryScanner
+   *
+   * @param tagManager The TagManager the tags found are added to
+   * @param root The folder to scan
+   * @param uiThread Runs the given code on the thread that may change what is shown
+   * @param onFolders Given each batch of folders listed
+   * @param onDone Given whether the scan finished, rather than being cancelled, once it ends
+   */
+  DirectoryScanner(TagManager tagManager, File root, Executor uiThread,
+      Consumer<List<Folder>> onFolders, Consumer<Boolean> onDone) {
+    this.tagManager = tagManager;
+    this.root = root;
+    this.uiThread = uiThread;
+    this.onFolders = onFolders;
+    this.onDone = onDone;
+  }
+
+  /**
+   * Returns whether a file is an image, by its extension
+   *
+   * @param name The name of the file
+   * @return Whether the file is an image
+   */
+  static boolean isImage(String name) {
+    String extension = name.substring(name.lastIndexOf('.') + 1);
+    return IMAGE_EXTENSIONS.contains(extension.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Starts scanning on a background thread. Called on the thread that may change what is shown,
+   * where the tags found are added
+   */
+  public void start() {
+    this.tagManager.startTagIngest();
+    Thread thread = new Thread(this::run, "directory-scanner");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops listing folders. The folders already listed are still given
+   */
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  /**
+   * Returns whether the scan was cancelled
+   *
+   * @return Whether cancel was called
+   */
+  public boolean isCancelled() {
+    return this.cancelled;
+  }
+
+  /**
+   * Returns the number of folders found so far, including the folder scanned
+   *
+   * @return The number of folders
+   */
+  public int getFoldersFound() {
+    return this.foldersFound.get();
+  }
+
+  /**
+   * Returns the number of folders listed so far, which is the number found once the scan ends
+   *
+   * @return The number of folders
+   */
+  public int getFoldersListed() {
+    return this.foldersListed.get();
+  }
+
+  /**
+   * Returns the number of images found so far
+   *
+   * @return The number of images
+   */
+  public int getImagesFound() {
+    return this.imagesFound.get();
+  }
+
+  /**
+   * Lists the folders in parallel, giving what was listed every tenth of a second until the last
+   * folder is listed or the scan is cancelled
+   */
+  private void run() {
+    ForkJoinPool pool = new ForkJoinPool(
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), forkJoinPool -> {
+          ForkJoinWorkerThread thread =
+              ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+          thread.setName("directory-scanner-" + thread.getPoolIndex());
+          return thread;
+        }, null, false);
+    try {
+      ForkJoinTask<Void> scan = pool.submit(new FolderScan(new Folder(this.root, null)));
+      while (true) {
+        try {
+          scan.get(BATCH_MILLIS, TimeUnit.MILLISECONDS);
+          break;
+        } catch (TimeoutException ex) {
+          this.giveListed();
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException ex) {
+      TagManager.getLogger().log(Level.WARNING, "Could not scan " + this.root, ex.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+    this.giveListed();
+    this.uiThread.execute(() -> {
+      this.tagManager.finishTagIngest();
+      this.onDone.accept(!this.cancelled);
+    });
+  }
+
+  /**
+   * Gives the folders listed since the last batch, if any, along with their tags
+   */
+  private void giveListed() {
+    ArrayList<Folder> batch = new ArrayList<>();
+    for (Folder folder = this.listed.poll(); folder != null; folder = this.listed.poll()) {
+      batch.add(folder);
+    }
+    if (!batch.isEmpty()) {
+      this.uiThread.execute(() -> {
+        for (Folder folder : batch) {
+          this.tagManager.addIndependentTags(folder.tags);
+        }
+        this.onFolders.accept(batch);
+      });
+    }
+  }
+
+  /**
+   * Lists a folder, then the folders in it in parallel
+   */
+  private class FolderScan extends RecursiveAction {
+
+    private static final long serialVersionUID = 1;
+
+    private final Folder folder;
+
+    /**
+     * Creates a FolderScan
+     *
+     * @param folder The folder to list
+     */
+    private FolderScan(Folder folder) {
+      this.folder = folder;
+    }
+
+    /**
+     * Lists the folder and gives it to be shown before listing the folders in it, so each folder
+     * is given after the folder it is in
+     */
+    @Override
+    protected void compute() {
+      if (cancelled) {
+        return;
+      }
+      //Only the names are collected and sorted, since the paths all start the same way
+      ArrayList<String> directoryNames = new ArrayList<>();
+      ArrayList<String> imageNames = new ArrayList<>();
+      Path path = this.folder.directory.toPath();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+        for (Path entry : entries) {
+          if (cancelled) {
+            return;
+          }
+          BasicFileAttributes attributes =
+              Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+          String name = entry.getFileName().toString();
+          if (attributes.isDirectory()) {
+            directoryNames.add(name);
+          } else if (isImage(name)) {
+            imageNames.add(name);
+            this.folder.tags.addAll(
+                ImageManager.parseTagList(name.substring(0, name.lastIndexOf('.'))));
+          }
+        }
+      } catch (IOException ex) {
+        //A folder that cannot be read is shown empty, as a folder that cannot be opened would be
+        TagManager.getLogger().log(Level.WARNING, "Could not list " + this.folder.directory, ex);
+      }
+      List<File> directories = this.toFiles(directoryNames);
+      List<File> images = this.toFiles(imageNames);
+      this.folder.directories = directories;
+      this.folder.images = images;
+      foldersFound.addAndGet(directories.size());
+      imagesFound.addAndGet(images.size());
+      foldersListed.incrementAndGet();
+      listed.add(this.folder);
+      ArrayList<FolderScan> scans = new ArrayList<>();
+      for (File directory : directories) {
+        scans.add(new FolderScan(new Folder(directory, this.folder)));
+      }
+      invokeAll(scans);
+    }
+
+    /**
+     * Sorts the names of entries of the folder and returns their files
+     *
+     * @param names The names
+     * @return The files, sorted by name
+     */
+    private List<File> toFiles(List<String> names) {
+      Collections.sort(names);
+      ArrayList<File> files = new ArrayList<>(names.size());
+      for (String name : names) {
+        files.add(new File(this.folder.directory, name));
+      }
+      return files;
+    }
+  }
+
+  /**
+   * A folder listed by a scan, with the folders and images right in it sorted by name
+   */
+  public static class Folder {
+
+    private final File directory;
+    private final Folder parent;
+    private List<File> directories = Collections.emptyList();
+    private List<File> images = Collections.emptyList();
+    //The tags in the names of the images
+    private final Set<String> tags = new HashSet<>();
+
+    /**
+     * Creates a Folder that is not listed yet
+     *
+     * @param directory The folder
+     * @param parent The folder it is in, or null for the folder scanned
+     */
+    private Folder(File directory, Folder parent) {
+      this.directory = directory;
+      this.parent = parent;
+    }
+
+    /**
+     * Returns the folder
+     *
+     * @return The folder, which is one of the folders its parent has in it
+     */
+    public File getDirectory() {
+      return this.directory;
+    }
+
+    /**
+     * Returns the folder this folder is in
+     *
+     * @return The folder, or null for the folder scanned
+     */
+    public Folder getParent() {
+      return this.parent;
+    }
+
+    /**
+     * Returns the folders right in this folder, each of which is given in a later batch
+     *
+     * @return The folders, sorted by name
+     */
+    public List<File> getDirectories() {
+      return this.directories;
+    }
+
+    /**
+     * Returns the images right in this folder
+     *
+     * @return The images, sorted by name
+     */
+    public List<File> getImages() {
+      return this.images;
+    }
+  }
+}
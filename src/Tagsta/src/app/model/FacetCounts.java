@@ -0,0 +1,164 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * FacetCounts is how many of the images a search found have each tag, are in each folder and have
+ * each file extension, keeping only the most common ones of each. The counts are given as a search
+ * goes, so they grow along with the images shown, and they do not change once given.
+ */
+public class FacetCounts {
+
+  //How many of the most common tags, folders and extensions are kept
+  static final int LIMIT = 20;
+
+  private final int images;
+  private final List<Facet> tags;
+  private final List<Facet> directories;
+  private final List<Facet> extensions;
+
+  /**
+   * Creates a FacetCounts from the counts of every tag, folder and extension
+   *
+   * @param images The number of images counted
+   * @param tagCounts The counts by the number of the tag
+   * @param dictionary The numbers of the tags
+   * @param directoryCounts The counts by the path of the folder
+   * @param extensionCounts The counts by the extension
+   */
+  FacetCounts(int images, Map<Integer, Integer> tagCounts, TagDictionary dictionary,
+      Map<String, Integer> directoryCounts, Map<String, Integer> extensionCounts) {
+    this.images = images;
+    ArrayList<Facet> tags = new ArrayList<>();
+    for (Map.Entry<Integer, Integer> tag : top(tagCounts)) {
+      tags.add(new Facet(dictionary.getTag(tag.getKey()), tag.getValue()));
+    }
+    this.tags = Collections.unmodifiableList(tags);
+    this.directories = Collections.unmodifiableList(toFacets(top(directoryCounts)));
+    this.extensions = Collections.unmodifiableList(toFacets(top(extensionCounts)));
+  }
+
+  /**
+   * Returns the number of images counted
+   *
+   * @return The number of images
+   */
+  public int getImages() {
+    return images;
+  }
+
+  /**
+   * Returns the most common tags of the images, most common first
+   *
+   * @return The tags and how many images have them
+   */
+  public List<Facet> getTags() {
+    return tags;
+  }
+
+  /**
+   * Returns the folders most of the images are in, most images first
+   *
+   * @return The paths of the folders and how many images are in them
+   */
+  public List<Facet> getDirectories() {
+    return directories;
+  }
+
+  /**
+   * Returns the most common file extensions of the images, most common first
+   *
+   * @return The extensions and how many images have them
+   */
+  public List<Facet> getExtensions() {
+    return extensions;
+  }
+
+  /**
+   * Returns the LIMIT largest counts, largest first, then by key
+   *
+   * @param counts The counts
+   * @param <K> The type of the keys
+   * @return The keys and their counts
+   */
+  private static <K extends Comparable<K>> ArrayList<Map.Entry<K, Integer>> top(
+      Map<K, Integer> counts) {
+    PriorityQueue<Map.Entry<K, Integer>> kept = new PriorityQueue<>((first, second) ->
+        first.getValue().equals(second.getValue())
+            ? second.getKey().compareTo(first.getKey())
+            : Integer.compare(first.getValue(), second.getValue()));
+    for (Map.Entry<K, Integer> count : counts.entrySet()) {
+      kept.add(count);
+      if (kept.size() > LIMIT) {
+        kept.poll();
+      }
+    }
+    ArrayList<Map.Entry<K, Integer>> top = new ArrayList<>();
+    while (!kept.isEmpty()) {
+      top.add(kept.poll());
+    }
+    Collections.reverse(top);
+    return top;
+  }
+
+  /**
+   * Turns counts by text into Facets
+   *
+   * @param counts The counts
+   * @return The Facets, in the same order
+   */
+  private static ArrayList<Facet> toFacets(List<Map.Entry<String, Integer>> counts) {
+    ArrayList<Facet> facets = new ArrayList<>();
+    for (Map.Entry<String, Integer> count : counts) {
+      facets.add(new Facet(count.getKey(), count.getValue()));
+    }
+    return facets;
+  }
+
+  /**
+   * A tag, folder or extension and how many images have it
+   */
+  public static class Facet {
+
+    private final String value;
+    private final int count;
+
+    /**
+     * Creates a Facet
+     *
+     * @param value The tag, folder or extension
+     * @param count How many images have it
+     */
+    private Facet(String value, int count) {
+      this.value = value;
+      this.count = count;
+    }
+
+    /**
+     * Returns the tag, folder or extension
+     *
+     * @return The tag, the path of the folder or the extension
+     */
+    public String getValue() {
+      return value;
+    }
+
+    /**
+     * Returns how many images have the tag, are in the folder or have the extension
+     *
+     * @return The number of images
+     */
+    public int getCount() {
+      return count;
+    }
+
+    @Override
+    public String toString() {
+      return value + " (" + count + ")";
+    }
+  }
+}
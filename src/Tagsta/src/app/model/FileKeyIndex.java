@@ -0,0 +1,138 @@
+package app.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FileKeyIndex remembers the file key the file system gave the file of each image, which stays the
+ * same when the file is renamed or moved within the same file system. A file renamed by another
+ * program is then found to be an image already in the catalog by its key, instead of getting a new
+ * ImageManager without its tags history. Keys are remembered as images are looked up, and are
+ * written to a file when the program closes so files renamed while it was closed are found too.
+ * A key is only a hint: the image it leads to is only taken when its old path is gone.
+ */
+class FileKeyIndex {
+
+  //Identifies a file key file ("TGSK")
+  private static final int MAGIC = 0x5447534b;
+
+  private final HashMap<String, Long> idsByKey = new HashMap<>();
+  private final HashMap<Long, String> keysById = new HashMap<>();
+
+  /**
+   * Remembers the file key of an image, replacing the one it had
+   *
+   * @param id The number of the ImageManager of the image
+   * @param key The file key of its file
+   */
+  synchronized void put(long id, String key) {
+    String old = keysById.put(id, key);
+    if (old != null && !old.equals(key)) {
+      idsByKey.remove(old, id);
+    }
+    idsByKey.put(key, id);
+  }
+
+  /**
+   * Forgets the file key of an image
+   *
+   * @param id The number of the ImageManager of the image
+   */
+  synchronized void remove(long id) {
+    String old = keysById.remove(id);
+    if (old != null) {
+      idsByKey.remove(old, id);
+    }
+  }
+
+  /**
+   * Returns whether the file key of an image is known
+   *
+   * @param id The number of the ImageManager of the image
+   * @return Whether its key is known
+   */
+  synchronized boolean contains(long id) {
+    return keysById.containsKey(id);
+  }
+
+  /**
+   * Finds the image whose file had a file key
+   *
+   * @param key The file key
+   * @return The number of the ImageManager of the image, or -1 if no image had the key
+   */
+  synchronized long findId(String key) {
+    Long id = idsByKey.get(key);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the file key of a file as text
+   *
+   * @param path The path of the file
+   * @return The file key, or null if there is no file at the path or the file system has no keys
+   */
+  static String fileKey(Path path) {
+    try {
+      Object key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+      return key == null ? null : key.toString();
+    } catch (IOException ex) {
+      return null;
+    }
+  }
+
+  /**
+   * Writes the file keys to a file. They are written to a temporary file first, which then replaces
+   * the file, so the file is never left half written
+   *
+   * @param target The file
+   * @throws IOException Thrown when the file cannot be written
+   */
+  synchronized void write(Path target) throws IOException {
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+      output.writeInt(MAGIC);
+      output.writeInt(keysById.size());
+      for (Map.Entry<Long, String> entry : keysById.entrySet()) {
+        output.writeLong(entry.getKey());
+        output.writeUTF(entry.getValue());
+      }
+    }
+    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads file keys written by write
+   *
+   * @param source The file
+   * @return The FileKeyIndex holding the keys, which is empty if the file does not exist
+   * @throws IOException Thrown when the file cannot be read or is not a file key file
+   */
+  static FileKeyIndex read(Path source) throws IOException {
+    FileKeyIndex index = new FileKeyIndex();
+    if (!Files.exists(source)) {
+      return index;
+    }
+    try (DataInputStream input = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(source)))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException(source + " is not a file key file");
+      }
+      for (int count = input.readInt(); count > 0; count--) {
+        index.put(input.readLong(), input.readUTF());
+      }
+    }
+    return index;
+  }
+}
@@ -9,11 +9,16 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.SimpleFormatter;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
@@ -24,7 +29,28 @@ import javafx.collections.ObservableList;
  */
 public class FileManager {
 
+  private static final String CATALOG_FILE = "catalog.journal";
+  //Checkpoints are written to these files in turn, so the one that is mapped is never replaced
+  private static final String[] CHECKPOINT_FILES = {"catalog.checkpoint.0",
+      "catalog.checkpoint.1"};
+  private static final String CONFIG_FILE = "config.properties";
+  private static final String TAGS_LIST_FILE = "tags-list.ser";
+  private static final String LEGACY_FOLDER = "imagemanagers";
+  private static final String INTENT_LOG_FILE = "intent.log";
+  private static final String QUARANTINE_FILE = "catalog.quarantine";
+  private static final String FILE_KEYS_FILE = "file-keys";
+  private static final String SMART_ALBUMS_FILE = "smart-albums";
+  private static final String SORT_KEYS_FILE = "sort-keys";
   private static FileHandler logHandler;
+  //Read without the FileManager lock by the background thread of the persistence queue, which holds
+  //its own lock while writing, so the methods holding the FileManager lock never wait for a flush
+  private static volatile CatalogJournal catalogJournal;
+  private static CatalogChangeListener catalogChangeListener;
+  private static volatile IntentLog intentLog;
+  private static final ArrayList<Long> storedIntents = new ArrayList<>();
+  private static final IdAllocator idAllocator = new IdAllocator(Paths.get("image-ids"));
+  private static final PersistenceQueue persistenceQueue = new PersistenceQueue(
+      FileManager::writeImageManager, FileManager::forceCatalog, 500, 256);
 
   /**
    * Creates a log handler that writes a log to a text file with some default properties
@@ -73,59 +99,492 @@ public class FileManager {
   }
 
   /**
-   * Finds and returns the configuration file from the working directory
+   * Stores the changes made to the given ImageManager. The changes are appended to the catalog
+   * journal in the working directory by a background thread shortly after
    *
-   * @return The config file
+   * @param imageManager The ImageManager to be saved
    */
-  private static File getConfigFile() {
-    Path configPath = Paths
-        .get("config.properties");
-    File file = configPath.toFile();
+  static void storeImageManager(ImageManager imageManager){
+    FileManager.persistenceQueue.enqueue(imageManager);
+  }
 
-    //Makes the file with some default properties if it does not exist
-    if (!file.exists()) {
-      HashMap<String, String> configMap = new HashMap<>();
-      configMap.put("THEME", "light");
-      configMap.put("OPEN_LAST_SESSION", "false");
-      configMap.put("LAST_IMAGE_PATH", "");
-      configMap.put("LAST_DIRECTORY_PATH", "");
-      FileManager.storeConfig(configMap);
+  /**
+   * Appends the changes made to the given ImageManager to the catalog journal right away. Called by
+   * the background thread of the persistence queue
+   *
+   * @param imageManager The ImageManager to be saved
+   * @return Whether the changes were appended, or else the ImageManager is tried again later
+   */
+  private static boolean writeImageManager(ImageManager imageManager){
+    //Only renames logged before the ImageManager is appended are sure to be in the appended record
+    long intent = imageManager.getPendingIntent();
+    try{
+      FileManager.getCatalogJournal().append(imageManager);
+      if (intent != 0) {
+        imageManager.clearPendingIntent(intent);
+        synchronized (FileManager.storedIntents) {
+          FileManager.storedIntents.add(intent);
+        }
+      }
+      return true;
+    }
+    catch (IOException ex){
+      FileManager.reportBackgroundError("An error occurred while saving Image File data",
+          "The changes to " + imageManager + " could not be saved yet", ex);
+      return false;
     }
-    return file;
   }
 
   /**
-   * Stores the given ImageManager by serializing them in a folder in the working directory
+   * Forces the changes appended to the catalog journal to the disk and then commits the renames
+   * they contain in the intent log. Called by the background thread of the persistence queue after
+   * each batch of changes
+   */
+  private static void forceCatalog(){
+    try{
+      FileManager.getCatalogJournal().force();
+    }
+    catch (IOException ex){
+      FileManager.reportBackgroundError("An error occurred while saving Image File data",
+          "The catalog could not be written to the disk", ex);
+      return;
+    }
+    ArrayList<Long> committed;
+    synchronized (FileManager.storedIntents) {
+      committed = new ArrayList<>(FileManager.storedIntents);
+      FileManager.storedIntents.clear();
+    }
+    try{
+      FileManager.getIntentLog().commit(committed);
+    }
+    catch (IOException ex){
+      //The renames are checked again on the next start, which finds the catalog up to date
+      TagManager.getLogger().log(Level.WARNING, "Renames could not be committed", ex);
+    }
+  }
+
+  /**
+   * Sets how long changes to ImageManagers may wait before they are written to the catalog
    *
-   * @param imageManager The ImageManager to be saved
+   * @param delayMillis The longest time a change waits before it is written, in milliseconds
+   * @param maxPending The number of changed ImageManagers that causes them to be written right away
    */
-  static void storeImageManager(ImageManager imageManager){
+  static void setPersistenceBound(long delayMillis, int maxPending){
+    FileManager.persistenceQueue.setBound(delayMillis, maxPending);
+  }
+
+  /**
+   * Logs an error that happened on a background thread and shows it to the user on the JavaFX
+   * thread, if it is running
+   *
+   * @param header The text to be displayed at the top of the popup
+   * @param text The text to be displayed at the bottom of the popup
+   * @param ex The exception that caused the error
+   */
+  static void reportBackgroundError(String header, String text, Exception ex){
+    TagManager.getLogger().log(Level.SEVERE, text, ex);
     try{
-      FileManager.createImageManagersFolder();
-      OutputStream file = new FileOutputStream("imagemanagers" + File.separator +
-                                                imageManager.getFileNumber() + ".ser");
-      OutputStream buffer = new BufferedOutputStream(file);
-      ObjectOutput output = new ObjectOutputStream(buffer);
+      Platform.runLater(() -> ExceptionDialogPopup.createExceptionPopup(header, text));
+    }
+    catch (IllegalStateException notRunning){
+      //There is no user interface to show the error in, it is only logged
+    }
+  }
 
-      output.writeObject(imageManager);
-      output.close();
+  /**
+   * Removes the given ImageManager from the catalog so that it is no longer loaded
+   *
+   * @param imageManager The ImageManager to be removed
+   */
+  public static void deleteImageManager(ImageManager imageManager){
+    //Writes waiting changes first so they cannot bring the ImageManager back afterwards
+    FileManager.persistenceQueue.flush();
+    try{
+      FileManager.getCatalogJournal().delete(imageManager);
     }
     catch (IOException ex){
       ExceptionDialogPopup
-          .createExceptionPopup("An error occurred while saving Image File data",
-              "The file could not be saved");
+          .createExceptionPopup("An error occurred while removing Image File data",
+              "The file could not be removed from the catalog");
+    }
+  }
+
+  /**
+   * Opens the quarantine, a journal that is never loaded but keeps the naming history of images
+   * removed from the catalog in case they turn up again. It is opened once for all the images moved
+   * into it at a time, since opening it reads the whole journal
+   *
+   * @return The quarantine, or null if it could not be opened
+   */
+  static CatalogJournal openQuarantine(){
+    CatalogJournal quarantine = new CatalogJournal(Paths.get(QUARANTINE_FILE));
+    try {
+      quarantine.open(new TagDictionary());
+      return quarantine;
+    }
+    catch (IOException ex) {
+      FileManager.reportBackgroundError("An error occurred while removing Image File data",
+          "The quarantine could not be opened, so the images are kept in the catalog", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Closes the quarantine opened with openQuarantine
+   *
+   * @param quarantine The quarantine
+   */
+  static void closeQuarantine(CatalogJournal quarantine){
+    try {
+      quarantine.close();
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The quarantine could not be closed", ex);
+    }
+  }
+
+  /**
+   * Removes the given ImageManager from the quarantine, forgetting its naming history for good
+   *
+   * @param imageManager The quarantined ImageManager
+   */
+  public static void deleteQuarantinedImageManager(ImageManager imageManager){
+    CatalogJournal quarantine = new CatalogJournal(Paths.get(QUARANTINE_FILE));
+    try {
+      quarantine.open(new TagDictionary());
+      quarantine.delete(imageManager);
+      quarantine.close();
+    }
+    catch (IOException ex) {
+      ExceptionDialogPopup
+          .createExceptionPopup("An error occurred while removing Image File data",
+              "The file could not be removed from the quarantine");
+    }
+  }
+
+  /**
+   * Moves the given ImageManager out of the catalog into the quarantine
+   *
+   * @param quarantine The quarantine, opened with openQuarantine
+   * @param imageManager The ImageManager to be quarantined
+   * @return Whether the ImageManager was quarantined
+   */
+  static boolean quarantineImageManager(CatalogJournal quarantine, ImageManager imageManager){
+    try {
+      quarantine.appendSnapshot(imageManager);
+    }
+    catch (IOException ex) {
+      FileManager.reportBackgroundError("An error occurred while removing Image File data",
+          imageManager + " could not be quarantined, so it is kept in the catalog", ex);
+      return false;
+    }
+    FileManager.deleteImageManager(imageManager);
+    return true;
+  }
+
+  /**
+   * Writes all waiting changes and rewrites the catalog journal so it holds one record per stored
+   * ImageManager
+   */
+  static void compactCatalog(){
+    FileManager.persistenceQueue.flush();
+    try {
+      FileManager.getCatalogJournal().compact();
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The catalog could not be compacted", ex);
+    }
+  }
+
+  /**
+   * Returns the open catalog journal, opening the one in the working directory if needed
+   *
+   * @return The catalog journal
+   * @throws IOException Thrown when the journal cannot be opened
+   */
+  private static CatalogJournal getCatalogJournal() throws IOException {
+    CatalogJournal journal = FileManager.catalogJournal;
+    if (journal != null) {
+      return journal;
+    }
+    synchronized (FileManager.class) {
+      if (FileManager.catalogJournal == null) {
+        journal = new CatalogJournal(Paths.get(CATALOG_FILE));
+        journal.open(new TagDictionary());
+        journal.setChangeListener(FileManager.catalogChangeListener);
+        FileManager.idAllocator.skipPast(journal.getHighestFileNumber());
+        FileManager.catalogJournal = journal;
+      }
+      return FileManager.catalogJournal;
+    }
+  }
+
+  /**
+   * Returns the open intent log, opening the one in the working directory if needed. Renames left
+   * in the log are only recovered when the catalog is loaded
+   *
+   * @return The intent log
+   * @throws IOException Thrown when the log cannot be opened
+   */
+  private static IntentLog getIntentLog() throws IOException {
+    IntentLog log = FileManager.intentLog;
+    if (log != null) {
+      return log;
+    }
+    synchronized (FileManager.class) {
+      if (FileManager.intentLog == null) {
+        log = new IntentLog(Paths.get(INTENT_LOG_FILE));
+        log.open();
+        FileManager.intentLog = log;
+      }
+      return FileManager.intentLog;
+    }
+  }
+
+  /**
+   * Finishes or undoes in the catalog every rename that was interrupted before the renamed
+   * ImageManager was stored. A rename is finished if the image is at its new path and undone if it
+   * is still at its old path
+   *
+   * @param index The index of the images stored, updated with the recovered paths and tags
+   * @param dictionary The dictionary the tags in the index are numbered with
+   * @return The interrupted renames, which are stored by the persistence queue and then committed
+   * in the intent log with finishRecovery
+   */
+  private static List<IntentLog.Intent> recoverIntents(CatalogIndex index,
+      TagDictionary dictionary) {
+    List<IntentLog.Intent> interrupted;
+    try {
+      IntentLog log = new IntentLog(Paths.get(INTENT_LOG_FILE));
+      interrupted = log.open();
+      FileManager.intentLog = log;
+    }
+    catch (IOException ex) {
+      ExceptionDialogPopup.createExceptionPopup("Interrupted renames could not be recovered",
+          "The intent log could not be read");
+      return Collections.emptyList();
+    }
+    for (IntentLog.Intent intent : interrupted) {
+      Path oldPath = Paths.get(intent.oldPath);
+      Path newPath = Paths.get(intent.newPath);
+      ImageManager imageManager = FileManager.loadImageManager(intent.fileNumber);
+      if (imageManager == null) {
+        //The image was renamed before it was ever stored, so it is found again by its new name
+        continue;
+      }
+      boolean moved = Files.exists(newPath) && !Files.exists(oldPath);
+      boolean notMoved = Files.exists(oldPath) && !Files.exists(newPath);
+      if (moved && !imageManager.returnPath().equals(newPath)) {
+        imageManager.recover(intent.newName, newPath);
+      } else if (notMoved && !imageManager.returnPath().equals(oldPath)) {
+        imageManager.recover(intent.oldName, oldPath);
+      } else {
+        continue;
+      }
+      index.put(intent.fileNumber, imageManager.returnPath().toString(),
+          dictionary.getIds(imageManager.getTags()));
+    }
+    return interrupted;
+  }
+
+  /**
+   * Stores the renames recovered by recoverIntents and commits them in the intent log, leaving the
+   * renames of other programs that are still running. Called without the FileManager lock, since
+   * storing waits for the background thread of the persistence queue
+   *
+   * @param recovered The renames recovered
+   */
+  private static void finishRecovery(List<IntentLog.Intent> recovered) {
+    FileManager.persistenceQueue.flush();
+    ArrayList<Long> sequences = new ArrayList<>();
+    for (IntentLog.Intent intent : recovered) {
+      sequences.add(intent.sequence);
+    }
+    try {
+      FileManager.intentLog.commit(sequences);
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The recovered renames could not be committed", ex);
+    }
+  }
+
+  /**
+   * Writes all waiting changes and everything stored in the catalog to the disk and closes it
+   */
+  public static void closeCatalog(){
+    FileManager.persistenceQueue.flush();
+    synchronized (FileManager.class) {
+      FileManager.closeFiles();
+    }
+  }
+
+  /**
+   * Closes the intent log and the catalog journal. Called with the FileManager lock held, after the
+   * waiting changes were written
+   */
+  private static void closeFiles(){
+    if (FileManager.intentLog != null) {
+      try {
+        FileManager.intentLog.close();
+      } catch (IOException ex) {
+        TagManager.getLogger().log(Level.WARNING, "The intent log could not be closed", ex);
+      }
+      FileManager.intentLog = null;
+    }
+    if (FileManager.catalogJournal != null) {
+      try {
+        FileManager.catalogJournal.close();
+      } catch (IOException ex) {
+        ExceptionDialogPopup.createExceptionPopup("An error occurred while saving Image File data",
+            "The catalog could not be written to the disk");
+      }
+      FileManager.catalogJournal = null;
+    }
+  }
+
+  /**
+   * Writes a checkpoint of the catalog, so that the next start can map it instead of reading the
+   * whole catalog journal. Called when the program closes, before the catalog is closed
+   *
+   * @param index The index of the images stored in the catalog
+   * @param dictionary The dictionary the tags in the index are numbered with
+   */
+  static void storeCheckpoint(CatalogIndex index, TagDictionary dictionary){
+    FileManager.persistenceQueue.flush();
+    synchronized (FileManager.class) {
+      FileManager.writeCheckpoint(index, dictionary);
+    }
+  }
+
+  /**
+   * Writes a checkpoint of the catalog to the checkpoint file that is not mapped. Called with the
+   * FileManager lock held, after the waiting changes were written
+   *
+   * @param index The index of the images stored in the catalog
+   * @param dictionary The dictionary the tags in the index are numbered with
+   */
+  private static void writeCheckpoint(CatalogIndex index, TagDictionary dictionary){
+    if (FileManager.catalogJournal == null) {
+      return;
+    }
+    CatalogCheckpoint mapped = FileManager.catalogJournal.getCheckpoint();
+    Path target = Paths.get(CHECKPOINT_FILES[0]);
+    if (mapped != null && mapped.getPath().equals(target)) {
+      target = Paths.get(CHECKPOINT_FILES[1]);
+    }
+    try {
+      FileManager.catalogJournal.writeCheckpoint(target, index, dictionary);
+    }
+    catch (IOException ex) {
+      //The catalog journal is read in full on the next start instead
+      TagManager.getLogger().log(Level.WARNING, "The catalog checkpoint could not be written", ex);
+    }
+  }
+
+  /**
+   * Reads the file keys of the images remembered when the program last closed. The keys are only
+   * hints for finding images renamed by other programs, so when they cannot be read none are used
+   *
+   * @return The file keys
+   */
+  static FileKeyIndex loadFileKeys(){
+    try {
+      return FileKeyIndex.read(Paths.get(FILE_KEYS_FILE));
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The file keys could not be read", ex);
+      return new FileKeyIndex();
+    }
+  }
+
+  /**
+   * Writes the file keys of the images, so images renamed by other programs while this program is
+   * closed are found on the next start. Called when the program closes
+   *
+   * @param fileKeys The file keys
+   */
+  static void storeFileKeys(FileKeyIndex fileKeys){
+    try {
+      fileKeys.write(Paths.get(FILE_KEYS_FILE));
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The file keys could not be written", ex);
+    }
+  }
+
+  /**
+   * Reads the smart albums saved, with the images of the albums if they were written when the
+   * program last closed
+   *
+   * @return The smart albums, which are empty if none were saved or they could not be read
+   */
+  static SmartAlbums loadSmartAlbums(){
+    try {
+      return SmartAlbums.read(Paths.get(SMART_ALBUMS_FILE));
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The smart albums could not be read", ex);
+      return new SmartAlbums();
+    }
+  }
+
+  /**
+   * Writes the smart albums. Their images are only written when the program closes, since they
+   * change with every image after that
+   *
+   * @param smartAlbums The smart albums
+   * @param withImages Whether to write the images of the albums as well
+   */
+  static void storeSmartAlbums(SmartAlbums smartAlbums, boolean withImages){
+    try {
+      smartAlbums.write(Paths.get(SMART_ALBUMS_FILE), withImages);
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The smart albums could not be written", ex);
+    }
+  }
+
+  /**
+   * Reads the times the images were sorted by when the program last closed. They are only kept so
+   * they are not read from the files again, so when they cannot be read none are used
+   *
+   * @return The times, which are empty if none were written or they could not be read
+   */
+  static SortKeys loadSortKeys(){
+    try {
+      return SortKeys.read(Paths.get(SORT_KEYS_FILE));
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The sort keys could not be read", ex);
+      return new SortKeys();
+    }
+  }
+
+  /**
+   * Writes the times the images were sorted by, so they are not read from the files again on the
+   * next start. Called when the program closes
+   *
+   * @param sortKeys The times
+   */
+  static void storeSortKeys(SortKeys sortKeys){
+    try {
+      sortKeys.write(Paths.get(SORT_KEYS_FILE));
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "The sort keys could not be written", ex);
     }
   }
 
   /**
    * Finds the serialized ImageManager corresponding to the given file and returns it. if
-   * there is no such ImageManager, returns null
+   * there is no such ImageManager, returns null. Only used to migrate the old imagemanagers folder
+   * into the catalog journal
    *
    * @param serFile The file of the ImageManager to be returned
    * @return The ImageManager corresponding to the given file and null if no such file exists
    */
   @SuppressWarnings("unchecked")
-  private static ImageManager loadImageManager(File serFile) {
+  private static ImageManager loadLegacyImageManager(File serFile) {
     ImageManager imageManager;
     try {
       InputStream file = new FileInputStream(serFile);
@@ -150,22 +609,43 @@ public class FileManager {
   }
 
   /**
-   * Stores the given list of independent tags by serializing them in the working directory
+   * Stores the changes made to the list of independent tags by serializing the list in the working
+   * directory. Other programs may share the list, so the changes are made to the list as it is
+   * stored now, under a lock, and the list is written to a temporary file that then replaces it
    *
-   * @param listOfTags The list of tags to be saved
+   * @param added The tags added since the list was last stored
+   * @param removed The tags deleted since the list was last stored
+   * @return The list as it was stored, with the changes of other programs, or null if it could not
+   * be stored
    */
-  static void storeTagsList(ArrayList<String> listOfTags) {
+  static ArrayList<String> storeTagsList(Collection<String> added, Collection<String> removed) {
+    ProcessLock lock = ProcessLock.forFile(Paths.get(TAGS_LIST_FILE));
+    Path tempPath = Paths.get(TAGS_LIST_FILE + ".tmp");
     try {
-      OutputStream file = new FileOutputStream("tags-list.ser");
-      OutputStream buffer = new BufferedOutputStream(file);
-      ObjectOutput output = new ObjectOutputStream(buffer);
+      lock.lock();
+      try {
+        LinkedHashSet<String> merged = new LinkedHashSet<>(FileManager.readTagsList());
+        merged.removeAll(removed);
+        merged.addAll(added);
+        ArrayList<String> listOfTags = new ArrayList<>(merged);
 
-      output.writeObject(listOfTags);
-      output.close();
+        OutputStream file = new FileOutputStream(tempPath.toFile());
+        OutputStream buffer = new BufferedOutputStream(file);
+        ObjectOutput output = new ObjectOutputStream(buffer);
+
+        output.writeObject(listOfTags);
+        output.close();
+        Files.move(tempPath, Paths.get(TAGS_LIST_FILE), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        return listOfTags;
+      } finally {
+        lock.unlock();
+      }
     } catch (IOException ex) {
       ExceptionDialogPopup
           .createExceptionPopup("An error occurred while saving the independent tags list",
               "The file could not be saved");
+      return null;
     }
   }
 
@@ -173,13 +653,27 @@ public class FileManager {
    * Finds and returns the serialized independent tags list from the working directory, and
    * serializes and returns an empty list if there is no such file
    *
-   * @return The list of independent tags stored, or null if it is not found
+   * @return The list of independent tags stored
    */
-  @SuppressWarnings("unchecked")
   static ArrayList<String> loadTagsList() {
+    if (!new File(TAGS_LIST_FILE).exists()) {
+      ArrayList<String> created = FileManager.storeTagsList(new ArrayList<>(), new ArrayList<>());
+      return created != null ? created : new ArrayList<>();
+    }
+    return FileManager.readTagsList();
+  }
+
+  /**
+   * Reads the serialized independent tags list without taking its lock, which is safe because the
+   * file is only ever replaced as a whole
+   *
+   * @return The list of independent tags stored, or an empty list if it cannot be read
+   */
+  @SuppressWarnings("unchecked")
+  private static ArrayList<String> readTagsList() {
     ArrayList<String> listOfTags;
     try {
-      InputStream file = new FileInputStream("tags-list.ser");
+      InputStream file = new FileInputStream(TAGS_LIST_FILE);
       InputStream buffer = new BufferedInputStream(file);
       ObjectInput input = new ObjectInputStream(buffer);
 
@@ -187,94 +681,238 @@ public class FileManager {
       input.close();
     } catch (IOException | ClassNotFoundException ex) {
       listOfTags = new ArrayList<>();
-      FileManager.storeTagsList(listOfTags);
     }
     return listOfTags;
   }
 
   /**
-   * Creates the imagemanagers folder in the working directory
+   * Opens the catalog journal in the working directory and returns an index of the images stored in
+   * it, without loading their ImageManagers. The first time this runs, the ImageManagers serialized
+   * in the old imagemanagers folder are moved into the journal
+   *
+   * @param dictionary The dictionary to number the tags of the images with
+   * @return The index of the images stored
    */
-  private static void createImageManagersFolder(){
-    try{
-      Files.createDirectories(Paths.get("imagemanagers"));
+  static CatalogIndex loadCatalogIndex(TagDictionary dictionary) {
+    FileManager.closeCatalog();
+    CatalogIndex index;
+    List<IntentLog.Intent> recovered = Collections.emptyList();
+    synchronized (FileManager.class) {
+      index = FileManager.openCatalog(dictionary);
+      if (index != null) {
+        recovered = FileManager.recoverIntents(index, dictionary);
+      }
     }
-    catch (IOException ex){
+    if (!recovered.isEmpty()) {
+      FileManager.finishRecovery(recovered);
+    }
+    return index != null ? index : new CatalogIndex();
+  }
+
+  /**
+   * Opens the catalog journal, migrating the old ImageManagers into it the first time. Called with
+   * the FileManager lock held
+   *
+   * @param dictionary The dictionary to number the tags of the images with
+   * @return The index of the images stored, or null if the journal could not be opened
+   */
+  private static CatalogIndex openCatalog(TagDictionary dictionary) {
+    //The background thread may have opened the files again since they were closed
+    FileManager.closeFiles();
+    //The old folder is only left in place by a migration that did not finish
+    boolean migrate = new File(LEGACY_FOLDER).isDirectory();
+    CatalogJournal journal = new CatalogJournal(Paths.get(CATALOG_FILE));
+    ArrayList<CatalogCheckpoint> checkpoints = new ArrayList<>();
+    for (String checkpointFile : CHECKPOINT_FILES) {
+      CatalogCheckpoint checkpoint = CatalogCheckpoint.open(Paths.get(checkpointFile));
+      if (checkpoint != null) {
+        checkpoints.add(checkpoint);
+      }
+    }
+    CatalogIndex index;
+    try {
+      index = journal.open(dictionary, checkpoints);
+    }
+    catch (IOException ex) {
       ExceptionDialogPopup.createExceptionPopup("The image files could not loaded",
-          "The imagemanagers folder could not be created");
+          "The catalog file could not be opened");
+      return null;
     }
+    journal.setChangeListener(FileManager.catalogChangeListener);
+    FileManager.catalogJournal = journal;
+    FileManager.idAllocator.skipPast(journal.getHighestFileNumber());
+    if (migrate) {
+      FileManager.migrateImageManagers(journal, index, dictionary);
+    }
+    return index;
   }
 
   /**
-   * Finds the serialized ImageManagers in the imagemanagers folder, creating an empty serialized
-   * list if there are none, and returns all of the ImageManagers
+   * Sets what is told when another program sharing the working directory changes the catalog
    *
-   * @return The list of ImageManagers stored
+   * @param listener The listener, or null to stop telling anything
    */
-  @SuppressWarnings("unchecked")
-  static ArrayList<ImageManager> loadImageManagers() {
-    ArrayList<ImageManager> imageManagers = new ArrayList<>();
-    File folder = new File("imagemanagers");
-    if(!folder.exists()){
-      FileManager.createImageManagersFolder();
-    }
-    File[] listOfFiles = folder.listFiles();
-    if (listOfFiles != null) {
-      for (File file : listOfFiles) {
-        imageManagers.add(FileManager.loadImageManager(file));
+  static synchronized void setCatalogChangeListener(CatalogChangeListener listener) {
+    FileManager.catalogChangeListener = listener;
+    if (FileManager.catalogJournal != null) {
+      FileManager.catalogJournal.setChangeListener(listener);
+    }
+  }
+
+  /**
+   * Loads the ImageManager with the given number, with its whole naming history, from the catalog.
+   * Called from searches on background threads as well as from the JavaFX thread
+   *
+   * @param fileNumber The number of the ImageManager
+   * @return The ImageManager, or null if it could not be loaded
+   */
+  static ImageManager loadImageManager(long fileNumber) {
+    try {
+      return FileManager.getCatalogJournal().load(fileNumber);
+    }
+    catch (IOException ex) {
+      FileManager.reportBackgroundError("An error occurred while loading Image data",
+          "Image " + fileNumber + " could not be loaded from the catalog", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Moves every ImageManager serialized in the old imagemanagers folder into the catalog journal.
+   * The ImageManagers are appended and forced to the disk right away, since the persistence queue
+   * cannot be waited for while the catalog is being opened. The folder is kept, renamed, as a
+   * backup once every ImageManager in it is in the catalog, and is migrated again on the next start
+   * otherwise
+   *
+   * @param journal The catalog journal being opened
+   * @param index The index to add the migrated images to
+   * @param dictionary The dictionary to number the tags of the migrated images with
+   */
+  private static void migrateImageManagers(CatalogJournal journal, CatalogIndex index,
+      TagDictionary dictionary) {
+    File[] listOfFiles = new File(LEGACY_FOLDER).listFiles();
+    if (listOfFiles == null) {
+      return;
+    }
+    boolean stored = true;
+    for (File file : listOfFiles) {
+      ImageManager imageManager = FileManager.loadLegacyImageManager(file);
+      if (imageManager != null) {
+        //The number of an ImageManager was only kept in the name of its file
+        String number = file.getName().replace(".ser", "");
+        if (number.matches("[0-9]+")) {
+          imageManager.setFileNumber(Long.parseLong(number));
+          //Migrated by an earlier start that did not finish, and maybe changed since
+          if (index.getPath(imageManager.getFileNumber()) != null) {
+            continue;
+          }
+          FileManager.idAllocator.skipPast(imageManager.getFileNumber());
+        } else {
+          imageManager.setFileNumber(FileManager.allocateFileNumber());
+        }
+        try {
+          journal.append(imageManager);
+        }
+        catch (IOException ex) {
+          TagManager.getLogger().log(Level.WARNING, "Could not migrate " + file, ex);
+          stored = false;
+          continue;
+        }
+        index.put(imageManager.getFileNumber(), imageManager.returnPath().toString(),
+            dictionary.getIds(imageManager.getTags()));
       }
     }
-    return imageManagers;
+    try {
+      journal.force();
+    }
+    catch (IOException ex) {
+      TagManager.getLogger().log(Level.WARNING, "Could not force the migrated images", ex);
+      stored = false;
+    }
+    if (!stored) {
+      ExceptionDialogPopup.createExceptionPopup("Some old image files could not be migrated",
+          "They will be migrated into the catalog again the next time the program starts");
+      return;
+    }
+    try {
+      Files.move(Paths.get(LEGACY_FOLDER), Paths.get(LEGACY_FOLDER + "-migrated"));
+    }
+    catch (IOException ex) {
+      ExceptionDialogPopup.createExceptionPopup("The old image files could not be moved",
+          "They will be migrated into the catalog again the next time the program starts");
+    }
   }
 
   /**
-   * Gets the number of saved ImageManagers
-   * @return The number of saved ImageManagers
+   * Hands out a new number for an ImageManager to be stored under. Numbers are never reused
+   * @return The new number
    */
-  static long getNumberOfImageManagers(){
-    File file = new File("imagemanagers");
-    File[] fileList = file.listFiles();
-    if (fileList == null){
-      return 0;
+  static long allocateFileNumber(){
+    try {
+      return FileManager.idAllocator.allocate();
     }
-    else {
-      return fileList.length;
+    catch (IOException ex) {
+      ExceptionDialogPopup.createExceptionPopup("An error occurred while saving Image File data",
+          "The image counter could not be saved, numbers may be reused after a restart");
+      return FileManager.idAllocator.allocateUnreserved();
     }
   }
 
   /**
-   * Stores the config file into the working directory
+   * Stores changed settings in the config file in the working directory. Other programs may share
+   * the file, so only the given settings are changed in the file as it is now, under a lock. The
+   * settings are written to a temporary file first, which then replaces the config file, so the
+   * config file is never left half written
    *
-   * @param configMap The map with the settings to be saved in 'key = setting, value = choice' format
+   * @param configMap The map with the changed settings in 'key = setting, value = choice' format
    */
   static void storeConfig(HashMap<String, String> configMap) {
-    File configFile = new File("config.properties");
+    ProcessLock lock = ProcessLock.forFile(Paths.get(CONFIG_FILE));
+    Path tempPath = Paths.get(CONFIG_FILE + ".tmp");
     try {
-      Properties properties = new Properties();
+      lock.lock();
+      try {
+        //Keeps the settings other programs stored since this one read them
+        Properties properties = new Properties();
+        File configFile = new File(CONFIG_FILE);
+        if (configFile.exists()) {
+          FileReader reader = new FileReader(configFile);
+          properties.load(reader);
+          reader.close();
+        }
 
-      //Takes the settings from the config map and puts them in the properties
-      for (String key : configMap.keySet()) {
-        properties.setProperty(key, configMap.get(key));
-      }
+        //Takes the settings from the config map and puts them in the properties
+        for (String key : configMap.keySet()) {
+          properties.setProperty(key, configMap.get(key));
+        }
 
-      //Writes the files
-      FileWriter writer = new FileWriter(configFile);
-      properties.store(writer, "configuration settings");
-      writer.close();
+        //Writes the files
+        FileWriter writer = new FileWriter(tempPath.toFile());
+        properties.store(writer, "configuration settings");
+        writer.close();
+        Files.move(tempPath, Paths.get(CONFIG_FILE), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        lock.unlock();
+      }
     } catch (IOException ex) {
-      ExceptionDialogPopup.createExceptionPopup("An error occurred while saving user settings",
-          "The changes made to user settings could not be saved");
+      FileManager.reportBackgroundError("An error occurred while saving user settings",
+          "The changes made to user settings could not be saved", ex);
     }
   }
 
   /**
    * Loads the config file from the system and returns a HashMap of its contents
    *
-   * @return The settings as a map in the format 'key: setting, value: choice'
+   * @return The settings as a map in the format 'key: setting, value: choice', which is empty if
+   * there is no config file yet
    */
   static HashMap<String, String> getConfigDetails() {
     HashMap<String, String> configMap = new HashMap<>();
-    File configFile = FileManager.getConfigFile();
+    File configFile = new File(CONFIG_FILE);
+    if (!configFile.exists()) {
+      return configMap;
+    }
     try {
       FileReader reader = new FileReader(configFile);
       Properties properties = new Properties();
@@ -298,11 +936,13 @@ public class FileManager {
    *
    * @param currentPath The current path of the image
    * @param newPath The new path to move the image to
+   * @return Whether the image was moved
    */
-  public static void moveImage(Path currentPath, Path newPath) {
+  public static boolean moveImage(Path currentPath, Path newPath) {
     try {
       if (!newPath.toFile().exists()) {
         Files.move(currentPath, newPath, StandardCopyOption.REPLACE_EXISTING);
+        return true;
       } else {
         ExceptionDialogPopup.createExceptionPopup("An error occurred while moving the image",
             "There is already an image of the same name in the new directory");
@@ -311,8 +951,47 @@ public class FileManager {
       ExceptionDialogPopup.createExceptionPopup("An error occurred while moving the image",
           "The image could not be moved");
     }
+    return false;
+  }
+
+  /**
+   * Renames or moves the image of an ImageManager. The rename is written to the intent log before
+   * the image is moved, so that if the program is killed before the ImageManager is stored, the
+   * catalog is brought in line with the disk on the next start
+   *
+   * @param imageManager The ImageManager of the image, still holding its current name and path
+   * @param newPath The path to move the image to
+   * @param newName The name the ImageManager has after the rename
+   * @return Whether the image was moved
+   */
+  static boolean renameImage(ImageManager imageManager, Path newPath, String newName) {
+    IntentLog log;
+    long intent;
+    try {
+      log = FileManager.getIntentLog();
+      intent = log.record(imageManager.getFileNumber(), imageManager.returnPath().toString(),
+          newPath.toString(), imageManager.getName(), newName);
+    }
+    catch (IOException ex) {
+      ExceptionDialogPopup.createExceptionPopup("An error occurred while moving the image",
+          "The rename could not be logged, so the image was not renamed");
+      return false;
+    }
+    if (!FileManager.moveImage(imageManager.returnPath(), newPath)) {
+      try {
+        //Nothing happened, so there is nothing to recover
+        log.commit(Collections.singletonList(intent));
+      }
+      catch (IOException ex) {
+        TagManager.getLogger().log(Level.WARNING, "A failed rename could not be committed", ex);
+      }
+      return false;
+    }
+    imageManager.setPendingIntent(intent);
+    return true;
   }
 
+
   /**
    * Opens the folder of an image in the Operating System's default file explorer and gives an error
    * if it cannot be done
@@ -0,0 +1,326 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.function.LongConsumer;
+
+/**
+ * FuzzyIndex finds images whose names are close to what was typed, such as "aunt june" for
+ * "aunt jnue". The file names of the images, tags included, are split into words. The index keeps
+ * every distinct word with the set of images whose names have it, and for every trigram (three
+ * letters in a row, with the start and end of a word counted as letters) the set of words
+ * containing it.
+ *
+ * <p>A search looks up the trigrams of every word typed, and of every way of leaving one letter out
+ * of it, so a word with a typo still shares trigrams with the word meant. The words found are
+ * checked by the number of letters added, removed, changed or swapped to get from the word typed to
+ * them, or to their start for words of more than one letter, since the last word may still be
+ * being typed. The images are then ranked
+ * by the total number of edits of all the words typed, using the sets of images of the words found,
+ * without looking at the names of the images again.
+ */
+class FuzzyIndex {
+
+  //Typed words this long are checked against every word instead of being looked up by trigram
+  private static final int SHORT_WORD = 3;
+
+  private final HashMap<String, Integer> wordIds = new HashMap<>();
+  //The words and the images with them by the number of the word, null once no image has the word
+  private final ArrayList<String> words = new ArrayList<>();
+  private final ArrayList<CompressedBitmap> imagesByWord = new ArrayList<>();
+  private final HashMap<Long, CompressedBitmap> wordsByTrigram = new HashMap<>();
+
+  /**
+   * Adds the words of the file name of an image to the index
+   *
+   * @param id The number of the ImageManager of the image
+   * @param path The path of the image
+   */
+  void add(long id, String path) {
+    for (String word : nameWords(path)) {
+      Integer wordId = wordIds.get(word);
+      if (wordId == null) {
+        wordId = words.size();
+        wordIds.put(word, wordId);
+        words.add(word);
+        imagesByWord.add(new CompressedBitmap());
+        int newId = wordId;
+        forEachTrigram(word, trigram ->
+            wordsByTrigram.computeIfAbsent(trigram, key -> new CompressedBitmap()).add(newId));
+      }
+      imagesByWord.get(wordId).add(id);
+    }
+  }
+
+  /**
+   * Takes the words of the file name of an image out of the index
+   *
+   * @param id The number of the ImageManager of the image
+   * @param path The path the image had when it was added
+   */
+  void remove(long id, String path) {
+    for (String word : nameWords(path)) {
+      Integer wordId = wordIds.get(word);
+      if (wordId == null || !imagesByWord.get(wordId).remove(id)
+          || !imagesByWord.get(wordId).isEmpty()) {
+        continue;
+      }
+      //Forgets the word once no image has it
+      wordIds.remove(word);
+      words.set(wordId, null);
+      imagesByWord.set(wordId, null);
+      forEachTrigram(word, trigram -> {
+        CompressedBitmap wordsWithTrigram = wordsByTrigram.get(trigram);
+        if (wordsWithTrigram != null && wordsWithTrigram.remove(wordId)
+            && wordsWithTrigram.isEmpty()) {
+          wordsByTrigram.remove(trigram);
+        }
+      });
+    }
+  }
+
+  /**
+   * Finds the images whose names are closest to the text typed. Images as close are listed in the
+   * order they were added
+   *
+   * @param query The text typed
+   * @param limit The most images to return
+   * @return The numbers of the ImageManagers of the images found, closest first
+   */
+  long[] search(String query, int limit) {
+    ArrayList<String> typed = splitWords(query.toLowerCase(Locale.ROOT));
+    if (typed.isEmpty() || limit <= 0) {
+      return new long[0];
+    }
+    //The images by the total number of edits of the words typed so far
+    CompressedBitmap[] byEdits = null;
+    for (String word : typed) {
+      CompressedBitmap[] byWordEdits = findImages(word);
+      if (byEdits == null) {
+        byEdits = byWordEdits;
+        continue;
+      }
+      CompressedBitmap[] combined = new CompressedBitmap[byEdits.length + byWordEdits.length - 1];
+      for (int edits = 0; edits < byEdits.length; edits++) {
+        for (int wordEdits = 0; wordEdits < byWordEdits.length; wordEdits++) {
+          CompressedBitmap images = byEdits[edits].and(byWordEdits[wordEdits]);
+          CompressedBitmap total = combined[edits + wordEdits];
+          combined[edits + wordEdits] = total == null ? images : total.or(images);
+        }
+      }
+      byEdits = combined;
+    }
+    long[] found = new long[limit];
+    int count = 0;
+    for (int edits = 0; edits < byEdits.length && count < limit; edits++) {
+      for (long id : byEdits[edits].toArray()) {
+        if (count == limit) {
+          break;
+        }
+        found[count++] = id;
+      }
+    }
+    return Arrays.copyOf(found, count);
+  }
+
+  /**
+   * Finds the images with a word close to a word typed
+   *
+   * @param typed The word typed
+   * @return The images by the number of edits between the word typed and the closest of their
+   * words
+   */
+  private CompressedBitmap[] findImages(String typed) {
+    int allowed = allowedEdits(typed);
+    CompressedBitmap candidates = new CompressedBitmap();
+    if (typed.length() == SHORT_WORD) {
+      //A short word with its middle letter changed shares no trigram with the word meant, so the
+      //words of about its length are all checked
+      for (int wordId = 0; wordId < words.size(); wordId++) {
+        String word = words.get(wordId);
+        if (word != null && word.length() >= SHORT_WORD - allowed
+            && sharesLetter(typed, word, SHORT_WORD + allowed)) {
+          candidates.add(wordId);
+        }
+      }
+    } else {
+      HashSet<Long> trigrams = new HashSet<>();
+      for (String variant : variants(typed)) {
+        forEachTrigram(variant, trigrams::add);
+      }
+      for (long trigram : trigrams) {
+        CompressedBitmap wordsWithTrigram = wordsByTrigram.get(trigram);
+        if (wordsWithTrigram != null) {
+          candidates.orWith(wordsWithTrigram);
+        }
+      }
+    }
+    CompressedBitmap[] byEdits = new CompressedBitmap[allowed + 1];
+    for (int edits = 0; edits <= allowed; edits++) {
+      byEdits[edits] = new CompressedBitmap();
+    }
+    candidates.forEach(wordId -> {
+      String word = words.get((int) wordId);
+      int edits = distance(typed, word, allowed);
+      //The last word may still be being typed, so the start of a longer word counts as well
+      if (edits > 0 && typed.length() > 1 && word.length() > typed.length()) {
+        edits = Math.min(edits, distance(typed, word.substring(0, typed.length()), edits - 1));
+      }
+      if (edits <= allowed) {
+        byEdits[edits].orWith(imagesByWord.get((int) wordId));
+      }
+    });
+    //An image with more than one close word counts the closest
+    for (int edits = 1; edits <= allowed; edits++) {
+      for (int closer = 0; closer < edits; closer++) {
+        byEdits[edits] = byEdits[edits].andNot(byEdits[closer]);
+      }
+    }
+    return byEdits;
+  }
+
+  /**
+   * Returns whether one of the first letters of a word is in the word typed. A word, or the start
+   * of one, that is a few edits from a longer word typed always is
+   *
+   * @param typed The word typed
+   * @param word The word
+   * @param letters The number of letters at the start of the word to look at
+   * @return Whether one of them is in the word typed
+   */
+  private static boolean sharesLetter(String typed, String word, int letters) {
+    for (int i = 0; i < Math.min(letters, word.length()); i++) {
+      if (typed.indexOf(word.charAt(i)) != -1) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns how many letters of a word typed may be wrong
+   *
+   * @param word The word typed
+   * @return The number of edits allowed
+   */
+  private static int allowedEdits(String word) {
+    if (word.length() <= 2) {
+      return 0;
+    }
+    return word.length() <= 5 ? 1 : 2;
+  }
+
+  /**
+   * Returns the number of letters that have to be added, removed, changed or swapped with the one
+   * next to them to turn one word into another
+   *
+   * @param first The first word
+   * @param second The second word
+   * @param bound The largest distance of interest
+   * @return The distance, or bound + 1 if it is larger than the bound
+   */
+  static int distance(String first, String second, int bound) {
+    if (Math.abs(first.length() - second.length()) > bound) {
+      return bound + 1;
+    }
+    int[] twoBefore = new int[second.length() + 1];
+    int[] before = new int[second.length() + 1];
+    int[] row = new int[second.length() + 1];
+    for (int j = 0; j <= second.length(); j++) {
+      before[j] = j;
+    }
+    for (int i = 1; i <= first.length(); i++) {
+      row[0] = i;
+      int smallest = i;
+      for (int j = 1; j <= second.length(); j++) {
+        int cost = first.charAt(i - 1) == second.charAt(j - 1) ? 0 : 1;
+        row[j] = Math.min(Math.min(row[j - 1] + 1, before[j] + 1), before[j - 1] + cost);
+        if (i > 1 && j > 1 && first.charAt(i - 1) == second.charAt(j - 2)
+            && first.charAt(i - 2) == second.charAt(j - 1)) {
+          row[j] = Math.min(row[j], twoBefore[j - 2] + 1);
+        }
+        smallest = Math.min(smallest, row[j]);
+      }
+      //No later row can be smaller than the smallest value in this one
+      if (smallest > bound) {
+        return bound + 1;
+      }
+      int[] oldest = twoBefore;
+      twoBefore = before;
+      before = row;
+      row = oldest;
+    }
+    return Math.min(before[second.length()], bound + 1);
+  }
+
+  /**
+   * Returns the words of the file name in a path, in lower case and without the extension
+   *
+   * @param path The path
+   * @return The words
+   */
+  static ArrayList<String> nameWords(String path) {
+    int nameStart = Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1;
+    int dot = path.lastIndexOf('.');
+    String name = path.substring(nameStart, dot < nameStart ? path.length() : dot);
+    return splitWords(name.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Splits text into words at anything that is not a letter or a digit
+   *
+   * @param text The text
+   * @return The words
+   */
+  private static ArrayList<String> splitWords(String text) {
+    ArrayList<String> words = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inWord && start == -1) {
+        start = i;
+      } else if (!inWord && start != -1) {
+        words.add(text.substring(start, i));
+        start = -1;
+      }
+    }
+    return words;
+  }
+
+  /**
+   * Returns a word typed together with every way of leaving one letter out of it, so that a word
+   * with a letter too many, missing or swapped still shares a trigram with the word meant
+   *
+   * @param word The word typed
+   * @return The word and its variants
+   */
+  private static ArrayList<String> variants(String word) {
+    ArrayList<String> variants = new ArrayList<>();
+    variants.add(word);
+    if (allowedEdits(word) > 0) {
+      for (int i = 0; i < word.length(); i++) {
+        variants.add(word.substring(0, i) + word.substring(i + 1));
+      }
+    }
+    return variants;
+  }
+
+  /**
+   * Gives every trigram of a word to the consumer, with the start and the end of the word counted
+   * as letters. A trigram that is in the word twice is given twice
+   *
+   * @param word The word
+   * @param consumer Given the trigrams, each packed into a number
+   */
+  private static void forEachTrigram(String word, LongConsumer consumer) {
+    //Character 0 stands for the start and the end of the word
+    String padded = '\0' + word + '\0';
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      consumer.accept((long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16
+          | padded.charAt(i + 2));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package app.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * IdAllocator hands out the numbers ImageManagers are stored under. Numbers only ever go up and are
+ * never handed out twice, even after the ImageManager that had one is deleted. Numbers are reserved
+ * in blocks by writing the end of the block to a counter file, so most numbers are handed out
+ * without touching the disk. The counter file is locked while a block is reserved, so two programs
+ * sharing the same working directory never get the same block.
+ */
+class IdAllocator {
+
+  private static final long BLOCK_SIZE = 1024;
+
+  private final Path counterPath;
+  private long next = 1;
+  private long reservedEnd = 1;
+
+  /**
+   * Creates an IdAllocator that keeps its counter in the given file
+   *
+   * @param counterPath The path of the counter file
+   */
+  IdAllocator(Path counterPath) {
+    this.counterPath = counterPath;
+  }
+
+  /**
+   * Hands out the next number, reserving a new block first if the current one is used up
+   *
+   * @return A number that has never been handed out
+   * @throws IOException Thrown when a new block cannot be reserved in the counter file
+   */
+  synchronized long allocate() throws IOException {
+    if (next >= reservedEnd) {
+      reserve();
+    }
+    return next++;
+  }
+
+  /**
+   * Hands out the next number without reserving it in the counter file. Only used when the
+   * counter file cannot be written, so the number may be handed out again after a restart
+   *
+   * @return The next number
+   */
+  synchronized long allocateUnreserved() {
+    return next++;
+  }
+
+  /**
+   * Makes sure no number up to and including the given one is handed out, for numbers that were
+   * given out before this IdAllocator existed
+   *
+   * @param id The highest number already in use
+   */
+  synchronized void skipPast(long id) {
+    if (next <= id) {
+      next = id + 1;
+    }
+  }
+
+  /**
+   * Reserves the next block of numbers by moving the end stored in the counter file forward
+   *
+   * @throws IOException Thrown when the counter file cannot be read or written
+   */
+  private void reserve() throws IOException {
+    try (FileChannel counter = FileChannel.open(counterPath, StandardOpenOption.CREATE,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      FileLock lock = counter.lock();
+      try {
+        ByteBuffer stored = ByteBuffer.allocate(Long.BYTES);
+        counter.read(stored, 0);
+        long start = stored.position() == Long.BYTES ? Math.max(stored.getLong(0), next) : next;
+        ByteBuffer end = ByteBuffer.allocate(Long.BYTES);
+        end.putLong(0, start + BLOCK_SIZE);
+        counter.write(end, 0);
+        counter.force(true);
+        next = start;
+        reservedEnd = start + BLOCK_SIZE;
+      } finally {
+        lock.release();
+      }
+    }
+  }
+}
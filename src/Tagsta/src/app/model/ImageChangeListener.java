@@ -0,0 +1,15 @@
+package app.model;
+
+/**
+ * Something that needs to know when the path or the tags of an ImageManager change, such as the
+ * indexes kept by TagManager.
+ */
+interface ImageChangeListener {
+
+  /**
+   * Called after the path or the tags of an ImageManager changed and the change was stored
+   *
+   * @param imageManager The ImageManager that changed
+   */
+  void imageChanged(ImageManager imageManager);
+}
@@ -10,63 +10,115 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
 
 /***
  * The class storing the information about the Image. Responsible for storing the current tags of the Image,
  * the previous names of the image, the current name of the image, the path to the image, and the
- * serializable number by which this ImageManager is represented by.
+ * serializable number by which this ImageManager is represented by. The methods that change an
+ * ImageManager are synchronized because the changes are stored on a background thread.
  */
 public class ImageManager implements Serializable {
 
   private ObservableList<String> tags;
+  private NameHistory history;
+  //The naming history as "date, name" strings, only built once it is asked for
   private ObservableList<String> previousNames;
   private long fileNumber;
   private static final long serialVersionUID = 123456789;
+  //Stands for the '/' between the levels of a tag in file names, which cannot hold '/'. A '~' that
+  //is part of a tag is written twice
+  private static final char FILE_NAME_SEPARATOR = '~';
   private String name;
   private Path imagePath;
+  private int storedHistorySize;
+  private long storedVersion;
+  private ImageChangeListener changeListener;
+  private long pendingIntent;
 
   /***
    * Creates an instance of ImageManager
    * @param path The path to the image.
    */
   public ImageManager(Path path) {
-    //Gets the current number of ImageManagers in order to create the correct serializable file
-    this.fileNumber = FileManager.getNumberOfImageManagers() + 1;
+    //Gets a number no other ImageManager has been stored under
+    this.fileNumber = FileManager.allocateFileNumber();
     //Initializes instance variables
     imagePath = path;
-    previousNames = FXCollections.observableArrayList(new ArrayList<String>());
+    history = new NameHistory();
     name = imagePath.getFileName().toString();
     //Searches for the last index of the '.' character in order to remove the file extension from the name
     int periodIndex = name.indexOf(".");
     name = name.substring(0, periodIndex);
     //Stores the current name in the log of naming history
-    previousNames.add(getDateAndTime() + ", " + name);
+    history.add(name);
     //Parses the tags out of the current name in order to place all the tags into the current tag list
     tags = parseTags(name);
     TagManager.getLogger().log(Level.INFO, "Started the logging of " + name + ".");
   }
 
+  /***
+   * Creates an instance of ImageManager from data that has already been stored
+   * @param fileNumber The number this ImageManager is stored under
+   * @param name The current name of the image
+   * @param path The path to the image
+   * @param previousNames The naming history of the image
+   */
+  ImageManager(long fileNumber, String name, Path path, List<String> previousNames) {
+    this(fileNumber, name, path, NameHistory.of(previousNames));
+  }
+
+  /***
+   * Creates an instance of ImageManager from data that has already been stored
+   * @param fileNumber The number this ImageManager is stored under
+   * @param name The current name of the image
+   * @param path The path to the image
+   * @param history The naming history of the image
+   */
+  ImageManager(long fileNumber, String name, Path path, NameHistory history) {
+    this.fileNumber = fileNumber;
+    this.name = name;
+    this.imagePath = path;
+    this.history = history;
+    this.tags = parseTags(name);
+    this.storedHistorySize = history.size();
+  }
+
   /**
    * * Changes the name of the file to a previous name in previousNames.
    *
    * @param revertedName The String to which the name of the file will be changed to.
    */
-  public void revert(String revertedName) {
-    //Parses out the tags from the name to be reverted to
-    tags = parseTags(revertedName);
-    //Parses out the date from the formatting of the name as when this method is called the name is returned with the date formatting
-    String parsedRevertedName = revertedName.substring(revertedName.indexOf("M") + 3);
+  public synchronized void revert(String revertedName) {
+    int index = getPrevNames().lastIndexOf(revertedName);
+    if (index != -1) {
+      revert(index);
+    }
+  }
+
+  /**
+   * * Changes the name of the file to the name it got from the entry of previousNames at the given
+   * position. Only the entries since the closest whole name stored before it are read.
+   *
+   * @param index The position of the entry in the naming history.
+   */
+  public synchronized void revert(int index) {
+    String parsedRevertedName = history.getName(index);
     //Retrieves the total file path and stores it to temp in order to move the file
     Path newPath = getTotalPath(parsedRevertedName);
-    FileManager.moveImage(imagePath, newPath);
-    imagePath = newPath;
-    TagManager.getLogger()
-        .log(Level.INFO, "Reverted from the name: " + parsedRevertedName + " to " + name);
-    name = parsedRevertedName;
-    //Stores name and the date for history storing purposes
-    String nameAndDate = getDateAndTime() + ", " + name;
-    previousNames.add(nameAndDate);
+    if (FileManager.renameImage(this, newPath, parsedRevertedName)) {
+      tags = FXCollections.observableArrayList(history.getTags(index));
+      imagePath = newPath;
+      TagManager.getLogger()
+          .log(Level.INFO, "Reverted from the name: " + parsedRevertedName + " to " + name);
+      name = parsedRevertedName;
+      //Stores name and the date for history storing purposes
+      addHistory(name);
+    }
     FileManager.storeImageManager(this);
+    changed();
   }
 
   /**
@@ -76,7 +128,7 @@ public class ImageManager implements Serializable {
    *
    * @param tag String to be added to the file name of the image.
    */
-  public void addTag(String tag) {
+  public synchronized void addTag(String tag) {
     String tempTag = tag;
     //Trims the tag to remove spaces
     tempTag = tempTag.trim();
@@ -84,23 +136,61 @@ public class ImageManager implements Serializable {
     //Doesn't do anything if the tag only contained spaces
     if (!tempTag.isEmpty()) {
       //Only adds the tag if the tag contains only non special characters
-      added = TagManager.isValidTag(new ArrayList<>(this.tags), tempTag);
+      added = TagManager.isValidTag(this.tags, tempTag);
       //Actions to take if the tag is determined to be added
       if (added) {
-        tags.add(tag);
-        String newName = name + " @" + tag;
+        String newName = name + " @" + encodeTag(tag);
         Path newPath = getTotalPath(newName);
-        FileManager.moveImage(imagePath, newPath);
+        if (FileManager.renameImage(this, newPath, newName)) {
+          tags.add(tag);
+          imagePath = newPath;
+          TagManager.getLogger().log(
+              Level.INFO,
+              "Changed name from: " + name + " to: " + name + " @" + tag + ". By adding tag: " + tag);
+          name = newName;
+          addHistory(name);
+        }
+      }
+    }
+    FileManager.storeImageManager(this);
+    changed();
+  }
+
+  /**
+   * * Adds several tags to the file name of the image at once. The image is only renamed once, to
+   * its final name, but the naming history gets one entry per tag just as if the tags were added one
+   * by one.
+   *
+   * @param newTags The tags to be added to the file name of the image.
+   */
+  public synchronized void addTags(List<String> newTags) {
+    ArrayList<String> allTags = new ArrayList<>(tags);
+    ArrayList<String> names = new ArrayList<>();
+    String newName = name;
+    for (String tag : newTags) {
+      String tempTag = tag.trim();
+      //Skips tags that only contain spaces, special characters or are already on the image
+      if (!tempTag.isEmpty() && TagManager.isValidTag(allTags, tempTag)) {
+        allTags.add(tag);
+        newName = newName + " @" + encodeTag(tag);
+        names.add(newName);
+      }
+    }
+    if (!names.isEmpty()) {
+      Path newPath = getTotalPath(newName);
+      if (FileManager.renameImage(this, newPath, newName)) {
+        tags.setAll(allTags);
         imagePath = newPath;
-        TagManager.getLogger().log(
-            Level.INFO,
-            "Changed name from: " + name + " to: " + name + " @" + tag + ". By adding tag: " + tag);
+        TagManager.getLogger().log(Level.INFO, "Changed name from: " + name + " to: " + newName
+            + ". By adding tags: " + allTags.subList(allTags.size() - names.size(), allTags.size()));
         name = newName;
-        String nameAndDate = getDateAndTime() + ", " + name;
-        previousNames.add(nameAndDate);
+        for (String intermediateName : names) {
+          addHistory(intermediateName);
+        }
       }
     }
     FileManager.storeImageManager(this);
+    changed();
   }
 
   /**
@@ -110,28 +200,29 @@ public class ImageManager implements Serializable {
    *
    * @param tag String to be removed from the file name of the image.
    */
-  public void removeTag(String tag) {
-    String tagName = " @" + tag;
-    //Stores the current name of the ImageManager for logging purposes
-    String previousName = name;
+  public synchronized void removeTag(String tag) {
+    String tagName = " @" + encodeTag(tag);
     //Parses out the tag from the name of the ImageManager
+    String newName;
     int index = name.indexOf(tagName);
     if (index + tagName.length() + 1 < name.length()) {
-      name = name.substring(0, index) + name.substring(index + tagName.length());
+      newName = name.substring(0, index) + name.substring(index + tagName.length());
     } else {
-      name = name.substring(0, index);
+      newName = name.substring(0, index);
     }
-    TagManager.getLogger().log(Level.INFO,
-        "Changed name from: " + previousName + " to: " + name + ". By removing tag: " + tag);
     String temp = imagePath.toString();
     index = temp.indexOf(tagName);
     temp = temp.substring(0, index) + temp.substring(index + tagName.length());
-    FileManager.moveImage(imagePath, Paths.get(temp));
-    imagePath = Paths.get(temp);
-    tags.remove(tag);
-    String nameAndDate = getDateAndTime() + ", " + name;
-    previousNames.add(nameAndDate);
+    if (FileManager.renameImage(this, Paths.get(temp), newName)) {
+      TagManager.getLogger().log(Level.INFO,
+          "Changed name from: " + name + " to: " + newName + ". By removing tag: " + tag);
+      name = newName;
+      imagePath = Paths.get(temp);
+      tags.remove(tag);
+      addHistory(name);
+    }
     FileManager.storeImageManager(this);
+    changed();
   }
 
   /**
@@ -157,14 +248,24 @@ public class ImageManager implements Serializable {
    *
    * @return A list of all previous tags. (2D array)
    */
-  public ObservableList<ObservableList<String>> getPreviousTags() {
+  public synchronized ObservableList<ObservableList<String>> getPreviousTags() {
     ArrayList<ObservableList<String>> returnList = new ArrayList<>();
-    for (String s : previousNames) {
-      returnList.add(parseTags(s));
+    for (ArrayList<String> previousTags : history.getAllTags()) {
+      returnList.add(FXCollections.observableArrayList(previousTags));
     }
     return FXCollections.observableArrayList(returnList);
   }
 
+  /**
+   * * Returns the tags the image had after the entry of previousNames at the given position.
+   *
+   * @param index The position of the entry in the naming history.
+   * @return The tags of the entry.
+   */
+  public synchronized ObservableList<String> getPreviousTags(int index) {
+    return FXCollections.observableArrayList(history.getTags(index));
+  }
+
   /**
    * * Returns the image for this ImageManager.
    *
@@ -192,12 +293,187 @@ public class ImageManager implements Serializable {
     return this.fileNumber;
   }
 
+  /**
+   * Changes the number that this imageManager is stored under
+   *
+   * @param fileNumber The new number of this imageManager
+   */
+  void setFileNumber(long fileNumber) {
+    this.fileNumber = fileNumber;
+  }
+
+  /**
+   * Sets the listener to tell about changes to the path and tags of this ImageManager
+   *
+   * @param changeListener The listener, or null to stop telling anyone
+   */
+  void setChangeListener(ImageChangeListener changeListener) {
+    this.changeListener = changeListener;
+  }
+
+  /**
+   * Tells the listener, if there is one, that the path or tags of this ImageManager changed
+   */
+  private void changed() {
+    if (changeListener != null) {
+      changeListener.imageChanged(this);
+    }
+  }
+
+  /**
+   * Returns the current name of this ImageManager, without the file extension
+   *
+   * @return The current name of this ImageManager
+   */
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Returns how many entries of the naming history have already been stored
+   *
+   * @return The number of stored naming history entries, or 0 if this ImageManager was never stored
+   */
+  int getStoredHistorySize() {
+    return storedHistorySize;
+  }
+
+  /**
+   * Sets how many entries of the naming history have been stored
+   *
+   * @param storedHistorySize The number of stored naming history entries
+   */
+  void setStoredHistorySize(int storedHistorySize) {
+    this.storedHistorySize = storedHistorySize;
+  }
+
+  /**
+   * Returns the version this ImageManager had in the catalog when it was last loaded or stored
+   *
+   * @return The stored version, or 0 if this ImageManager was never stored
+   */
+  long getStoredVersion() {
+    return storedVersion;
+  }
+
+  /**
+   * Sets the version this ImageManager has in the catalog
+   *
+   * @param storedVersion The stored version
+   */
+  void setStoredVersion(long storedVersion) {
+    this.storedVersion = storedVersion;
+  }
+
+  /**
+   * Replaces the naming history with the given entries, put in the order they were made with
+   * repeated entries left out, and stores it. Used when several ImageManagers of the same image are
+   * merged into this one
+   *
+   * @param history The entries of the naming histories being merged
+   */
+  synchronized void mergeHistory(List<String> history) {
+    replaceHistory(history);
+    //The whole history is written again, since entries were added in the middle of it
+    storedHistorySize = 0;
+    FileManager.storeImageManager(this);
+  }
+
+  /**
+   * Replaces the naming history with the given entries, put in the order they were made with
+   * repeated entries left out, without storing it. Used when the catalog merges the history another
+   * program stored for this image into this one
+   *
+   * @param history The entries of the naming histories being merged
+   */
+  synchronized void replaceHistory(List<String> history) {
+    LocalDateTimeStringConverter converter = new LocalDateTimeStringConverter();
+    ArrayList<String> merged = new ArrayList<>(new LinkedHashSet<>(history));
+    merged.sort(Comparator.comparing(entry -> getHistoryTime(converter, entry)));
+    this.history = NameHistory.of(merged);
+    if (previousNames != null) {
+      previousNames.setAll(this.history.getEntries());
+    }
+  }
+
+  /**
+   * Returns the naming history in the form it is stored in
+   *
+   * @return The naming history
+   */
+  NameHistory getHistory() {
+    return history;
+  }
+
+  /**
+   * Returns a copy of the naming history, which other threads can read while this ImageManager
+   * changes
+   *
+   * @return The copy of the naming history
+   */
+  synchronized NameHistory copyHistory() {
+    return history.copy();
+  }
+
+  /**
+   * Returns when an entry of the naming history was made. The date is everything before one of the
+   * ", " in the entry, and since the date itself contains ", " every one of them is tried in turn
+   *
+   * @param converter The converter the date was written with
+   * @param entry The entry of the naming history
+   * @return When the entry was made, or the earliest possible time if the date cannot be read
+   */
+  private static LocalDateTime getHistoryTime(LocalDateTimeStringConverter converter,
+      String entry) {
+    for (int end = entry.indexOf(", "); end != -1; end = entry.indexOf(", ", end + 1)) {
+      try {
+        return converter.fromString(entry.substring(0, end));
+      } catch (RuntimeException notTheDate) {
+        //The date goes on past this separator
+      }
+    }
+    return LocalDateTime.MIN;
+  }
+
+  /**
+   * Returns the sequence number of the last rename of this image that has not been stored yet
+   *
+   * @return The sequence number in the intent log, or 0 if every rename has been stored
+   */
+  synchronized long getPendingIntent() {
+    return pendingIntent;
+  }
+
+  /**
+   * Sets the sequence number of a rename of this image that has not been stored yet
+   *
+   * @param pendingIntent The sequence number in the intent log
+   */
+  synchronized void setPendingIntent(long pendingIntent) {
+    this.pendingIntent = pendingIntent;
+  }
+
+  /**
+   * Forgets the rename with the given sequence number once it has been stored, unless the image was
+   * renamed again since
+   *
+   * @param storedIntent The sequence number of the stored rename
+   */
+  synchronized void clearPendingIntent(long storedIntent) {
+    if (pendingIntent == storedIntent) {
+      pendingIntent = 0;
+    }
+  }
+
   /**
    * * Returns a list of previous names of this image.
    *
    * @return List of previous names.
    */
-  public ObservableList<String> getPrevNames() {
+  public synchronized ObservableList<String> getPrevNames() {
+    if (previousNames == null) {
+      previousNames = FXCollections.observableArrayList(history.getEntries());
+    }
     return previousNames;
   }
 
@@ -210,7 +486,7 @@ public class ImageManager implements Serializable {
    */
   private void writeObject(ObjectOutputStream stream) throws IOException {
     stream.writeObject(new ArrayList<>(this.tags));
-    stream.writeObject(new ArrayList<>(this.previousNames));
+    stream.writeObject(this.history.getEntries());
     stream.writeObject(this.name);
     stream.writeObject(this.imagePath.toString());
   }
@@ -225,7 +501,7 @@ public class ImageManager implements Serializable {
   @SuppressWarnings("unchecked")
   private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException {
     tags = FXCollections.observableArrayList((ArrayList<String>) stream.readObject());
-    previousNames = FXCollections.observableArrayList((ArrayList<String>) stream.readObject());
+    history = NameHistory.of((ArrayList<String>) stream.readObject());
     name = (String) stream.readObject();
     imagePath = Paths.get((String) stream.readObject());
   }
@@ -237,6 +513,18 @@ public class ImageManager implements Serializable {
    * @return A list of tags from a name String.
    */
   static ObservableList<String> parseTags(String s) {
+    return FXCollections.observableArrayList(parseTagList(s));
+  }
+
+  /**
+   * * Helper method used to generate a plain list of tags from a name String, for callers that do
+   * not need an ObservableList. The levels of a tag such as place/europe are separated by '~' in
+   * the name, since file names cannot hold '/'.
+   *
+   * @param s The string to be parsed.
+   * @return A list of tags from a name String.
+   */
+  static ArrayList<String> parseTagList(String s) {
     int index = s.lastIndexOf(File.separator);
     String fileName = s.substring(index + 1);
     int tagIndex = fileName.indexOf(" @");
@@ -244,14 +532,54 @@ public class ImageManager implements Serializable {
     while (tagIndex != -1) {
       int blankSpaceIndex = fileName.substring(tagIndex + 2).indexOf(" @");
       if (blankSpaceIndex == -1) {
-        tempList.add(fileName.substring(tagIndex + 2));
+        tempList.add(decodeTag(fileName.substring(tagIndex + 2)));
         tagIndex = -1;
         continue;
       }
-      tempList.add(fileName.substring(tagIndex + 2, blankSpaceIndex + tagIndex + 2));
+      tempList.add(decodeTag(fileName.substring(tagIndex + 2, blankSpaceIndex + tagIndex + 2)));
       tagIndex = fileName.substring(tagIndex + 2).indexOf(" @") + tagIndex + 2;
     }
-    return FXCollections.observableArrayList(tempList);
+    return tempList;
+  }
+
+  /**
+   * * Returns a tag as it is written in a file name, with '~' between its levels and each '~' in
+   * the tag written as "~~".
+   *
+   * @param tag The tag.
+   * @return The tag as written in a file name.
+   */
+  static String encodeTag(String tag) {
+    String escaped = FILE_NAME_SEPARATOR + "" + FILE_NAME_SEPARATOR;
+    return tag.replace(String.valueOf(FILE_NAME_SEPARATOR), escaped)
+        .replace(TagTree.SEPARATOR, FILE_NAME_SEPARATOR);
+  }
+
+  /**
+   * * Returns a tag written in a file name as it is used everywhere else, with '/' between its
+   * levels. "~~" is read as a '~' in the tag and any other '~' as the start of a level, so a name
+   * written before tags had levels, such as "pic @a~b.png", now has the tag "a/b".
+   *
+   * @param tag The tag as written in a file name.
+   * @return The tag.
+   */
+  static String decodeTag(String tag) {
+    if (tag.indexOf(FILE_NAME_SEPARATOR) < 0) {
+      return tag;
+    }
+    StringBuilder decoded = new StringBuilder(tag.length());
+    for (int i = 0; i < tag.length(); i++) {
+      char c = tag.charAt(i);
+      if (c != FILE_NAME_SEPARATOR) {
+        decoded.append(c);
+      } else if (i + 1 < tag.length() && tag.charAt(i + 1) == FILE_NAME_SEPARATOR) {
+        decoded.append(FILE_NAME_SEPARATOR);
+        i++;
+      } else {
+        decoded.append(TagTree.SEPARATOR);
+      }
+    }
+    return decoded.toString();
   }
 
   /***
@@ -259,9 +587,65 @@ public class ImageManager implements Serializable {
    *
    * @param path The target path of this ImageManager.
    */
-  public void updateDirectory(Path path) {
+  public synchronized void updateDirectory(Path path) {
     imagePath = path;
     FileManager.storeImageManager(this);
+    changed();
+  }
+
+  /***
+   * *Moves the image to a new path and changes the file path of this ImageManager to it.
+   *
+   * @param path The target path of the image.
+   * @return Whether the image was moved.
+   */
+  public synchronized boolean moveTo(Path path) {
+    if (!FileManager.renameImage(this, path, name)) {
+      return false;
+    }
+    imagePath = path;
+    FileManager.storeImageManager(this);
+    changed();
+    return true;
+  }
+
+  /**
+   * Finishes or undoes a rename that was interrupted before the renamed ImageManager was stored,
+   * by setting the name and path the image really has and storing them
+   *
+   * @param recoveredName The name of the image on the disk, without the file extension
+   * @param recoveredPath The path of the image on the disk
+   */
+  synchronized void recover(String recoveredName, Path recoveredPath) {
+    TagManager.getLogger().log(Level.INFO,
+        "Recovered the name: " + recoveredName + " after an interrupted rename of " + name);
+    name = recoveredName;
+    imagePath = recoveredPath;
+    tags = parseTags(recoveredName);
+    addHistory(name);
+    FileManager.storeImageManager(this);
+  }
+
+  /**
+   * Follows the image to the path it was moved or renamed to by another program, taking the name
+   * and tags it has there and storing them
+   *
+   * @param movedPath The path of the image on the disk
+   */
+  synchronized void relink(Path movedPath) {
+    String movedName = movedPath.getFileName().toString();
+    int periodIndex = movedName.indexOf(".");
+    movedName = periodIndex == -1 ? movedName : movedName.substring(0, periodIndex);
+    TagManager.getLogger().log(Level.INFO,
+        "Found " + name + " moved to " + movedPath + " by another program.");
+    imagePath = movedPath;
+    if (!movedName.equals(name)) {
+      name = movedName;
+      tags = parseTags(name);
+      addHistory(name);
+    }
+    FileManager.storeImageManager(this);
+    changed();
   }
 
   /**
@@ -291,12 +675,14 @@ public class ImageManager implements Serializable {
   }
 
   /***
-   * Helper method used to get the current Date and Time.
-   * @return The string format of the current date and time.
+   * Helper method used to add a name to the naming history, dated now.
+   * @param historyName The name the image got.
    */
-  private String getDateAndTime() {
-    LocalDateTimeStringConverter converter = new LocalDateTimeStringConverter();
-    return converter.toString(LocalDateTime.now());
+  private void addHistory(String historyName) {
+    history.add(historyName);
+    if (previousNames != null) {
+      previousNames.add(history.getEntry(history.size() - 1));
+    }
   }
 
 }
@@ -0,0 +1,105 @@
+package app.model;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ImageManagerCache holds the ImageManagers that have been loaded from the catalog. Only the most
+ * recently used ones are kept in memory by the cache itself; the others are dropped and loaded again
+ * when needed. An ImageManager that is dropped while something else (such as a view) still uses it
+ * is handed out again instead of loading a second copy, so there is never more than one
+ * ImageManager for the same image.
+ */
+class ImageManagerCache {
+
+  private final LinkedHashMap<Long, ImageManager> recent;
+  private final HashMap<Long, LoadedReference> loaded = new HashMap<>();
+  private final ReferenceQueue<ImageManager> collected = new ReferenceQueue<>();
+
+  /**
+   * Creates an ImageManagerCache
+   *
+   * @param capacity The number of recently used ImageManagers to keep in memory
+   */
+  ImageManagerCache(int capacity) {
+    this.recent = new LinkedHashMap<Long, ImageManager>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, ImageManager> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Returns the loaded ImageManager with the given number
+   *
+   * @param id The number of the ImageManager
+   * @return The ImageManager, or null if it is not loaded
+   */
+  synchronized ImageManager get(long id) {
+    ImageManager imageManager = recent.get(id);
+    if (imageManager == null) {
+      LoadedReference reference = loaded.get(id);
+      imageManager = reference == null ? null : reference.get();
+      if (imageManager != null) {
+        recent.put(id, imageManager);
+      }
+    }
+    return imageManager;
+  }
+
+  /**
+   * Adds a loaded ImageManager to the cache
+   *
+   * @param imageManager The ImageManager
+   */
+  synchronized void put(ImageManager imageManager) {
+    removeCollected();
+    recent.put(imageManager.getFileNumber(), imageManager);
+    loaded.put(imageManager.getFileNumber(), new LoadedReference(imageManager, collected));
+  }
+
+  /**
+   * Removes an ImageManager from the cache
+   *
+   * @param id The number of the ImageManager
+   */
+  synchronized void remove(long id) {
+    recent.remove(id);
+    loaded.remove(id);
+  }
+
+  /**
+   * Forgets the ImageManagers that have been garbage collected
+   */
+  private void removeCollected() {
+    LoadedReference reference;
+    while ((reference = (LoadedReference) collected.poll()) != null) {
+      if (loaded.get(reference.id) == reference) {
+        loaded.remove(reference.id);
+      }
+    }
+  }
+
+  /**
+   * A weak reference to a loaded ImageManager that remembers the number of the ImageManager
+   */
+  private static class LoadedReference extends WeakReference<ImageManager> {
+
+    private final long id;
+
+    /**
+     * Creates a LoadedReference
+     *
+     * @param imageManager The ImageManager
+     * @param queue The queue to put the reference on once the ImageManager is collected
+     */
+    private LoadedReference(ImageManager imageManager, ReferenceQueue<ImageManager> queue) {
+      super(imageManager, queue);
+      this.id = imageManager.getFileNumber();
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package app.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * ImageManagerCodec turns ImageManagers into a compact binary format and back. An encoded
+ * ImageManager starts with a version byte followed by a list of fields. Every field is written as a
+ * varint field id, a varint length and then its bytes, so a reader can skip any field (such as the
+ * naming history) without decoding it. Strings are stored as UTF-8, and the naming history is stored
+ * in the delta encoding of NameHistory. Naming history entries stored as strings by earlier
+ * versions are still read.
+ */
+class ImageManagerCodec {
+
+  static final int VERSION = 1;
+
+  //Field ids
+  static final int NAME = 1;
+  static final int PATH = 2;
+  static final int HISTORY_ENTRY = 3;
+  static final int RECORD_VERSION = 4;
+  static final int HISTORY = 5;
+
+  /**
+   * Encodes the given ImageManager with its whole naming history
+   *
+   * @param imageManager The ImageManager to encode
+   * @return The encoded ImageManager
+   */
+  static byte[] encode(ImageManager imageManager) {
+    return encode(imageManager.getName(), imageManager.returnPath().toString(),
+        imageManager.getHistory(), 0, 0);
+  }
+
+  /**
+   * Encodes a name, a path and the naming history entries from a position on, along with the
+   * version the stored ImageManager has once the encoded record is written
+   *
+   * @param name The name of the image
+   * @param path The path to the image
+   * @param history The naming history
+   * @param from The position of the first naming history entry to include
+   * @param recordVersion The version of the stored ImageManager, or 0 to leave it out
+   * @return The encoded fields
+   */
+  static byte[] encode(String name, String path, NameHistory history, int from,
+      long recordVersion) {
+    byte[] entries = history.encode(from);
+    ByteArrayOutputStream output = new ByteArrayOutputStream(64 + entries.length);
+    output.write(VERSION);
+    writeString(output, NAME, name);
+    writeString(output, PATH, path);
+    writeVarint(output, HISTORY);
+    writeVarint(output, entries.length);
+    output.write(entries, 0, entries.length);
+    if (recordVersion > 0) {
+      ByteArrayOutputStream number = new ByteArrayOutputStream(10);
+      writeVarint(number, recordVersion);
+      writeVarint(output, RECORD_VERSION);
+      writeVarint(output, number.size());
+      output.write(number.toByteArray(), 0, number.size());
+    }
+    return output.toByteArray();
+  }
+
+  /**
+   * Decodes an ImageManager that was encoded with encode
+   *
+   * @param fileNumber The number the ImageManager is stored under
+   * @param bytes The encoded ImageManager
+   * @return The decoded ImageManager
+   * @throws IOException Thrown when the bytes are not a valid encoded ImageManager
+   */
+  static ImageManager decode(long fileNumber, byte[] bytes) throws IOException {
+    Reader reader = new Reader(bytes, 0, bytes.length);
+    String name = null;
+    String path = null;
+    NameHistory history = new NameHistory();
+    while (reader.next()) {
+      switch (reader.field()) {
+        case NAME:
+          name = reader.readString();
+          break;
+        case PATH:
+          path = reader.readString();
+          break;
+        case HISTORY_ENTRY:
+          history.addEntry(reader.readString());
+          break;
+        case HISTORY:
+          history.append(reader.readBytes());
+          break;
+        default:
+          reader.skip();
+      }
+    }
+    if (name == null || path == null) {
+      throw new IOException("The encoded image is missing its name or path");
+    }
+    return new ImageManager(fileNumber, name, Paths.get(path), history);
+  }
+
+  /**
+   * Writes a string field
+   *
+   * @param output The stream to write to
+   * @param field The id of the field
+   * @param value The string to write
+   */
+  private static void writeString(ByteArrayOutputStream output, int field, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(output, field);
+    writeVarint(output, bytes.length);
+    output.write(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Writes a non-negative number using 7 bits per byte, with the highest bit of each byte set when
+   * more bytes follow
+   *
+   * @param output The stream to write to
+   * @param value The number to write
+   */
+  static void writeVarint(ByteArrayOutputStream output, long value) {
+    while ((value & ~0x7FL) != 0) {
+      output.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    output.write((int) value);
+  }
+
+  /**
+   * Reads the fields of an encoded ImageManager one at a time
+   */
+  static class Reader {
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+    private int field;
+    private int fieldLength;
+
+    /**
+     * Creates a Reader over part of an array and checks the version of the encoding
+     *
+     * @param bytes The array holding the encoded ImageManager
+     * @param offset Where the encoded ImageManager starts in the array
+     * @param length The length of the encoded ImageManager
+     * @throws IOException Thrown when the encoding has a version this reader does not know
+     */
+    Reader(byte[] bytes, int offset, int length) throws IOException {
+      this.bytes = bytes;
+      this.position = offset;
+      this.end = offset + length;
+      if (length < 1 || bytes[offset] != VERSION) {
+        throw new IOException("Unknown image encoding version");
+      }
+      position++;
+    }
+
+    /**
+     * Moves to the next field. The previous field must have been read or skipped
+     *
+     * @return Whether there is another field
+     * @throws IOException Thrown when the field header is cut off
+     */
+    boolean next() throws IOException {
+      if (position >= end) {
+        return false;
+      }
+      field = (int) readVarint();
+      fieldLength = (int) readVarint();
+      if (fieldLength < 0 || position + fieldLength > end) {
+        throw new IOException("An encoded image field is cut off");
+      }
+      return true;
+    }
+
+    /**
+     * Returns the id of the current field
+     *
+     * @return The id of the current field
+     */
+    int field() {
+      return field;
+    }
+
+    /**
+     * Reads the current field as a string
+     *
+     * @return The value of the current field
+     */
+    String readString() {
+      String value = new String(bytes, position, fieldLength, StandardCharsets.UTF_8);
+      position += fieldLength;
+      return value;
+    }
+
+    /**
+     * Reads the current field as raw bytes
+     *
+     * @return A copy of the bytes of the current field
+     */
+    byte[] readBytes() {
+      byte[] value = Arrays.copyOfRange(bytes, position, position + fieldLength);
+      position += fieldLength;
+      return value;
+    }
+
+    /**
+     * Reads the current field as a varint number
+     *
+     * @return The value of the current field
+     * @throws IOException Thrown when the number is cut off
+     */
+    long readNumber() throws IOException {
+      int fieldEnd = position + fieldLength;
+      long value = readVarint();
+      position = fieldEnd;
+      return value;
+    }
+
+    /**
+     * Skips the current field without decoding it
+     */
+    void skip() {
+      position += fieldLength;
+    }
+
+    /**
+     * Reads a varint written by writeVarint
+     *
+     * @return The number read
+     * @throws IOException Thrown when the number is cut off
+     */
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (position >= end) {
+          throw new IOException("An encoded number is cut off");
+        }
+        byte b = bytes[position++];
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("An encoded number is too long");
+    }
+  }
+}
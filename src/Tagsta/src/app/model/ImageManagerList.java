@@ -0,0 +1,116 @@
+package app.model;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+import javafx.collections.ObservableListBase;
+
+/**
+ * ImageManagerList is a list of images given by the numbers of their ImageManagers, which loads an
+ * ImageManager only when it is asked for. A ListView only asks for the images it shows, so a search
+ * matching hundreds of thousands of images is shown without loading all of them. Images can be
+ * added to the end of the list as a search finds them, and a ListView showing the list is told
+ * about them.
+ *
+ * <p>A sorted list only puts a page of images in order at a time, the first time an image on the
+ * page is asked for, so scrolling through the first pages of a large search does not wait for every
+ * image to be sorted.
+ */
+class ImageManagerList extends ObservableListBase<ImageManager> {
+
+  //The number of images put in order at a time in a sorted list
+  static final int PAGE_SIZE = 256;
+
+  private long[] ids;
+  private int size;
+  private final LongFunction<ImageManager> loader;
+  //Puts the images in order as they are asked for, or null if the list is not sorted
+  private final IncrementalSort sort;
+
+  /**
+   * Creates an ImageManagerList
+   *
+   * @param ids The numbers of the ImageManagers, in the order they are listed
+   * @param loader Gives the ImageManager with a number, or null if it cannot be loaded
+   */
+  ImageManagerList(long[] ids, LongFunction<ImageManager> loader) {
+    this.ids = ids;
+    this.size = ids.length;
+    this.loader = loader;
+    this.sort = null;
+  }
+
+  /**
+   * Creates an ImageManagerList of images being sorted, to which no images can be added
+   *
+   * @param sort The images, put in order as they are asked for
+   * @param loader Gives the ImageManager with a number, or null if it cannot be loaded
+   */
+  ImageManagerList(IncrementalSort sort, LongFunction<ImageManager> loader) {
+    this.ids = sort.getIds();
+    this.size = ids.length;
+    this.loader = loader;
+    this.sort = sort;
+    if (size > 0) {
+      this.sortPage(0);
+    }
+  }
+
+  /**
+   * Adds images to the end of the list. Like any change to a list a ListView shows, it has to be
+   * made on the JavaFX thread
+   *
+   * @param more The numbers of the ImageManagers of the images, in the order they are listed
+   */
+  void append(long[] more) {
+    if (more.length == 0) {
+      return;
+    }
+    if (sort != null) {
+      throw new UnsupportedOperationException("Images cannot be added to a sorted list");
+    }
+    if (size + more.length > ids.length) {
+      ids = Arrays.copyOf(ids, Math.max(size + more.length, ids.length * 2));
+    }
+    System.arraycopy(more, 0, ids, size, more.length);
+    beginChange();
+    nextAdd(size, size + more.length);
+    size += more.length;
+    endChange();
+  }
+
+  /**
+   * Returns the ImageManager at a position in the list, loading it if needed
+   *
+   * @param index The position
+   * @return The ImageManager, or null if it could not be loaded
+   */
+  @Override
+  public ImageManager get(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    if (sort != null) {
+      sortPage(index);
+    }
+    return loader.apply(ids[index]);
+  }
+
+  /**
+   * Puts the page holding a position of a sorted list in order, along with the pages before it
+   *
+   * @param index The position
+   */
+  private void sortPage(int index) {
+    sort.sortThrough(Math.min(size, (index / PAGE_SIZE + 1) * PAGE_SIZE) - 1);
+  }
+
+  /**
+   * Returns the number of images in the list
+   *
+   * @return The number of images
+   */
+  @Override
+  public int size() {
+    return size;
+  }
+}
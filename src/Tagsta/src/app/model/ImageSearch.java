@@ -0,0 +1,281 @@
+package app.model;
+
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import javafx.collections.ObservableList;
+
+/**
+ * ImageSearch runs the queries typed in a search window on a background thread, so typing does not
+ * wait for a search of a large catalog. A query only runs once typing has stopped for a short
+ * while, and a query that is still running when another one is typed stops and throws away what it
+ * found. The images are looked at a chunk of 65536 numbers at a time and the images each chunk
+ * matches are shown right away, so the first images show up before the whole catalog was searched.
+ *
+ * <p>When a query only narrows down the last query that ran to the end, such as beach summer after
+ * beach or name:sunse after name:suns, and no image changed since, only the images the last query
+ * found are looked at.
+ *
+ * <p>Along with the images, a search counts how many of the images found have each tag, are in each
+ * folder and have each file extension, a chunk at a time, and gives the counts each time a chunk
+ * adds to them.
+ *
+ * <p>When the images are to be sorted, they are all found first and then given at once, with only
+ * the first page of them in order. The rest are put in order a page at a time as they are shown.
+ */
+public class ImageSearch {
+
+  private final TagManager tagManager;
+  private final CatalogIndex catalogIndex;
+  private final TagDictionary tagDictionary;
+  private final SortKeys sortKeys;
+  private final LongFunction<ImageManager> loader;
+  private final long delayMillis;
+  private final Executor uiThread;
+  private final Consumer<ObservableList<ImageManager>> onResults;
+  private final Consumer<ParseException> onError;
+  private final Consumer<FacetCounts> onFacets;
+  private final ScheduledExecutorService searcher = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "image-search");
+        thread.setDaemon(true);
+        return thread;
+      });
+  //Counts the queries typed, so a search can tell it is no longer wanted
+  private final AtomicLong generation = new AtomicLong();
+  private ScheduledFuture<?> scheduledSearch;
+  //The last query that ran to the end, what it found and the version of the index it ran on
+  private TagQuery lastQuery;
+  private CompressedBitmap lastFound;
+  private long lastVersion;
+  //The order the images found are listed in
+  private SortOrder order = SortOrder.CATALOG;
+  private boolean reversed;
+
+  /**
+   * Creates an ImageSearch
+   *
+   * @param tagManager The TagManager that parses the queries
+   * @param catalogIndex The index of the images searched
+   * @param tagDictionary The numbers of the tags
+   * @param sortKeys The times the images are sorted by
+   * @param loader Gives the ImageManager with a number, or null if it cannot be loaded
+   * @param delayMillis How long typing has to stop for before a query runs
+   * @param uiThread Runs the given code on the thread that may change what is shown
+   * @param onResults Given the list of the images a query found
+   * @param onError Given the problem with a query that is not well formed
+   * @param onFacets Given the counts of the tags, folders and extensions of the images found so far
+   */
+  ImageSearch(TagManager tagManager, CatalogIndex catalogIndex, TagDictionary tagDictionary,
+      SortKeys sortKeys, LongFunction<ImageManager> loader, long delayMillis, Executor uiThread,
+      Consumer<ObservableList<ImageManager>> onResults, Consumer<ParseException> onError,
+      Consumer<FacetCounts> onFacets) {
+    this.tagManager = tagManager;
+    this.catalogIndex = catalogIndex;
+    this.tagDictionary = tagDictionary;
+    this.sortKeys = sortKeys;
+    this.loader = loader;
+    this.delayMillis = delayMillis;
+    this.uiThread = uiThread;
+    this.onResults = onResults;
+    this.onError = onError;
+    this.onFacets = onFacets;
+  }
+
+  /**
+   * Searches for the images matching a query once typing has stopped, instead of any query given
+   * before. An empty query finds every image
+   *
+   * @param query The query
+   */
+  public synchronized void search(String query) {
+    long current = this.generation.incrementAndGet();
+    if (this.scheduledSearch != null) {
+      this.scheduledSearch.cancel(false);
+    }
+    SortOrder order = this.order;
+    boolean reversed = this.reversed;
+    this.scheduledSearch = this.searcher.schedule(() -> this.run(query, current, order, reversed),
+        this.delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sets the order the images found by the queries searched for from now on are listed in
+   *
+   * @param order The order
+   * @param reversed Whether to list the images in the reverse of the order
+   */
+  public synchronized void setOrder(SortOrder order, boolean reversed) {
+    this.order = order;
+    this.reversed = reversed;
+  }
+
+  /**
+   * Stops the query running or waiting to run, without giving its results
+   */
+  public synchronized void cancel() {
+    this.generation.incrementAndGet();
+    if (this.scheduledSearch != null) {
+      this.scheduledSearch.cancel(false);
+    }
+  }
+
+  /**
+   * Stops searching. The results of a query still running are not given any more
+   */
+  public synchronized void close() {
+    this.generation.incrementAndGet();
+    this.searcher.shutdownNow();
+  }
+
+  /**
+   * Runs a query on the background thread and gives the images it finds as it finds them
+   *
+   * @param query The query
+   * @param current The number of the query, which stops it once another query is typed
+   * @param order The order the images are listed in
+   * @param reversed Whether to list the images in the reverse of the order
+   */
+  private void run(String query, long current, SortOrder order, boolean reversed) {
+    TagQuery plan = null;
+    if (!query.trim().isEmpty()) {
+      try {
+        plan = this.tagManager.getQueryPlan(query.trim());
+      } catch (ParseException ex) {
+        this.show(current, () -> this.onError.accept(ex));
+        return;
+      }
+    }
+    //An image that changed from here on may be missed, but it is not kept for the next query
+    long version = this.catalogIndex.getVersion();
+    boolean narrowed = plan != null && this.lastQuery != null && version == this.lastVersion
+        && plan.narrows(this.lastQuery);
+    CompressedBitmap candidates = narrowed ? this.lastFound : this.catalogIndex.getAllImages();
+    boolean sorted = order != SortOrder.CATALOG;
+    ImageManagerList results = new ImageManagerList(new long[0], this.loader);
+    CompressedBitmap found = new CompressedBitmap();
+    Counts counts = new Counts();
+    for (CompressedBitmap chunk : candidates.split()) {
+      if (this.generation.get() != current) {
+        return;
+      }
+      CompressedBitmap matched = plan == null
+          ? chunk : plan.filter(this.catalogIndex, this.tagDictionary, chunk);
+      if (!matched.isEmpty()) {
+        boolean first = found.isEmpty();
+        found.orWith(matched);
+        if (!sorted) {
+          long[] ids = matched.toArray();
+          this.show(current, () -> this.add(results, ids, first));
+        }
+        this.showFacets(current, counts, matched);
+      }
+    }
+    if (plan != null) {
+      this.lastQuery = plan;
+      this.lastFound = found;
+      this.lastVersion = version;
+    }
+    long[] similar = null;
+    if (found.isEmpty()) {
+      long[] ids = plan != null && plan.isPlainWords()
+          ? this.catalogIndex.findSimilarNames(query, TagManager.FUZZY_SEARCH_LIMIT) : new long[0];
+      if (!sorted) {
+        this.show(current, () -> this.add(results, ids, true));
+      }
+      CompressedBitmap similarImages = new CompressedBitmap();
+      for (long id : ids) {
+        similarImages.add(id);
+      }
+      this.showFacets(current, counts, similarImages);
+      similar = ids;
+    }
+    if (sorted) {
+      this.showSorted(current, similar != null ? similar : found.toArray(), order, reversed);
+    }
+  }
+
+  /**
+   * Sorts the images found and gives them, with the first page of them in order
+   *
+   * @param current The number of the query
+   * @param ids The numbers of the ImageManagers of the images
+   * @param order The order
+   * @param reversed Whether to list the images in the reverse of the order
+   */
+  private void showSorted(long current, long[] ids, SortOrder order, boolean reversed) {
+    IncrementalSort sort;
+    try {
+      sort = this.sortKeys.sort(ids, order, reversed, this.catalogIndex,
+          () -> this.generation.get() != current);
+    } catch (InterruptedException ex) {
+      //The search was closed
+      return;
+    }
+    if (sort != null) {
+      ImageManagerList results = new ImageManagerList(sort, this.loader);
+      this.show(current, () -> this.onResults.accept(results));
+    }
+  }
+
+  /**
+   * Counts the tags, folders and extensions of more images found and gives the counts so far
+   *
+   * @param current The number of the query
+   * @param counts The counts of the images found before
+   * @param ids The numbers of the ImageManagers of the images
+   */
+  private void showFacets(long current, Counts counts, CompressedBitmap ids) {
+    counts.images += ids.cardinality();
+    this.catalogIndex.countFacets(ids, counts.tags, counts.directories, counts.extensions);
+    FacetCounts facets = new FacetCounts(counts.images, counts.tags, this.tagDictionary,
+        counts.directories, counts.extensions);
+    this.show(current, () -> this.onFacets.accept(facets));
+  }
+
+  /**
+   * Adds images to the list of results, giving the list first if it was not given yet
+   *
+   * @param results The list of results
+   * @param ids The numbers of the ImageManagers of the images
+   * @param first Whether these are the first images of the query
+   */
+  private void add(ImageManagerList results, long[] ids, boolean first) {
+    results.append(ids);
+    if (first) {
+      this.onResults.accept(results);
+    }
+  }
+
+  /**
+   * Runs code on the thread that may change what is shown, unless another query was typed by then
+   *
+   * @param current The number of the query
+   * @param update The code
+   */
+  private void show(long current, Runnable update) {
+    this.uiThread.execute(() -> {
+      if (this.generation.get() == current) {
+        update.run();
+      }
+    });
+  }
+
+  /**
+   * The counts of the tags, folders and extensions of the images a query found so far
+   */
+  private static class Counts {
+
+    private int images;
+    private final HashMap<Integer, Integer> tags = new HashMap<>();
+    private final HashMap<String, Integer> directories = new HashMap<>();
+    private final HashMap<String, Integer> extensions = new HashMap<>();
+  }
+}
@@ -0,0 +1,174 @@
+package app.model;
+
+import java.util.Arrays;
+
+/**
+ * IncrementalSort puts images in order only as far as they are asked for. The images are split
+ * around a pivot the way quicksort does, but only the part holding the first images not sorted yet
+ * is split further, and the pivots found on the way are kept for the next images asked for. Showing
+ * the first page of hundreds of thousands of images then takes about two passes over them, and
+ * every page after that only sorts the part it is in, instead of sorting every image up front.
+ *
+ * <p>Each image is sorted by a key worked out before sorting. Names and paths are sorted by their
+ * first four characters packed into the key and then by the whole text, and images with equal keys
+ * by the numbers of their ImageManagers, so no two images are equal and the order never changes.
+ */
+class IncrementalSort {
+
+  //Parts this small are sorted by insertion instead of split further
+  private static final int SMALL = 16;
+
+  private final long[] ids;
+  private final long[] keys;
+  private final String[] texts;
+  private final boolean reversed;
+  //The images before this position are in order
+  private int sorted;
+  //The ends of the parts not split yet, with the pivot placed at each end, the last being nearest
+  private int[] bounds = new int[32];
+  private int depth;
+
+  /**
+   * Creates an IncrementalSort. The arrays are reordered as the images are sorted
+   *
+   * @param ids The numbers of the ImageManagers of the images
+   * @param keys The key of each image
+   * @param texts The text of each image, compared when the keys are equal, or null if there is none
+   * @param reversed Whether to list the images from the largest key to the smallest
+   */
+  IncrementalSort(long[] ids, long[] keys, String[] texts, boolean reversed) {
+    this.ids = ids;
+    this.keys = keys;
+    this.texts = texts;
+    this.reversed = reversed;
+    this.bounds[depth++] = ids.length;
+  }
+
+  /**
+   * Returns the key that sorts text by its first four characters, ignoring case
+   *
+   * @param text The text, in lower case
+   * @return The key
+   */
+  static long textKey(String text) {
+    long key = 0;
+    for (int i = 0; i < 4; i++) {
+      key = key << 16 | (i < text.length() ? text.charAt(i) : 0);
+    }
+    //Flips the sign bit so comparing keys as signed numbers compares the characters
+    return key ^ Long.MIN_VALUE;
+  }
+
+  /**
+   * Returns the numbers of the ImageManagers, which are in order up to the last position sorted
+   *
+   * @return The numbers of the ImageManagers
+   */
+  long[] getIds() {
+    return ids;
+  }
+
+  /**
+   * Puts the images up to and including a position in order, if they are not already
+   *
+   * @param position The position
+   */
+  void sortThrough(int position) {
+    while (sorted <= position && depth > 0) {
+      int end = bounds[depth - 1];
+      if (end - sorted <= SMALL) {
+        insertionSort(sorted, end);
+        depth--;
+        //The pivot at the end is where it belongs already
+        sorted = Math.min(end + 1, ids.length);
+      } else {
+        if (depth == bounds.length) {
+          bounds = Arrays.copyOf(bounds, depth * 2);
+        }
+        bounds[depth++] = partition(sorted, end);
+      }
+    }
+  }
+
+  /**
+   * Splits a part of the images around a pivot, with the smaller images before it
+   *
+   * @param low The first position of the part
+   * @param high The position after the last one
+   * @return The position the pivot ends up in
+   */
+  private int partition(int low, int high) {
+    int middle = (low + high) >>> 1;
+    //The median of the first, middle and last images is the pivot, moved to the last position
+    if (compare(middle, low) < 0) {
+      swap(middle, low);
+    }
+    if (compare(high - 1, low) < 0) {
+      swap(high - 1, low);
+    }
+    if (compare(middle, high - 1) < 0) {
+      swap(middle, high - 1);
+    }
+    int pivot = high - 1;
+    int store = low;
+    for (int i = low; i < pivot; i++) {
+      if (compare(i, pivot) < 0) {
+        swap(i, store++);
+      }
+    }
+    swap(store, pivot);
+    return store;
+  }
+
+  /**
+   * Sorts a small part of the images by insertion
+   *
+   * @param low The first position of the part
+   * @param high The position after the last one
+   */
+  private void insertionSort(int low, int high) {
+    for (int i = low + 1; i < high; i++) {
+      for (int j = i; j > low && compare(j, j - 1) < 0; j--) {
+        swap(j, j - 1);
+      }
+    }
+  }
+
+  /**
+   * Compares the images at two positions in the order they are listed in
+   *
+   * @param first The position of the first image
+   * @param second The position of the second image
+   * @return Less than zero if the first comes first, more than zero if the second does
+   */
+  private int compare(int first, int second) {
+    int result = Long.compare(keys[first], keys[second]);
+    if (result == 0 && texts != null) {
+      result = texts[first].compareTo(texts[second]);
+    }
+    if (reversed) {
+      result = -result;
+    }
+    return result != 0 ? result : Long.compare(ids[first], ids[second]);
+  }
+
+  /**
+   * Swaps the images at two positions
+   *
+   * @param first The position of the first image
+   * @param second The position of the second image
+   */
+  private void swap(int first, int second) {
+    long id = ids[first];
+    ids[first] = ids[second];
+    ids[second] = id;
+    long key = keys[first];
+    keys[first] = keys[second];
+    keys[second] = key;
+    if (texts != null) {
+      String text = texts[first];
+      texts[first] = texts[second];
+      texts[second] = text;
+    }
+  }
+}
@@ -0,0 +1,441 @@
+package app.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+/**
+ * IntentLog makes renaming an image and storing the renamed ImageManager safe against the program
+ * being killed in between. Before an image is renamed, the rename is written to the log and forced
+ * to the disk. Once the catalog journal holds the renamed ImageManager, a commit record for the
+ * rename is appended. A rename without a commit record was interrupted, and on the next start it is
+ * either finished in the catalog or undone there, depending on where the image is on the disk.
+ *
+ * <p>Commit records are never forced on their own: losing one only means the rename is checked
+ * again on the next start, which finds the catalog already up to date. Every record carries a
+ * checksum, so a record that was cut off is recognized and dropped.
+ *
+ * <p>Records are only written while holding a ProcessLock, so programs sharing the log never write
+ * over each other's records. Before writing, a program reads the records the others appended, so
+ * the sequence numbers it hands out are unique across the programs and the log is only emptied
+ * once no rename in it is outstanding, whichever program logged it. A program that empties the log
+ * changes the stamp of the lock, so the others read it again from the start instead of from where
+ * their last read ended, which may now be in the middle of a record. Each open log has an owner
+ * number that it keeps a byte of a separate owners file locked at, and writes into its renames.
+ * The renames of an owner whose byte can still not be locked belong to a program that is running
+ * and may still commit them, so they are not recovered.
+ */
+class IntentLog {
+
+  //Identifies an intent log file ("TGSI") and the version of the record format inside it
+  private static final int MAGIC = 0x54475349;
+  private static final short VERSION = 1;
+  private static final int HEADER_SIZE = 6;
+
+  //Record types
+  private static final byte INTENT = 1;
+  private static final byte COMMIT = 2;
+  //A rename along with the owner number of the log it was written by, which older versions skip
+  private static final byte OWNED_INTENT = 3;
+
+  //The log is emptied once every rename in it is committed and it has grown past this size
+  private static final long TRUNCATE_SIZE = 1 << 20;
+
+  private final Path logPath;
+  private final ProcessLock processLock;
+  private final Path ownersPath;
+  private FileChannel channel;
+  //Where the records read so far end
+  private long knownEnd;
+  //The stamp of the lock when the log was last read, changed whenever a program empties it
+  private long generation;
+  private long nextSequence = 1;
+  //The renames in the log without a commit record, written by any program
+  private final LinkedHashMap<Long, Intent> outstanding = new LinkedHashMap<>();
+  //The owners file, and the lock on the byte at this log's owner number in it
+  private FileChannel owners;
+  private FileLock ownerLock;
+  private long owner;
+
+  /**
+   * Creates an IntentLog for the log file at the given path. The file is not touched until the log
+   * is opened
+   *
+   * @param logPath The path of the log file
+   */
+  IntentLog(Path logPath) {
+    this.logPath = logPath;
+    this.processLock = ProcessLock.forFile(logPath);
+    this.ownersPath = logPath.resolveSibling(logPath.getFileName() + ".owners");
+  }
+
+  /**
+   * Opens the log, creating it if it does not exist, and returns the renames in it that were never
+   * committed by programs that are no longer running. A record that was only partially written is
+   * cut off
+   *
+   * @return The renames to recover, in the order they were logged
+   * @throws IOException Thrown when the log cannot be read or is not an intent log
+   */
+  synchronized List<Intent> open() throws IOException {
+    lockOwner();
+    processLock.lock();
+    try {
+      openLocked();
+    } catch (IOException ex) {
+      close();
+      throw ex;
+    } finally {
+      processLock.unlock();
+    }
+    ArrayList<Intent> interrupted = new ArrayList<>();
+    for (Intent intent : outstanding.values()) {
+      if (!isRunning(intent.owner)) {
+        interrupted.add(intent);
+      }
+    }
+    return interrupted;
+  }
+
+  /**
+   * Picks an owner number for this log that no other open log has, and locks its byte in the
+   * owners file for as long as the log is open
+   *
+   * @throws IOException Thrown when the owners file cannot be opened or locked
+   */
+  private void lockOwner() throws IOException {
+    owners = FileChannel.open(ownersPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    while (ownerLock == null) {
+      //Owner 0 is left for the renames written before logs had owners
+      owner = 1 + ThreadLocalRandom.current().nextLong(Long.MAX_VALUE - 1);
+      try {
+        ownerLock = owners.tryLock(owner, 1, false);
+      } catch (OverlappingFileLockException ex) {
+        //Another log of this program has the number
+      }
+    }
+  }
+
+  /**
+   * Returns whether the log with the given owner number is open in a running program
+   *
+   * @param intentOwner The owner number
+   * @return Whether the owner is running, which is never the case for owner 0
+   * @throws IOException Thrown when the owners file cannot be locked
+   */
+  private boolean isRunning(long intentOwner) throws IOException {
+    if (intentOwner == 0) {
+      return false;
+    }
+    if (intentOwner == owner) {
+      return true;
+    }
+    FileLock probe;
+    try {
+      probe = owners.tryLock(intentOwner, 1, false);
+    } catch (OverlappingFileLockException ex) {
+      //Another log of this program holds the byte
+      return true;
+    }
+    if (probe == null) {
+      return true;
+    }
+    probe.release();
+    return false;
+  }
+
+  /**
+   * Opens the log file and reads every record in it, with the lock already held
+   *
+   * @throws IOException Thrown when the log cannot be read or is not an intent log
+   */
+  private void openLocked() throws IOException {
+    channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    if (channel.size() == 0) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(MAGIC).putShort(VERSION).flip();
+      channel.write(header, 0);
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    channel.read(header, 0);
+    header.flip();
+    if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+        || header.getShort() != VERSION) {
+      throw new IOException("The file is not an intent log");
+    }
+    generation = processLock.readStamp();
+    outstanding.clear();
+    readFrom(HEADER_SIZE);
+  }
+
+  /**
+   * Reads the records other programs appended since the log was last read, or the whole log again
+   * if another program emptied it. The lock must be held
+   *
+   * @throws IOException Thrown when the log cannot be read
+   */
+  private void catchUp() throws IOException {
+    long stamp = processLock.readStamp();
+    if (stamp != generation || channel.size() < knownEnd) {
+      generation = stamp;
+      outstanding.clear();
+      readFrom(HEADER_SIZE);
+    } else {
+      readFrom(knownEnd);
+    }
+  }
+
+  /**
+   * Reads the records from the given offset to the end of the log into the outstanding renames. The
+   * lock must be held, so a record that is cut off was left by a program that was killed, and it is
+   * cut off the log
+   *
+   * @param start The offset of the first record
+   * @throws IOException Thrown when the log cannot be read
+   */
+  private void readFrom(long start) throws IOException {
+    long offset = start;
+    long size = channel.size();
+    while (offset + 8 <= size) {
+      ByteBuffer frame = ByteBuffer.allocate(8);
+      readFully(frame, offset);
+      int length = frame.getInt(0);
+      if (length < 9 || offset + 8 + length > size) {
+        break;
+      }
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      readFully(payload, offset + 8);
+      CRC32 checksum = new CRC32();
+      checksum.update(payload.array(), 0, length);
+      if ((int) checksum.getValue() != frame.getInt(4)) {
+        break;
+      }
+      readRecord(payload.array());
+      offset += 8 + length;
+    }
+    if (offset < size) {
+      channel.truncate(offset);
+    }
+    knownEnd = offset;
+  }
+
+  /**
+   * Logs a rename that is about to happen and forces it to the disk
+   *
+   * @param fileNumber The number of the ImageManager of the image
+   * @param oldPath The path of the image before the rename
+   * @param newPath The path of the image after the rename
+   * @param oldName The name of the ImageManager before the rename
+   * @param newName The name of the ImageManager after the rename
+   * @return The sequence number of the rename, used to commit it
+   * @throws IOException Thrown when the rename cannot be logged
+   */
+  synchronized long record(long fileNumber, String oldPath, String newPath, String oldName,
+      String newName) throws IOException {
+    processLock.lock();
+    try {
+      //The numbers other programs handed out are read first, so this number is not used yet
+      catchUp();
+      Intent intent = new Intent(nextSequence++, owner, fileNumber, oldPath, newPath, oldName,
+          newName);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream output = new DataOutputStream(bytes);
+      output.writeByte(OWNED_INTENT);
+      output.writeLong(intent.sequence);
+      output.writeLong(owner);
+      output.writeLong(fileNumber);
+      output.writeUTF(oldPath);
+      output.writeUTF(newPath);
+      output.writeUTF(oldName);
+      output.writeUTF(newName);
+      output.close();
+      append(bytes.toByteArray());
+      channel.force(false);
+      outstanding.put(intent.sequence, intent);
+      return intent.sequence;
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Appends a commit record for every given rename, all in one write. The records are not forced
+   * to the disk. The log is emptied once it has grown large and no rename logged by any program is
+   * outstanding
+   *
+   * @param sequences The sequence numbers of the renames
+   * @throws IOException Thrown when the commit records cannot be written
+   */
+  synchronized void commit(List<Long> sequences) throws IOException {
+    if (sequences.isEmpty()) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    for (long sequence : sequences) {
+      ByteBuffer payload = ByteBuffer.allocate(9);
+      payload.put(COMMIT).putLong(sequence);
+      bytes.write(frame(payload.array()));
+    }
+    processLock.lock();
+    try {
+      catchUp();
+      writeFully(bytes.toByteArray(), channel.size());
+      knownEnd = channel.size();
+      outstanding.keySet().removeAll(sequences);
+      if (outstanding.isEmpty() && knownEnd > TRUNCATE_SIZE) {
+        //The stamp is changed first, so a program killed in between only makes the others reread
+        generation++;
+        processLock.writeStamp(generation);
+        channel.truncate(HEADER_SIZE);
+        channel.force(false);
+        knownEnd = HEADER_SIZE;
+      }
+    } finally {
+      processLock.unlock();
+    }
+  }
+
+  /**
+   * Closes the log
+   *
+   * @throws IOException Thrown when the log cannot be closed
+   */
+  synchronized void close() throws IOException {
+    if (channel != null && channel.isOpen()) {
+      channel.close();
+    }
+    //Closing the owners file releases the owner number, so the renames left are recovered
+    if (owners != null && owners.isOpen()) {
+      owners.close();
+    }
+    ownerLock = null;
+  }
+
+  /**
+   * Reads one record of the log and updates the outstanding renames with it
+   *
+   * @param payload The contents of the record
+   * @throws IOException Thrown when the record cannot be decoded
+   */
+  private void readRecord(byte[] payload) throws IOException {
+    DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = input.readByte();
+    long sequence = input.readLong();
+    nextSequence = Math.max(nextSequence, sequence + 1);
+    if (type == INTENT || type == OWNED_INTENT) {
+      long intentOwner = type == OWNED_INTENT ? input.readLong() : 0;
+      outstanding.put(sequence, new Intent(sequence, intentOwner, input.readLong(),
+          input.readUTF(), input.readUTF(), input.readUTF(), input.readUTF()));
+    } else if (type == COMMIT) {
+      outstanding.remove(sequence);
+    }
+  }
+
+  /**
+   * Appends one framed record to the end of the log
+   *
+   * @param payload The contents of the record
+   * @throws IOException Thrown when the record cannot be written
+   */
+  private void append(byte[] payload) throws IOException {
+    writeFully(frame(payload), channel.size());
+    knownEnd = channel.size();
+  }
+
+  /**
+   * Fills the given buffer with bytes read from the log at the given offset
+   *
+   * @param buffer The buffer to fill
+   * @param offset The offset to read at
+   * @throws IOException Thrown when the log ends before the buffer is full
+   */
+  private void readFully(ByteBuffer buffer, long offset) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, offset + buffer.position());
+      if (read < 0) {
+        throw new EOFException("An intent log record is cut off");
+      }
+    }
+  }
+
+  /**
+   * Writes all of the given bytes to the log at the given offset
+   *
+   * @param bytes The bytes to write
+   * @param offset The offset to write at
+   * @throws IOException Thrown when the bytes cannot be written
+   */
+  private void writeFully(byte[] bytes, long offset) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      offset += channel.write(buffer, offset);
+    }
+  }
+
+  /**
+   * Puts the frame around the contents of a record: their length and their checksum
+   *
+   * @param payload The contents of the record
+   * @return The framed record
+   */
+  private static byte[] frame(byte[] payload) {
+    CRC32 checksum = new CRC32();
+    checksum.update(payload, 0, payload.length);
+    ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+    record.putInt(payload.length).putInt((int) checksum.getValue()).put(payload);
+    return record.array();
+  }
+
+  /**
+   * A rename of an image as it was written to the log
+   */
+  static class Intent {
+
+    final long sequence;
+    //The owner number of the log that wrote the rename, or 0 if it was written without one
+    final long owner;
+    final long fileNumber;
+    final String oldPath;
+    final String newPath;
+    final String oldName;
+    final String newName;
+
+    /**
+     * Creates an Intent
+     *
+     * @param sequence The sequence number of the rename
+     * @param owner The owner number of the log that wrote the rename
+     * @param fileNumber The number of the ImageManager of the image
+     * @param oldPath The path of the image before the rename
+     * @param newPath The path of the image after the rename
+     * @param oldName The name of the ImageManager before the rename
+     * @param newName The name of the ImageManager after the rename
+     */
+    private Intent(long sequence, long owner, long fileNumber, String oldPath, String newPath,
+        String oldName, String newName) {
+      this.sequence = sequence;
+      this.owner = owner;
+      this.fileNumber = fileNumber;
+      this.oldPath = oldPath;
+      this.newPath = newPath;
+      this.oldName = oldName;
+      this.newName = newName;
+    }
+  }
+}
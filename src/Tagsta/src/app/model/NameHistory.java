@@ -0,0 +1,790 @@
+package app.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import javafx.util.converter.LocalDateTimeStringConverter;
+
+/**
+ * NameHistory holds the naming history of an image without keeping the "date, name" strings of its
+ * entries. Every entry is stored as the time it was made and the tags added to and removed from the
+ * name before it, with the base name and the tags numbered in a table of strings kept per image.
+ * Every KEYFRAME_INTERVAL entries, and whenever a name cannot be written as a change of the one
+ * before it, the whole name is stored instead, so any entry is rebuilt from at most that many
+ * entries. Entries whose date cannot be read back are kept as they are.
+ *
+ * <p>The encoded entries are also what is stored in the catalog: encode(from) returns the entries
+ * from a position on, with the strings they added to the table, and append reads them back, so an
+ * update to the catalog only carries the new entries.
+ */
+class NameHistory {
+
+  //A whole name is stored at least this often
+  static final int KEYFRAME_INTERVAL = 16;
+
+  //Entry kinds
+  private static final int KEYFRAME = 0;
+  private static final int DELTA = 1;
+  private static final int LITERAL = 2;
+
+  private static final LocalDateTimeStringConverter converter =
+      new LocalDateTimeStringConverter();
+
+  private final ArrayList<String> strings = new ArrayList<>();
+  private final HashMap<String, Integer> stringIds = new HashMap<>();
+  private byte[] bytes = new byte[32];
+  private int length;
+  private int[] entryOffsets = new int[4];
+  //The size of the table of strings after each entry was added
+  private int[] tableSizes = new int[4];
+  private int size;
+  //The last entry, which the next one is written as a change of
+  private long lastTime;
+  private int lastBase = -1;
+  private int[] lastTags = new int[0];
+  //Appended entries that have not been read yet, read the first time more than the size is needed
+  private final ArrayList<byte[]> unread = new ArrayList<>();
+  private int unreadSize;
+
+  /**
+   * Creates a NameHistory from the "date, name" strings of a naming history
+   *
+   * @param entries The entries of the naming history, oldest first
+   * @return The NameHistory
+   */
+  static NameHistory of(List<String> entries) {
+    NameHistory history = new NameHistory();
+    for (String entry : entries) {
+      history.addEntry(entry);
+    }
+    return history;
+  }
+
+  /**
+   * Adds an entry made now
+   *
+   * @param name The name the image got
+   */
+  void add(String name) {
+    add(LocalDateTime.now(), name);
+  }
+
+  /**
+   * Adds an entry made at the given time
+   *
+   * @param time When the entry was made
+   * @param name The name the image got
+   */
+  void add(LocalDateTime time, String name) {
+    readUnread();
+    ArrayList<String> tags = ImageManager.parseTagList(name);
+    int baseEnd = name.indexOf(" @");
+    String base = baseEnd == -1 ? name : name.substring(0, baseEnd);
+    //Names that cannot be put back together from their tags are kept as they are
+    if (!compose(base, tags).equals(name)) {
+      addLiteral(converter.toString(time) + ", " + name, toMillis(time));
+      return;
+    }
+    int[] tagIds = new int[tags.size()];
+    for (int i = 0; i < tagIds.length; i++) {
+      tagIds[i] = stringId(tags.get(i));
+    }
+    int baseId = stringId(base);
+    ByteArrayOutputStream entry = new ByteArrayOutputStream(16);
+    int[] removed = lastBase == baseId ? removedTags(lastTags, tagIds) : null;
+    if (size % KEYFRAME_INTERVAL == 0 || removed == null) {
+      ImageManagerCodec.writeVarint(entry, KEYFRAME);
+      ImageManagerCodec.writeVarint(entry, zigzag(toMillis(time)));
+      ImageManagerCodec.writeVarint(entry, baseId);
+      writeIds(entry, tagIds, 0, tagIds.length);
+    } else {
+      ImageManagerCodec.writeVarint(entry, DELTA);
+      ImageManagerCodec.writeVarint(entry, zigzag(toMillis(time) - lastTime));
+      writeIds(entry, removed, 0, removed.length);
+      writeIds(entry, tagIds, lastTags.length - removed.length, tagIds.length);
+    }
+    store(entry);
+    lastTime = toMillis(time);
+    lastBase = baseId;
+    lastTags = tagIds;
+  }
+
+  /**
+   * Adds an entry from its "date, name" string
+   *
+   * @param entry The entry
+   */
+  void addEntry(String entry) {
+    readUnread();
+    //The date itself contains ", ", so every one of them is tried in turn
+    for (int end = entry.indexOf(", "); end != -1; end = entry.indexOf(", ", end + 1)) {
+      String date = entry.substring(0, end);
+      LocalDateTime time;
+      try {
+        time = converter.fromString(date);
+      } catch (RuntimeException notTheDate) {
+        continue;
+      }
+      if (time != null && converter.toString(time).equals(date)) {
+        add(time, entry.substring(end + 2));
+        return;
+      }
+    }
+    addLiteral(entry, lastTime);
+  }
+
+  /**
+   * Returns the number of entries
+   *
+   * @return The number of entries
+   */
+  int size() {
+    return size + unreadSize;
+  }
+
+  /**
+   * Returns an entry as a "date, name" string
+   *
+   * @param index The position of the entry
+   * @return The entry
+   */
+  String getEntry(int index) {
+    Cursor cursor = seek(index);
+    return cursor.entry();
+  }
+
+  /**
+   * Returns the name an entry gave the image
+   *
+   * @param index The position of the entry
+   * @return The name, without the file extension
+   */
+  String getName(int index) {
+    Cursor cursor = seek(index);
+    if (cursor.literal != null) {
+      //Falls back on the end of the date, which is always written with AM or PM
+      return cursor.literal.substring(cursor.literal.indexOf("M") + 3);
+    }
+    return cursor.name();
+  }
+
+  /**
+   * Returns the tags an entry gave the image
+   *
+   * @param index The position of the entry
+   * @return The tags, in the order they are in the name
+   */
+  ArrayList<String> getTags(int index) {
+    return seek(index).tags();
+  }
+
+  /**
+   * Returns when an entry was made
+   *
+   * @param index The position of the entry
+   * @return When the entry was made
+   */
+  LocalDateTime getTime(int index) {
+    return fromMillis(seek(index).time);
+  }
+
+  /**
+   * Returns every entry as a "date, name" string, reading the entries once from the start
+   *
+   * @return The entries, oldest first
+   */
+  ArrayList<String> getEntries() {
+    readUnread();
+    ArrayList<String> entries = new ArrayList<>(size);
+    Cursor cursor = new Cursor();
+    for (int i = 0; i < size; i++) {
+      cursor.read(i);
+      entries.add(cursor.entry());
+    }
+    return entries;
+  }
+
+  /**
+   * Returns the tags of every entry, reading the entries once from the start
+   *
+   * @return The tags of the entries, oldest first
+   */
+  ArrayList<ArrayList<String>> getAllTags() {
+    readUnread();
+    ArrayList<ArrayList<String>> allTags = new ArrayList<>(size);
+    Cursor cursor = new Cursor();
+    for (int i = 0; i < size; i++) {
+      cursor.read(i);
+      allTags.add(cursor.tags());
+    }
+    return allTags;
+  }
+
+  /**
+   * Gives when every entry from a position on was made and the tags it gave the image to the
+   * consumer, reading each entry once
+   *
+   * @param from The position of the first entry
+   * @param consumer Given the entries, oldest first
+   */
+  void forEachEntry(int from, EntryConsumer consumer) {
+    if (from >= size()) {
+      return;
+    }
+    Cursor cursor = seek(from);
+    consumer.accept(cursor.time, cursor.tags());
+    for (int i = from + 1; i < size; i++) {
+      cursor.read(i);
+      consumer.accept(cursor.time, cursor.tags());
+    }
+  }
+
+  /**
+   * Returns a copy of the naming history that later entries added to this one do not change
+   *
+   * @return The copy
+   */
+  NameHistory copy() {
+    NameHistory copy = new NameHistory();
+    try {
+      copy.append(encode(0));
+    } catch (IOException ex) {
+      //The entries were just encoded, so they can always be read back
+      throw new UncheckedIOException(ex);
+    }
+    return copy;
+  }
+
+  /**
+   * Encodes the entries from the given position on, together with the strings they added to the
+   * table, so that append on a NameHistory holding the entries before them restores them
+   *
+   * @param from The position of the first entry to encode
+   * @return The encoded entries
+   */
+  byte[] encode(int from) {
+    readUnread();
+    int tableStart = from == 0 ? 0 : tableSizes[from - 1];
+    ByteArrayOutputStream output = new ByteArrayOutputStream(16 + length - offset(from));
+    ImageManagerCodec.writeVarint(output, strings.size() - tableStart);
+    for (String string : strings.subList(tableStart, strings.size())) {
+      byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+      ImageManagerCodec.writeVarint(output, utf8.length);
+      output.write(utf8, 0, utf8.length);
+    }
+    ImageManagerCodec.writeVarint(output, size - from);
+    output.write(bytes, offset(from), length - offset(from));
+    return output.toByteArray();
+  }
+
+  /**
+   * Appends entries encoded by encode. Only the number of entries is read here, the entries
+   * themselves are read the first time they are needed, so loading an image does not rebuild a
+   * history that is never looked at
+   *
+   * @param encoded The encoded entries
+   * @throws IOException Thrown when the number of entries cannot be read
+   */
+  void append(byte[] encoded) throws IOException {
+    Input input = new Input(encoded, 0, encoded.length);
+    for (long count = input.readVarint(); count > 0; count--) {
+      int stringLength = (int) input.readVarint();
+      if (stringLength < 0 || input.position + stringLength > encoded.length) {
+        throw new IOException("A naming history string is cut off");
+      }
+      input.position += stringLength;
+    }
+    long entries = input.readVarint();
+    if (entries < 0 || entries > encoded.length - input.position) {
+      throw new IOException("A naming history has more entries than bytes");
+    }
+    unread.add(encoded);
+    unreadSize += (int) entries;
+  }
+
+  /**
+   * Reads the entries appended since they were last read
+   */
+  private void readUnread() {
+    if (unread.isEmpty()) {
+      return;
+    }
+    try {
+      for (byte[] encoded : unread) {
+        read(encoded);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    } finally {
+      unread.clear();
+      unreadSize = 0;
+    }
+  }
+
+  /**
+   * Reads entries encoded by encode
+   *
+   * @param encoded The encoded entries
+   * @throws IOException Thrown when the entries cannot be decoded
+   */
+  private void read(byte[] encoded) throws IOException {
+    Input input = new Input(encoded, 0, encoded.length);
+    for (long count = input.readVarint(); count > 0; count--) {
+      int stringLength = (int) input.readVarint();
+      if (stringLength < 0 || input.position + stringLength > encoded.length) {
+        throw new IOException("A naming history string is cut off");
+      }
+      String string = new String(encoded, input.position, stringLength, StandardCharsets.UTF_8);
+      input.position += stringLength;
+      stringIds.put(string, strings.size());
+      strings.add(string);
+    }
+    long entries = input.readVarint();
+    Cursor cursor = new Cursor();
+    cursor.time = lastTime;
+    cursor.base = lastBase;
+    cursor.tags = Arrays.copyOf(lastTags, Math.max(8, lastTags.length));
+    cursor.tagCount = lastTags.length;
+    for (long entry = 0; entry < entries; entry++) {
+      int entryStart = input.position;
+      cursor.apply(input);
+      ByteArrayOutputStream copy = new ByteArrayOutputStream(input.position - entryStart);
+      copy.write(encoded, entryStart, input.position - entryStart);
+      store(copy);
+      lastTime = cursor.time;
+      lastBase = cursor.base;
+      lastTags = Arrays.copyOf(cursor.tags, cursor.tagCount);
+    }
+    if (input.position != encoded.length) {
+      throw new IOException("A naming history has trailing bytes");
+    }
+  }
+
+  /**
+   * Adds an entry kept as it is
+   *
+   * @param entry The "date, name" string
+   * @param millis The time the entry is sorted by
+   */
+  private void addLiteral(String entry, long millis) {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(8);
+    ImageManagerCodec.writeVarint(encoded, LITERAL);
+    ImageManagerCodec.writeVarint(encoded, zigzag(millis));
+    ImageManagerCodec.writeVarint(encoded, stringId(entry));
+    store(encoded);
+    lastTime = millis;
+    //The entry after a literal is always a whole name
+    lastBase = -1;
+    lastTags = new int[0];
+  }
+
+  /**
+   * Adds an encoded entry to the end of the entries
+   *
+   * @param entry The encoded entry
+   */
+  private void store(ByteArrayOutputStream entry) {
+    if (size == entryOffsets.length) {
+      entryOffsets = Arrays.copyOf(entryOffsets, size * 2);
+      tableSizes = Arrays.copyOf(tableSizes, size * 2);
+    }
+    if (length + entry.size() > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + entry.size()));
+    }
+    entryOffsets[size] = length;
+    tableSizes[size] = strings.size();
+    System.arraycopy(entry.toByteArray(), 0, bytes, length, entry.size());
+    length += entry.size();
+    size++;
+  }
+
+  /**
+   * Returns the offset of an entry in the encoded entries
+   *
+   * @param index The position of the entry, or the number of entries for the end
+   * @return The offset
+   */
+  private int offset(int index) {
+    return index == size ? length : entryOffsets[index];
+  }
+
+  /**
+   * Returns the number of a string in the table, adding it if it is not there yet
+   *
+   * @param string The string
+   * @return The number of the string
+   */
+  private int stringId(String string) {
+    Integer id = stringIds.get(string);
+    if (id == null) {
+      id = strings.size();
+      stringIds.put(string, id);
+      strings.add(string);
+    }
+    return id;
+  }
+
+  /**
+   * Returns a cursor on the given entry, read from the closest whole name before it
+   *
+   * @param index The position of the entry
+   * @return The cursor
+   */
+  private Cursor seek(int index) {
+    readUnread();
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("No naming history entry " + index);
+    }
+    int start = index;
+    while (kindAt(start) == DELTA) {
+      start--;
+    }
+    Cursor cursor = new Cursor();
+    for (int i = start; i <= index; i++) {
+      cursor.read(i);
+    }
+    return cursor;
+  }
+
+  /**
+   * Returns the kind of an entry
+   *
+   * @param index The position of the entry
+   * @return The kind of the entry
+   */
+  private int kindAt(int index) {
+    //Kinds are below 128, so they are always one byte
+    return bytes[entryOffsets[index]];
+  }
+
+  /**
+   * Returns the tags of the previous name that are not in the next one, if the next name is the
+   * previous one without them and with tags added at its end
+   *
+   * @param previous The tags of the previous name
+   * @param next The tags of the next name
+   * @return The removed tags, or null if the next name cannot be written that way
+   */
+  private static int[] removedTags(int[] previous, int[] next) {
+    //A tag that is in a name twice could not be told apart from its copy when it is removed
+    if (hasRepeats(previous) || hasRepeats(next)) {
+      return null;
+    }
+    int[] removed = new int[previous.length];
+    int removedCount = 0;
+    int kept = 0;
+    for (int tag : previous) {
+      if (kept < next.length && next[kept] == tag) {
+        kept++;
+      } else {
+        removed[removedCount++] = tag;
+      }
+    }
+    return Arrays.copyOf(removed, removedCount);
+  }
+
+  /**
+   * Returns whether a number is in a list more than once
+   *
+   * @param ids The list
+   * @return Whether a number is repeated
+   */
+  private static boolean hasRepeats(int[] ids) {
+    for (int i = 1; i < ids.length; i++) {
+      for (int j = 0; j < i; j++) {
+        if (ids[i] == ids[j]) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Puts a name back together from its base name and tags
+   *
+   * @param base The name without tags
+   * @param tags The tags
+   * @return The name
+   */
+  private static String compose(String base, List<String> tags) {
+    StringBuilder name = new StringBuilder(base);
+    for (String tag : tags) {
+      name.append(" @").append(ImageManager.encodeTag(tag));
+    }
+    return name.toString();
+  }
+
+  /**
+   * Writes part of a list of numbers, preceded by how many there are
+   *
+   * @param output The stream to write to
+   * @param ids The numbers
+   * @param from The position of the first number to write
+   * @param to The position after the last number to write
+   */
+  private static void writeIds(ByteArrayOutputStream output, int[] ids, int from, int to) {
+    ImageManagerCodec.writeVarint(output, to - from);
+    for (int i = from; i < to; i++) {
+      ImageManagerCodec.writeVarint(output, ids[i]);
+    }
+  }
+
+  /**
+   * Turns a number that may be negative into one that is not, keeping small numbers small
+   *
+   * @param value The number
+   * @return The encoded number
+   */
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  /**
+   * Reverses zigzag
+   *
+   * @param value The encoded number
+   * @return The number
+   */
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Returns a time as milliseconds, reading the time as UTC so the time zone never changes it
+   *
+   * @param time The time
+   * @return The milliseconds
+   */
+  static long toMillis(LocalDateTime time) {
+    return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+  }
+
+  /**
+   * Reverses toMillis
+   *
+   * @param millis The milliseconds
+   * @return The time
+   */
+  private static LocalDateTime fromMillis(long millis) {
+    return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+  }
+
+  /**
+   * Given the entries of a naming history one at a time
+   */
+  interface EntryConsumer {
+
+    /**
+     * Takes one entry
+     *
+     * @param millis When the entry was made, as toMillis gives it
+     * @param tags The tags the entry gave the image
+     */
+    void accept(long millis, ArrayList<String> tags);
+  }
+
+  /**
+   * Reads varints out of encoded entries
+   */
+  private static class Input {
+
+    private final byte[] bytes;
+    private final int end;
+    private int position;
+
+    /**
+     * Creates an Input over part of an array
+     *
+     * @param bytes The array
+     * @param position Where to start reading
+     * @param end Where to stop reading
+     */
+    private Input(byte[] bytes, int position, int end) {
+      this.bytes = bytes;
+      this.position = position;
+      this.end = end;
+    }
+
+    /**
+     * Reads a varint written by ImageManagerCodec.writeVarint
+     *
+     * @return The number read
+     * @throws IOException Thrown when the number is cut off
+     */
+    private long readVarint() throws IOException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        if (position >= end) {
+          throw new IOException("A naming history entry is cut off");
+        }
+        byte b = bytes[position++];
+        value |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new IOException("A naming history number is too long");
+    }
+  }
+
+  /**
+   * The name of the image after some entry, rebuilt by reading the entries up to it
+   */
+  private class Cursor {
+
+    private long time;
+    private int base = -1;
+    private int[] tags = new int[8];
+    private int tagCount;
+    private String literal;
+
+    /**
+     * Reads the entry at the given position, which must follow the one read last unless it is a
+     * whole name
+     *
+     * @param index The position of the entry
+     */
+    private void read(int index) {
+      try {
+        apply(new Input(bytes, entryOffsets[index], offset(index + 1)));
+      } catch (IOException ex) {
+        throw new IllegalStateException("A naming history entry is corrupt", ex);
+      }
+    }
+
+    /**
+     * Reads one entry and applies it to the name
+     *
+     * @param input The input positioned at the entry
+     * @throws IOException Thrown when the entry is cut off or unknown
+     */
+    private void apply(Input input) throws IOException {
+      int kind = (int) input.readVarint();
+      long storedTime = unzigzag(input.readVarint());
+      literal = null;
+      switch (kind) {
+        case KEYFRAME:
+          time = storedTime;
+          base = checkedId(input.readVarint());
+          tagCount = 0;
+          readTags(input);
+          break;
+        case DELTA:
+          time += storedTime;
+          for (long removed = input.readVarint(); removed > 0; removed--) {
+            removeTag(checkedId(input.readVarint()));
+          }
+          readTags(input);
+          break;
+        case LITERAL:
+          time = storedTime;
+          literal = strings.get(checkedId(input.readVarint()));
+          base = -1;
+          tagCount = 0;
+          for (String tag : ImageManager.parseTagList(literal)) {
+            Integer id = stringIds.get(tag);
+            addTag(id == null ? -1 : id);
+          }
+          break;
+        default:
+          throw new IOException("Unknown naming history entry " + kind);
+      }
+    }
+
+    /**
+     * Reads a list of tags and adds them to the end of the name
+     *
+     * @param input The input positioned at the list
+     * @throws IOException Thrown when the list is cut off
+     */
+    private void readTags(Input input) throws IOException {
+      for (long added = input.readVarint(); added > 0; added--) {
+        addTag(checkedId(input.readVarint()));
+      }
+    }
+
+    /**
+     * Adds a tag to the end of the name
+     *
+     * @param id The number of the tag
+     */
+    private void addTag(int id) {
+      if (tagCount == tags.length) {
+        tags = Arrays.copyOf(tags, Math.max(8, tagCount * 2));
+      }
+      tags[tagCount++] = id;
+    }
+
+    /**
+     * Removes a tag from the name
+     *
+     * @param id The number of the tag
+     */
+    private void removeTag(int id) {
+      for (int i = 0; i < tagCount; i++) {
+        if (tags[i] == id) {
+          System.arraycopy(tags, i + 1, tags, i, tagCount - i - 1);
+          tagCount--;
+          return;
+        }
+      }
+    }
+
+    /**
+     * Checks that a number read from an entry is in the table of strings
+     *
+     * @param id The number
+     * @return The number
+     * @throws IOException Thrown when the number is not in the table
+     */
+    private int checkedId(long id) throws IOException {
+      if (id < 0 || id >= strings.size()) {
+        throw new IOException("A naming history entry refers to an unknown string");
+      }
+      return (int) id;
+    }
+
+    /**
+     * Returns the name
+     *
+     * @return The name
+     */
+    private String name() {
+      return compose(strings.get(base), tags());
+    }
+
+    /**
+     * Returns the entry as a "date, name" string
+     *
+     * @return The entry
+     */
+    private String entry() {
+      return literal != null ? literal : converter.toString(fromMillis(time)) + ", " + name();
+    }
+
+    /**
+     * Returns the tags of the name
+     *
+     * @return The tags, in the order they are in the name
+     */
+    private ArrayList<String> tags() {
+      if (literal != null) {
+        return ImageManager.parseTagList(literal);
+      }
+      ArrayList<String> names = new ArrayList<>(tagCount);
+      for (int i = 0; i < tagCount; i++) {
+        names.add(strings.get(tags[i]));
+      }
+      return names;
+    }
+  }
+}
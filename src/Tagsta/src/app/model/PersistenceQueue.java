@@ -0,0 +1,132 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+
+/**
+ * PersistenceQueue stores changed ImageManagers on a background thread instead of on the thread
+ * that changed them. An ImageManager that changes several times before it is written is only
+ * written once, with all of its changes. Changes are written at most a set delay after they are
+ * made, or right away once too many ImageManagers are waiting, and can be written immediately with
+ * flush (for example when the program closes). An ImageManager that cannot be written is queued
+ * again and retried after a while, and the ones written in the same batch are still made durable.
+ */
+class PersistenceQueue {
+
+  //How long an ImageManager that could not be written waits before it is tried again
+  private static final long RETRY_MILLIS = 10000;
+
+  private final LinkedHashSet<ImageManager> pending = new LinkedHashSet<>();
+  private final Object flushLock = new Object();
+  private final Predicate<ImageManager> store;
+  private final Runnable afterFlush;
+  private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(
+      runnable -> {
+        Thread thread = new Thread(runnable, "catalog-writer");
+        thread.setDaemon(true);
+        return thread;
+      });
+  private long delayMillis;
+  private int maxPending;
+  private boolean flushScheduled;
+
+  /**
+   * Creates a PersistenceQueue
+   *
+   * @param store Writes one ImageManager and returns whether it was written
+   * @param afterFlush Run after every batch in which an ImageManager was written, to make the
+   *     batch durable
+   * @param delayMillis The longest time a change waits before it is written, in milliseconds
+   * @param maxPending The number of waiting ImageManagers that causes them to be written right away
+   */
+  PersistenceQueue(Predicate<ImageManager> store, Runnable afterFlush, long delayMillis,
+      int maxPending) {
+    this.store = store;
+    this.afterFlush = afterFlush;
+    this.delayMillis = delayMillis;
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * Changes how long changes may wait before they are written
+   *
+   * @param delayMillis The longest time a change waits before it is written, in milliseconds
+   * @param maxPending The number of waiting ImageManagers that causes them to be written right away
+   */
+  synchronized void setBound(long delayMillis, int maxPending) {
+    this.delayMillis = delayMillis;
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * Marks the given ImageManager as changed so that it is written by the background thread
+   *
+   * @param imageManager The changed ImageManager
+   */
+  synchronized void enqueue(ImageManager imageManager) {
+    pending.add(imageManager);
+    if (!flushScheduled) {
+      flushScheduled = true;
+      writer.schedule(this::flush, pending.size() >= maxPending ? 0 : delayMillis,
+          TimeUnit.MILLISECONDS);
+    } else if (pending.size() == maxPending) {
+      writer.execute(this::flush);
+    }
+  }
+
+  /**
+   * Writes every waiting ImageManager now. If the background thread is already writing, this waits
+   * until it is done, so everything queued before this call has been tried when it returns. The
+   * ImageManagers that could not be written are queued again
+   */
+  void flush() {
+    synchronized (flushLock) {
+      ArrayList<ImageManager> batch;
+      synchronized (this) {
+        batch = new ArrayList<>(pending);
+        pending.clear();
+        flushScheduled = false;
+      }
+      ArrayList<ImageManager> failed = new ArrayList<>();
+      boolean written = false;
+      for (ImageManager imageManager : batch) {
+        boolean stored;
+        try {
+          stored = store.test(imageManager);
+        } catch (RuntimeException ex) {
+          TagManager.getLogger().log(Level.SEVERE, "Could not write " + imageManager, ex);
+          stored = false;
+        }
+        if (stored) {
+          written = true;
+        } else {
+          failed.add(imageManager);
+        }
+      }
+      if (written) {
+        afterFlush.run();
+      }
+      if (!failed.isEmpty()) {
+        this.retry(failed);
+      }
+    }
+  }
+
+  /**
+   * Queues ImageManagers that could not be written again, to be tried after a while
+   *
+   * @param failed The ImageManagers that could not be written
+   */
+  private synchronized void retry(ArrayList<ImageManager> failed) {
+    pending.addAll(failed);
+    if (!flushScheduled) {
+      flushScheduled = true;
+      writer.schedule(this::flush, RETRY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package app.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * ProcessLock lets only one writer at a time change a file that other programs (another Tagsta, or
+ * a script) may be changing too. It locks a separate lock file, so the file itself can still be
+ * read, and replaced, while it is locked; readers never take the lock. The lock can be taken again
+ * by the thread holding it, and threads of this program wait for each other before the lock file
+ * is locked, since a file can only be locked once per program.
+ *
+ * <p>The lock file also holds a stamp that writers can use to tell each other that the file was
+ * replaced, for example by a compaction.
+ */
+class ProcessLock {
+
+  private static final ConcurrentHashMap<Path, ProcessLock> locks = new ConcurrentHashMap<>();
+
+  private final Path lockPath;
+  private final ReentrantLock threadLock = new ReentrantLock();
+  private FileChannel channel;
+  private FileLock fileLock;
+
+  /**
+   * Creates a ProcessLock for the given lock file
+   *
+   * @param lockPath The path of the lock file
+   */
+  private ProcessLock(Path lockPath) {
+    this.lockPath = lockPath;
+  }
+
+  /**
+   * Returns the lock guarding the given file, the same one every time for the same file
+   *
+   * @param file The file to be guarded
+   * @return The lock of the file
+   */
+  static ProcessLock forFile(Path file) {
+    Path absolute = file.toAbsolutePath().normalize();
+    return locks.computeIfAbsent(absolute,
+        path -> new ProcessLock(path.resolveSibling(path.getFileName() + ".lock")));
+  }
+
+  /**
+   * Waits until no other thread or program holds the lock and takes it
+   *
+   * @throws IOException Thrown when the lock file cannot be opened or locked
+   */
+  void lock() throws IOException {
+    threadLock.lock();
+    if (threadLock.getHoldCount() > 1) {
+      return;
+    }
+    try {
+      fileLock = channel().lock();
+    } catch (IOException | RuntimeException ex) {
+      threadLock.unlock();
+      throw ex;
+    }
+  }
+
+  /**
+   * Gives up the lock once it has been given up as many times as it was taken
+   */
+  void unlock() {
+    if (threadLock.getHoldCount() == 1 && fileLock != null) {
+      try {
+        fileLock.release();
+      } catch (IOException ex) {
+        //Closing the channel releases the lock as well
+        try {
+          channel.close();
+        } catch (IOException closeFailed) {
+          TagManager.getLogger().log(Level.WARNING,
+              "The lock file " + lockPath + " could not be released", closeFailed);
+        }
+      }
+      fileLock = null;
+    }
+    threadLock.unlock();
+  }
+
+  /**
+   * Returns the stamp stored in the lock file. Reading the stamp does not need the lock, since it
+   * is written in one piece
+   *
+   * @return The stamp, or 0 if none has been written
+   * @throws IOException Thrown when the lock file cannot be read
+   */
+  long readStamp() throws IOException {
+    ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES);
+    FileChannel lockFile = channel();
+    while (stamp.hasRemaining() && lockFile.read(stamp, stamp.position()) > 0) {
+      //Reads until the stamp is complete or the file ends
+    }
+    return stamp.position() == Long.BYTES ? stamp.getLong(0) : 0;
+  }
+
+  /**
+   * Stores a stamp in the lock file. The lock must be held
+   *
+   * @param value The stamp
+   * @throws IOException Thrown when the lock file cannot be written
+   */
+  void writeStamp(long value) throws IOException {
+    ByteBuffer stamp = ByteBuffer.allocate(Long.BYTES);
+    stamp.putLong(0, value);
+    while (stamp.hasRemaining()) {
+      channel.write(stamp, stamp.position());
+    }
+    channel.force(false);
+  }
+
+  /**
+   * Returns the open lock file, opening it if needed
+   *
+   * @return The lock file
+   * @throws IOException Thrown when the lock file cannot be opened
+   */
+  private synchronized FileChannel channel() throws IOException {
+    if (channel == null || !channel.isOpen()) {
+      channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+          StandardOpenOption.WRITE);
+    }
+    return channel;
+  }
+}
@@ -0,0 +1,144 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ReconciliationReport holds what a reconciliation of the catalog found: the images whose files no
+ * longer exist, the files that more than one image in the catalog points at, and the images that
+ * could not be checked because their folder is missing (for example on a drive that is not
+ * connected). When the reconciliation was not a dry run, the orphans have been moved to the
+ * quarantine and the duplicates merged.
+ */
+public class ReconciliationReport {
+
+  //How many paths of each kind are listed in the summary
+  private static final int LISTED_PATHS = 20;
+
+  private final boolean dryRun;
+  private final int checked;
+  private final ArrayList<Long> orphanIds = new ArrayList<>();
+  private final ArrayList<String> orphanPaths = new ArrayList<>();
+  private final ArrayList<long[]> duplicateIds = new ArrayList<>();
+  private final ArrayList<String> duplicatePaths = new ArrayList<>();
+  private int unreachable;
+
+  /**
+   * Creates an empty ReconciliationReport
+   *
+   * @param dryRun Whether the catalog is left as it is
+   * @param checked The number of images that were checked
+   */
+  ReconciliationReport(boolean dryRun, int checked) {
+    this.dryRun = dryRun;
+    this.checked = checked;
+  }
+
+  /**
+   * Adds an image whose file no longer exists
+   *
+   * @param id The number of the ImageManager of the image
+   * @param path The path the image had
+   */
+  void addOrphan(long id, String path) {
+    orphanIds.add(id);
+    orphanPaths.add(path);
+  }
+
+  /**
+   * Adds a file that more than one image points at
+   *
+   * @param ids The numbers of the ImageManagers of the images, the one that is kept first
+   * @param path The path of the file
+   */
+  void addDuplicate(long[] ids, String path) {
+    duplicateIds.add(ids);
+    duplicatePaths.add(path);
+  }
+
+  /**
+   * Counts an image that could not be checked because its folder is missing
+   */
+  void addUnreachable() {
+    unreachable++;
+  }
+
+  /**
+   * Returns the numbers of the ImageManagers of the images whose files no longer exist
+   *
+   * @return The numbers of the orphaned ImageManagers
+   */
+  List<Long> getOrphanIds() {
+    return orphanIds;
+  }
+
+  /**
+   * Returns the numbers of the ImageManagers pointing at the same file, one array per file with
+   * the ImageManager that is kept first
+   *
+   * @return The numbers of the duplicate ImageManagers
+   */
+  List<long[]> getDuplicateIds() {
+    return duplicateIds;
+  }
+
+  /**
+   * Returns whether the catalog was left as it is
+   *
+   * @return Whether this was a dry run
+   */
+  public boolean isDryRun() {
+    return dryRun;
+  }
+
+  /**
+   * Returns whether anything was found that reconciling changes
+   *
+   * @return Whether there are orphans or duplicates
+   */
+  public boolean hasChanges() {
+    return !orphanIds.isEmpty() || !duplicateIds.isEmpty();
+  }
+
+  /**
+   * Returns a description of what was found, and what was done about it, for the user
+   *
+   * @return The description
+   */
+  public String getSummary() {
+    StringBuilder summary = new StringBuilder();
+    summary.append("Checked ").append(checked).append(" images.\n");
+    summary.append(orphanIds.size()).append(dryRun ? " images point at files that no longer exist"
+        + " and would be moved to the quarantine.\n" : " images that pointed at files that no longer"
+        + " exist were moved to the quarantine.\n");
+    summary.append(duplicateIds.size()).append(dryRun ? " files have more than one image in the"
+        + " catalog, whose histories would be merged.\n" : " files that had more than one image in"
+        + " the catalog were merged.\n");
+    if (unreachable > 0) {
+      summary.append(unreachable).append(" images were skipped because their folder is missing.\n");
+    }
+    appendPaths(summary, "Missing files:", orphanPaths);
+    appendPaths(summary, "Files with more than one image:", duplicatePaths);
+    return summary.toString();
+  }
+
+  /**
+   * Lists the first paths of a kind in the summary
+   *
+   * @param summary The summary to add to
+   * @param title The title of the list
+   * @param paths The paths
+   */
+  private static void appendPaths(StringBuilder summary, String title, List<String> paths) {
+    if (paths.isEmpty()) {
+      return;
+    }
+    summary.append('\n').append(title).append('\n');
+    for (String path : paths.subList(0, Math.min(paths.size(), LISTED_PATHS))) {
+      summary.append(path).append('\n');
+    }
+    if (paths.size() > LISTED_PATHS) {
+      summary.append("and ").append(paths.size() - LISTED_PATHS).append(" more\n");
+    }
+  }
+}
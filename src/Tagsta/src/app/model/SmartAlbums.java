@@ -0,0 +1,234 @@
+package app.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * SmartAlbums are saved searches whose images are kept instead of searched for every time the album
+ * is opened. The images of an album are found once, the first time it is opened, and after that
+ * every image added, changed or removed is only checked against the queries of the albums, so
+ * opening an album takes as long as listing its images. The images of the albums are written to a
+ * file when the program closes, so they are kept on the next start as well. Right after they are
+ * read, the file is written again without them, so after a crash the albums are searched again
+ * instead of showing images that changed since. Albums with had: or changed: terms are searched
+ * every time they are opened instead, since what they find changes as time goes by.
+ */
+class SmartAlbums {
+
+  //Identifies a smart album file ("TGSA")
+  private static final int MAGIC = 0x54475341;
+
+  private final LinkedHashMap<String, Album> albums = new LinkedHashMap<>();
+
+  /**
+   * Saves a query as an album, replacing any album with the same name
+   *
+   * @param name The name of the album
+   * @param query The text of the query
+   * @throws ParseException Thrown when the query is not well formed
+   */
+  synchronized void save(String name, String query) throws ParseException {
+    albums.put(name, new Album(query, TagQuery.parse(query)));
+  }
+
+  /**
+   * Deletes an album
+   *
+   * @param name The name of the album
+   * @return Whether there was an album with the name
+   */
+  synchronized boolean delete(String name) {
+    return albums.remove(name) != null;
+  }
+
+  /**
+   * Returns the names of the albums, in the order they were saved
+   *
+   * @return The names
+   */
+  synchronized ArrayList<String> getNames() {
+    return new ArrayList<>(albums.keySet());
+  }
+
+  /**
+   * Returns the query of an album
+   *
+   * @param name The name of the album
+   * @return The text of the query, or null if there is no album with the name
+   */
+  synchronized String getQuery(String name) {
+    Album album = albums.get(name);
+    return album == null ? null : album.query;
+  }
+
+  /**
+   * Returns the images of an album, searching for them if the album was not opened before
+   *
+   * @param name The name of the album
+   * @param index The index of the images
+   * @param dictionary The numbers of the tags
+   * @return The numbers of the ImageManagers of the images, or null if there is no album with the
+   * name
+   */
+  long[] getImages(String name, CatalogIndex index, TagDictionary dictionary) {
+    TagQuery plan;
+    synchronized (this) {
+      Album album = albums.get(name);
+      if (album == null) {
+        return null;
+      }
+      if (!album.plan.isHistorical()) {
+        if (album.images == null) {
+          album.images = album.plan.run(index, dictionary);
+        }
+        return album.images.toArray();
+      }
+      plan = album.plan;
+    }
+    //Albums asking about the past change as time goes by, so they are searched every time. The
+    //histories may have to be read from the catalog, which is not done while holding the lock
+    return plan.run(index, dictionary).toArray();
+  }
+
+  /**
+   * Adds an image that was added or changed to the albums whose queries it matches and takes it out
+   * of the others. Albums that were not opened yet are left to be searched when they are
+   *
+   * @param id The number of the ImageManager of the image
+   * @param index The index of the images, which already holds the image as it is now
+   * @param dictionary The numbers of the tags
+   */
+  synchronized void update(long id, CatalogIndex index, TagDictionary dictionary) {
+    CompressedBitmap image = null;
+    for (Album album : albums.values()) {
+      if (album.images == null) {
+        continue;
+      }
+      if (image == null) {
+        image = new CompressedBitmap();
+        image.add(id);
+      }
+      if (album.plan.filter(index, dictionary, image).isEmpty()) {
+        album.images.remove(id);
+      } else {
+        album.images.add(id);
+      }
+    }
+  }
+
+  /**
+   * Takes an image that was removed out of every album
+   *
+   * @param id The number of the ImageManager of the image
+   */
+  synchronized void remove(long id) {
+    for (Album album : albums.values()) {
+      if (album.images != null) {
+        album.images.remove(id);
+      }
+    }
+  }
+
+  /**
+   * Writes the albums to a file. They are written to a temporary file first, which then replaces
+   * the file, so the file is never left half written
+   *
+   * @param target The file
+   * @param withImages Whether to write the images of the albums opened so far as well
+   * @throws IOException Thrown when the file cannot be written
+   */
+  synchronized void write(Path target, boolean withImages) throws IOException {
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+      output.writeInt(MAGIC);
+      output.writeInt(albums.size());
+      for (String name : albums.keySet()) {
+        Album album = albums.get(name);
+        output.writeUTF(name);
+        output.writeUTF(album.query);
+        if (!withImages || album.images == null) {
+          output.writeInt(-1);
+          continue;
+        }
+        long[] images = album.images.toArray();
+        output.writeInt(images.length);
+        for (long image : images) {
+          output.writeLong(image);
+        }
+      }
+    }
+    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads albums written by write
+   *
+   * @param source The file
+   * @return The SmartAlbums holding the albums, which is empty if the file does not exist
+   * @throws IOException Thrown when the file cannot be read or is not a smart album file
+   */
+  static SmartAlbums read(Path source) throws IOException {
+    SmartAlbums smartAlbums = new SmartAlbums();
+    if (!Files.exists(source)) {
+      return smartAlbums;
+    }
+    try (DataInputStream input = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(source)))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException(source + " is not a smart album file");
+      }
+      for (int count = input.readInt(); count > 0; count--) {
+        String name = input.readUTF();
+        String query = input.readUTF();
+        Album album;
+        try {
+          album = new Album(query, TagQuery.parse(query));
+        } catch (ParseException ex) {
+          throw new IOException("The query of the album " + name + " is not well formed", ex);
+        }
+        int size = input.readInt();
+        if (size >= 0) {
+          album.images = new CompressedBitmap();
+          for (int i = 0; i < size; i++) {
+            album.images.add(input.readLong());
+          }
+        }
+        smartAlbums.albums.put(name, album);
+      }
+    }
+    return smartAlbums;
+  }
+
+  /**
+   * A saved query and the images it matches
+   */
+  private static class Album {
+
+    private final String query;
+    private final TagQuery plan;
+    //The images matching the query, or null until the album is opened
+    private CompressedBitmap images;
+
+    /**
+     * Creates an Album whose images are not found yet
+     *
+     * @param query The text of the query
+     * @param plan The parsed query
+     */
+    private Album(String query, TagQuery plan) {
+      this.query = query;
+      this.plan = plan;
+    }
+  }
+}
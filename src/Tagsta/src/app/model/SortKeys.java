@@ -0,0 +1,431 @@
+package app.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * SortKeys keeps, for every image sorted by a date so far, when its file was last modified and when
+ * the picture was taken according to its EXIF data. Reading these takes a look at the file, so they
+ * are read once, in parallel, the first time images are sorted by them and kept after that, and
+ * written to a file when the program closes so they are kept on the next start as well. The times
+ * of an image are read again after it is removed, looked up by its path, or stored by another
+ * program, since its file may have changed by then. Renaming and tagging an image through this
+ * program does not change them.
+ *
+ * <p>The keys of the names, paths and numbers of tags are worked out from the index each time,
+ * since the index keeps them in memory already.
+ */
+class SortKeys {
+
+  //Identifies a sort key file ("TGSO")
+  private static final int MAGIC = 0x5447534f;
+  //The number of images each task reads the times of
+  private static final int CHUNK_SIZE = 256;
+  //EXIF data is in the first segments of a JPEG file or the first part of a TIFF file
+  private static final int EXIF_LIMIT = 1 << 16;
+  private static final int EXIF_POINTER = 0x8769;
+  private static final int DATE_TIME_ORIGINAL = 0x9003;
+  private static final DateTimeFormatter EXIF_DATE =
+      DateTimeFormatter.ofPattern("yyyy:MM:dd HH:mm:ss");
+
+  private final HashMap<Long, Times> timesById = new HashMap<>();
+
+  /**
+   * Forgets the times of an image, so they are read again the next time they are needed
+   *
+   * @param id The number of the ImageManager of the image
+   */
+  synchronized void forget(long id) {
+    timesById.remove(id);
+  }
+
+  /**
+   * Remembers the times of an image
+   *
+   * @param id The number of the ImageManager of the image
+   * @param modified When its file was last modified, in milliseconds since 1970, or -1 if unknown
+   * @param taken When it was taken, in milliseconds since 1970, or -1 if unknown
+   */
+  synchronized void put(long id, long modified, long taken) {
+    timesById.put(id, new Times(modified, taken));
+  }
+
+  /**
+   * Sorts images in the background, so only the first of them are in order and the rest are put
+   * in order as they are asked for. Times not known yet are read from the files first
+   *
+   * @param ids The numbers of the ImageManagers of the images, which is reordered
+   * @param order The order
+   * @param reversed Whether to list the images in the reverse of the order
+   * @param index The index of the images
+   * @param cancelled Tells whether the sort is no longer wanted, in which case null is returned
+   * @return The images being sorted, or null if the sort was cancelled
+   * @throws InterruptedException Thrown when the thread is interrupted while reading times
+   */
+  IncrementalSort sort(long[] ids, SortOrder order, boolean reversed, CatalogIndex index,
+      BooleanSupplier cancelled) throws InterruptedException {
+    long[] keys = new long[ids.length];
+    String[] texts = null;
+    switch (order) {
+      case NAME:
+      case PATH:
+        texts = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+          String path = index.getPath(ids[i]);
+          String text = path == null ? "" : order == SortOrder.PATH ? path
+              : path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+          texts[i] = text.toLowerCase(Locale.ROOT);
+          keys[i] = IncrementalSort.textKey(texts[i]);
+        }
+        break;
+      case TAG_COUNT:
+        for (int i = 0; i < ids.length; i++) {
+          int[] tagIds = index.getTagIds(ids[i]);
+          keys[i] = tagIds == null ? 0 : tagIds.length;
+        }
+        break;
+      case LAST_MODIFIED:
+      case DATE_TAKEN:
+        Times[] times = getTimes(ids, index, cancelled);
+        if (times == null) {
+          return null;
+        }
+        for (int i = 0; i < ids.length; i++) {
+          keys[i] = order == SortOrder.DATE_TAKEN && times[i].taken != -1
+              ? times[i].taken : times[i].modified;
+        }
+        break;
+      default:
+        for (int i = 0; i < ids.length; i++) {
+          keys[i] = i;
+        }
+    }
+    return new IncrementalSort(ids, keys, texts, reversed);
+  }
+
+  /**
+   * Returns the times of images, reading the ones not known yet from their files in parallel
+   *
+   * @param ids The numbers of the ImageManagers of the images
+   * @param index The index of the images
+   * @param cancelled Tells whether the times are no longer wanted
+   * @return The times, in the same order, or null if they are no longer wanted
+   * @throws InterruptedException Thrown when the thread is interrupted while reading times
+   */
+  private Times[] getTimes(long[] ids, CatalogIndex index, BooleanSupplier cancelled)
+      throws InterruptedException {
+    Times[] times = new Times[ids.length];
+    ArrayList<Integer> unknown = new ArrayList<>();
+    synchronized (this) {
+      for (int i = 0; i < ids.length; i++) {
+        times[i] = timesById.get(ids[i]);
+        if (times[i] == null) {
+          unknown.add(i);
+        }
+      }
+    }
+    if (unknown.isEmpty()) {
+      return times;
+    }
+    ExecutorService readers = Executors.newFixedThreadPool(
+        Math.max(4, 2 * Runtime.getRuntime().availableProcessors()), runnable -> {
+          Thread thread = new Thread(runnable, "sort-keys");
+          thread.setDaemon(true);
+          return thread;
+        });
+    try {
+      ArrayList<Future<?>> chunks = new ArrayList<>();
+      for (int start = 0; start < unknown.size(); start += CHUNK_SIZE) {
+        int from = start;
+        int to = Math.min(unknown.size(), start + CHUNK_SIZE);
+        chunks.add(readers.submit(() -> {
+          for (int i = from; i < to && !cancelled.getAsBoolean(); i++) {
+            int position = unknown.get(i);
+            String path = index.getPath(ids[position]);
+            times[position] = path == null ? new Times(-1, -1) : readTimes(Paths.get(path));
+          }
+        }));
+      }
+      for (Future<?> chunk : chunks) {
+        chunk.get();
+      }
+    } catch (ExecutionException ex) {
+      throw new IllegalStateException("The times of an image could not be read", ex.getCause());
+    } finally {
+      readers.shutdownNow();
+    }
+    if (cancelled.getAsBoolean()) {
+      return null;
+    }
+    synchronized (this) {
+      for (int position : unknown) {
+        timesById.put(ids[position], times[position]);
+      }
+    }
+    return times;
+  }
+
+  /**
+   * Reads when a file was last modified and when the picture in it was taken
+   *
+   * @param path The path of the file
+   * @return The times, which are -1 where they cannot be read
+   */
+  private static Times readTimes(Path path) {
+    long modified;
+    try {
+      modified = Files.getLastModifiedTime(path).toMillis();
+    } catch (IOException ex) {
+      return new Times(-1, -1);
+    }
+    return new Times(modified, readDateTaken(path));
+  }
+
+  /**
+   * Reads the date and time the picture in a JPEG or TIFF file was taken from its EXIF data
+   *
+   * @param path The path of the file
+   * @return The time in milliseconds since 1970, taken to be in the time zone of this computer,
+   * or -1 if the file has none
+   */
+  static long readDateTaken(Path path) {
+    String extension = CatalogIndex.getExtension(path.toString());
+    try (InputStream input = new BufferedInputStream(Files.newInputStream(path))) {
+      byte[] tiff;
+      if (extension.equals("jpg") || extension.equals("jpeg")) {
+        tiff = readJpegExif(new DataInputStream(input));
+      } else if (extension.equals("tif") || extension.equals("tiff")) {
+        tiff = new byte[EXIF_LIMIT];
+        int length = 0;
+        int read;
+        while (length < tiff.length
+            && (read = input.read(tiff, length, tiff.length - length)) != -1) {
+          length += read;
+        }
+        tiff = Arrays.copyOf(tiff, length);
+      } else {
+        return -1;
+      }
+      String date = tiff == null ? null : findDateTaken(tiff);
+      if (date == null) {
+        return -1;
+      }
+      return LocalDateTime.parse(date, EXIF_DATE).atZone(ZoneId.systemDefault()).toInstant()
+          .toEpochMilli();
+    } catch (IOException | RuntimeException ex) {
+      //A file whose EXIF data cannot be read is sorted as one without a date, so the other files
+      //are still sorted by date
+      return -1;
+    }
+  }
+
+  /**
+   * Reads the EXIF segment of a JPEG file
+   *
+   * @param input The file, from its start
+   * @return The TIFF structure in the segment, or null if the file has none
+   * @throws IOException Thrown when the file cannot be read
+   */
+  private static byte[] readJpegExif(DataInputStream input) throws IOException {
+    if (input.readUnsignedShort() != 0xffd8) {
+      return null;
+    }
+    while (true) {
+      int marker = input.readUnsignedShort();
+      //The image data starts without any EXIF data before it
+      if ((marker & 0xff00) != 0xff00 || marker == 0xffda || marker == 0xffd9) {
+        return null;
+      }
+      int length = input.readUnsignedShort() - 2;
+      if (length < 0) {
+        return null;
+      }
+      if (marker != 0xffe1 || length < 6) {
+        if (input.skipBytes(length) != length) {
+          return null;
+        }
+        continue;
+      }
+      byte[] segment = new byte[length];
+      input.readFully(segment);
+      if (new String(segment, 0, 6, StandardCharsets.ISO_8859_1).equals("Exif\0\0")) {
+        return Arrays.copyOfRange(segment, 6, segment.length);
+      }
+    }
+  }
+
+  /**
+   * Finds the original date and time in the EXIF data of a TIFF structure
+   *
+   * @param tiff The TIFF structure
+   * @return The date and time as EXIF writes it, or null if there is none
+   */
+  private static String findDateTaken(byte[] tiff) {
+    if (tiff.length < 8) {
+      return null;
+    }
+    boolean little = tiff[0] == 'I' && tiff[1] == 'I';
+    if (!little && !(tiff[0] == 'M' && tiff[1] == 'M')) {
+      return null;
+    }
+    int exif = findEntry(tiff, little, readInt(tiff, 4, little), EXIF_POINTER);
+    if (exif < 0) {
+      return null;
+    }
+    int date = findEntry(tiff, little, readInt(tiff, exif + 8, little), DATE_TIME_ORIGINAL);
+    if (date < 0) {
+      return null;
+    }
+    int offset = readInt(tiff, date + 8, little);
+    if (offset < 0 || offset > tiff.length - 19) {
+      return null;
+    }
+    return new String(tiff, offset, 19, StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Finds an entry of an image file directory
+   *
+   * @param tiff The TIFF structure
+   * @param little Whether numbers are stored least significant byte first
+   * @param directory Where the directory starts
+   * @param tag The tag of the entry
+   * @return Where the entry starts, or -1 if the directory has no such entry
+   */
+  private static int findEntry(byte[] tiff, boolean little, int directory, int tag) {
+    if (directory < 0 || directory > tiff.length - 2) {
+      return -1;
+    }
+    int count = readShort(tiff, directory, little);
+    for (int i = 0; i < count; i++) {
+      int entry = directory + 2 + i * 12;
+      if (entry > tiff.length - 12) {
+        return -1;
+      }
+      if (readShort(tiff, entry, little) == tag) {
+        return entry;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads an unsigned 16 bit number
+   *
+   * @param bytes The bytes
+   * @param offset Where the number is
+   * @param little Whether the least significant byte comes first
+   * @return The number
+   */
+  private static int readShort(byte[] bytes, int offset, boolean little) {
+    int first = bytes[offset] & 0xff;
+    int second = bytes[offset + 1] & 0xff;
+    return little ? second << 8 | first : first << 8 | second;
+  }
+
+  /**
+   * Reads a 32 bit number
+   *
+   * @param bytes The bytes
+   * @param offset Where the number is
+   * @param little Whether the least significant byte comes first
+   * @return The number, or -1 if it is not within the bytes
+   */
+  private static int readInt(byte[] bytes, int offset, boolean little) {
+    if (offset < 0 || offset > bytes.length - 4) {
+      return -1;
+    }
+    int first = readShort(bytes, offset, little);
+    int second = readShort(bytes, offset + 2, little);
+    return little ? second << 16 | first : first << 16 | second;
+  }
+
+  /**
+   * Writes the times to a file. They are written to a temporary file first, which then replaces the
+   * file, so the file is never left half written
+   *
+   * @param target The file
+   * @throws IOException Thrown when the file cannot be written
+   */
+  synchronized void write(Path target) throws IOException {
+    Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+    try (DataOutputStream output = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+      output.writeInt(MAGIC);
+      output.writeInt(timesById.size());
+      for (Map.Entry<Long, Times> entry : timesById.entrySet()) {
+        output.writeLong(entry.getKey());
+        output.writeLong(entry.getValue().modified);
+        output.writeLong(entry.getValue().taken);
+      }
+    }
+    Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads times written by write
+   *
+   * @param source The file
+   * @return The SortKeys holding the times, which is empty if the file does not exist
+   * @throws IOException Thrown when the file cannot be read or is not a sort key file
+   */
+  static SortKeys read(Path source) throws IOException {
+    SortKeys sortKeys = new SortKeys();
+    if (!Files.exists(source)) {
+      return sortKeys;
+    }
+    try (DataInputStream input = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(source)))) {
+      if (input.readInt() != MAGIC) {
+        throw new IOException(source + " is not a sort key file");
+      }
+      for (int count = input.readInt(); count > 0; count--) {
+        sortKeys.put(input.readLong(), input.readLong(), input.readLong());
+      }
+    }
+    return sortKeys;
+  }
+
+  /**
+   * When the file of an image was last modified and when the picture was taken
+   */
+  private static class Times {
+
+    private final long modified;
+    private final long taken;
+
+    /**
+     * Creates Times
+     *
+     * @param modified When the file was last modified, or -1 if unknown
+     * @param taken When the picture was taken, or -1 if unknown
+     */
+    private Times(long modified, long taken) {
+      this.modified = modified;
+      this.taken = taken;
+    }
+  }
+}
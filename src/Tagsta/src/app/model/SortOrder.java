@@ -0,0 +1,35 @@
+package app.model;
+
+/**
+ * The orders the images a search found can be listed in. Dates are compared as times, and an image
+ * without the date it was taken in its EXIF data is sorted by when its file was last modified
+ */
+public enum SortOrder {
+  CATALOG("Catalog order"),
+  NAME("Name"),
+  PATH("Path"),
+  TAG_COUNT("Number of tags"),
+  LAST_MODIFIED("Last modified"),
+  DATE_TAKEN("Date taken");
+
+  private final String label;
+
+  /**
+   * Creates a SortOrder
+   *
+   * @param label What the order is called where it is picked
+   */
+  SortOrder(String label) {
+    this.label = label;
+  }
+
+  /**
+   * Returns what the order is called where it is picked
+   *
+   * @return The name of the order
+   */
+  @Override
+  public String toString() {
+    return label;
+  }
+}
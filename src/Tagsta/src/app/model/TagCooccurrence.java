@@ -0,0 +1,225 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * TagCooccurrence counts, for every pair of tags, how many images have both, and suggests the tags
+ * an image is likely to get next from the tags it has. A tag is suggested by how often the images
+ * with each of the tags of the image also have it, added up over the tags of the image. Only the
+ * pairs that occur are kept, one row per tag, and each row keeps its most frequent tags sorted as
+ * its counts change, so a suggestion looks at a few entries per tag of the image however large the
+ * catalog is. A row is only sorted again from all of its counts when one of its most frequent tags
+ * is found with it less often than a tag that was not among them may be.
+ */
+class TagCooccurrence {
+
+  //How many of the tags most often found with a tag are looked at when suggesting
+  private static final int TOP = 16;
+
+  private final HashMap<Integer, Row> rows = new HashMap<>();
+
+  /**
+   * Moves an image from the pairs of the tags it had to the pairs of the tags it has
+   *
+   * @param oldTagIds The numbers of the tags the image had, or null if it was not counted
+   * @param newTagIds The numbers of the tags the image has, or null if it was removed
+   */
+  synchronized void update(int[] oldTagIds, int[] newTagIds) {
+    if (oldTagIds != null) {
+      count(oldTagIds, newTagIds, -1);
+    }
+    if (newTagIds != null) {
+      count(newTagIds, oldTagIds, 1);
+    }
+  }
+
+  /**
+   * Returns the tags most likely to be added to an image with the given tags
+   *
+   * @param tagIds The numbers of the tags of the image
+   * @param limit The most tags to return
+   * @return The numbers of the tags, most likely first
+   */
+  synchronized int[] suggest(int[] tagIds, int limit) {
+    HashMap<Integer, Double> scores = new HashMap<>();
+    for (int tagId : tagIds) {
+      Row row = rows.get(tagId);
+      if (row == null) {
+        continue;
+      }
+      for (int other : row.top()) {
+        if (!CatalogIndex.contains(tagIds, other)) {
+          scores.merge(other, (double) row.others.get(other) / row.images, Double::sum);
+        }
+      }
+    }
+    ArrayList<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
+    ranked.sort((first, second) -> first.getValue().equals(second.getValue())
+        ? Integer.compare(first.getKey(), second.getKey())
+        : Double.compare(second.getValue(), first.getValue()));
+    int[] suggested = new int[Math.min(limit, ranked.size())];
+    for (int i = 0; i < suggested.length; i++) {
+      suggested[i] = ranked.get(i).getKey();
+    }
+    return suggested;
+  }
+
+  /**
+   * Counts the pairs of tags of an image that the image gained or lost
+   *
+   * @param tagIds The tags of the image before or after the change
+   * @param otherTagIds The tags of the image on the other side of the change, or null
+   * @param change 1 to count the pairs the image gained, -1 for the pairs it lost
+   */
+  private void count(int[] tagIds, int[] otherTagIds, int change) {
+    for (int tagId : tagIds) {
+      //A tag on both sides of the change keeps its pairs with the other tags on both sides
+      boolean changed = otherTagIds == null || !CatalogIndex.contains(otherTagIds, tagId);
+      Row row = rows.computeIfAbsent(tagId, key -> new Row());
+      if (changed) {
+        row.images += change;
+      }
+      for (int other : tagIds) {
+        boolean otherChanged = otherTagIds == null || !CatalogIndex.contains(otherTagIds, other);
+        if (other != tagId && (changed || otherChanged)) {
+          row.add(other, change);
+        }
+      }
+      if (row.images <= 0 && row.others.isEmpty()) {
+        rows.remove(tagId);
+      }
+    }
+  }
+
+  /**
+   * The number of images with a tag and how many of them have each other tag
+   */
+  private static class Row {
+
+    private int images;
+    private final HashMap<Integer, Integer> others = new HashMap<>();
+    //The tags most often found with this one, most often first. Every other tag is found with this
+    //one at most as often as any of them, so while there are fewer than TOP they are all the others
+    private final int[] top = new int[TOP];
+    private int topSize;
+    //False once a change could not be kept in the top tags, which are then sorted again when read
+    private boolean topValid = true;
+
+    /**
+     * Changes how many images have this tag and another one
+     *
+     * @param other The number of the other tag
+     * @param change How much to add
+     */
+    private void add(int other, int change) {
+      int count = others.merge(other, change, Integer::sum);
+      if (count <= 0) {
+        others.remove(other);
+        count = 0;
+      }
+      if (topValid) {
+        updateTop(other, count, change);
+      }
+    }
+
+    /**
+     * Keeps the top tags sorted after the count of a tag changed, or marks them to be sorted again
+     * from all the counts if a tag that is not among them may now be found more often than one that
+     * is
+     *
+     * @param other The number of the tag whose count changed
+     * @param count Its new count, 0 if it is no longer found with this tag
+     * @param change How much its count changed
+     */
+    private void updateTop(int other, int count, int change) {
+      int index = -1;
+      for (int i = 0; i < topSize; i++) {
+        if (top[i] == other) {
+          index = i;
+          break;
+        }
+      }
+      if (index < 0) {
+        if (change <= 0 || count == 0) {
+          //Every tag outside the top tags was already found less often than them
+          return;
+        }
+        if (topSize < TOP) {
+          index = topSize++;
+        } else if (count > others.get(top[TOP - 1])) {
+          //The tag left out was found at least as often as every tag outside the top tags
+          index = TOP - 1;
+        } else {
+          return;
+        }
+        top[index] = other;
+      } else if (change < 0) {
+        //The tags outside the top tags, which the tag must still be found at least as often as
+        int outside = others.size() - topSize + (count == 0 ? 1 : 0);
+        if (outside > 0 && count < lowestOtherCount(index)) {
+          topValid = false;
+          return;
+        }
+        if (count == 0) {
+          System.arraycopy(top, index + 1, top, index, topSize - index - 1);
+          topSize--;
+          return;
+        }
+      }
+      while (index > 0 && others.get(top[index - 1]) < count) {
+        top[index] = top[index - 1];
+        top[--index] = other;
+      }
+      while (index < topSize - 1 && others.get(top[index + 1]) > count) {
+        top[index] = top[index + 1];
+        top[++index] = other;
+      }
+    }
+
+    /**
+     * Returns the lowest count of the top tags other than the one at the given index, which every
+     * tag outside the top tags is found at most as often as
+     *
+     * @param index The index of the tag to leave out
+     * @return The lowest count, or 0 if there is no other top tag
+     */
+    private int lowestOtherCount(int index) {
+      int lowest = Integer.MAX_VALUE;
+      for (int i = 0; i < topSize; i++) {
+        if (i != index) {
+          lowest = Math.min(lowest, others.get(top[i]));
+        }
+      }
+      return lowest == Integer.MAX_VALUE ? 0 : lowest;
+    }
+
+    /**
+     * Returns the tags most often found with this one, sorting them again from all the counts if a
+     * change could not be kept in them
+     *
+     * @return The numbers of the tags, most often first
+     */
+    private int[] top() {
+      if (!topValid) {
+        PriorityQueue<Map.Entry<Integer, Integer>> kept = new PriorityQueue<>(
+            (first, second) -> Integer.compare(first.getValue(), second.getValue()));
+        for (Map.Entry<Integer, Integer> other : others.entrySet()) {
+          kept.add(other);
+          if (kept.size() > TOP) {
+            kept.poll();
+          }
+        }
+        topSize = kept.size();
+        for (int i = topSize - 1; i >= 0; i--) {
+          top[i] = kept.poll().getKey();
+        }
+        topValid = true;
+      }
+      return Arrays.copyOf(top, topSize);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * TagDictionary gives every distinct tag a small number, so that the catalog can keep the tags of
+ * an image as an array of numbers instead of a list of strings. Numbers are handed out in the order
+ * the tags are first seen and are never reused. The tags are also kept in a TagTree by their levels,
+ * so the tags under a tag such as place/europe are found by their numbers.
+ */
+class TagDictionary {
+
+  private final HashMap<String, Integer> idsByTag = new HashMap<>();
+  private final ArrayList<String> tagsById = new ArrayList<>();
+  private final TagTree tree = new TagTree();
+
+  /**
+   * Returns the number of the given tag, giving it a new number if it has not been seen before
+   *
+   * @param tag The tag
+   * @return The number of the tag
+   */
+  synchronized int getId(String tag) {
+    Integer id = idsByTag.get(tag);
+    if (id == null) {
+      id = tagsById.size();
+      idsByTag.put(tag, id);
+      tagsById.add(tag);
+      tree.add(tag, id);
+    }
+    return id;
+  }
+
+  /**
+   * Returns the number of the given tag without giving it one
+   *
+   * @param tag The tag
+   * @return The number of the tag, or -1 if the tag has not been seen before
+   */
+  synchronized int findId(String tag) {
+    Integer id = idsByTag.get(tag);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Returns the numbers of a tag and of every tag under it, such as place/europe/paris under
+   * place/europe. A level that was never a tag itself has no number, but the tags under it do
+   *
+   * @param tag The tag
+   * @return The numbers, which are none if no tag starts with the given levels
+   */
+  synchronized int[] findSubtreeIds(String tag) {
+    return tree.getSubtreeIds(tag);
+  }
+
+  /**
+   * Returns the tag with the given number
+   *
+   * @param id The number of the tag
+   * @return The tag
+   */
+  synchronized String getTag(int id) {
+    return tagsById.get(id);
+  }
+
+  /**
+   * Returns the numbers of the given tags, giving new numbers to tags that have not been seen
+   *
+   * @param tags The tags
+   * @return The numbers of the tags, in the same order
+   */
+  synchronized int[] getIds(List<String> tags) {
+    int[] ids = new int[tags.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = getId(tags.get(i));
+    }
+    return ids;
+  }
+
+  /**
+   * Returns the tags with the given numbers
+   *
+   * @param ids The numbers of the tags
+   * @return The tags, in the same order
+   */
+  synchronized ArrayList<String> getTags(int[] ids) {
+    ArrayList<String> tags = new ArrayList<>(ids.length);
+    for (int id : ids) {
+      tags.add(tagsById.get(id));
+    }
+    return tags;
+  }
+
+  /**
+   * Returns how many distinct tags have been given a number
+   *
+   * @return The number of distinct tags
+   */
+  synchronized int size() {
+    return tagsById.size();
+  }
+}
@@ -1,9 +1,20 @@
 package app.model;
 
 import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -20,21 +31,103 @@ import javafx.collections.ObservableList;
  */
 public class TagManager {
 
-  private HashMap<String, String> configOptions;
-  private ArrayList<ImageManager> listOfImageManagers;
-  private ArrayList<String> listOfTags;
+  private static final int QUERY_PLAN_CACHE_SIZE = 64;
+  static final int FUZZY_SEARCH_LIMIT = 200;
+
+  private ConfigStore configStore;
+  private TagDictionary tagDictionary;
+  private CatalogIndex catalogIndex;
+  private FileKeyIndex fileKeyIndex;
+  private SmartAlbums smartAlbums;
+  private SortKeys sortKeys;
+  private final TemporalIndex temporalIndex = new TemporalIndex(this::loadHistory);
+  private ImageManagerCache imageManagerCache;
+  private LinkedHashSet<String> listOfTags;
+  //The independent tags added and deleted since the list of tags was last stored
+  private final LinkedHashSet<String> addedTags = new LinkedHashSet<>();
+  private final LinkedHashSet<String> removedTags = new LinkedHashSet<>();
+  //Every tag weighted by the number of images with it, plus one for an independent tag, filled the
+  //first time a tag is completed
+  private final TagTrie tagTrie = new TagTrie();
+  private boolean tagTrieFilled;
+  //The independent tags arranged by their levels, filled the first time the tree is shown
+  private final TagTree independentTagTree = new TagTree();
+  private boolean independentTagTreeFilled;
+  //How often each pair of tags is on the same image, filled the first time tags are suggested
+  private final TagCooccurrence tagCooccurrence = new TagCooccurrence();
+  private boolean tagCooccurrenceFilled;
+  //The most recently used parsed queries, by their text
+  private final LinkedHashMap<String, TagQuery> queryPlans =
+      new LinkedHashMap<String, TagQuery>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TagQuery> eldest) {
+          return size() > QUERY_PLAN_CACHE_SIZE;
+        }
+      };
+  private int tagIngestDepth;
+  private boolean tagsListChanged;
   private static Logger logger = Logger.getLogger("Tagsta");
 
   /**
    * Creates a TagManager. First checks whether this is the first time a TagManager has been created
    * or this program has been run. If so, it sets the configuration settings to some defaults and
    * makes an empty list of ImageManagers and tags. If not, it gets the configuration details,
-   * ImageManagers, and tags list from storage using FileManager
+   * the index of stored images, and tags list from storage using FileManager. Unless lazy loading
+   * is turned off, ImageManagers are only loaded from storage once they are asked for
    */
   public TagManager() {
-    this.configOptions = FileManager.getConfigDetails();
-    this.listOfImageManagers = FileManager.loadImageManagers();
-    this.listOfTags = FileManager.loadTagsList();
+    this.configStore = new ConfigStore(FileManager.getConfigDetails());
+    this.tagDictionary = new TagDictionary();
+    this.catalogIndex = FileManager.loadCatalogIndex(this.tagDictionary);
+    this.catalogIndex.setTemporalIndex(this.temporalIndex);
+    this.fileKeyIndex = FileManager.loadFileKeys();
+    this.smartAlbums = FileManager.loadSmartAlbums();
+    //The images of the albums are only kept on disk while the program is closed
+    FileManager.storeSmartAlbums(this.smartAlbums, false);
+    this.sortKeys = FileManager.loadSortKeys();
+    boolean lazy = this.configStore.getBoolean("LAZY_LOADING");
+    this.imageManagerCache = new ImageManagerCache(
+        lazy ? this.configStore.getInt("IMAGE_CACHE_SIZE") : Integer.MAX_VALUE);
+    FileManager.setPersistenceBound(this.configStore.getLong("PERSIST_DELAY_MS"),
+        this.configStore.getInt("PERSIST_MAX_PENDING"));
+    if (!lazy) {
+      for (long id : this.catalogIndex.getIds()) {
+        this.materialize(id);
+      }
+    }
+    this.listOfTags = new LinkedHashSet<>(FileManager.loadTagsList());
+    FileManager.setCatalogChangeListener(new CatalogChangeListener() {
+      @Override
+      public void imageStored(long fileNumber, String name, String path) {
+        int[] tagIds = tagDictionary.getIds(ImageManager.parseTagList(name));
+        countTags(catalogIndex.put(fileNumber, path, tagIds), tagIds);
+        temporalIndex.record(fileNumber, TemporalIndex.now(), ImageManager.parseTagList(name));
+        smartAlbums.update(fileNumber, catalogIndex, tagDictionary);
+        //The other program may have changed the file as well
+        sortKeys.forget(fileNumber);
+        //The next time it is asked for, the ImageManager is loaded as the other program stored it
+        imageManagerCache.remove(fileNumber);
+      }
+
+      @Override
+      public void imageDeleted(long fileNumber) {
+        countTags(catalogIndex.remove(fileNumber), null);
+        smartAlbums.remove(fileNumber);
+        temporalIndex.remove(fileNumber);
+        sortKeys.forget(fileNumber);
+        fileKeyIndex.remove(fileNumber);
+        imageManagerCache.remove(fileNumber);
+      }
+
+      @Override
+      public void catalogReplaced(Set<Long> fileNumbers) {
+        for (long id : catalogIndex.getIds()) {
+          if (!fileNumbers.contains(id)) {
+            this.imageDeleted(id);
+          }
+        }
+      }
+    });
     FileManager.createLogHandler();
     //Sets the default config options.
     logger.setUseParentHandlers(false);
@@ -50,12 +143,17 @@ public class TagManager {
     //Removes the file extension from the file name
     String fileName = file.getPath();
     fileName = fileName.substring(0, fileName.lastIndexOf("."));
-    ObservableList<String> tagList;
     //Calls helper method to parse the tags
-    tagList = ImageManager.parseTags(fileName);
+    this.addIndependentTags(ImageManager.parseTagList(fileName));
+  }
 
+  /**
+   * Adds the given tags that are not in the independent tags list yet to the list
+   * @param tags The tags to add
+   */
+  void addIndependentTags(Collection<String> tags){
     //If the tags are already in tagList then do not add them to the list
-    for(String tag: tagList) {
+    for(String tag: tags) {
       if(!this.listOfTags.contains(tag))
         this.addIndependentTag(tag);
     }
@@ -70,17 +168,294 @@ public class TagManager {
     tag = tag.trim();
     if(TagManager.isValidTag(this.listOfTags, tag)) {
         listOfTags.add(tag);
+        this.countIndependentTag(tag, 1);
+        this.addedTags.add(tag);
+        this.removedTags.remove(tag);
+        this.storeTagsList();
       }
-    FileManager.storeTagsList(this.listOfTags);
   }
 
   /**
-   * Returns the ImageManagers in TagManager
+   * Starts adding a batch of independent tags, such as all the tags found while opening a
+   * directory. Until finishTagIngest is called, new tags are only collected in memory and the list
+   * of tags is saved once at the end. Batches can be nested
+   */
+  public void startTagIngest(){
+    this.tagIngestDepth++;
+  }
+
+  /**
+   * Finishes a batch of independent tags started with startTagIngest, saving the list of tags if
+   * any tag was added or deleted during the batch
+   */
+  public void finishTagIngest(){
+    this.tagIngestDepth--;
+    if (this.tagIngestDepth == 0 && this.tagsListChanged) {
+      this.storeTagsList();
+    }
+  }
+
+  /**
+   * Saves the changes to the list of independent tags, or marks them to be saved at the end of the
+   * current batch. The tags other programs added or deleted in the meantime are picked up
+   */
+  private void storeTagsList(){
+    if (this.tagIngestDepth > 0) {
+      this.tagsListChanged = true;
+    } else {
+      this.writeTagsList();
+    }
+  }
+
+  /**
+   * Saves the changes to the list of independent tags now, even in the middle of a batch. The tags
+   * other programs added or deleted in the meantime are picked up
+   */
+  private void writeTagsList(){
+    this.tagsListChanged = false;
+    ArrayList<String> stored = FileManager.storeTagsList(this.addedTags, this.removedTags);
+    //Keeps the changes to be saved again next time if they could not be saved
+    if (stored != null) {
+      LinkedHashSet<String> storedTags = new LinkedHashSet<>(stored);
+      //Counts the tags other programs added or deleted in the meantime
+      for (String tag : this.listOfTags) {
+        if (!storedTags.contains(tag)) {
+          this.countIndependentTag(tag, -1);
+        }
+      }
+      for (String tag : storedTags) {
+        if (!this.listOfTags.contains(tag)) {
+          this.countIndependentTag(tag, 1);
+        }
+      }
+      this.listOfTags = storedTags;
+      this.addedTags.clear();
+      this.removedTags.clear();
+    }
+  }
+
+  /**
+   * Returns the ImageManagers in TagManager. Every ImageManager that is not loaded yet is loaded
    * @return The list of ImageManagers
    */
   public ObservableList<ImageManager> getImageManagers() {
+    ArrayList<ImageManager> imageManagers = new ArrayList<>(this.catalogIndex.size());
+    for (long id : this.catalogIndex.getIds()) {
+      ImageManager imageManager = this.materialize(id);
+      if (imageManager != null) {
+        imageManagers.add(imageManager);
+      }
+    }
     //JavaFX requires observable list to display
-    return FXCollections.observableArrayList(listOfImageManagers);
+    return FXCollections.observableArrayList(imageManagers);
+  }
+
+  /**
+   * Returns the ImageManagers of the images that have every one of the given tags. The images are
+   * found in the index of tags, so only the ImageManagers returned are loaded
+   * @param tags The tags the images must have
+   * @return The list of ImageManagers with all of the tags
+   */
+  public ObservableList<ImageManager> getImageManagersWithTags(Collection<String> tags) {
+    ArrayList<ImageManager> imageManagers = new ArrayList<>();
+    this.findImagesWithTags(tags).forEach(id -> {
+      ImageManager imageManager = this.materialize(id);
+      if (imageManager != null) {
+        imageManagers.add(imageManager);
+      }
+    });
+    return FXCollections.observableArrayList(imageManagers);
+  }
+
+  /**
+   * Returns the ImageManagers of the images matching a query such as
+   * beach AND (2019 OR summer) AND NOT blurry, with path:, name: and ext: for the paths of the
+   * images. The list loads an ImageManager only when it is asked for, and an empty query lists
+   * every image. Parsed queries are kept, so typing a query again does not parse it again. When a
+   * query of plain words matches no image, the images whose names are closest to the words,
+   * allowing for typos, are returned instead
+   * @param query The query
+   * @return The list of ImageManagers matching the query
+   * @throws ParseException Thrown when the query is not well formed
+   */
+  public ObservableList<ImageManager> search(String query) throws ParseException {
+    return this.search(query, SortOrder.CATALOG, false);
+  }
+
+  /**
+   * Returns the ImageManagers of the images matching a query, as search does, in an order. Only the
+   * first page of the images is put in order right away, and the others as they are asked for. The
+   * times the images are sorted by are read from the files of the images the first time they are
+   * needed and kept after that
+   * @param query The query
+   * @param order The order of the images
+   * @param reversed Whether to list the images in the reverse of the order
+   * @return The list of ImageManagers matching the query
+   * @throws ParseException Thrown when the query is not well formed
+   */
+  public ObservableList<ImageManager> search(String query, SortOrder order, boolean reversed)
+      throws ParseException {
+    long[] ids;
+    if (query.trim().isEmpty()) {
+      ids = this.catalogIndex.getAllImages().toArray();
+    } else {
+      TagQuery plan = this.getQueryPlan(query.trim());
+      ids = plan.run(this.catalogIndex, this.tagDictionary).toArray();
+      if (ids.length == 0 && plan.isPlainWords()) {
+        ids = this.catalogIndex.findSimilarNames(query, FUZZY_SEARCH_LIMIT);
+      }
+    }
+    if (order == SortOrder.CATALOG) {
+      return new ImageManagerList(ids, this::materialize);
+    }
+    IncrementalSort sort;
+    try {
+      sort = this.sortKeys.sort(ids, order, reversed, this.catalogIndex, () -> false);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return new ImageManagerList(ids, this::materialize);
+    }
+    return new ImageManagerList(sort, this::materialize);
+  }
+
+  /**
+   * Creates an ImageSearch that runs the queries typed in a search window on a background thread,
+   * a short while after typing stops
+   * @param uiThread Runs the given code on the thread that may change what is shown
+   * @param onResults Given the list of the images found once a query has found its first images or
+   * found none, to which the rest of the images are added as they are found. When the images are
+   * sorted, the list is given once they are all found
+   * @param onError Given the problem with a query that is not well formed
+   * @param onFacets Given how many of the images found so far have each of the most common tags,
+   * folders and extensions, each time more images are found
+   * @return The ImageSearch
+   */
+  public ImageSearch createSearch(Executor uiThread,
+      Consumer<ObservableList<ImageManager>> onResults, Consumer<ParseException> onError,
+      Consumer<FacetCounts> onFacets) {
+    return new ImageSearch(this, this.catalogIndex, this.tagDictionary, this.sortKeys,
+        this::materialize, this.configStore.getLong("SEARCH_DELAY_MS"), uiThread, onResults,
+        onError, onFacets);
+  }
+
+  /**
+   * Creates a DirectoryScanner that finds the images in a folder and the folders under it on
+   * background threads, adding the tags in their names to the independent tags as it goes
+   * @param directory The folder to scan
+   * @param uiThread Runs the given code on the thread that may change what is shown
+   * @param onFolders Given each batch of folders listed, each folder after the folder it is in
+   * @param onDone Given whether the scan finished, rather than being cancelled, once it ends
+   * @return The DirectoryScanner, which starts scanning when start is called
+   */
+  public DirectoryScanner createDirectoryScan(File directory, Executor uiThread,
+      Consumer<List<DirectoryScanner.Folder>> onFolders, Consumer<Boolean> onDone) {
+    return new DirectoryScanner(this, directory, uiThread, onFolders, onDone);
+  }
+
+  /**
+   * Saves a query as a smart album, replacing any album with the same name. The images of the album
+   * are found the first time it is opened and kept up to date as images change after that
+   * @param name The name of the album
+   * @param query The query, as given to search
+   * @throws ParseException Thrown when the query is not well formed
+   */
+  public void saveAlbum(String name, String query) throws ParseException {
+    this.smartAlbums.save(name, query.trim());
+    FileManager.storeSmartAlbums(this.smartAlbums, false);
+  }
+
+  /**
+   * Deletes a smart album. The images in it are not changed
+   * @param name The name of the album
+   */
+  public void deleteAlbum(String name) {
+    if (this.smartAlbums.delete(name)) {
+      FileManager.storeSmartAlbums(this.smartAlbums, false);
+    }
+  }
+
+  /**
+   * Returns the names of the smart albums, in the order they were saved
+   * @return The names
+   */
+  public List<String> getAlbumNames() {
+    return this.smartAlbums.getNames();
+  }
+
+  /**
+   * Returns the query of a smart album
+   * @param name The name of the album
+   * @return The query, or null if there is no album with the name
+   */
+  public String getAlbumQuery(String name) {
+    return this.smartAlbums.getQuery(name);
+  }
+
+  /**
+   * Returns the ImageManagers of the images in a smart album. Only the first time an album is
+   * opened are its images searched for; after that this takes as long as listing them
+   * @param name The name of the album
+   * @return The list of ImageManagers, which is empty if there is no album with the name
+   */
+  public ObservableList<ImageManager> openAlbum(String name) {
+    long[] ids = this.smartAlbums.getImages(name, this.catalogIndex, this.tagDictionary);
+    return new ImageManagerList(ids == null ? new long[0] : ids, this::materialize);
+  }
+
+  /**
+   * Returns the ImageManagers of the images whose names are closest to the text typed, allowing for
+   * typos, so "aunt jnue" finds "aunt june". Both the file names and the tags in them are searched
+   * @param text The text typed
+   * @param limit The most ImageManagers to return
+   * @return The list of ImageManagers, closest first
+   */
+  public ObservableList<ImageManager> findSimilarNames(String text, int limit) {
+    long[] ids = this.catalogIndex.findSimilarNames(text, limit);
+    return new ImageManagerList(ids, this::materialize);
+  }
+
+  /**
+   * Returns the parsed query for the text of a query, parsing it if it was not used recently
+   * @param query The text of the query
+   * @return The parsed query
+   * @throws ParseException Thrown when the query is not well formed
+   */
+  TagQuery getQueryPlan(String query) throws ParseException {
+    synchronized (this.queryPlans) {
+      TagQuery plan = this.queryPlans.get(query);
+      if (plan == null) {
+        plan = TagQuery.parse(query);
+        this.queryPlans.put(query, plan);
+      }
+      return plan;
+    }
+  }
+
+  /**
+   * Returns how many images have every one of the given tags, without loading any ImageManager
+   * @param tags The tags the images must have
+   * @return The number of images with all of the tags
+   */
+  public int countImagesWithTags(Collection<String> tags) {
+    return this.findImagesWithTags(tags).cardinality();
+  }
+
+  /**
+   * Returns the numbers of the ImageManagers of the images that have every one of the given tags
+   * @param tags The tags the images must have
+   * @return The set of the numbers of the ImageManagers
+   */
+  CompressedBitmap findImagesWithTags(Collection<String> tags) {
+    int[] tagIds = new int[tags.size()];
+    int i = 0;
+    for (String tag : tags) {
+      tagIds[i] = this.tagDictionary.findId(tag);
+      //No image can have a tag that was never seen
+      if (tagIds[i++] == -1) {
+        return new CompressedBitmap();
+      }
+    }
+    return this.catalogIndex.getImagesWithTags(tagIds);
   }
 
   static Logger getLogger() {
@@ -92,9 +467,148 @@ public class TagManager {
    * @param tag The tag to delete
    */
   public void deleteIndependentTag(String tag) {
-    listOfTags.remove(tag);
     //Updates the list of tags save file
-    FileManager.storeTagsList(this.listOfTags);
+    if (listOfTags.remove(tag)) {
+      this.countIndependentTag(tag, -1);
+      this.removedTags.add(tag);
+      this.addedTags.remove(tag);
+      this.storeTagsList();
+    }
+  }
+
+  /**
+   * Returns the tags that start with the text typed, the tags of the most images first. Both the
+   * tags of images and the independent tags are suggested
+   * @param prefix The start of the tag typed
+   * @param limit The most tags to return
+   * @return The tags
+   */
+  public List<String> completeTag(String prefix, int limit) {
+    synchronized (this.tagTrie) {
+      if (!this.tagTrieFilled) {
+        int[] counts = this.catalogIndex.countImagesByTag(this.tagDictionary.size());
+        for (int tagId = 0; tagId < counts.length; tagId++) {
+          this.tagTrie.adjust(this.tagDictionary.getTag(tagId), counts[tagId]);
+        }
+        for (String tag : this.listOfTags) {
+          this.tagTrie.adjust(tag, 1);
+        }
+        this.tagTrieFilled = true;
+      }
+    }
+    return this.tagTrie.complete(prefix, limit);
+  }
+
+  /**
+   * Returns the tags most likely to be added next to an image, judging by the other images with
+   * the tags it has. Tags the image has are not suggested
+   * @param imageManager The ImageManager of the image
+   * @param limit The most tags to return
+   * @return The tags, most likely first
+   */
+  public List<String> suggestTags(ImageManager imageManager, int limit) {
+    synchronized (this.tagCooccurrence) {
+      if (!this.tagCooccurrenceFilled) {
+        for (long id : this.catalogIndex.getIds()) {
+          this.tagCooccurrence.update(null, this.catalogIndex.getTagIds(id));
+        }
+        this.tagCooccurrenceFilled = true;
+      }
+    }
+    int[] tagIds = this.tagDictionary.getIds(imageManager.getTags());
+    return this.tagDictionary.getTags(this.tagCooccurrence.suggest(tagIds, limit));
+  }
+
+  /**
+   * Updates the weights of the tags an image lost or gained for completing tags, and the pairs of
+   * tags on the image for suggesting tags
+   * @param oldTagIds The numbers of the tags the image had, or null if it was not in the index
+   * @param newTagIds The numbers of the tags the image has, or null if it was removed
+   */
+  private void countTags(int[] oldTagIds, int[] newTagIds) {
+    synchronized (this.tagCooccurrence) {
+      if (this.tagCooccurrenceFilled) {
+        this.tagCooccurrence.update(oldTagIds, newTagIds);
+      }
+    }
+    synchronized (this.tagTrie) {
+      if (!this.tagTrieFilled) {
+        return;
+      }
+      if (oldTagIds != null) {
+        for (int tagId : oldTagIds) {
+          if (newTagIds == null || !CatalogIndex.contains(newTagIds, tagId)) {
+            this.tagTrie.adjust(this.tagDictionary.getTag(tagId), -1);
+          }
+        }
+      }
+      if (newTagIds != null) {
+        for (int tagId : newTagIds) {
+          if (oldTagIds == null || !CatalogIndex.contains(oldTagIds, tagId)) {
+            this.tagTrie.adjust(this.tagDictionary.getTag(tagId), 1);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Updates the weight of an independent tag that was added or deleted for completing tags
+   * @param tag The tag
+   * @param change 1 if the tag was added, -1 if it was deleted
+   */
+  private void countIndependentTag(String tag, int change) {
+    synchronized (this.tagTrie) {
+      if (this.tagTrieFilled) {
+        this.tagTrie.adjust(tag, change);
+      }
+    }
+    synchronized (this.independentTagTree) {
+      if (this.independentTagTreeFilled) {
+        if (change > 0) {
+          this.independentTagTree.add(tag, 0);
+        } else {
+          this.independentTagTree.remove(tag);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the levels right under an independent tag, such as place/europe under place, so the
+   * independent tags can be shown as a tree one level at a time. A level may only be there for the
+   * tags under it
+   * @param tag The tag, or an empty string for the top levels
+   * @return The whole tags of the levels, sorted by name
+   */
+  public List<String> getTagChildren(String tag){
+    return this.getIndependentTagTree().getChildren(tag);
+  }
+
+  /**
+   * Returns whether there are independent tags under a tag
+   * @param tag The tag
+   * @return Whether the tag has levels under it
+   */
+  public boolean hasTagChildren(String tag){
+    return this.getIndependentTagTree().hasChildren(tag);
+  }
+
+  /**
+   * Returns the tree of the independent tags, filling it from the list of independent tags the
+   * first time
+   * @return The tree
+   */
+  private TagTree getIndependentTagTree(){
+    synchronized (this.independentTagTree) {
+      if (!this.independentTagTreeFilled) {
+        for (String tag : this.listOfTags) {
+          this.independentTagTree.add(tag, 0);
+        }
+        this.independentTagTreeFilled = true;
+      }
+    }
+    return this.independentTagTree;
   }
 
   /**
@@ -115,57 +629,255 @@ public class TagManager {
    * settings
    */
   public String getConfigOption(String option) {
-    //Gets all config options.
-    for (String key : this.configOptions.keySet()) {
-      if (key.equals(option)) {
-        return this.configOptions.get(key);
-      }
-    }
-    //If they do not exist yet return null so the program knows to create them.
-    return null;
+    return this.configStore.get(option);
+  }
+
+  /**
+   * Gets the value to the given config option as a boolean
+   *
+   * @param option The config option whose value is desired
+   * @return Whether the value of the config option is "true"
+   */
+  public boolean getBooleanConfigOption(String option) {
+    return this.configStore.getBoolean(option);
   }
 
   /**
    * Sets the value to the given config option in TagManager and does nothing if there is no such
-   * option in the config settings
+   * option in the config settings. The config file is written shortly after in the background
    *
    * @param option The config option whose value is to be set
    * @param value The value to be set
    */
   public void setConfigOption(String option, String value) {
-    //Stores all config options.
-    for (String key : this.configOptions.keySet()) {
-      if (key.equals(option)) {
-        this.configOptions.put(key, value);
-      }
+    this.configStore.set(option, value);
+  }
+
+  /**
+   * Writes all unsaved settings and changes to ImageManagers to the disk, checkpoints the catalog
+   * so the next start is fast, and closes the catalog. Called when the program closes, which may be
+   * in the middle of a directory scan, so the tags the scan found so far are saved as well
+   */
+  public void close() {
+    if (this.tagsListChanged) {
+      this.writeTagsList();
     }
-    FileManager.storeConfig(this.configOptions);
+    this.configStore.flush();
+    FileManager.storeCheckpoint(this.catalogIndex, this.tagDictionary);
+    FileManager.storeFileKeys(this.fileKeyIndex);
+    FileManager.storeSmartAlbums(this.smartAlbums, true);
+    FileManager.storeSortKeys(this.sortKeys);
+    FileManager.closeCatalog();
   }
 
   /**
    * Returns the ImageManager object corresponding to the path of the given file. If such an
-   * ImageManager does not exist, it is created and returned
+   * ImageManager does not exist, the file may be an image renamed or moved by another program,
+   * which is found by the file key of the file. Otherwise an ImageManager is created and returned
    *
    * @param file The file whose path corresponds to an ImageManager
-   * @return The ImageManager that corresponds to the given file's path
+   * @return The ImageManager that corresponds to the given file's path, or null if the catalog has
+   * one for the path that could not be loaded
    */
   public ImageManager getImageManager(File file) {
-    //If the imageManager is already in the list of ImageMangers return it instead of creating new one.
-    for (ImageManager imageManager : this.listOfImageManagers) {
-      if (imageManager.returnPath().toString().equals(file.getPath())) {
+    //Paths are stored absolute and without . or .., so every spelling of a path finds the image
+    Path path = file.toPath().toAbsolutePath().normalize();
+    //If the imageManager is already in the catalog return it instead of creating new one.
+    long id = this.catalogIndex.findId(path.toString());
+    if (id == -1 && !path.toString().equals(file.getPath())) {
+      id = this.catalogIndex.findId(file.getPath());
+    }
+    if (id != -1) {
+      ImageManager imageManager = this.materialize(id);
+      if (imageManager != null) {
+        //The file may have been changed since its times were read
+        this.sortKeys.forget(id);
+        if (!this.fileKeyIndex.contains(id)) {
+          this.rememberFileKey(id, path);
+        }
         return imageManager;
       }
+      //The error was reported, and another ImageManager for the path would leave this one orphaned
+      return null;
+    }
+    String key = FileKeyIndex.fileKey(path);
+    ImageManager moved = key == null ? null : this.findMovedImage(key);
+    if (moved != null) {
+      moved.relink(path);
+      return moved;
     }
     //If imageManager doesn't exist yet, create new one.
-    ImageManager temp = new ImageManager(Paths.get(file.getPath()));
-    this.listOfImageManagers.add(temp);
+    ImageManager temp = new ImageManager(path);
     FileManager.storeImageManager(temp);
+    temp.setChangeListener(this::imageChanged);
+    this.imageManagerCache.put(temp);
+    this.imageChanged(temp);
+    if (key != null) {
+      this.fileKeyIndex.put(temp.getFileNumber(), key);
+    }
     return temp;
   }
 
-  static boolean isValidTag(ArrayList<String> list, String tag){
-    //Only accepts non special characters for file name.
-    boolean valid = tag.matches("^[a-zA-Z0-9_ ]*$");
+  /**
+   * Finds the image whose file had a file key, if the file has left the path it had in the catalog
+   *
+   * @param key The file key of a file that is not at the path of any image
+   * @return The ImageManager of the image, or null if no image in the catalog had the file
+   */
+  private ImageManager findMovedImage(String key) {
+    long id = this.fileKeyIndex.findId(key);
+    if (id == -1) {
+      return null;
+    }
+    String oldPath = this.catalogIndex.getPath(id);
+    //A file still at its old path is another file that got the key, or a link to the same file
+    if (oldPath == null || Files.exists(Paths.get(oldPath))) {
+      this.fileKeyIndex.remove(id);
+      return null;
+    }
+    return this.materialize(id);
+  }
+
+  /**
+   * Remembers the file key of the file of an image, if the file system has file keys
+   *
+   * @param id The number of the ImageManager of the image
+   * @param path The path of its file
+   */
+  private void rememberFileKey(long id, Path path) {
+    String key = FileKeyIndex.fileKey(path);
+    if (key != null) {
+      this.fileKeyIndex.put(id, key);
+    }
+  }
+
+  /**
+   * Returns the ImageManager with the given number, loading it from storage if it is not loaded
+   *
+   * @param id The number of the ImageManager
+   * @return The ImageManager, or null if it could not be loaded
+   */
+  private synchronized ImageManager materialize(long id) {
+    ImageManager imageManager = this.imageManagerCache.get(id);
+    if (imageManager == null) {
+      imageManager = FileManager.loadImageManager(id);
+      if (imageManager != null) {
+        imageManager.setChangeListener(this::imageChanged);
+        this.imageManagerCache.put(imageManager);
+      }
+    }
+    return imageManager;
+  }
+
+  /**
+   * Returns the naming history of an image, from its ImageManager if it is loaded, so entries not
+   * stored yet are in it, or else from the catalog without keeping the ImageManager loaded
+   *
+   * @param id The number of the ImageManager
+   * @return The naming history, or null if it could not be loaded
+   */
+  private NameHistory loadHistory(long id) {
+    ImageManager imageManager = this.imageManagerCache.get(id);
+    if (imageManager != null) {
+      //The loaded ImageManager may be changed on another thread while the history is read
+      return imageManager.copyHistory();
+    }
+    imageManager = FileManager.loadImageManager(id);
+    return imageManager == null ? null : imageManager.getHistory();
+  }
+
+  /**
+   * Updates the index of stored images after the path or the tags of an ImageManager changed
+   *
+   * @param imageManager The ImageManager that changed
+   */
+  private void imageChanged(ImageManager imageManager) {
+    int[] tagIds = this.tagDictionary.getIds(imageManager.getTags());
+    this.countTags(this.catalogIndex.put(imageManager.getFileNumber(),
+        imageManager.returnPath().toString(), tagIds), tagIds);
+    this.temporalIndex.update(imageManager.getFileNumber(), imageManager.copyHistory());
+    this.smartAlbums.update(imageManager.getFileNumber(), this.catalogIndex, this.tagDictionary);
+  }
+
+  /**
+   * Checks every image in the catalog against the disk. Images whose files no longer exist are
+   * moved to the quarantine, and images pointing at the same file are merged into one that keeps
+   * the naming history of all of them. The catalog is compacted afterwards. This takes a while for
+   * a large catalog, so it should not be run on the JavaFX thread
+   *
+   * @param dryRun Whether to only report what would be changed
+   * @param progress Told the fraction of the images checked so far, from background threads
+   * @return What was found
+   * @throws InterruptedException Thrown when the thread is interrupted while images are checked
+   */
+  public ReconciliationReport reconcile(boolean dryRun, DoubleConsumer progress)
+      throws InterruptedException {
+    long[] ids = this.catalogIndex.getIds();
+    String[] paths = new String[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      paths[i] = this.catalogIndex.getPath(ids[i]);
+    }
+    ReconciliationReport report = CatalogReconciler.check(ids, paths, dryRun, progress);
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (dryRun) {
+      return report;
+    }
+    for (long[] duplicates : report.getDuplicateIds()) {
+      ImageManager kept = this.materialize(duplicates[0]);
+      if (kept == null) {
+        continue;
+      }
+      ArrayList<String> history = new ArrayList<>(kept.getPrevNames());
+      for (int i = 1; i < duplicates.length; i++) {
+        ImageManager duplicate = this.materialize(duplicates[i]);
+        if (duplicate != null) {
+          history.addAll(duplicate.getPrevNames());
+          FileManager.deleteImageManager(duplicate);
+          this.forget(duplicate);
+        }
+      }
+      kept.mergeHistory(history);
+    }
+    CatalogJournal quarantine =
+        report.getOrphanIds().isEmpty() ? null : FileManager.openQuarantine();
+    if (quarantine != null) {
+      try {
+        for (long id : report.getOrphanIds()) {
+          ImageManager orphan = this.materialize(id);
+          if (orphan != null && FileManager.quarantineImageManager(quarantine, orphan)) {
+            this.forget(orphan);
+          }
+        }
+      } finally {
+        FileManager.closeQuarantine(quarantine);
+      }
+    }
+    FileManager.compactCatalog();
+    logger.log(Level.INFO, "Reconciled the catalog: " + report.getOrphanIds().size()
+        + " orphans quarantined, " + report.getDuplicateIds().size() + " duplicates merged.");
+    return report;
+  }
+
+  /**
+   * Removes an ImageManager that was removed from the catalog from the index and the cache
+   *
+   * @param imageManager The removed ImageManager
+   */
+  private void forget(ImageManager imageManager) {
+    imageManager.setChangeListener(null);
+    this.countTags(this.catalogIndex.remove(imageManager.getFileNumber()), null);
+    this.smartAlbums.remove(imageManager.getFileNumber());
+    this.temporalIndex.remove(imageManager.getFileNumber());
+    this.sortKeys.forget(imageManager.getFileNumber());
+    this.fileKeyIndex.remove(imageManager.getFileNumber());
+    this.imageManagerCache.remove(imageManager.getFileNumber());
+  }
+
+  static boolean isValidTag(Collection<String> list, String tag){
+    //Only accepts non special characters for file name, and '/' between the levels of a tag.
+    boolean valid = tag.matches("^([a-zA-Z0-9_ ]+(/[a-zA-Z0-9_ ]+)*)?$");
     if (!valid) {
       ExceptionDialogPopup
               .createExceptionPopup("Error adding tag", "That tag contains an illegal character");
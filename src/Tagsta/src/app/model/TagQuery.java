@@ -0,0 +1,909 @@
+package app.model;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TagQuery is a search for images by their tags, such as beach AND (2019 OR summer) AND NOT blurry.
+ * A word on its own is a tag, and tags with spaces are put in quotes. Terms are combined with AND,
+ * OR and NOT and grouped with parentheses; terms written next to each other must all match, and
+ * AND binds tighter than OR. A tag with levels, such as place/europe, also matches the images with
+ * the tags under it, such as place/europe/paris. Besides tags, a term can be one of the predicates
+ * <ul>
+ * <li>path:text, for images whose path contains the text</li>
+ * <li>name:text, for images whose file name contains the text</li>
+ * <li>ext:jpg, for images with the given file extension</li>
+ * <li>is:untagged, for images without any tag</li>
+ * <li>had:beach@2023-05-01, for images that had a tag at some time on a day, or at a time such as
+ * 2023-05-01T14:30, or at any time with had:beach</li>
+ * <li>changed:1h, for images renamed or tagged in the last minutes (m), hours (h), days (d) or
+ * weeks (w), or since a day or time such as changed:2023-05-01</li>
+ * </ul>
+ * which, but for the tag of had:, are not case sensitive. had: and changed: are answered from the
+ * naming histories of the images kept by TemporalIndex.
+ *
+ * <p>A query is parsed once into a tree of terms and then run as operations on the sets of images
+ * kept by CatalogIndex for every tag and file extension. The parts of an AND that can be answered
+ * from those sets are run first, and path: and name:, which look at the path of every image they
+ * are given, are only run on the images left after them.
+ */
+class TagQuery {
+
+  private final Node root;
+  private final boolean plainWords;
+  private final boolean historical;
+
+  /**
+   * Creates a TagQuery
+   *
+   * @param root The term the query is made of
+   * @param plainWords Whether the query is only words
+   * @param historical Whether the query asks about the naming histories of the images
+   */
+  private TagQuery(Node root, boolean plainWords, boolean historical) {
+    this.root = root;
+    this.plainWords = plainWords;
+    this.historical = historical;
+  }
+
+  /**
+   * Parses a query
+   *
+   * @param query The text of the query
+   * @return The parsed query
+   * @throws ParseException Thrown when the query is not well formed, with the position of the
+   * problem
+   */
+  static TagQuery parse(String query) throws ParseException {
+    Parser parser = new Parser(query);
+    Node root = parser.parseOr();
+    if (parser.peek() != null) {
+      throw new ParseException("Unexpected " + parser.peek().text, parser.peek().position);
+    }
+    return new TagQuery(root, parser.isPlainWords(), parser.historical);
+  }
+
+  /**
+   * Finds the images that match the query
+   *
+   * @param index The index of the images
+   * @param dictionary The numbers of the tags
+   * @return The numbers of the ImageManagers of the matching images
+   */
+  CompressedBitmap run(CatalogIndex index, TagDictionary dictionary) {
+    return root.evaluate(index, dictionary);
+  }
+
+  /**
+   * Finds the images out of the given ones that match the query
+   *
+   * @param index The index of the images
+   * @param dictionary The numbers of the tags
+   * @param candidates The numbers of the ImageManagers of the images to look at
+   * @return The numbers of the ImageManagers of the matching images
+   */
+  CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+      CompressedBitmap candidates) {
+    return root.filter(index, dictionary, candidates);
+  }
+
+  /**
+   * Returns whether every image this query matches is sure to be matched by another query, as when
+   * a term is added to a query or a path: or name: term is typed further. The images of the other
+   * query can then be searched instead of every image
+   *
+   * @param wider The other query
+   * @return Whether this query only narrows the other one down
+   */
+  boolean narrows(TagQuery wider) {
+    for (Node widerTerm : terms(wider.root)) {
+      boolean implied = false;
+      for (Node term : terms(root)) {
+        implied |= term.implies(widerTerm);
+      }
+      if (!implied) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the terms that all have to match for a term to match
+   *
+   * @param node The term
+   * @return The terms of an AND, or the term itself
+   */
+  private static ArrayList<Node> terms(Node node) {
+    if (node instanceof AndNode) {
+      return ((AndNode) node).terms;
+    }
+    ArrayList<Node> terms = new ArrayList<>();
+    terms.add(node);
+    return terms;
+  }
+
+  /**
+   * Returns whether the query is only words, with no operators, predicates, quotes or parentheses,
+   * so it may just as well be a name typed as a list of tags
+   *
+   * @return Whether the query is plain words
+   */
+  boolean isPlainWords() {
+    return plainWords;
+  }
+
+  /**
+   * Returns whether the query has had: or changed: terms, whose images can change without the
+   * images themselves changing, as time goes by
+   *
+   * @return Whether the query asks about the naming histories of the images
+   */
+  boolean isHistorical() {
+    return historical;
+  }
+
+  /**
+   * Returns the query in a normal form, with every group in parentheses and the parts of every AND
+   * in the order they are run
+   *
+   * @return The query
+   */
+  @Override
+  public String toString() {
+    return root.toString();
+  }
+
+  /**
+   * One term of a query and the terms it is made of
+   */
+  private abstract static class Node {
+
+    /**
+     * Finds every image that matches the term
+     *
+     * @param index The index of the images
+     * @param dictionary The numbers of the tags
+     * @return The numbers of the ImageManagers of the matching images
+     */
+    abstract CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary);
+
+    /**
+     * Finds the images out of the given ones that match the term
+     *
+     * @param index The index of the images
+     * @param dictionary The numbers of the tags
+     * @param candidates The numbers of the ImageManagers of the images to look at
+     * @return The numbers of the ImageManagers of the matching images
+     */
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      return candidates.and(evaluate(index, dictionary));
+    }
+
+    /**
+     * Returns how costly the term is to run compared to others; terms that only use the sets of
+     * images by tag cost less than the ones looking at paths
+     *
+     * @return The cost of the term
+     */
+    abstract int cost();
+
+    /**
+     * Returns whether every image the term matches is sure to be matched by another term
+     *
+     * @param other The other term
+     * @return Whether the term implies the other one
+     */
+    boolean implies(Node other) {
+      return toString().equals(other.toString());
+    }
+  }
+
+  /**
+   * A term that matches the images with a tag or any tag under it
+   */
+  private static class TagNode extends Node {
+
+    private final String tag;
+
+    /**
+     * Creates a TagNode
+     *
+     * @param tag The tag
+     */
+    private TagNode(String tag) {
+      this.tag = tag;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      int[] tagIds = dictionary.findSubtreeIds(tag);
+      //Most tags have no tags under them, and their set is copied instead of merged
+      return tagIds.length == 1
+          ? index.getImagesWithTag(tagIds[0]) : index.getImagesWithAnyTag(tagIds);
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      int[] tagIds = dictionary.findSubtreeIds(tag);
+      return tagIds.length == 1 ? index.getImagesWithTag(tagIds[0], candidates)
+          : index.getImagesWithAnyTag(tagIds, candidates);
+    }
+
+    @Override
+    int cost() {
+      return 1;
+    }
+
+    @Override
+    public String toString() {
+      return tag.matches("[a-zA-Z0-9_/]+") && !Parser.isOperator(tag) ? tag : "\"" + tag + "\"";
+    }
+  }
+
+  /**
+   * A term that matches the images whose path passes a test
+   */
+  private static class PredicateNode extends Node {
+
+    private final String field;
+    private final String value;
+
+    /**
+     * Creates a PredicateNode
+     *
+     * @param field The part of the path looked at: path or name
+     * @param value The text looked for, in lower case
+     */
+    private PredicateNode(String field, String value) {
+      this.field = field;
+      this.value = value;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      return filter(index, dictionary, index.getAllImages());
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      return index.filterPaths(candidates, this::matches);
+    }
+
+    /**
+     * Returns whether a path passes the test
+     *
+     * @param path The path of an image
+     * @return Whether the path passes
+     */
+    private boolean matches(String path) {
+      if (field.equals("path")) {
+        return containsIgnoreCase(path, 0);
+      }
+      return containsIgnoreCase(path,
+          Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1);
+    }
+
+    /**
+     * Returns whether the text looked for is in a path from a position on, whatever its case
+     *
+     * @param path The path of an image
+     * @param from Where to start looking
+     * @return Whether the text is in the path
+     */
+    private boolean containsIgnoreCase(String path, int from) {
+      for (int i = from; i <= path.length() - value.length(); i++) {
+        if (path.regionMatches(true, i, value, 0, value.length())) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    int cost() {
+      return 3;
+    }
+
+    @Override
+    boolean implies(Node other) {
+      if (!(other instanceof PredicateNode)) {
+        return false;
+      }
+      //The name is the end of the path, so text in the name is in the path as well
+      PredicateNode predicate = (PredicateNode) other;
+      return (field.equals(predicate.field) || predicate.field.equals("path"))
+          && value.contains(predicate.value);
+    }
+
+    @Override
+    public String toString() {
+      return field + ":\"" + value + "\"";
+    }
+  }
+
+  /**
+   * A term that matches the images with a file extension
+   */
+  private static class ExtensionNode extends Node {
+
+    private final String extension;
+
+    /**
+     * Creates an ExtensionNode
+     *
+     * @param extension The extension, in lower case and without the dot
+     */
+    private ExtensionNode(String extension) {
+      this.extension = extension;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      return index.getImagesWithExtension(extension);
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      return index.getImagesWithExtension(extension, candidates);
+    }
+
+    @Override
+    int cost() {
+      return 1;
+    }
+
+    @Override
+    public String toString() {
+      return "ext:\"" + extension + "\"";
+    }
+  }
+
+  /**
+   * A term that matches the images without any tag
+   */
+  private static class UntaggedNode extends Node {
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      return index.getUntaggedImages();
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      return index.getUntaggedImages(candidates);
+    }
+
+    @Override
+    int cost() {
+      return 1;
+    }
+
+    @Override
+    public String toString() {
+      return "is:\"untagged\"";
+    }
+  }
+
+  /**
+   * A term that matches the images that had a tag at some time within a span
+   */
+  private static class HadNode extends Node {
+
+    private final String tag;
+    private final long from;
+    private final long to;
+    private final String when;
+
+    /**
+     * Creates a HadNode
+     *
+     * @param tag The tag
+     * @param from The start of the span, in the milliseconds NameHistory stores times in
+     * @param to The end of the span, which is not part of it
+     * @param when The span as it was typed, or an empty string for any time
+     */
+    private HadNode(String tag, long from, long to, String when) {
+      this.tag = tag;
+      this.from = from;
+      this.to = to;
+      this.when = when;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      return index.findImagesThatHad(tag, from, to);
+    }
+
+    @Override
+    int cost() {
+      return 2;
+    }
+
+    @Override
+    public String toString() {
+      return "had:\"" + tag + (when.isEmpty() ? "" : "@" + when) + "\"";
+    }
+  }
+
+  /**
+   * A term that matches the images with an entry in their naming history made since some time
+   */
+  private static class ChangedNode extends Node {
+
+    private final long since;
+    private final long within;
+    private final String when;
+
+    /**
+     * Creates a ChangedNode
+     *
+     * @param since The time, in the milliseconds NameHistory stores times in, or -1 for a time
+     * before now
+     * @param within How many milliseconds before the time the query is run the time is, if since
+     * is -1
+     * @param when The time as it was typed
+     */
+    private ChangedNode(long since, long within, String when) {
+      this.since = since;
+      this.within = within;
+      this.when = when;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      return index.findImagesChangedSince(since != -1 ? since : TemporalIndex.now() - within);
+    }
+
+    @Override
+    int cost() {
+      return 2;
+    }
+
+    @Override
+    public String toString() {
+      return "changed:\"" + when + "\"";
+    }
+  }
+
+  /**
+   * A term that matches the images its term does not match
+   */
+  private static class NotNode extends Node {
+
+    private final Node term;
+
+    /**
+     * Creates a NotNode
+     *
+     * @param term The term left out
+     */
+    private NotNode(Node term) {
+      this.term = term;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      return index.getAllImages().andNot(term.evaluate(index, dictionary));
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      return candidates.andNot(term.filter(index, dictionary, candidates));
+    }
+
+    @Override
+    int cost() {
+      //Leaving a term out needs the set of every image, so it is done after the other parts
+      return term.cost() + 1;
+    }
+
+    @Override
+    public String toString() {
+      return "NOT " + term;
+    }
+  }
+
+  /**
+   * A term that matches the images every one of its terms matches
+   */
+  private static class AndNode extends Node {
+
+    private final ArrayList<Node> terms;
+
+    /**
+     * Creates an AndNode, putting its terms in the order they are run
+     *
+     * @param terms The terms
+     */
+    private AndNode(ArrayList<Node> terms) {
+      terms.sort(Comparator.comparingInt(Node::cost));
+      this.terms = terms;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      Node first = terms.get(0);
+      CompressedBitmap images = first instanceof NotNode
+          ? first.filter(index, dictionary, index.getAllImages())
+          : first.evaluate(index, dictionary);
+      return filterRest(index, dictionary, images);
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      CompressedBitmap images = terms.get(0).filter(index, dictionary, candidates);
+      return filterRest(index, dictionary, images);
+    }
+
+    /**
+     * Narrows the images down with every term but the first
+     *
+     * @param index The index of the images
+     * @param dictionary The numbers of the tags
+     * @param images The images the first term matched
+     * @return The images every term matched
+     */
+    private CompressedBitmap filterRest(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap images) {
+      for (int i = 1; i < terms.size() && !images.isEmpty(); i++) {
+        images = terms.get(i).filter(index, dictionary, images);
+      }
+      return images;
+    }
+
+    @Override
+    int cost() {
+      return terms.get(0).cost();
+    }
+
+    @Override
+    public String toString() {
+      return join(terms, " AND ");
+    }
+  }
+
+  /**
+   * A term that matches the images any of its terms matches
+   */
+  private static class OrNode extends Node {
+
+    private final ArrayList<Node> terms;
+
+    /**
+     * Creates an OrNode
+     *
+     * @param terms The terms
+     */
+    private OrNode(ArrayList<Node> terms) {
+      this.terms = terms;
+    }
+
+    @Override
+    CompressedBitmap evaluate(CatalogIndex index, TagDictionary dictionary) {
+      CompressedBitmap images = terms.get(0).evaluate(index, dictionary);
+      for (int i = 1; i < terms.size(); i++) {
+        images = images.or(terms.get(i).evaluate(index, dictionary));
+      }
+      return images;
+    }
+
+    @Override
+    CompressedBitmap filter(CatalogIndex index, TagDictionary dictionary,
+        CompressedBitmap candidates) {
+      CompressedBitmap images = terms.get(0).filter(index, dictionary, candidates);
+      for (int i = 1; i < terms.size(); i++) {
+        images = images.or(terms.get(i).filter(index, dictionary, candidates));
+      }
+      return images;
+    }
+
+    @Override
+    int cost() {
+      int cost = 0;
+      for (Node term : terms) {
+        cost = Math.max(cost, term.cost());
+      }
+      return cost;
+    }
+
+    @Override
+    public String toString() {
+      return join(terms, " OR ");
+    }
+  }
+
+  /**
+   * Writes terms with an operator between them, in parentheses
+   *
+   * @param terms The terms
+   * @param operator The operator
+   * @return The terms as text
+   */
+  private static String join(ArrayList<Node> terms, String operator) {
+    StringBuilder text = new StringBuilder("(");
+    for (int i = 0; i < terms.size(); i++) {
+      text.append(i == 0 ? "" : operator).append(terms.get(i));
+    }
+    return text.append(")").toString();
+  }
+
+  /**
+   * A word, quoted text, parenthesis or predicate in the text of a query
+   */
+  private static class Token {
+
+    private final String text;
+    private final int position;
+    private final boolean quoted;
+
+    /**
+     * Creates a Token
+     *
+     * @param text The text of the token, without quotes
+     * @param position Where the token starts in the query
+     * @param quoted Whether the token was in quotes, which makes it a tag even if it looks like
+     * an operator
+     */
+    private Token(String text, int position, boolean quoted) {
+      this.text = text;
+      this.position = position;
+      this.quoted = quoted;
+    }
+
+    /**
+     * Returns whether the token is the given operator or parenthesis
+     *
+     * @param symbol The operator or parenthesis
+     * @return Whether the token is it
+     */
+    private boolean is(String symbol) {
+      return !quoted && text.equals(symbol);
+    }
+  }
+
+  /**
+   * Reads the text of a query into a tree of terms, one token at a time
+   */
+  private static class Parser {
+
+    private final ArrayList<Token> tokens = new ArrayList<>();
+    private final int length;
+    private int next;
+    //Whether a had: or changed: term was read
+    private boolean historical;
+
+    /**
+     * Creates a Parser and splits the query into tokens
+     *
+     * @param query The text of the query
+     * @throws ParseException Thrown when a quote is not closed
+     */
+    private Parser(String query) throws ParseException {
+      this.length = query.length();
+      int i = 0;
+      while (i < query.length()) {
+        char c = query.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (c == '(' || c == ')') {
+          tokens.add(new Token(String.valueOf(c), i, false));
+          i++;
+        } else if (c == '"') {
+          int end = query.indexOf('"', i + 1);
+          if (end == -1) {
+            throw new ParseException("A quote is not closed", i);
+          }
+          tokens.add(new Token(query.substring(i + 1, end), i, true));
+          i = end + 1;
+        } else {
+          int start = i;
+          while (i < query.length() && !Character.isWhitespace(query.charAt(i))
+              && "()\"".indexOf(query.charAt(i)) == -1) {
+            i++;
+          }
+          //A predicate may be followed by quoted text, as in path:"My Pictures"
+          if (query.charAt(i - 1) == ':' && i < query.length() && query.charAt(i) == '"') {
+            int end = query.indexOf('"', i + 1);
+            if (end == -1) {
+              throw new ParseException("A quote is not closed", i);
+            }
+            tokens.add(new Token(query.substring(start, i) + query.substring(i + 1, end), start,
+                false));
+            i = end + 1;
+          } else {
+            tokens.add(new Token(query.substring(start, i), start, false));
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns whether a word is an operator
+     *
+     * @param word The word
+     * @return Whether the word is AND, OR or NOT
+     */
+    private static boolean isOperator(String word) {
+      return word.equals("AND") || word.equals("OR") || word.equals("NOT");
+    }
+
+    /**
+     * Returns whether every token is a word that is not an operator or a predicate
+     *
+     * @return Whether the query is plain words
+     */
+    private boolean isPlainWords() {
+      for (Token token : tokens) {
+        if (token.quoted || token.is("(") || token.is(")") || isOperator(token.text)
+            || token.text.indexOf(':') != -1) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Returns the next token without moving past it
+     *
+     * @return The next token, or null at the end of the query
+     */
+    private Token peek() {
+      return next < tokens.size() ? tokens.get(next) : null;
+    }
+
+    /**
+     * Reads a day, such as 2023-05-01, or a time, such as 2023-05-01T14:30
+     *
+     * @param text The day or time
+     * @param position Where the term with the day or time starts in the query
+     * @return The span of the day, or of the one millisecond of the time, as the milliseconds
+     * NameHistory stores times in
+     * @throws ParseException Thrown when the text is not a day or a time
+     */
+    private static long[] parseTime(String text, int position) throws ParseException {
+      try {
+        if (text.indexOf('t') == -1 && text.indexOf('T') == -1) {
+          LocalDate day = LocalDate.parse(text);
+          return new long[] {NameHistory.toMillis(day.atStartOfDay()),
+              NameHistory.toMillis(day.plusDays(1).atStartOfDay())};
+        }
+        long time = NameHistory.toMillis(LocalDateTime.parse(text.toUpperCase(Locale.ROOT)));
+        return new long[] {time, time + 1};
+      } catch (DateTimeParseException ex) {
+        throw new ParseException("Unknown day or time " + text, position);
+      }
+    }
+
+    /**
+     * Reads terms joined by OR
+     *
+     * @return The term read
+     * @throws ParseException Thrown when the query is not well formed
+     */
+    private Node parseOr() throws ParseException {
+      ArrayList<Node> terms = new ArrayList<>();
+      terms.add(parseAnd());
+      while (peek() != null && peek().is("OR")) {
+        next++;
+        terms.add(parseAnd());
+      }
+      return terms.size() == 1 ? terms.get(0) : new OrNode(terms);
+    }
+
+    /**
+     * Reads terms joined by AND or written next to each other
+     *
+     * @return The term read
+     * @throws ParseException Thrown when the query is not well formed
+     */
+    private Node parseAnd() throws ParseException {
+      ArrayList<Node> terms = new ArrayList<>();
+      terms.add(parseNot());
+      while (peek() != null && !peek().is("OR") && !peek().is(")")) {
+        if (peek().is("AND")) {
+          next++;
+        }
+        terms.add(parseNot());
+      }
+      return terms.size() == 1 ? terms.get(0) : new AndNode(terms);
+    }
+
+    /**
+     * Reads a term, which may be left out with NOT
+     *
+     * @return The term read
+     * @throws ParseException Thrown when the query is not well formed
+     */
+    private Node parseNot() throws ParseException {
+      if (peek() != null && peek().is("NOT")) {
+        next++;
+        return new NotNode(parseNot());
+      }
+      return parseTerm();
+    }
+
+    /**
+     * Reads a tag, a predicate or a group in parentheses
+     *
+     * @return The term read
+     * @throws ParseException Thrown when the query is not well formed
+     */
+    private Node parseTerm() throws ParseException {
+      Token token = peek();
+      if (token == null) {
+        throw new ParseException("The query ends too early", length);
+      }
+      next++;
+      if (token.is("(")) {
+        Node group = parseOr();
+        if (peek() == null || !peek().is(")")) {
+          throw new ParseException("A parenthesis is not closed", token.position);
+        }
+        next++;
+        return group;
+      }
+      if (token.quoted) {
+        return new TagNode(token.text);
+      }
+      if (token.is(")") || isOperator(token.text)) {
+        throw new ParseException("Unexpected " + token.text, token.position);
+      }
+      int colon = token.text.indexOf(':');
+      if (colon != -1) {
+        String field = token.text.substring(0, colon).toLowerCase(Locale.ROOT);
+        String value = token.text.substring(colon + 1).toLowerCase(Locale.ROOT);
+        if (!field.equals("path") && !field.equals("name") && !field.equals("ext")
+            && !field.equals("is") && !field.equals("had") && !field.equals("changed")) {
+          throw new ParseException("Unknown predicate " + field, token.position);
+        }
+        if (field.equals("had")) {
+          historical = true;
+          //Tags keep their case, unlike the text of the other predicates
+          String had = token.text.substring(colon + 1);
+          int at = had.lastIndexOf('@');
+          if (at == -1) {
+            return new HadNode(had, Long.MIN_VALUE, Long.MAX_VALUE, "");
+          }
+          long[] span = parseTime(had.substring(at + 1), token.position);
+          return new HadNode(had.substring(0, at), span[0], span[1], had.substring(at + 1));
+        }
+        if (field.equals("changed")) {
+          historical = true;
+          if (value.matches("[0-9]{1,9}[mhdw]")) {
+            long amount = Long.parseLong(value.substring(0, value.length() - 1));
+            TimeUnit unit = value.endsWith("m") ? TimeUnit.MINUTES
+                : value.endsWith("h") ? TimeUnit.HOURS : TimeUnit.DAYS;
+            long within = unit.toMillis(value.endsWith("w") ? amount * 7 : amount);
+            return new ChangedNode(-1, within, value);
+          }
+          return new ChangedNode(parseTime(value, token.position)[0], 0, value);
+        }
+        if (field.equals("is")) {
+          if (!value.equals("untagged")) {
+            throw new ParseException("Unknown value " + value + " for is:", token.position);
+          }
+          return new UntaggedNode();
+        }
+        if (field.equals("ext")) {
+          return new ExtensionNode(value.startsWith(".") ? value.substring(1) : value);
+        }
+        return new PredicateNode(field, value);
+      }
+      return new TagNode(token.text);
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * TagTree arranges tags by their levels, which are separated by '/' as in place/europe/paris, so
+ * that the tags under a tag are found without looking at every tag. Every level of a tag is a node
+ * of the tree, whether or not it is a tag itself, and each node keeps its children sorted by name.
+ * A node that is a tag holds a number, such as the number a TagDictionary gave the tag.
+ */
+class TagTree {
+
+  static final char SEPARATOR = '/';
+
+  private final Node root = new Node(null, "");
+
+  /**
+   * Adds a tag, or gives a tag already in the tree another number
+   *
+   * @param tag The tag
+   * @param id The number of the tag, which is not negative
+   */
+  synchronized void add(String tag, int id) {
+    Node node = root;
+    int start = 0;
+    while (start <= tag.length()) {
+      int end = tag.indexOf(SEPARATOR, start);
+      if (end == -1) {
+        end = tag.length();
+      }
+      Node parent = node;
+      String path = tag.substring(0, end);
+      node = parent.children.computeIfAbsent(tag.substring(start, end),
+          name -> new Node(parent, path));
+      start = end + 1;
+    }
+    node.id = id;
+  }
+
+  /**
+   * Removes a tag, along with the levels above it that are only there for it
+   *
+   * @param tag The tag
+   */
+  synchronized void remove(String tag) {
+    Node node = find(tag);
+    if (node == null || node.id == -1) {
+      return;
+    }
+    node.id = -1;
+    while (node.parent != null && node.id == -1 && node.children.isEmpty()) {
+      node.parent.children.remove(node.path.substring(node.path.lastIndexOf(SEPARATOR) + 1));
+      node = node.parent;
+    }
+  }
+
+  /**
+   * Returns whether a tag is in the tree as a tag, not only as a level of other tags
+   *
+   * @param tag The tag
+   * @return Whether the tag was added
+   */
+  synchronized boolean contains(String tag) {
+    Node node = find(tag);
+    return node != null && node.id != -1;
+  }
+
+  /**
+   * Returns the numbers of a tag and of every tag under it
+   *
+   * @param tag The tag
+   * @return The numbers, which are none if there is no such tag or level
+   */
+  synchronized int[] getSubtreeIds(String tag) {
+    Node node = find(tag);
+    if (node == null) {
+      return new int[0];
+    }
+    ArrayList<Integer> ids = new ArrayList<>();
+    ArrayList<Node> waiting = new ArrayList<>();
+    waiting.add(node);
+    while (!waiting.isEmpty()) {
+      Node next = waiting.remove(waiting.size() - 1);
+      if (next.id != -1) {
+        ids.add(next.id);
+      }
+      waiting.addAll(next.children.values());
+    }
+    int[] result = new int[ids.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = ids.get(i);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the levels right under a tag, sorted by name
+   *
+   * @param tag The tag, or an empty string for the top levels
+   * @return The whole tags of the levels, such as place/europe under place
+   */
+  synchronized List<String> getChildren(String tag) {
+    Node node = tag.isEmpty() ? root : find(tag);
+    ArrayList<String> children = new ArrayList<>();
+    if (node != null) {
+      for (Node child : node.children.values()) {
+        children.add(child.path);
+      }
+    }
+    return children;
+  }
+
+  /**
+   * Returns whether there are tags under a tag
+   *
+   * @param tag The tag
+   * @return Whether the tag has levels under it
+   */
+  synchronized boolean hasChildren(String tag) {
+    Node node = find(tag);
+    return node != null && !node.children.isEmpty();
+  }
+
+  /**
+   * Finds the node of a tag
+   *
+   * @param tag The tag
+   * @return The node, or null if the tree has no such tag or level
+   */
+  private Node find(String tag) {
+    Node node = root;
+    int start = 0;
+    while (node != null && start <= tag.length()) {
+      int end = tag.indexOf(SEPARATOR, start);
+      if (end == -1) {
+        end = tag.length();
+      }
+      node = node.children.get(tag.substring(start, end));
+      start = end + 1;
+    }
+    return node;
+  }
+
+  /**
+   * One level of a tag
+   */
+  private static class Node {
+
+    private final Node parent;
+    //The whole tag up to and including this level
+    private final String path;
+    private final TreeMap<String, Node> children = new TreeMap<>();
+    //The number of the tag, or -1 if the level is not a tag itself
+    private int id = -1;
+
+    /**
+     * Creates a Node that is not a tag yet
+     *
+     * @param parent The level above, or null for the root
+     * @param path The whole tag up to and including this level
+     */
+    private Node(Node parent, String path) {
+      this.parent = parent;
+      this.path = path;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package app.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * TagTrie suggests tags for the start of a tag being typed. It is a prefix tree with one node per
+ * letter, where the node at the end of a tag holds the weight of the tag, such as the number of
+ * images with it, and every node knows the largest weight below it. The heaviest completions are
+ * found by always following the node with the largest weight below it next, so only the nodes
+ * leading to the tags returned and their siblings are looked at, however many tags there are.
+ */
+class TagTrie {
+
+  private static final char[] NO_LETTERS = new char[0];
+  private static final Node[] NO_NODES = new Node[0];
+
+  private final Node root = new Node();
+
+  /**
+   * Changes the weight of a tag, adding it if it was not in the trie. A tag whose weight drops to
+   * zero or less is taken out
+   *
+   * @param tag The tag
+   * @param change How much to add to the weight of the tag
+   */
+  synchronized void adjust(String tag, int change) {
+    if (tag.isEmpty() || change == 0) {
+      return;
+    }
+    Node[] path = new Node[tag.length() + 1];
+    path[0] = root;
+    for (int i = 0; i < tag.length(); i++) {
+      Node child = path[i].child(tag.charAt(i));
+      if (child == null) {
+        if (change < 0) {
+          return;
+        }
+        child = path[i].addChild(tag.charAt(i));
+      }
+      path[i + 1] = child;
+    }
+    Node end = path[tag.length()];
+    end.weight = Math.max(0, end.weight + change);
+    end.tag = end.weight > 0 ? tag : null;
+    //Takes out the nodes that lead to no tag any more and updates the largest weights below
+    for (int i = tag.length(); i >= 0; i--) {
+      if (i > 0 && path[i].tag == null && path[i].letters.length == 0) {
+        path[i - 1].removeChild(tag.charAt(i - 1));
+      } else {
+        path[i].updateBest();
+      }
+    }
+  }
+
+  /**
+   * Returns the heaviest tags that start with the given text, heaviest first, then shortest first,
+   * then in alphabetical order
+   *
+   * @param prefix The start of the tag typed
+   * @param limit The most tags to return
+   * @return The tags
+   */
+  synchronized ArrayList<String> complete(String prefix, int limit) {
+    ArrayList<String> tags = new ArrayList<>();
+    Node start = root;
+    for (int i = 0; i < prefix.length() && start != null; i++) {
+      start = start.child(prefix.charAt(i));
+    }
+    if (start == null || limit <= 0) {
+      return tags;
+    }
+    PriorityQueue<Candidate> queue = new PriorityQueue<>();
+    queue.add(new Candidate(start, start.best, 0, false, 0));
+    //Candidates as heavy and as deep are taken in the order they were found, which is alphabetical
+    long found = 1;
+    while (!queue.isEmpty() && tags.size() < limit) {
+      Candidate next = queue.poll();
+      if (next.whole) {
+        tags.add(next.node.tag);
+        continue;
+      }
+      //The tag ending here is only taken once it is heavier than everything still waiting
+      if (next.node.tag != null) {
+        queue.add(new Candidate(next.node, next.node.weight, next.depth, true, found++));
+      }
+      for (Node child : next.node.children) {
+        queue.add(new Candidate(child, child.best, next.depth + 1, false, found++));
+      }
+    }
+    return tags;
+  }
+
+  /**
+   * One letter of the tags in the trie
+   */
+  private static class Node {
+
+    //The letters of the children, in order, and the children themselves
+    private char[] letters = NO_LETTERS;
+    private Node[] children = NO_NODES;
+    //The tag ending here and its weight, or null and 0 if no tag ends here
+    private String tag;
+    private int weight;
+    //The largest weight of the tags ending here or below
+    private int best;
+
+    /**
+     * Returns the child for a letter
+     *
+     * @param letter The letter
+     * @return The child, or null if there is none
+     */
+    private Node child(char letter) {
+      int index = Arrays.binarySearch(letters, letter);
+      return index >= 0 ? children[index] : null;
+    }
+
+    /**
+     * Adds an empty child for a letter that has none
+     *
+     * @param letter The letter
+     * @return The child
+     */
+    private Node addChild(char letter) {
+      int index = -Arrays.binarySearch(letters, letter) - 1;
+      char[] newLetters = new char[letters.length + 1];
+      Node[] newChildren = new Node[children.length + 1];
+      System.arraycopy(letters, 0, newLetters, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(letters, index, newLetters, index + 1, letters.length - index);
+      System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+      Node child = new Node();
+      newLetters[index] = letter;
+      newChildren[index] = child;
+      letters = newLetters;
+      children = newChildren;
+      return child;
+    }
+
+    /**
+     * Takes out the child for a letter
+     *
+     * @param letter The letter
+     */
+    private void removeChild(char letter) {
+      int index = Arrays.binarySearch(letters, letter);
+      char[] newLetters = new char[letters.length - 1];
+      Node[] newChildren = new Node[children.length - 1];
+      System.arraycopy(letters, 0, newLetters, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
+      System.arraycopy(letters, index + 1, newLetters, index, newLetters.length - index);
+      System.arraycopy(children, index + 1, newChildren, index, newChildren.length - index);
+      letters = newLetters;
+      children = newChildren;
+    }
+
+    /**
+     * Works out the largest weight of the tags ending here or below again
+     */
+    private void updateBest() {
+      best = weight;
+      for (Node child : children) {
+        best = Math.max(best, child.best);
+      }
+    }
+  }
+
+  /**
+   * A node waiting to be looked at while completing, or a tag waiting to be returned
+   */
+  private static class Candidate implements Comparable<Candidate> {
+
+    private final Node node;
+    private final int weight;
+    private final int depth;
+    private final boolean whole;
+    private final long order;
+
+    /**
+     * Creates a Candidate
+     *
+     * @param node The node
+     * @param weight The largest weight of a tag that can still come from it
+     * @param depth How many letters the node is below where completing started
+     * @param whole Whether it stands for the tag ending at the node rather than the node
+     * @param order How many candidates were found before it
+     */
+    private Candidate(Node node, int weight, int depth, boolean whole, long order) {
+      this.node = node;
+      this.weight = weight;
+      this.depth = depth;
+      this.whole = whole;
+      this.order = order;
+    }
+
+    @Override
+    public int compareTo(Candidate other) {
+      if (weight != other.weight) {
+        return Integer.compare(other.weight, weight);
+      }
+      if (depth != other.depth) {
+        return Integer.compare(depth, other.depth);
+      }
+      if (whole != other.whole) {
+        return whole ? -1 : 1;
+      }
+      return Long.compare(order, other.order);
+    }
+  }
+}
@@ -0,0 +1,449 @@
+package app.model;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
+
+/**
+ * TemporalIndex answers questions about the naming history of every image at once, such as which
+ * images had a tag on some day or which images changed in the last hour, without reading the
+ * history of every image again. The history of each image is turned into the time spans over which
+ * it had each of its tags, kept per tag, and the times of its entries, kept as spans of one
+ * millisecond. The spans of a tag are sorted by when they start into an implicit tree that knows
+ * the latest end below every node, so finding the spans that overlap a time only looks at the
+ * nodes that can hold one. Spans added since the tree was sorted are looked at one by one until
+ * there are enough of them to sort the tree again.
+ *
+ * <p>The index is filled from the histories of all images the first time it is asked something,
+ * and kept up to date by update, record and remove after that. Times are in the milliseconds
+ * NameHistory stores them in.
+ */
+class TemporalIndex {
+
+  //The end of a span that has not ended
+  private static final long OPEN = Long.MAX_VALUE;
+
+  private final LongFunction<NameHistory> histories;
+  //Only one thread fills the index, and no lock on the index is held while histories are read
+  private final Object fillLock = new Object();
+  private volatile boolean filled;
+  //The images whose histories are still to be read while the index is being filled
+  private CompressedBitmap waiting;
+  private final HashMap<String, Spans> spansByTag = new HashMap<>();
+  private final Spans changes = new Spans();
+  private final HashMap<Long, Timeline> timelines = new HashMap<>();
+
+  /**
+   * Creates an empty TemporalIndex
+   *
+   * @param histories Gives the naming history of the ImageManager with a number, or null if it
+   * cannot be read. If null, the index is only filled by update and record
+   */
+  TemporalIndex(LongFunction<NameHistory> histories) {
+    this.histories = histories;
+  }
+
+  /**
+   * Reads the histories of the images in an index if this index was not filled yet. This may read
+   * the catalog, so it must not be called while holding a lock the catalog takes
+   *
+   * @param index The index of the images
+   */
+  void fill(CatalogIndex index) {
+    if (filled) {
+      return;
+    }
+    synchronized (fillLock) {
+      if (filled) {
+        return;
+      }
+      long[] ids;
+      //Images added from here on are either read below or updated once the reading has started
+      synchronized (this) {
+        ids = index.getIds();
+        waiting = new CompressedBitmap();
+        for (long id : ids) {
+          waiting.add(id);
+        }
+      }
+      for (long id : ids) {
+        NameHistory history = histories == null ? null : histories.apply(id);
+        synchronized (this) {
+          //An image that changed while waiting is read as it is now
+          if (waiting.remove(id) && history != null) {
+            addHistory(id, history);
+          }
+        }
+      }
+      synchronized (this) {
+        waiting = null;
+        filled = true;
+      }
+    }
+  }
+
+  /**
+   * Adds the entries of the naming history of an image that were not added yet. A history that
+   * was replaced instead of added to is added again from its start
+   *
+   * @param id The number of the ImageManager of the image
+   * @param history Its naming history
+   */
+  synchronized void update(long id, NameHistory history) {
+    if (isWaiting(id)) {
+      return;
+    }
+    addHistory(id, history);
+  }
+
+  /**
+   * Adds an entry of an image whose naming history is not at hand, such as one stored by another
+   * program
+   *
+   * @param id The number of the ImageManager of the image
+   * @param millis When the entry was made
+   * @param tags The tags the entry gave the image
+   */
+  synchronized void record(long id, long millis, List<String> tags) {
+    if (isWaiting(id)) {
+      return;
+    }
+    Timeline timeline = timelines.computeIfAbsent(id, key -> new Timeline());
+    addEntry(id, timeline, millis, tags);
+    //The history has entries that were not added, so it is added again from its start next time
+    timeline.entries = -1;
+  }
+
+  /**
+   * Ends the spans of the tags of an image that was removed
+   *
+   * @param id The number of the ImageManager of the image
+   */
+  synchronized void remove(long id) {
+    Timeline timeline = timelines.remove(id);
+    if (timeline != null) {
+      timeline.closeAll(now());
+    }
+  }
+
+  /**
+   * Returns the images that had a tag, or a tag under it, at some time within a span
+   *
+   * @param tag The tag
+   * @param from The start of the span
+   * @param to The end of the span, which is not part of it
+   * @return The numbers of the ImageManagers of the images, including removed ones
+   */
+  synchronized CompressedBitmap findImagesThatHad(String tag, long from, long to) {
+    CompressedBitmap found = new CompressedBitmap();
+    String levels = tag + TagTree.SEPARATOR;
+    for (Map.Entry<String, Spans> entry : spansByTag.entrySet()) {
+      if (entry.getKey().equals(tag) || entry.getKey().startsWith(levels)) {
+        entry.getValue().find(from, to, found);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Returns the images with an entry in their naming history made at or after a time
+   *
+   * @param from The time
+   * @return The numbers of the ImageManagers of the images, including removed ones
+   */
+  synchronized CompressedBitmap findImagesChangedSince(long from) {
+    CompressedBitmap found = new CompressedBitmap();
+    changes.find(from, OPEN, found);
+    return found;
+  }
+
+  /**
+   * Returns the time now, in the milliseconds NameHistory stores times in
+   *
+   * @return The time
+   */
+  static long now() {
+    return NameHistory.toMillis(LocalDateTime.now());
+  }
+
+  /**
+   * Returns whether updates to an image are left to the filling of the index, because the index
+   * was never filled or the history of the image is still to be read
+   *
+   * @param id The number of the ImageManager of the image
+   * @return Whether to leave the update out
+   */
+  private boolean isWaiting(long id) {
+    return !filled && (waiting == null || waiting.contains(id));
+  }
+
+  /**
+   * Adds the entries of a naming history that were not added yet
+   *
+   * @param id The number of the ImageManager of the image
+   * @param history Its naming history
+   */
+  private void addHistory(long id, NameHistory history) {
+    Timeline timeline = timelines.get(id);
+    if (timeline != null && (timeline.entries <= 0 || timeline.entries > history.size()
+        || NameHistory.toMillis(history.getTime(timeline.entries - 1)) != timeline.lastTime)) {
+      //The entries added before are still true of the image, but the spans still open end here
+      timeline.closeAll(now());
+      timeline = null;
+    }
+    if (timeline == null) {
+      timeline = new Timeline();
+      timelines.put(id, timeline);
+    }
+    Timeline current = timeline;
+    history.forEachEntry(timeline.entries, (millis, tags) -> addEntry(id, current, millis, tags));
+  }
+
+  /**
+   * Adds one entry of the naming history of an image, ending the spans of the tags it took away and
+   * starting spans for the tags it added
+   *
+   * @param id The number of the ImageManager of the image
+   * @param timeline The spans of the image still open
+   * @param millis When the entry was made
+   * @param tags The tags the entry gave the image
+   */
+  private void addEntry(long id, Timeline timeline, long millis, List<String> tags) {
+    changes.add(id, millis, millis + 1);
+    int kept = 0;
+    for (int i = 0; i < timeline.size; i++) {
+      if (tags.contains(timeline.tags[i])) {
+        timeline.tags[kept] = timeline.tags[i];
+        timeline.positions[kept++] = timeline.positions[i];
+      } else {
+        spansByTag.get(timeline.tags[i]).close(timeline.positions[i], millis);
+      }
+    }
+    timeline.size = kept;
+    for (String tag : tags) {
+      if (!timeline.isOpen(tag)) {
+        Spans spans = spansByTag.computeIfAbsent(tag, key -> new Spans());
+        timeline.open(tag, spans.add(id, millis, OPEN));
+      }
+    }
+    timeline.entries++;
+    timeline.lastTime = millis;
+  }
+
+  /**
+   * The spans of one image that are still open, and how much of its history was added
+   */
+  private class Timeline {
+
+    //The number of entries of the history added, or -1 if entries were added some other way
+    private int entries;
+    private long lastTime;
+    private String[] tags = new String[4];
+    //Where the open span of each tag is in the spans of the tag
+    private int[] positions = new int[4];
+    private int size;
+
+    /**
+     * Returns whether a tag has an open span
+     *
+     * @param tag The tag
+     * @return Whether the image has had the tag since its last span started
+     */
+    private boolean isOpen(String tag) {
+      for (int i = 0; i < size; i++) {
+        if (tags[i].equals(tag)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Remembers the open span of a tag
+     *
+     * @param tag The tag
+     * @param position Where the span is in the spans of the tag
+     */
+    private void open(String tag, int position) {
+      if (size == tags.length) {
+        tags = Arrays.copyOf(tags, size * 2);
+        positions = Arrays.copyOf(positions, size * 2);
+      }
+      tags[size] = tag;
+      positions[size++] = position;
+    }
+
+    /**
+     * Ends every open span
+     *
+     * @param millis When the spans end
+     */
+    private void closeAll(long millis) {
+      for (int i = 0; i < size; i++) {
+        spansByTag.get(tags[i]).close(positions[i], millis);
+      }
+      size = 0;
+    }
+  }
+
+  /**
+   * Time spans of images, each from a start up to but not including an end
+   */
+  private static class Spans {
+
+    private long[] ids = new long[16];
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private int size;
+    //The positions of the first built spans sorted by start, and the latest end below every node
+    private int[] order = new int[0];
+    private long[] latestEnds = new long[0];
+    private int built;
+    //How many built spans ended since, which leaves their latest ends later than they are
+    private int closed;
+
+    /**
+     * Adds a span
+     *
+     * @param id The number of the ImageManager of the image
+     * @param start The start of the span
+     * @param end The end of the span, or OPEN
+     * @return The position of the span
+     */
+    private int add(long id, long start, long end) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+      }
+      ids[size] = id;
+      starts[size] = start;
+      ends[size] = end;
+      return size++;
+    }
+
+    /**
+     * Ends an open span
+     *
+     * @param position The position of the span
+     * @param end The end of the span
+     */
+    private void close(int position, long end) {
+      ends[position] = end;
+      if (position < built) {
+        closed++;
+      }
+    }
+
+    /**
+     * Adds the images of the spans that overlap a time span to a set
+     *
+     * @param from The start of the time span
+     * @param to The end of the time span, which is not part of it
+     * @param found Given the numbers of the ImageManagers of the images
+     */
+    private void find(long from, long to, CompressedBitmap found) {
+      if (size - built > 64 + built / 8 || closed > 64 + built / 4) {
+        build();
+      }
+      search(0, built, from, to, found);
+      for (int position = built; position < size; position++) {
+        if (starts[position] < to && ends[position] > from) {
+          found.add(ids[position]);
+        }
+      }
+    }
+
+    /**
+     * Looks for spans that overlap a time span in the part of the tree between two places in the
+     * order, whose root is in the middle
+     *
+     * @param low The first place
+     * @param high The place after the last one
+     * @param from The start of the time span
+     * @param to The end of the time span
+     * @param found Given the numbers of the ImageManagers of the images
+     */
+    private void search(int low, int high, long from, long to, CompressedBitmap found) {
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        //Nothing below ends after the time span starts
+        if (latestEnds[middle] <= from) {
+          return;
+        }
+        search(low, middle, from, to, found);
+        int position = order[middle];
+        //Everything after starts after the time span ends
+        if (starts[position] >= to) {
+          return;
+        }
+        if (ends[position] > from) {
+          found.add(ids[position]);
+        }
+        low = middle + 1;
+      }
+    }
+
+    /**
+     * Sorts every span into the tree
+     */
+    private void build() {
+      order = new int[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      sortByStart(order);
+      latestEnds = new long[size];
+      built = size;
+      closed = 0;
+      findLatestEnds(0, size);
+    }
+
+    /**
+     * Works out the latest end below every node of the part of the tree between two places
+     *
+     * @param low The first place
+     * @param high The place after the last one
+     * @return The latest end in that part, or the earliest time if it is empty
+     */
+    private long findLatestEnds(int low, int high) {
+      if (low >= high) {
+        return Long.MIN_VALUE;
+      }
+      int middle = (low + high) >>> 1;
+      long latest = Math.max(ends[order[middle]],
+          Math.max(findLatestEnds(low, middle), findLatestEnds(middle + 1, high)));
+      latestEnds[middle] = latest;
+      return latest;
+    }
+
+    /**
+     * Sorts positions by the starts of their spans, merging runs of growing length
+     *
+     * @param positions The positions
+     */
+    private void sortByStart(int[] positions) {
+      int[] merged = new int[positions.length];
+      for (int width = 1; width < positions.length; width *= 2) {
+        for (int low = 0; low < positions.length; low += 2 * width) {
+          int middle = Math.min(low + width, positions.length);
+          int high = Math.min(low + 2 * width, positions.length);
+          int left = low;
+          int right = middle;
+          for (int i = low; i < high; i++) {
+            if (right >= high || (left < middle && starts[positions[left]]
+                <= starts[positions[right]])) {
+              merged[i] = positions[left++];
+            } else {
+              merged[i] = positions[right++];
+            }
+          }
+        }
+        System.arraycopy(merged, 0, positions, 0, positions.length);
+      }
+    }
+  }
+}
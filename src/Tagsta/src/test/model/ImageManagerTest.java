@@ -1,10 +1,13 @@
 package test.model;
+import app.model.FileManager;
 import app.model.ImageManager;
-import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
@@ -19,9 +22,7 @@ class ImageManagerTest {
   void ImageManagerTagFromNameTest() throws URISyntaxException,FileNotFoundException{
     ImageManager test = this.getImageManager();
     assertEquals("arbitrary", test.getTags().get(0));
-    File file = new File("imagemanagers" + File.separator +
-        test.getFileNumber() + ".ser");
-    file.delete();
+    FileManager.deleteImageManager(test);
   }
 
   @Test
@@ -29,9 +30,7 @@ class ImageManagerTest {
     ImageManager test = this.getImageManager();
     assertEquals(1, test.getPrevNames().size());
     assertEquals("pic @arbitrary.png", test.toString());
-    File file = new File("imagemanagers" + File.separator +
-        test.getFileNumber() + ".ser");
-    file.delete();
+    FileManager.deleteImageManager(test);
   }
 
   @Test
@@ -41,9 +40,18 @@ class ImageManagerTest {
     assertEquals(2, test.getPrevNames().size());
     assertEquals("pic @arbitrary @test.png", test.toString());
     test.removeTag("test");
-    File file = new File("imagemanagers" + File.separator +
-        test.getFileNumber() + ".ser");
-    file.delete();
+    FileManager.deleteImageManager(test);
+  }
+
+  @Test
+  void ImageManagerAddSeveralTagsTest() throws URISyntaxException{
+    ImageManager test = this.getImageManager();
+    test.addTags(Arrays.asList("first", "second"));
+    assertEquals(3, test.getPrevNames().size());
+    assertEquals("pic @arbitrary @first @second.png", test.toString());
+    test.removeTag("second");
+    test.removeTag("first");
+    FileManager.deleteImageManager(test);
   }
 
   @Test
@@ -53,9 +61,7 @@ class ImageManagerTest {
     assertEquals(2, test.getPrevNames().size());
     assertEquals("pic.png", test.toString());
     test.addTag("arbitrary");
-    File file = new File("imagemanagers" + File.separator +
-        test.getFileNumber() + ".ser");
-    file.delete();
+    FileManager.deleteImageManager(test);
   }
 
   @Test
@@ -65,21 +71,46 @@ class ImageManagerTest {
     test.revert(test.getPrevNames().get(0));
     assertEquals(3, test.getPrevNames().size());
     assertEquals("pic @arbitrary.png", test.toString());
-    File file = new File("imagemanagers" + File.separator +
-        test.getFileNumber() + ".ser");
-    file.delete();
+    FileManager.deleteImageManager(test);
   }
 
   @Test
-  void ImageManagerToStringTest() throws URISyntaxException{
+  void ImageManagerRevertByIndexTest() throws URISyntaxException{
     ImageManager test = this.getImageManager();
-    assertEquals("pic @arbitrary.png", test.toString());
-    File file = new File("imagemanagers" + File.separator +
-        test.getFileNumber() + ".ser");
-    file.delete();
+    test.addTag("first");
+    test.removeTag("arbitrary");
+    assertEquals(Arrays.asList("first"), test.getPreviousTags(2));
+    assertEquals(test.getPreviousTags().get(1), test.getPreviousTags(1));
+    test.revert(1);
+    assertEquals(4, test.getPrevNames().size());
+    assertEquals("pic @arbitrary @first.png", test.toString());
+    test.revert(0);
+    FileManager.deleteImageManager(test);
   }
 
+  @Test
+  void ImageManagerToStringTest()throws URISyntaxException{
+    ImageManager test = this.getImageManager();
+    assertEquals("pic @arbitrary.png", test.toString());
+    FileManager.deleteImageManager(test);
+  }
 
-
-
+  @Test
+  void ImageManagerTagLevelsInNameTest() throws URISyntaxException, IOException {
+    Path directory = Files.createTempDirectory("tagsta-levels");
+    Path path = directory.resolve("pic @place~europe @a~~b.png");
+    Files.copy(Paths.get(getClass().getResource("../resources/pic @arbitrary.png").toURI()), path);
+    ImageManager test = new ImageManager(path);
+    try {
+      assertEquals(Arrays.asList("place/europe", "a~b"), test.getTags());
+      test.addTag("c/d");
+      assertEquals("pic @place~europe @a~~b @c~d.png", test.toString());
+      test.removeTag("a~b");
+      assertEquals("pic @place~europe @c~d.png", test.toString());
+    } finally {
+      FileManager.deleteImageManager(test);
+      Files.delete(test.getFile().toPath());
+      Files.delete(directory);
+    }
+  }
 }
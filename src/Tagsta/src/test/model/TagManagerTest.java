@@ -1,36 +1,407 @@
 package test.model;
+import app.model.DirectoryScanner;
+import app.model.FacetCounts;
+import app.model.FileManager;
 import app.model.ImageManager;
+import app.model.ImageSearch;
+import app.model.ReconciliationReport;
+import app.model.SortOrder;
 import app.model.TagManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.text.ParseException;
+import java.time.LocalDate;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 public class TagManagerTest {
+  //The ImageManagers a test made, removed from the catalog after it
+  private final List<ImageManager> imageManagers = new ArrayList<>();
+  //The folder a test copied the test image into, if it made any copies
+  private Path folder;
+
   private ImageManager getImageManager() throws URISyntaxException{
-    Path path = Paths.get(getClass().getResource("../resources/pic @arbitrary.png").toURI());
-    return new ImageManager(path);
+    return new ImageManager(getTestFile().toPath());
   }
 
   private TagManager getTagManager() {
     return new TagManager();
   }
 
+  private File getTestFile() throws URISyntaxException{
+    //Found through its folder, so it is found even when a test left it renamed
+    Path resources = Paths.get(getClass().getResource("../resources").toURI());
+    return resources.resolve("pic @arbitrary.png").toFile();
+  }
+
+  private ImageManager getTestImageManager(TagManager test) throws URISyntaxException{
+    return track(test.getImageManager(getTestFile()));
+  }
+
+  private Path copyTestFile(String name) throws IOException, URISyntaxException{
+    if (folder == null) {
+      folder = Files.createTempDirectory("tagsta");
+    }
+    return Files.copy(getTestFile().toPath(), folder.resolve(name));
+  }
+
+  private ImageManager copyTestImage(TagManager test, String name)
+      throws IOException, URISyntaxException{
+    return track(test.getImageManager(copyTestFile(name).toFile()));
+  }
+
+  private ImageManager track(ImageManager imageManager){
+    imageManagers.add(imageManager);
+    return imageManager;
+  }
+
+  @AfterEach
+  void cleanUp() throws IOException, URISyntaxException{
+    File testFile = getTestFile();
+    for (ImageManager imageManager : imageManagers) {
+      //Gives the test image back the name it had before the test
+      if (!testFile.exists() && imageManager.getFile().exists()) {
+        imageManager.revert(0);
+      }
+      FileManager.deleteImageManager(imageManager);
+    }
+    imageManagers.clear();
+    if (folder != null) {
+      try (Stream<Path> copies = Files.list(folder)) {
+        for (Path copy : (Iterable<Path>) copies::iterator) {
+          Files.delete(copy);
+        }
+      }
+      Files.delete(folder);
+      folder = null;
+    }
+  }
+
   @Test
   void ImageManagerCreationTest() throws URISyntaxException{
     TagManager test = getTagManager();
-    File testFile = new File(getClass().getResource("../resources/pic @arbitrary.png").toURI());
-    test.getImageManager(testFile);
+    getTestImageManager(test);
     int size = test.getImageManagers().size();
     ImageManager temp = test.getImageManagers().get(size - 1);
     assertEquals(temp.toString(), "pic @arbitrary.png");
-    test.getImageManager(testFile);
+    test.getImageManager(getTestFile());
     assertEquals(test.getImageManagers().size(), size);
-    File file = new File("imagemanagers" + File.separator +
-        temp.getFileNumber() + ".ser");
-    file.delete();
+  }
+
+  @Test
+  void ImageManagerReloadTest() throws URISyntaxException{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    temp.addTag("reload");
+    ImageManager reloaded = getTagManager().getImageManager(temp.getFile());
+    assertEquals(reloaded.getFileNumber(), temp.getFileNumber());
+    assertEquals(reloaded.getPrevNames(), temp.getPrevNames());
+  }
+
+  @Test
+  void ImageManagerCheckpointTest() throws URISyntaxException{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    temp.addTag("checkpoint");
+    test.close();
+    ImageManager reloaded = getTagManager().getImageManager(temp.getFile());
+    assertEquals(reloaded.getFileNumber(), temp.getFileNumber());
+    assertEquals(reloaded.getPrevNames(), temp.getPrevNames());
+  }
+
+  @Test
+  void ImageManagerSameInstanceTest() throws URISyntaxException{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    assertSame(temp, test.getImageManager(getTestFile()));
+  }
+
+  @Test
+  void ImageManagersWithTagsTest() throws URISyntaxException{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    int arbitrary = test.countImagesWithTags(Arrays.asList("arbitrary"));
+    temp.addTag("indexed");
+    assertEquals(Arrays.asList(temp),
+        test.getImageManagersWithTags(Arrays.asList("arbitrary", "indexed")));
+    assertEquals(arbitrary, test.countImagesWithTags(Arrays.asList("arbitrary")));
+    temp.removeTag("indexed");
+    assertEquals(0, test.countImagesWithTags(Arrays.asList("indexed")));
+    assertEquals(0, test.countImagesWithTags(Arrays.asList("never used")));
+  }
+
+  @Test
+  void searchQueryTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    temp.addTag("queried");
+    assertTrue(test.search("arbitrary AND (queried OR missing) AND ext:png").contains(temp));
+    assertTrue(test.search("queried NOT name:pic").isEmpty());
+    assertFalse(test.search("NOT queried").contains(temp));
+    assertThrows(ParseException.class, () -> test.search("queried AND (arbitrary"));
+  }
+
+  @Test
+  void backgroundSearchTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    temp.addTag("background");
+    LinkedBlockingQueue<Object> given = new LinkedBlockingQueue<>();
+    ImageSearch imageSearch = test.createSearch(Runnable::run, given::add, given::add,
+        facets -> { });
+    imageSearch.search("arbitrary background");
+    assertTrue(((List<?>) given.poll(5, TimeUnit.SECONDS)).contains(temp));
+    //Narrows the last query down, so only its images are searched
+    imageSearch.search("arbitrary background name:pic");
+    assertTrue(((List<?>) given.poll(5, TimeUnit.SECONDS)).contains(temp));
+    imageSearch.search("background AND (");
+    assertTrue(given.poll(5, TimeUnit.SECONDS) instanceof ParseException);
+    //Only the last of the queries typed in a row is run
+    imageSearch.search("NOT background");
+    imageSearch.search("background");
+    assertTrue(((List<?>) given.poll(5, TimeUnit.SECONDS)).contains(temp));
+    assertNull(given.poll(500, TimeUnit.MILLISECONDS));
+    imageSearch.close();
+  }
+
+  @Test
+  void facetsTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    temp.addTag("faceted");
+    LinkedBlockingQueue<FacetCounts> given = new LinkedBlockingQueue<>();
+    ImageSearch imageSearch = test.createSearch(Runnable::run, results -> { }, ex -> { },
+        given::add);
+    imageSearch.search("faceted");
+    FacetCounts facets = given.poll(5, TimeUnit.SECONDS);
+    assertEquals(1, facets.getImages());
+    assertEquals("[arbitrary (1), faceted (1)]", facets.getTags().toString());
+    assertEquals("png", facets.getExtensions().get(0).getValue());
+    assertEquals(getTestFile().toPath().toAbsolutePath().normalize().getParent().toString(),
+        facets.getDirectories().get(0).getValue());
+    assertEquals(1, facets.getDirectories().get(0).getCount());
+    imageSearch.close();
+  }
+
+  @Test
+  void similarNamesTest() throws URISyntaxException, ParseException{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    assertTrue(test.findSimilarNames("arbitary", 10).contains(temp));
+    assertTrue(test.search("pic abritrary").contains(temp));
+    temp.addTag("fuzzy");
+    assertTrue(test.findSimilarNames("arbitrary fuzy", 10).contains(temp));
+    temp.removeTag("fuzzy");
+    assertFalse(test.findSimilarNames("arbitrary fuzzy", 10).contains(temp));
+  }
+
+  @Test
+  void renamedOutsideTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = copyTestImage(test, "pic @before.png");
+    Path original = temp.getFile().toPath();
+    //Another spelling of the same path finds the same image
+    assertSame(temp, test.getImageManager(new File(folder + "/./pic @before.png")));
+    Path renamed = Files.move(original, folder.resolve("pic @after.png"));
+    ImageManager found = test.getImageManager(renamed.toFile());
+    assertEquals(temp.getFileNumber(), found.getFileNumber());
+    assertEquals(Arrays.asList("after"), found.getTags());
+    assertTrue(found.getPrevNames().get(0).endsWith("pic @before"));
+  }
+
+  @Test
+  void reconcileOrphanTest() throws Exception{
+    TagManager test = getTagManager();
+    File orphanFile = Files.createTempFile("orphan", ".png").toFile();
+    ImageManager orphan = test.getImageManager(orphanFile);
+    Files.delete(orphanFile.toPath());
+    ReconciliationReport dryRun = test.reconcile(true, fraction -> {});
+    assertTrue(dryRun.hasChanges());
+    assertTrue(dryRun.getSummary().contains(orphanFile.getPath()));
+    assertTrue(test.getImageManagers().contains(orphan));
+    test.reconcile(false, fraction -> {});
+    assertFalse(test.getImageManagers().contains(orphan));
+    FileManager.deleteQuarantinedImageManager(orphan);
+  }
+
+  @Test
+  void completeTagTest() throws URISyntaxException{
+    TagManager test = getTagManager();
+    ImageManager temp = getTestImageManager(test);
+    test.addIndependentTag("completionA");
+    test.addIndependentTag("completionB");
+    assertEquals(Arrays.asList("completionA", "completionB"), test.completeTag("completion", 5));
+    //A tag on an image as well comes first
+    temp.addTag("completionB");
+    assertEquals(Arrays.asList("completionB", "completionA"), test.completeTag("completion", 5));
+    test.deleteIndependentTag("completionA");
+    assertEquals(Arrays.asList("completionB"), test.completeTag("completion", 5));
+    temp.removeTag("completionB");
+    test.deleteIndependentTag("completionB");
+    assertTrue(test.completeTag("completion", 5).isEmpty());
+  }
+
+  @Test
+  void suggestTagsTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager first = copyTestImage(test, "first @suggestSun @suggestBeach.png");
+    ImageManager second = copyTestImage(test, "second @suggestSun.png");
+    assertEquals(Arrays.asList("suggestBeach"), test.suggestTags(second, 5));
+    //Suggestions follow the tags as they change
+    first.removeTag("suggestBeach");
+    assertTrue(test.suggestTags(second, 5).isEmpty());
+    first.addTag("suggestSea");
+    assertEquals(Arrays.asList("suggestSea"), test.suggestTags(second, 5));
+  }
+
+  @Test
+  void smartAlbumTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = copyTestImage(test, "plain.png");
+    test.saveAlbum("untagged test", "is:untagged name:plain");
+    assertTrue(test.openAlbum("untagged test").contains(temp));
+    //Albums follow the images as they change
+    temp.addTag("smartAlbum");
+    assertFalse(test.openAlbum("untagged test").contains(temp));
+    test.saveAlbum("tagged test", "smartAlbum");
+    assertTrue(test.openAlbum("tagged test").contains(temp));
+    assertThrows(ParseException.class, () -> test.saveAlbum("broken test", "is:blurry"));
+    //Albums and their images are kept when the program closes
+    test.close();
+    TagManager reopened = getTagManager();
+    assertEquals("smartAlbum", reopened.getAlbumQuery("tagged test"));
+    ImageManager reloaded = reopened.getImageManager(temp.getFile());
+    assertTrue(reopened.openAlbum("tagged test").contains(reloaded));
+    reloaded.removeTag("smartAlbum");
+    assertTrue(reopened.openAlbum("untagged test").contains(reloaded));
+    reopened.deleteAlbum("untagged test");
+    reopened.deleteAlbum("tagged test");
+    assertFalse(reopened.getAlbumNames().contains("tagged test"));
+  }
+
+  @Test
+  void historyQueryTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = copyTestImage(test, "history.png");
+    temp.addTag("bygone");
+    String today = LocalDate.now().toString();
+    assertTrue(test.search("had:bygone@" + today).contains(temp));
+    assertTrue(test.search("changed:1h name:history").contains(temp));
+    assertFalse(test.search("had:bygone@2001-01-01").contains(temp));
+    //The tag is still found in the past after it is taken away
+    temp.removeTag("bygone");
+    assertFalse(test.search("bygone").contains(temp));
+    assertTrue(test.search("had:bygone").contains(temp));
+    assertThrows(ParseException.class, () -> test.search("changed:yesterday"));
+  }
+
+  @Test
+  void sortedSearchTest() throws Exception{
+    TagManager test = getTagManager();
+    Path older = copyTestFile("sorttest_a.png");
+    Files.setLastModifiedTime(older, FileTime.fromMillis(978307200000L));
+    ImageManager first = track(test.getImageManager(older.toFile()));
+    ImageManager second = copyTestImage(test, "sorttest_b.png");
+    second.addTag("sorted");
+    second.addTag("twice");
+    assertEquals(Arrays.asList(first, second), test.search("name:sorttest", SortOrder.NAME, false));
+    assertEquals(Arrays.asList(second, first),
+        test.search("name:sorttest", SortOrder.TAG_COUNT, true));
+    assertEquals(Arrays.asList(first, second),
+        test.search("name:sorttest", SortOrder.LAST_MODIFIED, false));
+    //Without EXIF data an image is sorted by when it was last modified
+    assertEquals(Arrays.asList(second, first),
+        test.search("name:sorttest", SortOrder.DATE_TAKEN, true));
+  }
+
+  @Test
+  void corruptExifSortTest() throws Exception{
+    TagManager test = getTagManager();
+    //The date in the EXIF data is said to be almost 2 GB past the start of the data
+    byte[] tiff = {'M', 'M', 0, 42, 0, 0, 0, 8,
+        0, 1, (byte) 0x87, 0x69, 0, 4, 0, 0, 0, 1, 0, 0, 0, 26, 0, 0, 0, 0,
+        0, 1, (byte) 0x90, 0x03, 0, 2, 0, 0, 0, 20, 0x7f, (byte) 0xff, (byte) 0xff, (byte) 0xf0,
+        0, 0, 0, 0};
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    jpeg.write(new byte[] {(byte) 0xff, (byte) 0xd8, (byte) 0xff, (byte) 0xe1, 0,
+        (byte) (2 + 6 + tiff.length)});
+    jpeg.write("Exif\0\0".getBytes(StandardCharsets.ISO_8859_1));
+    jpeg.write(tiff);
+    jpeg.write(new byte[] {(byte) 0xff, (byte) 0xd9});
+    Path corrupt = Files.write(copyTestFile("corruptexif.jpg"), jpeg.toByteArray());
+    ImageManager temp = track(test.getImageManager(corrupt.toFile()));
+    //The image is sorted as one without a date instead of failing the sort
+    assertEquals(Arrays.asList(temp), test.search("name:corruptexif", SortOrder.DATE_TAKEN, true));
+  }
+
+  @Test
+  void hierarchicalTagTest() throws Exception{
+    TagManager test = getTagManager();
+    ImageManager temp = copyTestImage(test, "levels.png");
+    temp.addTag("place/europe/paris");
+    //File names cannot hold the levels of a tag with '/'
+    assertEquals("levels @place~europe~paris.png", temp.getFile().getName());
+    assertTrue(temp.getTags().contains("place/europe/paris"));
+    //A tag finds the images with the tags under it
+    assertTrue(test.search("place").contains(temp));
+    assertTrue(test.search("place/europe AND NOT place/asia").contains(temp));
+    assertFalse(test.search("place/asia").contains(temp));
+    test.addIndependentTag("place/europe/paris");
+    assertTrue(test.getTagChildren("").contains("place"));
+    assertEquals(Arrays.asList("place/europe"), test.getTagChildren("place"));
+    assertFalse(test.hasTagChildren("place/europe/paris"));
+    test.deleteIndependentTag("place/europe/paris");
+    assertFalse(test.getTagChildren("").contains("place"));
+    temp.removeTag("place/europe/paris");
+    assertEquals("levels.png", temp.getFile().getName());
+    assertFalse(test.search("place").contains(temp));
+  }
+
+  @Test
+  void directoryScanTest() throws Exception{
+    TagManager test = getTagManager();
+    Path folder = Files.createTempDirectory("tagsta");
+    Path inner = Files.createDirectory(folder.resolve("inner"));
+    Path deeper = Files.createDirectory(inner.resolve("deeper"));
+    Path first = Files.createFile(folder.resolve("first @scanned.png"));
+    Path second = Files.createFile(inner.resolve("second.JPG"));
+    Path notes = Files.createFile(folder.resolve("notes.txt"));
+    ArrayList<DirectoryScanner.Folder> given = new ArrayList<>();
+    LinkedBlockingQueue<Boolean> done = new LinkedBlockingQueue<>();
+    test.createDirectoryScan(folder.toFile(), Runnable::run, given::addAll, done::add).start();
+    assertTrue(done.poll(5, TimeUnit.SECONDS));
+    //Each folder is given once, after the folder it is in
+    assertEquals(3, given.size());
+    assertEquals(folder.toFile(), given.get(0).getDirectory());
+    assertEquals(Arrays.asList(inner.toFile()), given.get(0).getDirectories());
+    assertEquals(Arrays.asList(first.toFile()), given.get(0).getImages());
+    assertSame(given.get(0), given.get(1).getParent());
+    assertEquals(Arrays.asList(second.toFile()), given.get(1).getImages());
+    assertEquals(deeper.toFile(), given.get(2).getDirectory());
+    assertTrue(given.get(2).getImages().isEmpty());
+    assertTrue(test.getTagChildren("").contains("scanned"));
+    test.deleteIndependentTag("scanned");
+    for (Path path : Arrays.asList(first, second, notes, deeper, inner, folder)) {
+      Files.delete(path);
+    }
   }
 
   @Test
@@ -46,6 +417,48 @@ public class TagManagerTest {
     file.delete();
 
   }
+  @Test
+  void ingestingIndependentTagsTest() throws URISyntaxException{
+    TagManager test = getTagManager();
+    test.deleteIndependentTag("arbitrary");
+    File testFile = getTestFile();
+    test.startTagIngest();
+    test.addIndependentTag(testFile);
+    test.addIndependentTag(testFile);
+    assertEquals(1, test.getTagsList().filtered(tag -> tag.equals("arbitrary")).size());
+    test.finishTagIngest();
+    assertTrue(getTagManager().getTagsList().contains("arbitrary"));
+    File file = new File("tags-list.ser");
+    file.delete();
+  }
+
+  @Test
+  void closingDuringTagIngestTest(){
+    TagManager test = getTagManager();
+    test.startTagIngest();
+    test.addIndependentTag("interrupted");
+    //The program closes before the scan that found the tag finishes
+    test.close();
+    assertTrue(getTagManager().getTagsList().contains("interrupted"));
+    getTagManager().deleteIndependentTag("interrupted");
+    File file = new File("tags-list.ser");
+    file.delete();
+  }
+
+  @Test
+  void sharedIndependentTagsTest(){
+    TagManager first = getTagManager();
+    TagManager second = getTagManager();
+    first.addIndependentTag("first");
+    second.addIndependentTag("second");
+    assertTrue(second.getTagsList().contains("first"));
+    ArrayList<String> stored = new ArrayList<>(getTagManager().getTagsList());
+    assertTrue(stored.contains("first"));
+    assertTrue(stored.contains("second"));
+    File file = new File("tags-list.ser");
+    file.delete();
+  }
+
   @Test
   void deletingIndependentTagsTest(){
     TagManager test = getTagManager();
@@ -0,0 +1,104 @@
+package app.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogJournalTest {
+
+  private static final int IMAGES = 10;
+
+  private Path folder;
+
+  @BeforeEach
+  void createFolder() throws IOException{
+    folder = Files.createTempDirectory("tagsta-journal");
+  }
+
+  @AfterEach
+  void deleteFolder() throws IOException{
+    try (Stream<Path> files = Files.list(folder)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(folder);
+  }
+
+  @Test
+  void compactWhileAppendingTest() throws Exception{
+    Path journalPath = folder.resolve("catalog.journal");
+    CatalogJournal journal = new CatalogJournal(journalPath);
+    journal.open(new TagDictionary());
+    ArrayList<ImageManager> images = new ArrayList<>();
+    for (long id = 1; id <= IMAGES; id++) {
+      ImageManager image = new ImageManager(id, "pic" + id, folder.resolve("pic" + id + ".png"),
+          new NameHistory());
+      image.getHistory().add("pic" + id);
+      journal.append(image);
+      image.getHistory().add("pic" + id + " @before");
+      journal.append(image);
+      images.add(image);
+    }
+    //Holding the lock keeps the compaction from putting its file in place until the updates below
+    //are appended, after it folded the journal
+    ProcessLock processLock = ProcessLock.forFile(journalPath);
+    processLock.lock();
+    AtomicReference<Exception> failure = new AtomicReference<>();
+    Thread compaction = new Thread(() -> {
+      try {
+        journal.compact();
+      } catch (IOException ex) {
+        failure.set(ex);
+      }
+    });
+    try {
+      compaction.start();
+      Path compactPath = folder.resolve("catalog.journal.compact");
+      for (int i = 0; i < 500 && !Files.exists(compactPath); i++) {
+        Thread.sleep(10);
+      }
+      assertTrue(Files.exists(compactPath));
+      for (ImageManager image : images) {
+        image.getHistory().add(image.getName() + " @during");
+        journal.append(image);
+      }
+    } finally {
+      processLock.unlock();
+    }
+    compaction.join();
+    assertNull(failure.get());
+    //The journal that compacted keeps finding every record, as does a journal opened afterwards
+    assertLoaded(journal, images);
+    for (ImageManager image : images) {
+      image.getHistory().add(image.getName() + " @after");
+      journal.append(image);
+    }
+    assertLoaded(journal, images);
+    journal.close();
+    CatalogJournal reopened = new CatalogJournal(journalPath);
+    CatalogIndex index = reopened.open(new TagDictionary());
+    assertEquals(IMAGES, index.size());
+    assertLoaded(reopened, images);
+    reopened.close();
+  }
+
+  private void assertLoaded(CatalogJournal journal, ArrayList<ImageManager> images)
+      throws IOException{
+    for (ImageManager image : images) {
+      ImageManager loaded = journal.load(image.getFileNumber());
+      assertEquals(image.getName(), loaded.getName());
+      assertEquals(image.returnPath(), loaded.returnPath());
+      assertEquals(image.getHistory().getEntries(), loaded.getHistory().getEntries());
+    }
+  }
+}
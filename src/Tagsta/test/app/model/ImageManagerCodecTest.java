@@ -0,0 +1,56 @@
+package app.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ImageManagerCodecTest {
+
+  private ImageManager getImageManager(){
+    NameHistory history = new NameHistory();
+    history.add("pic");
+    history.add("pic @arbitrary");
+    history.add("pic @arbitrary @place~europe");
+    return new ImageManager(7, "pic @arbitrary @place~europe",
+        Paths.get("/images/pic @arbitrary @place~europe.png"), history);
+  }
+
+  @Test
+  void roundTripTest() throws IOException{
+    ImageManager image = getImageManager();
+    assertDecoded(image, ImageManagerCodec.encode(image));
+  }
+
+  @Test
+  void unknownFieldTest() throws IOException{
+    ImageManager image = getImageManager();
+    byte[] encoded = ImageManagerCodec.encode(image);
+    //A field a later version added, with an id and a length that take two bytes each
+    byte[] payload = new byte[200];
+    ByteArrayOutputStream field = new ByteArrayOutputStream();
+    field.write(new byte[] {(byte) 0xac, 0x02, (byte) 0xc8, 0x01}, 0, 4);
+    field.write(payload, 0, payload.length);
+    //Before the known fields, right after the version byte
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    first.write(encoded, 0, 1);
+    field.writeTo(first);
+    first.write(encoded, 1, encoded.length - 1);
+    assertDecoded(image, first.toByteArray());
+    //After the known fields
+    ByteArrayOutputStream last = new ByteArrayOutputStream();
+    last.write(encoded, 0, encoded.length);
+    field.writeTo(last);
+    assertDecoded(image, last.toByteArray());
+  }
+
+  private void assertDecoded(ImageManager image, byte[] encoded) throws IOException{
+    ImageManager decoded = ImageManagerCodec.decode(image.getFileNumber(), encoded);
+    assertEquals(image.getFileNumber(), decoded.getFileNumber());
+    assertEquals(image.getName(), decoded.getName());
+    assertEquals(image.returnPath(), decoded.returnPath());
+    assertEquals(image.getHistory().getEntries(), decoded.getHistory().getEntries());
+    assertEquals(image.getTags(), decoded.getTags());
+  }
+}
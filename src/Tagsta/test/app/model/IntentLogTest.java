@@ -0,0 +1,116 @@
+package app.model;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntentLogTest {
+
+  private Path folder;
+  private Path logPath;
+
+  @BeforeEach
+  void createFolder() throws IOException{
+    folder = Files.createTempDirectory("tagsta-intents");
+    logPath = folder.resolve("intent.log");
+  }
+
+  @AfterEach
+  void deleteFolder() throws IOException{
+    try (Stream<Path> files = Files.list(folder)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(folder);
+  }
+
+  @Test
+  void recoverUncommittedTest() throws IOException{
+    IntentLog log = new IntentLog(logPath);
+    assertTrue(log.open().isEmpty());
+    long committed = log.record(1, "/a/pic.png", "/a/pic @x.png", "pic", "pic @x");
+    long interrupted = log.record(2, "/a/two.png", "/a/two @y.png", "two", "two @y");
+    log.commit(Collections.singletonList(committed));
+    //The program is killed before the second rename is committed
+    log.close();
+    IntentLog reopened = new IntentLog(logPath);
+    List<IntentLog.Intent> recovered = reopened.open();
+    assertEquals(1, recovered.size());
+    IntentLog.Intent intent = recovered.get(0);
+    assertEquals(interrupted, intent.sequence);
+    assertEquals(2, intent.fileNumber);
+    assertEquals("/a/two.png", intent.oldPath);
+    assertEquals("/a/two @y.png", intent.newPath);
+    assertEquals("two", intent.oldName);
+    assertEquals("two @y", intent.newName);
+    //Sequence numbers are not handed out again after a restart
+    assertTrue(reopened.record(3, "/a/3.png", "/a/3 @z.png", "3", "3 @z") > interrupted);
+    reopened.commit(Arrays.asList(interrupted));
+    reopened.close();
+    IntentLog recoveredAgain = new IntentLog(logPath);
+    List<IntentLog.Intent> left = recoveredAgain.open();
+    assertEquals(1, left.size());
+    assertEquals(3, left.get(0).fileNumber);
+    recoveredAgain.close();
+  }
+
+  @Test
+  void runningOwnerTest() throws IOException{
+    IntentLog first = new IntentLog(logPath);
+    first.open();
+    long firstSequence = first.record(1, "/a/pic.png", "/a/pic @x.png", "pic", "pic @x");
+    //A second program sharing the log leaves the renames of the running one alone
+    IntentLog second = new IntentLog(logPath);
+    assertTrue(second.open().isEmpty());
+    long secondSequence = second.record(2, "/a/two.png", "/a/two @y.png", "two", "two @y");
+    assertNotEquals(firstSequence, secondSequence);
+    first.close();
+    IntentLog third = new IntentLog(logPath);
+    List<IntentLog.Intent> recovered = third.open();
+    assertEquals(1, recovered.size());
+    assertEquals(firstSequence, recovered.get(0).sequence);
+    second.close();
+    third.close();
+  }
+
+  @Test
+  void emptiedByAnotherProgramTest() throws IOException{
+    IntentLog first = new IntentLog(logPath);
+    first.open();
+    IntentLog second = new IntentLog(logPath);
+    second.open();
+    second.commit(Collections.singletonList(
+        second.record(1, "/a/pic.png", "/a/pic @x.png", "pic", "pic @x")));
+    //The first program logs and commits enough renames for the log to be emptied
+    char[] filler = new char[60000];
+    Arrays.fill(filler, 'x');
+    String longName = new String(filler);
+    for (int i = 0; i < 5; i++) {
+      first.commit(Collections.singletonList(
+          first.record(2, longName, longName, longName, longName)));
+    }
+    assertTrue(Files.size(logPath) < 1000);
+    //Its next rename is written over where the second program last read up to
+    long outstanding = first.record(3, longName, "/a/three @z.png", "three", "three @z");
+    assertTrue(Files.size(logPath) > 1000);
+    second.record(4, "/a/four.png", "/a/four @w.png", "four", "four @w");
+    first.close();
+    IntentLog third = new IntentLog(logPath);
+    List<IntentLog.Intent> recovered = third.open();
+    assertEquals(1, recovered.size());
+    assertEquals(outstanding, recovered.get(0).sequence);
+    second.close();
+    third.close();
+  }
+}